@@ -10,6 +10,8 @@ import androidx.annotation.RestrictTo;
 import androidx.core.view.ViewCompat;
 import android.widget.ImageView;
 
+import com.iterable.iterableapi.IterableApi;
+import com.iterable.iterableapi.IterableHttpTransport;
 import com.iterable.iterableapi.IterableLogger;
 import com.iterable.iterableapi.util.Future;
 
@@ -17,8 +19,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.concurrent.Callable;
 
 @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
@@ -63,19 +63,18 @@ public class BitmapLoader {
     }
 
     static boolean downloadFile(Uri uri, File file) throws IOException {
-        URL url = new URL(uri.toString());
+        IterableHttpTransport.Request request = new IterableHttpTransport.Request.Builder("GET", uri.toString())
+                .setTimeouts(DEFAULT_TIMEOUT_MS, 0)
+                .build();
 
-        InputStream inputStream = null;
+        IterableHttpTransport.Response response = null;
         FileOutputStream outputStream = null;
-        HttpURLConnection urlConnection = null;
 
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setConnectTimeout(DEFAULT_TIMEOUT_MS);
-            urlConnection.setUseCaches(true);
-            inputStream = urlConnection.getInputStream();
+            response = IterableApi.getInstance().getHttpTransport().execute(request);
+            InputStream inputStream = response.getBody();
 
-            int responseCode = urlConnection.getResponseCode();
+            int responseCode = response.getCode();
             if (responseCode != 200) {
                 return false;
             }
@@ -94,16 +93,12 @@ public class BitmapLoader {
 
             return false;
         } finally {
-            if (inputStream != null) {
-                inputStream.close();
-            }
-
             if (outputStream != null) {
                 outputStream.close();
             }
 
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (response != null) {
+                response.close();
             }
         }
     }
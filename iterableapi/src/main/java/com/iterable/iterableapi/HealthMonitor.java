@@ -1,9 +1,43 @@
 package com.iterable.iterableapi;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+
+/**
+ * Circuit breaker for the offline queue database.
+ * <p>
+ * The circuit opens on a database error, which stops the offline queue from being used. Once the
+ * probe delay has passed, {@link #probeIfDue()} moves it to half-open and runs a query on the
+ * database: the circuit closes if the query succeeds, and opens again with a doubled probe delay
+ * otherwise. The health checks only read the state, so they are safe to call on the main thread;
+ * the probe is run by {@link IterableTaskRunner} on its network thread.
+ */
 public class HealthMonitor implements IterableTaskStorage.IterableDatabaseStatusListeners {
     private static final String TAG = "HealthMonitor";
 
-    private boolean databaseErrored = false;
+    static final long INITIAL_PROBE_DELAY_MS = 5 * 1000;
+    static final long MAX_PROBE_DELAY_MS = 5 * 60 * 1000;
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    interface StateListener {
+        /**
+         * Called on the thread that caused the transition, after the monitor is unlocked
+         */
+        void onStateChanged(@NonNull State previousState, @NonNull State newState);
+    }
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long nextProbeTime;
+    private final int[][] transitionCounts = new int[State.values().length][State.values().length];
+    private final ArrayList<StateListener> stateListeners = new ArrayList<>();
+    private final ArrayList<State[]> pendingTransitions = new ArrayList<>();
 
     private IterableTaskStorage iterableTaskStorage;
 
@@ -12,31 +46,171 @@ public class HealthMonitor implements IterableTaskStorage.IterableDatabaseStatus
         this.iterableTaskStorage.addDatabaseStatusListener(this);
     }
 
+    /**
+     * Checks whether the offline queue has room for another task. This reads the in-memory
+     * queue depth kept by {@link IterableTaskStorage}, so it is safe to call on the main thread.
+     */
     public boolean canSchedule() {
         IterableLogger.d(TAG, "canSchedule");
+        if (!canProcess()) {
+            return false;
+        }
         try {
             return !(iterableTaskStorage.getNumberOfTasks() >= IterableConstants.OFFLINE_TASKS_LIMIT);
         } catch (IllegalStateException e) {
             IterableLogger.e(TAG, e.getLocalizedMessage());
-            databaseErrored = true;
+            onDBError();
         }
         return false;
     }
 
-    public boolean canProcess() {
-        IterableLogger.d(TAG, "Health monitor can process: " + !databaseErrored);
-        return !databaseErrored;
+    public synchronized boolean canProcess() {
+        IterableLogger.d(TAG, "Health monitor can process: " + (state == State.CLOSED));
+        return state == State.CLOSED;
+    }
+
+    /**
+     * @return whether the circuit is open, in which case requests shouldn't be written to the
+     * offline queue until the database has recovered
+     */
+    synchronized boolean isCircuitOpen() {
+        return state != State.CLOSED;
+    }
+
+    /**
+     * @return time in milliseconds until the database will be probed, or 0 if the circuit is closed
+     */
+    synchronized long getTimeUntilProbe() {
+        if (state == State.CLOSED) {
+            return 0;
+        }
+        return Math.max(1, nextProbeTime - IterableUtil.currentTimeMillis());
+    }
+
+    synchronized void addStateListener(@NonNull StateListener listener) {
+        stateListeners.add(listener);
+    }
+
+    synchronized void removeStateListener(@NonNull StateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    /**
+     * @return number of times the circuit went from {@code from} to {@code to}
+     */
+    synchronized int getTransitionCount(@NonNull State from, @NonNull State to) {
+        return transitionCounts[from.ordinal()][to.ordinal()];
+    }
+
+    /**
+     * @return number of times the circuit opened
+     */
+    synchronized int getOpenCount() {
+        int count = 0;
+        for (State from : State.values()) {
+            count += transitionCounts[from.ordinal()][State.OPEN.ordinal()];
+        }
+        return count;
+    }
+
+    @VisibleForTesting
+    synchronized State getState() {
+        return state;
     }
 
     @Override
     public void onDBError() {
         IterableLogger.e(TAG, "DB Error notified to healthMonitor");
-        databaseErrored = true;
+        synchronized (this) {
+            if (state != State.OPEN) {
+                open();
+            }
+        }
+        notifyStateListeners();
     }
 
     @Override
     public void isReady() {
         IterableLogger.v(TAG, "DB Ready notified to healthMonitor");
-        databaseErrored = false;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            setState(State.CLOSED);
+        }
+        notifyStateListeners();
+    }
+
+    /**
+     * Runs a query on the database if the circuit is open and the probe delay has passed, closing
+     * the circuit if it succeeds. This hits the database, so it must not run on the main thread.
+     * The query runs without holding the lock, so that the health checks don't wait for it.
+     */
+    @WorkerThread
+    void probeIfDue() {
+        synchronized (this) {
+            if (state != State.OPEN || IterableUtil.currentTimeMillis() < nextProbeTime) {
+                return;
+            }
+            setState(State.HALF_OPEN);
+        }
+        notifyStateListeners();
+
+        boolean succeeded = iterableTaskStorage.probeDatabase();
+
+        synchronized (this) {
+            // The state may have changed while probing, if the database reported an error or recovered
+            if (state == State.HALF_OPEN) {
+                if (succeeded) {
+                    consecutiveFailures = 0;
+                    setState(State.CLOSED);
+                } else {
+                    open();
+                }
+            }
+        }
+        notifyStateListeners();
+    }
+
+    private void open() {
+        consecutiveFailures++;
+        long probeDelay = INITIAL_PROBE_DELAY_MS << Math.min(consecutiveFailures - 1, 16);
+        nextProbeTime = IterableUtil.currentTimeMillis() + Math.min(probeDelay, MAX_PROBE_DELAY_MS);
+        setState(State.OPEN);
+    }
+
+    private void setState(@NonNull State newState) {
+        State previousState = state;
+        if (previousState == newState) {
+            return;
+        }
+        state = newState;
+        transitionCounts[previousState.ordinal()][newState.ordinal()]++;
+        if (newState == State.OPEN) {
+            IterableLogger.w(TAG, "Offline queue circuit opened (" + getOpenCount() + " times), probing the database in " + (nextProbeTime - IterableUtil.currentTimeMillis()) + " ms");
+        } else {
+            IterableLogger.d(TAG, "Offline queue circuit state: " + previousState + " -> " + newState);
+        }
+        pendingTransitions.add(new State[]{previousState, newState});
+    }
+
+    /**
+     * Notifies the listeners of the transitions made so far. Called without holding the lock, so
+     * that listeners don't run under it.
+     */
+    private void notifyStateListeners() {
+        ArrayList<State[]> transitions;
+        ArrayList<StateListener> listeners;
+        synchronized (this) {
+            if (pendingTransitions.isEmpty()) {
+                return;
+            }
+            transitions = new ArrayList<>(pendingTransitions);
+            pendingTransitions.clear();
+            listeners = new ArrayList<>(stateListeners);
+        }
+        for (State[] transition : transitions) {
+            for (StateListener listener : listeners) {
+                listener.onStateChanged(transition[0], transition[1]);
+            }
+        }
     }
 }
@@ -0,0 +1,17 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+/**
+ * Request processor used by {@link IterableApiClient}. Overloads that are only called by the SDK
+ * are declared here rather than on the public {@link RequestProcessor}, so that adding them
+ * doesn't break implementations outside the SDK.
+ */
+interface InternalRequestProcessor extends RequestProcessor {
+    void processGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure);
+    void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableRequestPriority priority, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure);
+    void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure);
+}
@@ -13,9 +13,15 @@ import androidx.annotation.VisibleForTesting;
 
 import com.iterable.iterableapi.util.DeviceInfoUtils;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
@@ -49,17 +55,20 @@ public class IterableApi {
     private IterableAuthManager authManager;
     private HashMap<String, String> deviceAttributes = new HashMap<>();
     private IterableKeychain keychain;
+    private final IterableLatencyTracker latencyTracker = new IterableLatencyTracker();
+    private IterableConditionalRequestStore conditionalRequestStore;
 
     void fetchRemoteConfiguration() {
-        apiClient.getRemoteConfiguration(new IterableHelper.IterableActionHandler() {
+        final RemoteConfigurationReader configurationReader = new RemoteConfigurationReader();
+        apiClient.getRemoteConfiguration(configurationReader, new IterableHelper.SuccessHandler() {
             @Override
-            public void execute(@Nullable String data) {
-                if (data == null) {
-                    IterableLogger.e(TAG, "Remote configuration returned null");
+            public void onSuccess(@NonNull JSONObject data) {
+                JSONObject jsonData = configurationReader.configuration;
+                if (jsonData == null) {
+                    // Not modified since the saved configuration was fetched
                     return;
                 }
                 try {
-                    JSONObject jsonData = new JSONObject(data);
                     boolean offlineConfiguration = jsonData.getBoolean(IterableConstants.KEY_OFFLINE_MODE);
                     sharedInstance.apiClient.setOfflineProcessingEnabled(offlineConfiguration);
                     SharedPreferences sharedPref = sharedInstance.getMainActivityContext().getSharedPreferences(IterableConstants.SHARED_PREFS_SAVED_CONFIGURATION, Context.MODE_PRIVATE);
@@ -70,9 +79,44 @@ public class IterableApi {
                     IterableLogger.e(TAG, "Failed to read remote configuration");
                 }
             }
+        }, new IterableHelper.FailureHandler() {
+            @Override
+            public void onFailure(@NonNull String reason, @Nullable JSONObject data) {
+                IterableLogger.e(TAG, "Failed to fetch remote configuration: " + reason);
+            }
         });
     }
 
+    private class RemoteConfigurationReader implements IterableApiRequest.ResponseBodyReader {
+        private JSONObject configuration;
+
+        @Override
+        public boolean canRevalidate() {
+            Context context = getMainActivityContext();
+            return context != null && context.getSharedPreferences(IterableConstants.SHARED_PREFS_SAVED_CONFIGURATION, Context.MODE_PRIVATE)
+                    .contains(IterableConstants.SHARED_PREFS_OFFLINE_MODE_KEY);
+        }
+
+        @Override
+        public void read(@NonNull InputStream body) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, IterableRequestBody.UTF_8));
+            StringBuilder response = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                response.append(line);
+            }
+            try {
+                configuration = new JSONObject(response.toString());
+            } catch (JSONException e) {
+                throw new IOException("Invalid remote configuration: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onNotModified() {
+        }
+    }
+
     public String getEmail() {
         return _email;
     }
@@ -239,6 +283,24 @@ public class IterableApi {
         apiClient.getInAppMessages(count, onCallback);
     }
 
+    void getInAppMessages(int count, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
+        if (!checkSDKInitialization()) {
+            onFailure.onFailure("The Iterable SDK must be initialized with email or userId before fetching in-app messages", null);
+            return;
+        }
+
+        apiClient.getInAppMessages(count, responseBodyReader, onSuccess, onFailure);
+    }
+
+    void syncInAppMessages(int count, @NonNull JSONArray knownMessages, long lastSyncTime, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
+        if (!checkSDKInitialization()) {
+            onFailure.onFailure("The Iterable SDK must be initialized with email or userId before fetching in-app messages", null);
+            return;
+        }
+
+        apiClient.syncInAppMessages(count, knownMessages, lastSyncTime, responseBodyReader, onSuccess, onFailure);
+    }
+
     /**
      * Tracks in-app delivery events (per in-app)
      * @param message the in-app message to be tracked as delivered */
@@ -698,6 +760,30 @@ public class IterableApi {
     public void removeDeviceAttribute(String key) {
         deviceAttributes.remove(key);
     }
+
+    /**
+     * Returns the latency observed per API endpoint and network type, and the timeouts derived
+     * from it. Empty unless adaptive timeouts are enabled with
+     * {@link IterableConfig.Builder#setAdaptiveTimeoutsEnabled(boolean)}.
+     * @return A {@link List} of {@link IterableLatencyEstimate} objects
+     */
+    @NonNull
+    public List<IterableLatencyEstimate> getRequestLatencyEstimates() {
+        IterableConfig currentConfig = config;
+        if (currentConfig == null || !currentConfig.adaptiveTimeoutsEnabled) {
+            return new ArrayList<>();
+        }
+        return latencyTracker.getEstimates(currentConfig.minRequestTimeoutMs, currentConfig.maxRequestTimeoutMs);
+    }
+
+    /**
+     * Returns the number of requests waiting in the offline queue to be sent. This reads a counter
+     * kept in memory, so it is cheap to call from the main thread, for example for diagnostics.
+     * @return number of queued requests, or -1 if offline processing is not enabled
+     */
+    public long getOfflineQueueDepth() {
+        return apiClient.getOfflineQueueDepth();
+    }
 //endregion
 
 //region API public functions
@@ -890,12 +976,34 @@ public class IterableApi {
      * @param dataFields
      */
     public void track(@NonNull String eventName, int campaignId, int templateId, @Nullable JSONObject dataFields) {
+        track(eventName, campaignId, templateId, dataFields, null);
+    }
+
+    /**
+     * Track an event with a priority for the offline queue.
+     * @param eventName
+     * @param dataFields
+     * @param priority priority used if the event is queued offline, or null for the default
+     */
+    public void track(@NonNull String eventName, @Nullable JSONObject dataFields, @Nullable IterableRequestPriority priority) {
+        track(eventName, 0, 0, dataFields, priority);
+    }
+
+    /**
+     * Track an event with a priority for the offline queue.
+     * @param eventName
+     * @param campaignId
+     * @param templateId
+     * @param dataFields
+     * @param priority priority used if the event is queued offline, or null for the default
+     */
+    public void track(@NonNull String eventName, int campaignId, int templateId, @Nullable JSONObject dataFields, @Nullable IterableRequestPriority priority) {
         IterableLogger.printInfo();
         if (!checkSDKInitialization()) {
             return;
         }
 
-        apiClient.track(eventName, campaignId, templateId, dataFields);
+        apiClient.track(eventName, campaignId, templateId, dataFields, priority);
     }
 
     /**
@@ -1217,5 +1325,39 @@ public class IterableApi {
     public void clearInboxSessionId() {
         this.inboxSessionId = null;
     }
+
+    @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+    @NonNull
+    public IterableHttpTransport getHttpTransport() {
+        IterableConfig currentConfig = config;
+        if (currentConfig != null && currentConfig.httpTransport != null) {
+            return currentConfig.httpTransport;
+        }
+        return IterableHttpUrlConnectionTransport.INSTANCE;
+    }
+
+    /**
+     * @return store of the validators used to send GET requests conditionally, or null before
+     * the SDK is initialized
+     */
+    @Nullable
+    synchronized IterableConditionalRequestStore getConditionalRequestStore() {
+        if (conditionalRequestStore == null && _applicationContext != null) {
+            conditionalRequestStore = new IterableConditionalRequestStore(_applicationContext);
+        }
+        return conditionalRequestStore;
+    }
+
+    /**
+     * @return latency tracker used to derive request timeouts, or null if adaptive timeouts are disabled
+     */
+    @Nullable
+    IterableLatencyTracker getLatencyTracker() {
+        IterableConfig currentConfig = config;
+        if (currentConfig == null || !currentConfig.adaptiveTimeoutsEnabled) {
+            return null;
+        }
+        return latencyTracker;
+    }
 //endregion
 }
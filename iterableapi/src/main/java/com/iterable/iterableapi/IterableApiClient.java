@@ -20,7 +20,7 @@ import java.util.List;
 class IterableApiClient {
     private static final String TAG = "IterableApiClient";
     private final @NonNull AuthProvider authProvider;
-    private RequestProcessor requestProcessor;
+    private InternalRequestProcessor requestProcessor;
 
     interface AuthProvider {
         @Nullable
@@ -43,13 +43,34 @@ class IterableApiClient {
         this.authProvider = authProvider;
     }
 
-    private RequestProcessor getRequestProcessor() {
+    private InternalRequestProcessor getRequestProcessor() {
         if (requestProcessor == null) {
             requestProcessor = new OnlineRequestProcessor();
         }
         return requestProcessor;
     }
 
+    /**
+     * @return task runner of the offline queue, or null if offline processing is not enabled
+     */
+    @Nullable
+    IterableTaskRunner getOfflineTaskRunner() {
+        if (requestProcessor instanceof OfflineRequestProcessor) {
+            return ((OfflineRequestProcessor) requestProcessor).getTaskRunner();
+        }
+        return null;
+    }
+
+    /**
+     * @return number of requests in the offline queue, or -1 if offline processing is not enabled
+     */
+    long getOfflineQueueDepth() {
+        if (requestProcessor instanceof OfflineRequestProcessor) {
+            return ((OfflineRequestProcessor) requestProcessor).getQueueDepth();
+        }
+        return -1;
+    }
+
     void setOfflineProcessingEnabled(boolean offlineMode) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             if (offlineMode) {
@@ -64,20 +85,24 @@ class IterableApiClient {
         }
     }
 
-    void getRemoteConfiguration(IterableHelper.IterableActionHandler actionHandler) {
+    void getRemoteConfiguration(@NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
         JSONObject requestJSON = new JSONObject();
         try {
             requestJSON.putOpt(IterableConstants.KEY_PLATFORM, IterableConstants.ITBL_PLATFORM_ANDROID);
             requestJSON.putOpt(IterableConstants.DEVICE_APP_PACKAGE_NAME, authProvider.getContext().getPackageName());
             requestJSON.put(IterableConstants.ITBL_KEY_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
             requestJSON.put(IterableConstants.ITBL_SYSTEM_VERSION, Build.VERSION.RELEASE);
-            sendGetRequest(IterableConstants.ENDPOINT_GET_REMOTE_CONFIGURATION, requestJSON, actionHandler);
+            sendGetRequest(IterableConstants.ENDPOINT_GET_REMOTE_CONFIGURATION, requestJSON, responseBodyReader, onSuccess, onFailure);
         } catch (JSONException e) {
             e.printStackTrace();
         }
     }
 
     public void track(@NonNull String eventName, int campaignId, int templateId, @Nullable JSONObject dataFields) {
+        track(eventName, campaignId, templateId, dataFields, null);
+    }
+
+    public void track(@NonNull String eventName, int campaignId, int templateId, @Nullable JSONObject dataFields, @Nullable IterableRequestPriority priority) {
         JSONObject requestJSON = new JSONObject();
         try {
             addEmailOrUserIdToJson(requestJSON);
@@ -91,7 +116,7 @@ class IterableApiClient {
             }
             requestJSON.put(IterableConstants.KEY_DATA_FIELDS, dataFields);
 
-            sendPostRequest(IterableConstants.ENDPOINT_TRACK, requestJSON);
+            sendPostRequest(IterableConstants.ENDPOINT_TRACK, requestJSON, authProvider.getAuthToken(), priority, null, null);
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -201,22 +226,58 @@ class IterableApiClient {
     }
 
     public void getInAppMessages(int count, @NonNull IterableHelper.IterableActionHandler onCallback) {
-        JSONObject requestJSON = new JSONObject();
-        addEmailOrUserIdToJson(requestJSON);
         try {
-            addEmailOrUserIdToJson(requestJSON);
-            requestJSON.put(IterableConstants.ITERABLE_IN_APP_COUNT, count);
-            requestJSON.put(IterableConstants.KEY_PLATFORM, DeviceInfoUtils.isFireTV(authProvider.getContext().getPackageManager()) ? IterableConstants.ITBL_PLATFORM_OTT : IterableConstants.ITBL_PLATFORM_ANDROID);
-            requestJSON.put(IterableConstants.ITBL_KEY_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
-            requestJSON.put(IterableConstants.ITBL_SYSTEM_VERSION, Build.VERSION.RELEASE);
-            requestJSON.put(IterableConstants.KEY_PACKAGE_NAME, authProvider.getContext().getPackageName());
+            sendGetRequest(IterableConstants.ENDPOINT_GET_INAPP_MESSAGES, getInAppMessagesRequestJson(count), onCallback);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Fetches in-app messages, handing the response body to {@code responseBodyReader} as it is received
+     */
+    public void getInAppMessages(int count, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        try {
+            sendGetRequest(IterableConstants.ENDPOINT_GET_INAPP_MESSAGES, getInAppMessagesRequestJson(count), responseBodyReader, onSuccess, onFailure);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            if (onFailure != null) {
+                onFailure.onFailure("Could not create in-app messages request: " + e.getMessage(), null);
+            }
+        }
+    }
 
-            sendGetRequest(IterableConstants.ENDPOINT_GET_INAPP_MESSAGES, requestJSON, onCallback);
+    /**
+     * Requests the in-app messages that changed since the last sync
+     *
+     * @param knownMessages ids and content hashes of the messages held by the device
+     * @param lastSyncTime  time of the last delta sync the messages are from, or 0
+     */
+    void syncInAppMessages(int count, @NonNull JSONArray knownMessages, long lastSyncTime, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        try {
+            JSONObject requestJSON = getInAppMessagesRequestJson(count);
+            requestJSON.put(IterableConstants.ITERABLE_IN_APP_LAST_SYNC_TIME, lastSyncTime);
+            requestJSON.put(IterableConstants.ITERABLE_IN_APP_KNOWN_MESSAGES, knownMessages);
+            sendPostRequest(IterableConstants.ENDPOINT_SYNC_INAPP_MESSAGES, requestJSON, responseBodyReader, onSuccess, onFailure);
         } catch (JSONException e) {
             e.printStackTrace();
+            if (onFailure != null) {
+                onFailure.onFailure("Could not create in-app sync request: " + e.getMessage(), null);
+            }
         }
     }
 
+    private JSONObject getInAppMessagesRequestJson(int count) throws JSONException {
+        JSONObject requestJSON = new JSONObject();
+        addEmailOrUserIdToJson(requestJSON);
+        requestJSON.put(IterableConstants.ITERABLE_IN_APP_COUNT, count);
+        requestJSON.put(IterableConstants.KEY_PLATFORM, DeviceInfoUtils.isFireTV(authProvider.getContext().getPackageManager()) ? IterableConstants.ITBL_PLATFORM_OTT : IterableConstants.ITBL_PLATFORM_ANDROID);
+        requestJSON.put(IterableConstants.ITBL_KEY_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
+        requestJSON.put(IterableConstants.ITBL_SYSTEM_VERSION, Build.VERSION.RELEASE);
+        requestJSON.put(IterableConstants.KEY_PACKAGE_NAME, authProvider.getContext().getPackageName());
+        return requestJSON;
+    }
+
     public void trackInAppOpen(@NonNull String messageId) {
         JSONObject requestJSON = new JSONObject();
 
@@ -539,6 +600,14 @@ class IterableApiClient {
         getRequestProcessor().processPostRequest(authProvider.getApiKey(), resourcePath, json, authToken, onSuccess, onFailure);
     }
 
+    void sendPostRequest(@NonNull String resourcePath, @NonNull JSONObject json, @Nullable String authToken, @Nullable IterableRequestPriority priority, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        getRequestProcessor().processPostRequest(authProvider.getApiKey(), resourcePath, json, authToken, priority, onSuccess, onFailure);
+    }
+
+    void sendPostRequest(@NonNull String resourcePath, @NonNull JSONObject json, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        getRequestProcessor().processPostRequest(authProvider.getApiKey(), resourcePath, json, authProvider.getAuthToken(), responseBodyReader, onSuccess, onFailure);
+    }
+
     /**
      * Sends a GET request to Iterable.
      * Performs network operations on an async thread instead of the main thread.
@@ -549,6 +618,10 @@ class IterableApiClient {
         getRequestProcessor().processGetRequest(authProvider.getApiKey(), resourcePath, json, authProvider.getAuthToken(), onCallback);
     }
 
+    void sendGetRequest(@NonNull String resourcePath, @NonNull JSONObject json, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        getRequestProcessor().processGetRequest(authProvider.getApiKey(), resourcePath, json, authProvider.getAuthToken(), responseBodyReader, onSuccess, onFailure);
+    }
+
     void onLogout() {
         getRequestProcessor().onLogout(authProvider.getContext());
         authProvider.resetAuth();
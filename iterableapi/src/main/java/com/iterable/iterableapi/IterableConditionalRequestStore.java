@@ -0,0 +1,130 @@
+package com.iterable.iterableapi;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Persists the validators ({@code ETag} and {@code Last-Modified}) of the last response of each
+ * GET endpoint, so that the next request can be sent with {@code If-None-Match} and
+ * {@code If-Modified-Since} and answered with 304 Not Modified when nothing has changed.
+ * <p>
+ * Validators are only used for a request with the same API key and parameters as the request
+ * they were received for, so they don't carry over to another user.
+ */
+class IterableConditionalRequestStore {
+    private static final String TAG = "IterableConditionalReq";
+
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+
+    static class Validators {
+        @Nullable final String etag;
+        @Nullable final String lastModified;
+
+        Validators(@Nullable String etag, @Nullable String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final SharedPreferences preferences;
+
+    IterableConditionalRequestStore(@NonNull Context context) {
+        preferences = context.getSharedPreferences(IterableConstants.SHARED_PREFS_CONDITIONAL_REQUESTS, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return validators of the last response of the endpoint, or null if there are none for a
+     * request with this fingerprint
+     */
+    @Nullable
+    synchronized Validators get(@NonNull String endpoint, @NonNull String fingerprint) {
+        String storedValidators = preferences.getString(endpoint, null);
+        if (storedValidators == null) {
+            return null;
+        }
+        try {
+            JSONObject validatorsJson = new JSONObject(storedValidators);
+            if (!fingerprint.equals(validatorsJson.optString(KEY_FINGERPRINT))) {
+                return null;
+            }
+            return new Validators(validatorsJson.optString(KEY_ETAG, null), validatorsJson.optString(KEY_LAST_MODIFIED, null));
+        } catch (JSONException e) {
+            IterableLogger.e(TAG, "Failed to read validators of " + endpoint, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the validators of a response. Removes the stored validators if the response has none.
+     */
+    synchronized void put(@NonNull String endpoint, @NonNull String fingerprint, @Nullable String etag, @Nullable String lastModified) {
+        if (etag == null && lastModified == null) {
+            remove(endpoint);
+            return;
+        }
+        try {
+            JSONObject validatorsJson = new JSONObject();
+            validatorsJson.put(KEY_FINGERPRINT, fingerprint);
+            validatorsJson.putOpt(KEY_ETAG, etag);
+            validatorsJson.putOpt(KEY_LAST_MODIFIED, lastModified);
+            preferences.edit().putString(endpoint, validatorsJson.toString()).apply();
+        } catch (JSONException e) {
+            IterableLogger.e(TAG, "Failed to store validators of " + endpoint, e);
+        }
+    }
+
+    synchronized void remove(@NonNull String endpoint) {
+        preferences.edit().remove(endpoint).apply();
+    }
+
+    /**
+     * @return hash of the API key and the request parameters, apart from the creation time
+     */
+    @NonNull
+    static String getFingerprint(@NonNull IterableApiRequest request) {
+        List<String> keys = new ArrayList<>();
+        if (request.json != null) {
+            Iterator<String> iterator = request.json.keys();
+            while (iterator.hasNext()) {
+                String key = iterator.next();
+                if (!IterableConstants.KEY_CREATED_AT.equals(key)) {
+                    keys.add(key);
+                }
+            }
+        }
+        Collections.sort(keys);
+
+        StringBuilder canonicalRequest = new StringBuilder();
+        canonicalRequest.append(request.apiKey).append('\n').append(request.resourcePath);
+        for (String key : keys) {
+            canonicalRequest.append('\n').append(key).append('=').append(request.json.opt(key));
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(canonicalRequest.toString().getBytes(IterableRequestBody.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(canonicalRequest.toString().hashCode());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.iterable.iterableapi;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
 
 /**
@@ -84,6 +85,136 @@ public class IterableConfig {
 
     final boolean encryptionEnforced;
 
+    /**
+     * Number of offline tasks fetched and cleared per database round trip when draining the
+     * offline queue. Defaults to 1, which processes tasks one at a time.
+     */
+    final int offlineDrainBatchSize;
+
+    /**
+     * Maximum number of queued track events combined into a single trackBulk request when
+     * draining the offline queue. Defaults to 1, which sends each event in its own request.
+     */
+    final int trackBulkMaxBatchSize;
+
+    /**
+     * Maximum time in milliseconds a newly queued track event waits for more events to be
+     * combined with before the offline queue is drained.
+     */
+    final long trackBulkMaxLingerMs;
+
+    /**
+     * When set to true, payloads of queued offline tasks are stored deflate-compressed, with the
+     * API key and auth token kept once per distinct value instead of in every task.
+     */
+    final boolean offlineTaskCompressionEnabled;
+
+    /**
+     * SQLite durability and performance settings for the offline task queue database.
+     */
+    final IterableOfflineStorageProfile offlineStorageProfile;
+
+    /**
+     * Maximum number of offline requests in flight at the same time. Defaults to 1, which sends
+     * queued requests one at a time.
+     */
+    final int offlineMaxConcurrentRequests;
+
+    /**
+     * Policies applied in order to make room for new requests when the offline queue is full
+     */
+    final IterableOfflineOverflowPolicy[] offlineOverflowPolicies;
+
+    /**
+     * Age in milliseconds after which a queued request may be dropped by
+     * {@link IterableOfflineOverflowPolicy#DROP_EXPIRED}
+     */
+    final long offlineTaskTtlMs;
+
+    static final long DEFAULT_OFFLINE_BACKGROUND_FLUSH_TIME_BUDGET_MS = 30000;
+
+    /**
+     * When set to true, a background job drains the offline queue after the app goes to the
+     * background with requests still queued. Ignored below API level 21.
+     */
+    final boolean offlineBackgroundFlushEnabled;
+
+    /**
+     * Whether the background flush job waits for an unmetered network
+     */
+    final boolean offlineBackgroundFlushRequiresUnmeteredNetwork;
+
+    /**
+     * Whether the background flush job waits for the device to be charging
+     */
+    final boolean offlineBackgroundFlushRequiresCharging;
+
+    /**
+     * Time in milliseconds after which the background flush job stops sending queued requests
+     */
+    final long offlineBackgroundFlushTimeBudgetMs;
+
+    /**
+     * Maximum number of online GET requests sent at the same time
+     */
+    final int requestExecutorPoolSize;
+
+    /**
+     * Maximum number of online POST requests sent at the same time
+     */
+    final int postRequestExecutorPoolSize;
+
+    /**
+     * HTTP transport used for all requests of the SDK, or null to use the default
+     * HttpURLConnection transport
+     */
+    final IterableHttpTransport httpTransport;
+
+    static final int DEFAULT_REQUEST_COMPRESSION_THRESHOLD_BYTES = 1024;
+
+    /**
+     * When set to true, POST bodies of at least {@link #requestCompressionThresholdBytes} are
+     * sent gzip-compressed
+     */
+    final boolean requestCompressionEnabled;
+
+    /**
+     * Size in bytes from which POST bodies are compressed
+     */
+    final int requestCompressionThresholdBytes;
+
+    static final int DEFAULT_MIN_REQUEST_TIMEOUT_MS = 2000;
+    static final int DEFAULT_MAX_REQUEST_TIMEOUT_MS = 30000;
+
+    /**
+     * When set to true, request timeouts are derived from the latency observed per endpoint and
+     * network type instead of fixed values
+     */
+    final boolean adaptiveTimeoutsEnabled;
+
+    /**
+     * Lower bound of adaptive request timeouts, in milliseconds
+     */
+    final int minRequestTimeoutMs;
+
+    /**
+     * Upper bound of adaptive request timeouts, in milliseconds
+     */
+    final int maxRequestTimeoutMs;
+
+    /**
+     * When set to true, in-app syncs only download the messages that were added or changed since
+     * the last sync
+     */
+    final boolean inAppDeltaSyncEnabled;
+
+    static final int DEFAULT_INAPP_HTML_CACHE_SIZE_BYTES = 1024 * 1024;
+
+    /**
+     * Memory budget in bytes of the HTML content of in-app messages kept in memory
+     */
+    final int inAppHtmlCacheSizeBytes;
+
     private IterableConfig(Builder builder) {
         pushIntegrationName = builder.pushIntegrationName;
         urlHandler = builder.urlHandler;
@@ -99,6 +230,28 @@ public class IterableConfig {
         dataRegion = builder.dataRegion;
         useInMemoryStorageForInApps = builder.useInMemoryStorageForInApps;
         encryptionEnforced = builder.encryptionEnforced;
+        offlineDrainBatchSize = builder.offlineDrainBatchSize;
+        trackBulkMaxBatchSize = builder.trackBulkMaxBatchSize;
+        trackBulkMaxLingerMs = builder.trackBulkMaxLingerMs;
+        offlineTaskCompressionEnabled = builder.offlineTaskCompressionEnabled;
+        offlineStorageProfile = builder.offlineStorageProfile;
+        offlineMaxConcurrentRequests = builder.offlineMaxConcurrentRequests;
+        offlineOverflowPolicies = builder.offlineOverflowPolicies;
+        offlineTaskTtlMs = builder.offlineTaskTtlMs;
+        offlineBackgroundFlushEnabled = builder.offlineBackgroundFlushEnabled;
+        offlineBackgroundFlushRequiresUnmeteredNetwork = builder.offlineBackgroundFlushRequiresUnmeteredNetwork;
+        offlineBackgroundFlushRequiresCharging = builder.offlineBackgroundFlushRequiresCharging;
+        offlineBackgroundFlushTimeBudgetMs = builder.offlineBackgroundFlushTimeBudgetMs;
+        requestExecutorPoolSize = builder.requestExecutorPoolSize;
+        postRequestExecutorPoolSize = builder.postRequestExecutorPoolSize;
+        httpTransport = builder.httpTransport;
+        requestCompressionEnabled = builder.requestCompressionEnabled;
+        requestCompressionThresholdBytes = builder.requestCompressionThresholdBytes;
+        adaptiveTimeoutsEnabled = builder.adaptiveTimeoutsEnabled;
+        minRequestTimeoutMs = builder.minRequestTimeoutMs;
+        maxRequestTimeoutMs = builder.maxRequestTimeoutMs;
+        inAppDeltaSyncEnabled = builder.inAppDeltaSyncEnabled;
+        inAppHtmlCacheSizeBytes = builder.inAppHtmlCacheSizeBytes;
     }
 
     public static class Builder {
@@ -116,6 +269,28 @@ public class IterableConfig {
         private IterableDataRegion dataRegion = IterableDataRegion.US;
         private boolean useInMemoryStorageForInApps = false;
         private boolean encryptionEnforced = false;
+        private int offlineDrainBatchSize = 1;
+        private int trackBulkMaxBatchSize = 1;
+        private long trackBulkMaxLingerMs = 0;
+        private boolean offlineTaskCompressionEnabled = false;
+        private IterableOfflineStorageProfile offlineStorageProfile = IterableOfflineStorageProfile.DEFAULT;
+        private int offlineMaxConcurrentRequests = 1;
+        private IterableOfflineOverflowPolicy[] offlineOverflowPolicies = new IterableOfflineOverflowPolicy[0];
+        private long offlineTaskTtlMs = 0;
+        private boolean offlineBackgroundFlushEnabled = false;
+        private boolean offlineBackgroundFlushRequiresUnmeteredNetwork = false;
+        private boolean offlineBackgroundFlushRequiresCharging = false;
+        private long offlineBackgroundFlushTimeBudgetMs = DEFAULT_OFFLINE_BACKGROUND_FLUSH_TIME_BUDGET_MS;
+        private int requestExecutorPoolSize = IterableRequestExecutor.DEFAULT_POOL_SIZE;
+        private int postRequestExecutorPoolSize = IterableRequestExecutor.DEFAULT_POST_POOL_SIZE;
+        private IterableHttpTransport httpTransport;
+        private boolean requestCompressionEnabled = false;
+        private int requestCompressionThresholdBytes = DEFAULT_REQUEST_COMPRESSION_THRESHOLD_BYTES;
+        private boolean adaptiveTimeoutsEnabled = false;
+        private int minRequestTimeoutMs = DEFAULT_MIN_REQUEST_TIMEOUT_MS;
+        private int maxRequestTimeoutMs = DEFAULT_MAX_REQUEST_TIMEOUT_MS;
+        private boolean inAppDeltaSyncEnabled = false;
+        private int inAppHtmlCacheSizeBytes = DEFAULT_INAPP_HTML_CACHE_SIZE_BYTES;
 
         public Builder() {}
 
@@ -269,6 +444,242 @@ public class IterableConfig {
             return this;
         }
 
+        /**
+         * Set the number of offline tasks the SDK fetches and clears per database round trip
+         * when draining the offline queue. Values greater than 1 enable batched draining.
+         * @param offlineDrainBatchSize number of tasks per batch, defaults to 1
+         */
+        @NonNull
+        public Builder setOfflineDrainBatchSize(int offlineDrainBatchSize) {
+            this.offlineDrainBatchSize = offlineDrainBatchSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of queued track events the SDK combines into a single
+         * trackBulk request when offline processing is enabled. Values greater than 1 enable bulk uploads.
+         * @param trackBulkMaxBatchSize maximum number of events per bulk request, defaults to 1
+         */
+        @NonNull
+        public Builder setTrackBulkMaxBatchSize(int trackBulkMaxBatchSize) {
+            this.trackBulkMaxBatchSize = trackBulkMaxBatchSize;
+            return this;
+        }
+
+        /**
+         * Set how long a newly queued track event may wait for more events before the SDK sends
+         * the bulk request. Only used when bulk uploads are enabled.
+         * @param trackBulkMaxLingerMs linger time in milliseconds, defaults to 0
+         */
+        @NonNull
+        public Builder setTrackBulkMaxLingerTime(long trackBulkMaxLingerMs) {
+            this.trackBulkMaxLingerMs = trackBulkMaxLingerMs;
+            return this;
+        }
+
+        /**
+         * Set whether the SDK should compress the payloads of queued offline tasks. This reduces
+         * the size of the offline database when many events are queued, at a small CPU cost.
+         * @param offlineTaskCompressionEnabled `true` to store compressed payloads, defaults to `false`
+         */
+        @NonNull
+        public Builder setOfflineTaskCompressionEnabled(boolean offlineTaskCompressionEnabled) {
+            this.offlineTaskCompressionEnabled = offlineTaskCompressionEnabled;
+            return this;
+        }
+
+        /**
+         * Set the SQLite durability and performance profile for the offline task queue database.
+         * Takes effect when the database is first opened.
+         * @param offlineStorageProfile storage profile, defaults to {@link IterableOfflineStorageProfile#DEFAULT}
+         */
+        @NonNull
+        public Builder setOfflineStorageProfile(@NonNull IterableOfflineStorageProfile offlineStorageProfile) {
+            this.offlineStorageProfile = offlineStorageProfile;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of queued offline requests the SDK sends concurrently.
+         * Requests that must stay ordered, such as in-app consume requests for the same user,
+         * are still sent one at a time.
+         * @param offlineMaxConcurrentRequests maximum number of requests in flight, defaults to 1
+         */
+        @NonNull
+        public Builder setOfflineMaxConcurrentRequests(int offlineMaxConcurrentRequests) {
+            this.offlineMaxConcurrentRequests = offlineMaxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * Set how the SDK makes room for new requests when the offline queue is full. Policies are
+         * applied in order until enough requests are dropped. Without a policy, requests that do not
+         * fit in the queue are sent immediately.
+         * @param offlineOverflowPolicies overflow policies, empty by default
+         */
+        @NonNull
+        public Builder setOfflineOverflowPolicies(@NonNull IterableOfflineOverflowPolicy[] offlineOverflowPolicies) {
+            this.offlineOverflowPolicies = offlineOverflowPolicies;
+            return this;
+        }
+
+        /**
+         * Set the age after which queued offline requests may be dropped by
+         * {@link IterableOfflineOverflowPolicy#DROP_EXPIRED}
+         * @param offlineTaskTtlMs age in milliseconds
+         */
+        @NonNull
+        public Builder setOfflineTaskTtl(long offlineTaskTtlMs) {
+            this.offlineTaskTtlMs = offlineTaskTtlMs;
+            return this;
+        }
+
+        /**
+         * Set whether the SDK drains the offline queue in the background. When enabled, a job is
+         * scheduled when the app goes to the background with requests still queued, and runs once
+         * the network is available. Requires Android 5.0 (API level 21) or later, and is ignored
+         * on earlier versions.
+         * @param offlineBackgroundFlushEnabled whether to flush in the background, defaults to false
+         */
+        @NonNull
+        public Builder setOfflineBackgroundFlushEnabled(boolean offlineBackgroundFlushEnabled) {
+            this.offlineBackgroundFlushEnabled = offlineBackgroundFlushEnabled;
+            return this;
+        }
+
+        /**
+         * Set additional conditions for the background flush job to run
+         * @param requiresUnmeteredNetwork wait for an unmetered network, such as Wi-Fi
+         * @param requiresCharging wait for the device to be charging
+         */
+        @NonNull
+        public Builder setOfflineBackgroundFlushConstraints(boolean requiresUnmeteredNetwork, boolean requiresCharging) {
+            this.offlineBackgroundFlushRequiresUnmeteredNetwork = requiresUnmeteredNetwork;
+            this.offlineBackgroundFlushRequiresCharging = requiresCharging;
+            return this;
+        }
+
+        /**
+         * Set how long the background flush job may send queued requests. Requests left when
+         * the time runs out are sent by a later run.
+         * @param offlineBackgroundFlushTimeBudgetMs time in milliseconds, defaults to 30 seconds
+         */
+        @NonNull
+        public Builder setOfflineBackgroundFlushTimeBudget(long offlineBackgroundFlushTimeBudgetMs) {
+            this.offlineBackgroundFlushTimeBudgetMs = offlineBackgroundFlushTimeBudgetMs;
+            return this;
+        }
+
+        /**
+         * Set how many online GET requests the SDK sends at the same time. GET and POST requests
+         * have separate pools, so that fetching in-app messages doesn't delay tracking calls.
+         * Read when the first request is sent.
+         * @param requestExecutorPoolSize number of GET requests sent at the same time, defaults to 2
+         */
+        @NonNull
+        public Builder setRequestExecutorPoolSize(int requestExecutorPoolSize) {
+            this.requestExecutorPoolSize = requestExecutorPoolSize;
+            return this;
+        }
+
+        /**
+         * Set how many online POST requests the SDK sends at the same time. With more than one,
+         * requests of the same priority are no longer sent in the order they were made, so a call
+         * made right after {@code updateEmail} or {@code updateUser} can reach the server before
+         * it. Read when the first request is sent.
+         * @param postRequestExecutorPoolSize number of POST requests sent at the same time, defaults to 1
+         */
+        @NonNull
+        public Builder setPostRequestExecutorPoolSize(int postRequestExecutorPoolSize) {
+            this.postRequestExecutorPoolSize = postRequestExecutorPoolSize;
+            return this;
+        }
+
+        /**
+         * Set the HTTP transport the SDK sends its requests with, for example one backed by
+         * OkHttp to share the app's connection pool and use HTTP/2.
+         * By default, the SDK uses HttpURLConnection and reuses connections.
+         * @param httpTransport transport implementation, or null for the default
+         */
+        @NonNull
+        public Builder setHttpTransport(@Nullable IterableHttpTransport httpTransport) {
+            this.httpTransport = httpTransport;
+            return this;
+        }
+
+        /**
+         * Send large POST bodies, such as purchases with many items or user updates with many
+         * data fields, gzip-compressed with a {@code Content-Encoding: gzip} header
+         * @param requestCompressionEnabled whether to compress request bodies, false by default
+         */
+        @NonNull
+        public Builder setRequestCompressionEnabled(boolean requestCompressionEnabled) {
+            this.requestCompressionEnabled = requestCompressionEnabled;
+            return this;
+        }
+
+        /**
+         * Set the size from which request bodies are compressed when compression is enabled.
+         * Smaller bodies gain little from compression and are sent as-is.
+         * @param requestCompressionThresholdBytes size in bytes, defaults to 1024
+         */
+        @NonNull
+        public Builder setRequestCompressionThreshold(int requestCompressionThresholdBytes) {
+            this.requestCompressionThresholdBytes = requestCompressionThresholdBytes;
+            return this;
+        }
+
+        /**
+         * Derive request timeouts from the latency observed per API endpoint and network type,
+         * instead of fixed timeouts of 3 seconds for POST and 10 seconds for GET requests.
+         * Requests get more time on slow networks and fail faster on fast ones.
+         * The estimates can be read with {@link IterableApi#getRequestLatencyEstimates()}.
+         * @param adaptiveTimeoutsEnabled whether to use adaptive timeouts, false by default
+         */
+        @NonNull
+        public Builder setAdaptiveTimeoutsEnabled(boolean adaptiveTimeoutsEnabled) {
+            this.adaptiveTimeoutsEnabled = adaptiveTimeoutsEnabled;
+            return this;
+        }
+
+        /**
+         * Set the range adaptive request timeouts are kept in
+         * @param minRequestTimeoutMs shortest timeout in milliseconds, defaults to 2000
+         * @param maxRequestTimeoutMs longest timeout in milliseconds, defaults to 30000
+         */
+        @NonNull
+        public Builder setAdaptiveTimeoutBounds(int minRequestTimeoutMs, int maxRequestTimeoutMs) {
+            this.minRequestTimeoutMs = minRequestTimeoutMs;
+            this.maxRequestTimeoutMs = maxRequestTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Sync in-app messages with the delta sync endpoint. The SDK sends the ids and content
+         * hashes of the messages it holds, and only messages that were added or changed since the
+         * last sync are downloaded, along with the ids of removed messages.
+         * Requires the delta sync endpoint to be enabled for your project.
+         * @param inAppDeltaSyncEnabled whether to use delta syncs, false by default
+         */
+        @NonNull
+        public Builder setInAppDeltaSyncEnabled(boolean inAppDeltaSyncEnabled) {
+            this.inAppDeltaSyncEnabled = inAppDeltaSyncEnabled;
+            return this;
+        }
+
+        /**
+         * Set how much HTML content of in-app messages is kept in memory. The content of the
+         * most recently used messages is kept up to this size, and the content of other messages
+         * is read again from storage when it is needed.
+         * Doesn't apply to in-memory in-app storage.
+         * @param inAppHtmlCacheSizeBytes size in bytes, defaults to 1 MB
+         */
+        @NonNull
+        public Builder setInAppHtmlCacheSize(int inAppHtmlCacheSizeBytes) {
+            this.inAppHtmlCacheSizeBytes = inAppHtmlCacheSizeBytes;
+            return this;
+        }
+
         @NonNull
         public IterableConfig build() {
             return new IterableConfig(this);
@@ -21,6 +21,11 @@ public final class IterableConstants {
     public static final String HEADER_SDK_AUTHORIZATION = "Authorization";
     public static final String HEADER_SDK_AUTH_FORMAT   = "Bearer ";
     public static final String HEADER_SDK_PROCESSOR_TYPE = "SDK-Request-Processor";
+    public static final String HEADER_RETRY_AFTER       = "Retry-After";
+    public static final String HEADER_ETAG              = "ETag";
+    public static final String HEADER_LAST_MODIFIED     = "Last-Modified";
+    public static final String HEADER_IF_NONE_MATCH     = "If-None-Match";
+    public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
     public static final String KEY_APPLICATION_NAME     = "applicationName";
     public static final String KEY_CAMPAIGN_ID          = "campaignId";
     public static final String KEY_CURRENT_EMAIL        = "currentEmail";
@@ -32,6 +37,7 @@ public final class IterableConstants {
     public static final String KEY_EMAIL                = "email";
     public static final String KEY_EMAIL_LIST_IDS       = "emailListIds";
     public static final String KEY_EVENT_NAME           = "eventName";
+    public static final String KEY_EVENTS               = "events";
     public static final String KEY_ITEMS                = "items";
     public static final String KEY_NEW_EMAIL            = "newEmail";
     public static final String KEY_PACKAGE_NAME         = "packageName";
@@ -59,10 +65,12 @@ public final class IterableConstants {
     //API Endpoint Key Constants
     public static final String ENDPOINT_DISABLE_DEVICE          = "users/disableDevice";
     public static final String ENDPOINT_GET_INAPP_MESSAGES      = "inApp/getMessages";
+    public static final String ENDPOINT_SYNC_INAPP_MESSAGES     = "inApp/syncMessages";
     public static final String ENDPOINT_INAPP_CONSUME           = "events/inAppConsume";
     public static final String ENDPOINT_PUSH_TARGET             = "push/target";
     public static final String ENDPOINT_REGISTER_DEVICE_TOKEN   = "users/registerDeviceToken";
     public static final String ENDPOINT_TRACK                   = "events/track";
+    public static final String ENDPOINT_TRACK_BULK              = "events/trackBulk";
     public static final String ENDPOINT_TRACK_INAPP_CLICK       = "events/trackInAppClick";
     public static final String ENDPOINT_TRACK_INAPP_OPEN        = "events/trackInAppOpen";
     public static final String ENDPOINT_TRACK_INAPP_DELIVERY    = "events/trackInAppDelivery";
@@ -113,6 +121,8 @@ public final class IterableConstants {
     public static final String SHARED_PREFS_FCM_MIGRATION_DONE_KEY = "itbl_fcm_migration_done";
     public static final String SHARED_PREFS_SAVED_CONFIGURATION = "itbl_saved_configuration";
     public static final String SHARED_PREFS_OFFLINE_MODE_KEY = "itbl_offline_mode";
+    public static final String SHARED_PREFS_CONDITIONAL_REQUESTS = "itbl_conditional_requests";
+    public static final String SHARED_PREFS_INAPP_LAST_SYNC_TIME_KEY = "itbl_inapp_last_sync_time";
 
     //Action buttons
     public static final String ITBL_BUTTON_IDENTIFIER        = "identifier";
@@ -200,6 +210,10 @@ public final class IterableConstants {
     public static final String ITERABLE_IN_APP_PROCESSED        = "processed";
     public static final String ITERABLE_IN_APP_CONSUMED         = "consumed";
     public static final String ITERABLE_IN_APP_READ             = "read";
+    public static final String ITERABLE_IN_APP_CONTENT_HASH     = "contentHash";
+    public static final String ITERABLE_IN_APP_KNOWN_MESSAGES   = "knownMessages";
+    public static final String ITERABLE_IN_APP_REMOVED_MESSAGE_IDS = "removedMessageIds";
+    public static final String ITERABLE_IN_APP_LAST_SYNC_TIME   = "lastSyncTime";
     public static final String ITERABLE_IN_APP_LOCATION         = "location";
     public static final String ITERABLE_IN_APP_CLOSE_ACTION     = "closeAction";
     public static final String ITERABLE_IN_APP_DELETE_ACTION    = "deleteAction";
@@ -5,21 +5,149 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 class IterableDatabaseManager extends SQLiteOpenHelper {
-    private static final String DATABASE_NAME = "iterable_sdk.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final String TAG = "IterableDatabaseManager";
+    static final String DATABASE_NAME = "iterable_sdk.db";
+    static final int DATABASE_VERSION = 5;
+
+    static final String INDEX_OFFLINE_TASK_SCHEDULED = "OfflineTask_scheduled_priority";
+    static final String INDEX_OFFLINE_TASK_SORT_KEY = "OfflineTask_sort_key";
+
+    private final IterableOfflineStorageProfile profile;
+
     IterableDatabaseManager(Context context) {
+        this(context, IterableOfflineStorageProfile.DEFAULT);
+    }
+
+    IterableDatabaseManager(Context context, IterableOfflineStorageProfile profile) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.profile = profile;
+        setWriteAheadLoggingEnabled(profile.isWriteAheadLoggingEnabled());
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // A negative cache_size is a limit in KiB rather than in pages
+        db.execSQL("PRAGMA synchronous = " + profile.getSynchronousMode());
+        db.execSQL("PRAGMA cache_size = -" + profile.getCacheSizeKb());
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         // Create event table.
         db.execSQL("CREATE TABLE IF NOT EXISTS " + IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + IterableTaskStorage.OFFLINE_TASK_COLUMN_DATA);
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + IterableTaskStorage.ITERABLE_TASK_CREDENTIALS_TABLE_NAME + IterableTaskStorage.OFFLINE_TASK_CREDENTIALS_COLUMN_DATA);
+        createIndexes(db);
     }
 
+    /**
+     * Runs every migration between the two versions in order. {@link SQLiteOpenHelper} wraps this
+     * call in a transaction, so a failed migration leaves the database at {@code oldVersion}.
+     * When changing {@link IterableTaskStorage#OFFLINE_TASK_COLUMN_DATA}, bump
+     * {@link #DATABASE_VERSION} and add a migration step that carries existing rows forward.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // No used for now.
+        IterableLogger.d(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrateTo(db, version);
+        }
+    }
+
+    private void migrateTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                migrateToVersion2(db);
+                break;
+            case 3:
+                migrateToVersion3(db);
+                break;
+            case 4:
+                migrateToVersion4(db);
+                break;
+            case 5:
+                migrateToVersion5(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
+    }
+
+    /**
+     * Version 2 adds the priority column, stores task data as a BLOB and indexes the
+     * columns used to pick the next scheduled task.
+     */
+    private void migrateToVersion2(SQLiteDatabase db) {
+        String table = IterableTaskStorage.ITERABLE_TASK_TABLE_NAME;
+        String v1Table = table + "_v1";
+        String v1Columns = "task_id, name, version, created, modified, last_attempt, scheduled, requested, " +
+                "processing, failed, blocking, error, type, attempts";
+
+        db.execSQL("ALTER TABLE " + table + " RENAME TO " + v1Table);
+        db.execSQL("CREATE TABLE " + table + " (task_id TEXT PRIMARY KEY," +
+                "name TEXT," +
+                "version INTEGER," +
+                "created BIGINT," +
+                "modified BIGINT," +
+                "last_attempt BIGINT," +
+                "scheduled BIGINT," +
+                "requested BIGINT," +
+                "processing BOOLEAN," +
+                "failed BOOLEAN," +
+                "blocking BOOLEAN," +
+                "data BLOB," +
+                "error TEXT," +
+                "type TEXT," +
+                "attempts INTEGER," +
+                "priority INTEGER DEFAULT 0)");
+        db.execSQL("INSERT INTO " + table + " (" + v1Columns + ", data) " +
+                "SELECT " + v1Columns + ", CAST(data AS BLOB) FROM " + v1Table);
+        db.execSQL("DROP TABLE " + v1Table);
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_OFFLINE_TASK_SCHEDULED + " ON " + table + " (scheduled, priority)");
+    }
+
+    /**
+     * Version 3 adds a table of API key and auth token pairs that compressed task payloads
+     * reference instead of repeating them in every row.
+     */
+    private void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + " ADD COLUMN credentials_id INTEGER");
+        db.execSQL("CREATE TABLE IF NOT EXISTS OfflineTaskCredentials (id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "api_key TEXT NOT NULL DEFAULT ''," +
+                "auth_token TEXT NOT NULL DEFAULT ''," +
+                "UNIQUE (api_key, auth_token))");
+    }
+
+    /**
+     * Version 4 adds the ready-to-send request body of POST tasks. Existing rows keep their
+     * payload in the data column.
+     */
+    private void migrateToVersion4(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + " ADD COLUMN request_body BLOB");
+    }
+
+    /**
+     * Version 5 stores the aged priority the queue is ordered by, and indexes it so that the next
+     * tasks are read in order without sorting the queue.
+     */
+    private void migrateToVersion5(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + " ADD COLUMN sort_key BIGINT");
+        db.execSQL("UPDATE " + IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + " SET sort_key = scheduled - " +
+                "ifnull(priority, 0) * " + IterableTaskStorage.PRIORITY_AGING_INTERVAL_MS);
+        createSortKeyIndex(db);
+    }
+
+    private void createIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_OFFLINE_TASK_SCHEDULED + " ON " +
+                IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + " (" +
+                IterableTaskStorage.SCHEDULED_AT + ", " + IterableTaskStorage.PRIORITY + ")");
+        createSortKeyIndex(db);
+    }
+
+    private void createSortKeyIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_OFFLINE_TASK_SORT_KEY + " ON " +
+                IterableTaskStorage.ITERABLE_TASK_TABLE_NAME + " (" +
+                IterableTaskStorage.FAILED + ", " + IterableTaskStorage.PROCESSING + ", " +
+                IterableTaskStorage.SORT_KEY + ", " + IterableTaskStorage.SCHEDULED_AT + ")");
     }
 
 }
@@ -4,9 +4,8 @@ import android.os.AsyncTask;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.IOException;
 import java.net.HttpCookie;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -72,23 +71,24 @@ class IterableDeeplinkManager {
             }
 
             String urlString = params[0];
-            HttpURLConnection urlConnection = null;
+            IterableHttpTransport.Response response = null;
 
             try {
-                URL url = new URL(urlString);
-                urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setReadTimeout(DEFAULT_TIMEOUT_MS);
-                urlConnection.setInstanceFollowRedirects(false);
+                IterableHttpTransport.Request request = new IterableHttpTransport.Request.Builder(IterableApiRequest.GET, urlString)
+                        .setTimeouts(0, DEFAULT_TIMEOUT_MS)
+                        .setFollowRedirects(false)
+                        .build();
+                response = IterableApi.getInstance().getHttpTransport().execute(request);
 
-                int responseCode = urlConnection.getResponseCode();
+                int responseCode = response.getCode();
 
                 if (responseCode >= 400) {
                     IterableLogger.d(TAG, "Invalid Request for: " + urlString + ", returned code " + responseCode);
                 } else if (responseCode >= 300) {
-                    urlString = urlConnection.getHeaderField(IterableConstants.LOCATION_HEADER_FIELD);
+                    urlString = response.getHeader(IterableConstants.LOCATION_HEADER_FIELD);
                     try {
-                        List<String> cookieHeaders = urlConnection.getHeaderFields().get("Set-Cookie");
-                        if (cookieHeaders != null) {
+                        List<String> cookieHeaders = response.getHeaders("Set-Cookie");
+                        if (!cookieHeaders.isEmpty()) {
                             ArrayList<HttpCookie> httpCookies = new ArrayList<>(cookieHeaders.size());
                             for (String cookieString : cookieHeaders) {
                                 List<HttpCookie> cookies = HttpCookie.parse(cookieString);
@@ -113,8 +113,12 @@ class IterableDeeplinkManager {
             } catch (Exception e) {
                 IterableLogger.e(TAG, e.getMessage());
             } finally {
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
+                if (response != null) {
+                    try {
+                        response.close();
+                    } catch (IOException e) {
+                        IterableLogger.d(TAG, "Could not close the response: " + e.getMessage());
+                    }
                 }
             }
             return urlString;
@@ -0,0 +1,274 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends the HTTP requests of the SDK: API calls, push notification images, inbox thumbnails and
+ * link redirects. The default implementation uses {@link java.net.HttpURLConnection} and reuses
+ * connections to the same host. Apps can supply their own implementation, for example one backed
+ * by OkHttp to get HTTP/2, with {@link IterableConfig.Builder#setHttpTransport(IterableHttpTransport)}.
+ * <p>
+ * Implementations must be thread-safe: requests are sent from several threads at once.
+ */
+public interface IterableHttpTransport {
+
+    /**
+     * Sends a request and returns once the response headers have been received
+     *
+     * @return response, which the SDK closes once it has read the body
+     * @throws IOException if the request could not be sent or the response could not be read
+     */
+    @NonNull
+    Response execute(@NonNull Request request) throws IOException;
+
+    final class Request {
+        private static final int GZIP_BUFFER_SIZE = 4096;
+
+        private final String method;
+        private final String url;
+        private final Map<String, String> headers;
+        @Nullable private final byte[] body;
+        private final int connectTimeoutMs;
+        private final int readTimeoutMs;
+        private final boolean followRedirects;
+        private final boolean gzipBody;
+
+        private Request(Builder builder) {
+            method = builder.method;
+            url = builder.url;
+            headers = Collections.unmodifiableMap(new LinkedHashMap<>(builder.headers));
+            body = builder.body;
+            connectTimeoutMs = builder.connectTimeoutMs;
+            readTimeoutMs = builder.readTimeoutMs;
+            followRedirects = builder.followRedirects;
+            gzipBody = builder.gzipBody;
+        }
+
+        @NonNull
+        public String getMethod() {
+            return method;
+        }
+
+        @NonNull
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return request headers, in the order they were set
+         */
+        @NonNull
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * @return uncompressed request body, or null for requests without a body. Use
+         * {@link #writeBody(OutputStream)} to send it.
+         */
+        @Nullable
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * @return whether the body is sent gzip-compressed, with a {@code Content-Encoding: gzip} header
+         */
+        public boolean isGzipBody() {
+            return gzipBody;
+        }
+
+        /**
+         * @return number of bytes {@link #writeBody(OutputStream)} writes, or -1 if it isn't known
+         * in advance because the body is compressed while it is written
+         */
+        public long getContentLength() {
+            if (body == null) {
+                return 0;
+            }
+            return gzipBody ? -1 : body.length;
+        }
+
+        /**
+         * Writes the body as it should be sent, compressing it on the fly if needed.
+         * Does not close the stream.
+         */
+        public void writeBody(@NonNull OutputStream outputStream) throws IOException {
+            if (body == null) {
+                return;
+            }
+            if (gzipBody) {
+                // Closing the gzip stream releases its deflater, but must leave the target stream open
+                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(new FilterOutputStream(outputStream) {
+                    @Override
+                    public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+                        out.write(buffer, offset, length);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                }, GZIP_BUFFER_SIZE);
+                gzipOutputStream.write(body);
+                gzipOutputStream.close();
+            } else {
+                outputStream.write(body);
+            }
+        }
+
+        /**
+         * @return connect timeout in milliseconds, 0 for the transport's default
+         */
+        public int getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        /**
+         * @return read timeout in milliseconds, 0 for the transport's default
+         */
+        public int getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        /**
+         * @return whether redirects should be followed. When false, 3xx responses are returned as-is.
+         */
+        public boolean isFollowRedirects() {
+            return followRedirects;
+        }
+
+        public static class Builder {
+            private final String method;
+            private final String url;
+            private final Map<String, String> headers = new LinkedHashMap<>();
+            private byte[] body;
+            private int connectTimeoutMs;
+            private int readTimeoutMs;
+            private boolean followRedirects = true;
+            private boolean gzipBody;
+
+            public Builder(@NonNull String method, @NonNull String url) {
+                this.method = method;
+                this.url = url;
+            }
+
+            @NonNull
+            public Builder setHeader(@NonNull String name, @Nullable String value) {
+                if (value != null) {
+                    headers.put(name, value);
+                }
+                return this;
+            }
+
+            @NonNull
+            public Builder setBody(@Nullable byte[] body) {
+                this.body = body;
+                return this;
+            }
+
+            @NonNull
+            public Builder setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+                this.connectTimeoutMs = connectTimeoutMs;
+                this.readTimeoutMs = readTimeoutMs;
+                return this;
+            }
+
+            @NonNull
+            public Builder setFollowRedirects(boolean followRedirects) {
+                this.followRedirects = followRedirects;
+                return this;
+            }
+
+            /**
+             * Compresses the body with gzip when it is sent. Sets the {@code Content-Encoding} header.
+             */
+            @NonNull
+            public Builder setGzipBody(boolean gzipBody) {
+                this.gzipBody = gzipBody;
+                if (gzipBody) {
+                    headers.put("Content-Encoding", "gzip");
+                } else {
+                    headers.remove("Content-Encoding");
+                }
+                return this;
+            }
+
+            @NonNull
+            public Request build() {
+                return new Request(this);
+            }
+        }
+    }
+
+    class Response implements Closeable {
+        private final int code;
+        private final Map<String, List<String>> headers;
+        @Nullable private final InputStream body;
+
+        /**
+         * @param code    HTTP status code
+         * @param headers response headers. Header names are matched ignoring case.
+         * @param body    response body, including the body of error responses. Closing it must
+         *                release the connection.
+         */
+        public Response(int code, @NonNull Map<String, List<String>> headers, @Nullable InputStream body) {
+            this.code = code;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * @return the first value of the header, or null if the response doesn't have it
+         */
+        @Nullable
+        public String getHeader(@NonNull String name) {
+            List<String> values = getHeaders(name);
+            return values.isEmpty() ? null : values.get(0);
+        }
+
+        /**
+         * @return all values of the header, empty if the response doesn't have it
+         */
+        @NonNull
+        public List<String> getHeaders(@NonNull String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null) {
+                    return header.getValue();
+                }
+            }
+            return Collections.emptyList();
+        }
+
+        /**
+         * @return response body, or null if the response doesn't have one
+         */
+        @Nullable
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (body != null) {
+                body.close();
+            }
+        }
+    }
+}
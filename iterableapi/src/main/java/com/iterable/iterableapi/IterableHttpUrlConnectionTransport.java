@@ -0,0 +1,102 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Default {@link IterableHttpTransport}. Connections are not disconnected after each request:
+ * the response body is read to the end and closed instead, which lets HttpURLConnection keep the
+ * connection alive and reuse it, and its TLS session, for the next request to the same host.
+ */
+class IterableHttpUrlConnectionTransport implements IterableHttpTransport {
+    private static final String TAG = "IterableHttpTransport";
+
+    static final IterableHttpUrlConnectionTransport INSTANCE = new IterableHttpUrlConnectionTransport();
+
+    @NonNull
+    @Override
+    public Response execute(@NonNull Request request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        try {
+            connection.setRequestMethod(request.getMethod());
+            connection.setConnectTimeout(request.getConnectTimeoutMs());
+            connection.setReadTimeout(request.getReadTimeoutMs());
+            connection.setInstanceFollowRedirects(request.isFollowRedirects());
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            if (request.getBody() != null) {
+                connection.setDoOutput(true);
+                long contentLength = request.getContentLength();
+                if (contentLength >= 0) {
+                    connection.setFixedLengthStreamingMode((int) contentLength);
+                } else {
+                    // Compressed bodies are streamed to the connection as they are compressed
+                    connection.setChunkedStreamingMode(0);
+                }
+                OutputStream outputStream = connection.getOutputStream();
+                request.writeBody(outputStream);
+                outputStream.close();
+            }
+
+            int responseCode = connection.getResponseCode();
+            InputStream inputStream = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+            return new Response(responseCode, connection.getHeaderFields(),
+                    inputStream != null ? new ReleasingInputStream(inputStream, connection) : null);
+        } catch (IOException | RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads what is left of the body on close, so that the connection can be reused. The
+     * connection is dropped if that fails, or if more than {@link #MAX_DRAIN_BYTES} are left,
+     * as reading them would cost more than opening a new connection.
+     */
+    private static class ReleasingInputStream extends FilterInputStream {
+        static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+        private final HttpURLConnection connection;
+        private boolean closed;
+
+        ReleasingInputStream(InputStream inputStream, HttpURLConnection connection) {
+            super(inputStream);
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                byte[] buffer = new byte[1024];
+                int drainedBytes = 0;
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    // Discard the rest of the body
+                    drainedBytes += count;
+                    if (drainedBytes > MAX_DRAIN_BYTES) {
+                        IterableLogger.d(TAG, "Dropping connection with more than " + MAX_DRAIN_BYTES + " bytes of unread body");
+                        connection.disconnect();
+                        return;
+                    }
+                }
+                in.close();
+            } catch (IOException e) {
+                IterableLogger.d(TAG, "Could not release connection: " + e.getMessage());
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -5,40 +5,99 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
+import com.iterable.iterableapi.util.IOUtils;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Persists in-app messages to files. The HTML content of each message is saved to its own file.
+ * <p>
+ * The other message data is saved to a snapshot of all messages, and changes made after it are
+ * appended to a journal: a change to a message writes that message only. Once the journal has
+ * as many entries as there are messages, the journal is compacted into a new snapshot.
+ * The snapshot is replaced atomically and records the generation of the journal that follows it,
+ * so that the journal of a previous snapshot, or an incomplete journal entry, is never applied.
+ */
 public class IterableInAppFileStorage implements IterableInAppStorage, IterableInAppMessage.OnChangeListener {
     private static final String TAG = "IterableInAppFileStorage";
     private static final String FOLDER_PATH = "IterableInAppFileStorage";
     private static final String INDEX_FILE = "index.html";
+    private static final String STORAGE_FILE = "itbl_inapp.json";
+    private static final String JOURNAL_FILE = "itbl_inapp_journal";
     private static final int OPERATION_SAVE = 100;
 
+    private static final String KEY_JOURNAL_GENERATION = "journalGeneration";
+    private static final String KEY_JOURNAL_OPERATION = "op";
+    private static final String KEY_JOURNAL_MESSAGE = "message";
+    private static final String JOURNAL_ADD = "add";
+    private static final String JOURNAL_UPDATE = "update";
+    private static final String JOURNAL_REMOVE = "remove";
+
+    /**
+     * The journal is compacted once it has more entries than this, or than there are messages
+     */
+    static final int MIN_JOURNAL_ENTRIES_BEFORE_COMPACTION = 100;
+
     private final Context context;
 
+    /**
+     * HTML content of the most recently used messages, read from storage on a miss
+     */
+    private final LruCache<String, String> htmlCache;
+
     private Map<String, IterableInAppMessage> messages =
             Collections.synchronizedMap(new LinkedHashMap<String, IterableInAppMessage>());
 
+    /**
+     * Journal operations of the changes that haven't been saved yet, by message id
+     */
+    private final Map<String, String> pendingChanges = new LinkedHashMap<>();
+    private long journalGeneration;
+    private int journalEntryCount;
+    private boolean compactionNeeded = true;
+
     private final HandlerThread fileOperationThread = new HandlerThread("FileOperationThread");
 
     @VisibleForTesting
     FileOperationHandler fileOperationHandler;
 
     IterableInAppFileStorage(Context context) {
+        this(context, IterableConfig.DEFAULT_INAPP_HTML_CACHE_SIZE_BYTES);
+    }
+
+    IterableInAppFileStorage(Context context, int htmlCacheSizeBytes) {
         this.context = context;
+        this.htmlCache = new LruCache<String, String>(Math.max(1, htmlCacheSizeBytes)) {
+            @Override
+            protected int sizeOf(String messageID, String html) {
+                // Java strings take two bytes per character
+                return html.length() * 2;
+            }
+
+            @Override
+            protected String create(String messageID) {
+                return IterableUtil.readFile(getFileForContent(messageID));
+            }
+        };
 
         fileOperationThread.start();
         fileOperationHandler = new FileOperationHandler(fileOperationThread.getLooper());
@@ -63,6 +122,7 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
     public synchronized void addMessage(@NonNull IterableInAppMessage message) {
         messages.put(message.getMessageId(), message);
         message.setOnChangeListener(this);
+        addPendingChange(message.getMessageId(), JOURNAL_ADD);
         saveMessagesInBackground();
     }
 
@@ -71,6 +131,7 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
         message.setOnChangeListener(null);
         removeHTML(message.getMessageId());
         messages.remove(message.getMessageId());
+        addPendingChange(message.getMessageId(), JOURNAL_REMOVE);
         saveMessagesInBackground();
     }
 
@@ -84,6 +145,7 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
 
         File file = new File(folder, INDEX_FILE);
         boolean result = IterableUtil.writeFile(file, contentHTML);
+        htmlCache.remove(messageID);
         if (!result) {
             IterableLogger.e(TAG, "Failed to store HTML content");
         }
@@ -92,12 +154,12 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
     @Nullable
     @Override
     public String getHTML(@NonNull String messageID) {
-        File file = getFileForContent(messageID);
-        return IterableUtil.readFile(file);
+        return htmlCache.get(messageID);
     }
 
     @Override
     public void removeHTML(@NonNull String messageID) {
+        htmlCache.remove(messageID);
         File folder = getFolderForMessage(messageID);
 
         File[] files = folder.listFiles();
@@ -110,12 +172,30 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
         }
         folder.delete();
     }
+
+    @NonNull
+    IterableInAppHtmlCacheStats getHtmlCacheStats() {
+        return new IterableInAppHtmlCacheStats(htmlCache.size(), htmlCache.maxSize(),
+                htmlCache.hitCount(), htmlCache.missCount(), htmlCache.evictionCount());
+    }
     //endregion
 
     //region In-App Lifecycle
     @Override
-    public void onInAppMessageChanged(@NonNull IterableInAppMessage message) {
-        saveMessagesInBackground();
+    public synchronized void onInAppMessageChanged(@NonNull IterableInAppMessage message) {
+        if (messages.get(message.getMessageId()) == message) {
+            addPendingChange(message.getMessageId(), JOURNAL_UPDATE);
+            saveMessagesInBackground();
+        }
+    }
+
+    private void addPendingChange(@NonNull String messageId, @NonNull String operation) {
+        if (JOURNAL_UPDATE.equals(operation) && pendingChanges.containsKey(messageId)) {
+            // The pending add or remove already saves the latest state of the message
+            return;
+        }
+        pendingChanges.remove(messageId);
+        pendingChanges.put(messageId, operation);
     }
 
     private synchronized void clearMessages() {
@@ -146,6 +226,18 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
         return jsonData;
     }
 
+    @NonNull
+    private JSONObject serializeJournalEntry(@NonNull String messageId, @NonNull String operation) throws JSONException {
+        JSONObject entryJson = new JSONObject();
+        entryJson.put(KEY_JOURNAL_OPERATION, operation);
+        if (JOURNAL_REMOVE.equals(operation)) {
+            entryJson.put(IterableConstants.KEY_MESSAGE_ID, messageId);
+        } else {
+            entryJson.put(KEY_JOURNAL_MESSAGE, messages.get(messageId).toJSONObject());
+        }
+        return entryJson;
+    }
+
     private void loadMessagesFromJson(JSONObject jsonData) {
         clearMessages();
         JSONArray messagesJson = jsonData.optJSONArray("inAppMessages");
@@ -163,6 +255,24 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
             }
         }
     }
+
+    private void applyJournalEntry(JSONObject entryJson) throws JSONException {
+        String operation = entryJson.getString(KEY_JOURNAL_OPERATION);
+        if (JOURNAL_REMOVE.equals(operation)) {
+            messages.remove(entryJson.getString(IterableConstants.KEY_MESSAGE_ID));
+            return;
+        }
+
+        IterableInAppMessage message = IterableInAppMessage.fromJSONObject(entryJson.getJSONObject(KEY_JOURNAL_MESSAGE), this);
+        if (message != null) {
+            if (JOURNAL_ADD.equals(operation)) {
+                // Added messages go to the end, as they did when they were added
+                messages.remove(message.getMessageId());
+            }
+            message.setOnChangeListener(this);
+            messages.put(message.getMessageId(), message);
+        }
+    }
     //endregion
 
     //region File Saving/Loading
@@ -172,6 +282,8 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
             if (inAppStorageFile.exists()) {
                 JSONObject jsonData = new JSONObject(IterableUtil.readFile(inAppStorageFile));
                 loadMessagesFromJson(jsonData);
+                journalGeneration = jsonData.optLong(KEY_JOURNAL_GENERATION, 0);
+                compactionNeeded = !replayJournal();
             } else if (getInAppCacheStorageFile().exists()) {
                 JSONObject jsonData = new JSONObject(IterableUtil.readFile(getInAppCacheStorageFile()));
                 loadMessagesFromJson(jsonData);
@@ -187,9 +299,48 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
         }
     }
 
+    /**
+     * Applies the changes saved to the journal since the snapshot was written
+     *
+     * @return false if the journal has to be compacted before new entries are appended: it belongs
+     * to a previous snapshot, or its last entry is incomplete
+     */
+    private boolean replayJournal() {
+        File journalFile = getJournalFile();
+        if (!journalFile.exists()) {
+            return true;
+        }
+
+        String journal = readJournal(journalFile);
+        if (journal == null) {
+            return false;
+        }
+        String[] lines = journal.split("\n");
+        try {
+            JSONObject headerJson = new JSONObject(lines[0]);
+            if (headerJson.optLong(KEY_JOURNAL_GENERATION, -1) != journalGeneration) {
+                IterableLogger.d(TAG, "Ignoring journal of a previous snapshot");
+                return false;
+            }
+            for (int i = 1; i < lines.length; i++) {
+                applyJournalEntry(new JSONObject(lines[i]));
+                journalEntryCount++;
+            }
+        } catch (JSONException e) {
+            // A write was interrupted: the entries before it are applied
+            IterableLogger.w(TAG, "In-app message journal is incomplete", e);
+            return false;
+        }
+        return journal.endsWith("\n");
+    }
+
     private synchronized void saveMessages() {
         saveHTMLContent();
-        saveMetadata();
+        if (compactionNeeded || journalEntryCount + pendingChanges.size() > Math.max(MIN_JOURNAL_ENTRIES_BEFORE_COMPACTION, messages.size())) {
+            compactJournal();
+        } else {
+            appendPendingChanges();
+        }
     }
 
     private synchronized void saveHTMLContent() {
@@ -197,28 +348,128 @@ public class IterableInAppFileStorage implements IterableInAppStorage, IterableI
             if (message.hasLoadedHtmlFromJson()) {
                 saveHTML(message.getMessageId(), message.getContent().html);
                 message.setLoadedHtmlFromJson(false);
+                if (getFileForContent(message.getMessageId()).exists()) {
+                    message.releaseLoadedHtml();
+                }
             }
         }
     }
 
-    private synchronized void saveMetadata() {
+    private synchronized void appendPendingChanges() {
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+
         try {
-            File inAppStorageFile = getInAppStorageFile();
+            StringBuilder entries = new StringBuilder();
+            File journalFile = getJournalFile();
+            if (!journalFile.exists()) {
+                entries.append(new JSONObject().put(KEY_JOURNAL_GENERATION, journalGeneration)).append('\n');
+            }
+            for (Map.Entry<String, String> change : pendingChanges.entrySet()) {
+                entries.append(serializeJournalEntry(change.getKey(), change.getValue())).append('\n');
+            }
+            if (appendToFile(journalFile, entries.toString())) {
+                journalEntryCount += pendingChanges.size();
+                pendingChanges.clear();
+                return;
+            }
+        } catch (Exception e) {
+            IterableLogger.e(TAG, "Error while saving in-app message changes to file", e);
+        }
+        // The journal may end with an incomplete entry now
+        compactJournal();
+    }
+
+    /**
+     * Replaces the snapshot with the current state of all messages, and starts a new journal
+     */
+    private synchronized void compactJournal() {
+        compactionNeeded = true;
+        try {
+            journalGeneration++;
             JSONObject jsonData = serializeMessages();
-            IterableUtil.writeFile(inAppStorageFile, jsonData.toString());
+            jsonData.put(KEY_JOURNAL_GENERATION, journalGeneration);
+            if (!writeFileAtomically(getInAppStorageFile(), jsonData.toString())) {
+                IterableLogger.e(TAG, "Failed to save in-app messages to file");
+                return;
+            }
+            getJournalFile().delete();
+            journalEntryCount = 0;
+            pendingChanges.clear();
+            compactionNeeded = false;
         } catch (Exception e) {
             IterableLogger.e(TAG, "Error while saving in-app messages to file", e);
         }
     }
+
+    @Nullable
+    private static String readJournal(@NonNull File file) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+            return new String(outputStream.toByteArray(), IterableRequestBody.UTF_8);
+        } catch (IOException e) {
+            IterableLogger.e(TAG, "Error while reading in-app message journal", e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private static boolean appendToFile(@NonNull File file, @NonNull String content) {
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file, true);
+            outputStream.write(content.getBytes(IterableRequestBody.UTF_8));
+            outputStream.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            IterableLogger.e(TAG, "Error while appending to file: " + file, e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * Writes the file to a temporary file first, so that a crash leaves either the previous or the
+     * new content in place
+     */
+    private static boolean writeFileAtomically(@NonNull File file, @NonNull String content) {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(content.getBytes(IterableRequestBody.UTF_8));
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            IterableLogger.e(TAG, "Error while writing file: " + tempFile, e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+        return tempFile.renameTo(file);
+    }
     //endregion
 
     //region File Management
     private File getInAppStorageFile() {
-        return new File(getInAppContentFolder(), "itbl_inapp.json");
+        return new File(getInAppContentFolder(), STORAGE_FILE);
+    }
+
+    private File getJournalFile() {
+        return new File(getInAppContentFolder(), JOURNAL_FILE);
     }
 
     private File getInAppCacheStorageFile() {
-        return new File(IterableUtil.getSdkCacheDir(context), "itbl_inapp.json");
+        return new File(IterableUtil.getSdkCacheDir(context), STORAGE_FILE);
     }
 
     @Nullable
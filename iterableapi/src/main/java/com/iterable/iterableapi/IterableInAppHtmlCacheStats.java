@@ -0,0 +1,65 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Usage of the memory cache of in-app message HTML content. Returned by
+ * {@link IterableInAppManager#getHtmlCacheStats()} for diagnostics.
+ */
+public final class IterableInAppHtmlCacheStats {
+    private final int sizeBytes;
+    private final int maxSizeBytes;
+    private final int hitCount;
+    private final int missCount;
+    private final int evictionCount;
+
+    IterableInAppHtmlCacheStats(int sizeBytes, int maxSizeBytes, int hitCount, int missCount, int evictionCount) {
+        this.sizeBytes = sizeBytes;
+        this.maxSizeBytes = maxSizeBytes;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+
+    /**
+     * @return approximate memory size in bytes of the HTML content in the cache
+     */
+    public int getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @return memory budget of the cache in bytes
+     */
+    public int getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    /**
+     * @return number of times the HTML content of a message was found in the cache
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of times the HTML content of a message was read from storage
+     */
+    public int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of times HTML content was dropped from the cache to stay within the budget
+     */
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return sizeBytes + " of " + maxSizeBytes + " bytes (" + hitCount + " hits, " + missCount
+                + " misses, " + evictionCount + " evictions)";
+    }
+}
@@ -9,6 +9,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.VisibleForTesting;
+import androidx.core.util.ObjectsCompat;
 
 import com.iterable.iterableapi.IterableInAppHandler.InAppResponse;
 import com.iterable.iterableapi.IterableInAppMessage.Trigger.TriggerType;
@@ -18,6 +19,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -47,6 +50,8 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
     private final IterableActivityMonitor activityMonitor;
     private final double inAppDisplayInterval;
     private final List<Listener> listeners = new ArrayList<>();
+    // Syncs requested while one is in progress are combined into one sync after it
+    private final IterableSingleFlight syncFlight = new IterableSingleFlight();
     private long lastSyncTime = 0;
     private long lastInAppShown = 0;
     private boolean autoDisplayPaused = false;
@@ -95,6 +100,18 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
         return filteredList;
     }
 
+    /**
+     * Get the usage of the memory cache of in-app message HTML content
+     * @return {@link IterableInAppHtmlCacheStats}, or null if in-app messages are kept in memory
+     */
+    @Nullable
+    public IterableInAppHtmlCacheStats getHtmlCacheStats() {
+        if (storage instanceof IterableInAppFileStorage) {
+            return ((IterableInAppFileStorage) storage).getHtmlCacheStats();
+        }
+        return null;
+    }
+
     synchronized IterableInAppMessage getMessageById(String messageId) {
         return storage.getMessage(messageId);
     }
@@ -166,34 +183,181 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
      */
     void syncInApp() {
         IterableLogger.printInfo();
-        this.api.getInAppMessages(MESSAGES_TO_FETCH, new IterableHelper.IterableActionHandler() {
+        syncFlight.execute(IterableConstants.ENDPOINT_GET_INAPP_MESSAGES, new IterableSingleFlight.Call() {
             @Override
-            public void execute(String payload) {
-                if (payload != null && !payload.isEmpty()) {
-                    try {
-                        List<IterableInAppMessage> messages = new ArrayList<>();
-                        JSONObject mainObject = new JSONObject(payload);
-                        JSONArray jsonArray = mainObject.optJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE);
-                        if (jsonArray != null) {
-                            for (int i = 0; i < jsonArray.length(); i++) {
-                                JSONObject messageJson = jsonArray.optJSONObject(i);
-                                IterableInAppMessage message = IterableInAppMessage.fromJSONObject(messageJson, null);
-                                if (message != null) {
-                                    messages.add(message);
-                                }
-                            }
-
-                            syncWithRemoteQueue(messages);
+            public void execute(@NonNull final IterableHelper.SuccessHandler onSuccess, @NonNull final IterableHelper.FailureHandler onFailure) {
+                final boolean deltaSync = isDeltaSyncEnabled();
+                final long syncStartTime = IterableUtil.currentTimeMillis();
+                final InAppSyncReader syncReader = new InAppSyncReader(deltaSync);
+                IterableHelper.SuccessHandler successHandler = new IterableHelper.SuccessHandler() {
+                    @Override
+                    public void onSuccess(@NonNull JSONObject data) {
+                        if (syncReader.notModified) {
+                            // The remote queue hasn't changed since the last sync
+                            lastSyncTime = IterableUtil.currentTimeMillis();
+                            scheduleProcessing();
+                        } else if (syncReader.removedMessageIds != null) {
+                            syncWithRemoteChanges(syncReader.getMessages(), syncReader.changedHtml, syncReader.removedMessageIds);
+                            lastSyncTime = IterableUtil.currentTimeMillis();
+                            saveLastDeltaSyncTime(syncStartTime);
+                        } else if (syncReader.hasMessageList) {
+                            syncWithRemoteQueue(syncReader.getMessages());
                             lastSyncTime = IterableUtil.currentTimeMillis();
+                            if (deltaSync) {
+                                saveLastDeltaSyncTime(syncStartTime);
+                            }
+                        } else {
+                            syncReader.removeSavedHtml();
+                            scheduleProcessing();
                         }
-                    } catch (JSONException e) {
-                        IterableLogger.e(TAG, e.toString());
+                        onSuccess.onSuccess(data);
+                    }
+                };
+                IterableHelper.FailureHandler failureHandler = new IterableHelper.FailureHandler() {
+                    @Override
+                    public void onFailure(@NonNull String reason, @Nullable JSONObject data) {
+                        IterableLogger.e(TAG, "Failed to sync in-app messages: " + reason);
+                        syncReader.removeSavedHtml();
+                        scheduleProcessing();
+                        onFailure.onFailure(reason, data);
                     }
+                };
+                if (deltaSync) {
+                    api.syncInAppMessages(MESSAGES_TO_FETCH, getKnownMessages(), getLastDeltaSyncTime(), syncReader, successHandler, failureHandler);
                 } else {
-                    scheduleProcessing();
+                    api.getInAppMessages(MESSAGES_TO_FETCH, syncReader, successHandler, failureHandler);
                 }
             }
-        });
+        }, null, null);
+    }
+
+    private boolean isDeltaSyncEnabled() {
+        return api.config != null && api.config.inAppDeltaSyncEnabled;
+    }
+
+    /**
+     * @return ids and content hashes of the stored messages, sent with delta syncs
+     */
+    @NonNull
+    private JSONArray getKnownMessages() {
+        JSONArray knownMessages = new JSONArray();
+        for (IterableInAppMessage message : storage.getMessages()) {
+            try {
+                JSONObject knownMessage = new JSONObject();
+                knownMessage.put(IterableConstants.KEY_MESSAGE_ID, message.getMessageId());
+                // Without a hash, the message is sent again by the server
+                knownMessage.putOpt(IterableConstants.ITERABLE_IN_APP_CONTENT_HASH, message.getContentHash());
+                knownMessages.put(knownMessage);
+            } catch (JSONException e) {
+                IterableLogger.e(TAG, "Failed to add known in-app message", e);
+            }
+        }
+        return knownMessages;
+    }
+
+    private long getLastDeltaSyncTime() {
+        if (context == null || storage.getMessages().isEmpty()) {
+            return 0;
+        }
+        return context.getSharedPreferences(IterableConstants.SHARED_PREFS_FILE, Context.MODE_PRIVATE)
+                .getLong(IterableConstants.SHARED_PREFS_INAPP_LAST_SYNC_TIME_KEY, 0);
+    }
+
+    private void saveLastDeltaSyncTime(long syncTime) {
+        if (context != null) {
+            context.getSharedPreferences(IterableConstants.SHARED_PREFS_FILE, Context.MODE_PRIVATE).edit()
+                    .putLong(IterableConstants.SHARED_PREFS_INAPP_LAST_SYNC_TIME_KEY, syncTime)
+                    .apply();
+        }
+    }
+
+    /**
+     * Reads the messages of a sync on the request thread. The HTML content of new messages is
+     * saved to storage as each message is parsed, instead of being kept with the messages until
+     * they are added to storage. If the sync isn't applied, that content is removed again with
+     * {@link #removeSavedHtml()}.
+     */
+    private class InAppSyncReader implements IterableApiRequest.ResponseBodyReader, IterableInAppMessageParser.Listener {
+        private final boolean deltaSync;
+        private final List<IterableInAppMessage> messages = new ArrayList<>();
+        // Messages that were already stored when they were parsed
+        private final List<IterableInAppMessage> storedMessages = new ArrayList<>();
+        // HTML content of stored messages that changed, saved once the stored message is replaced
+        private final Map<String, String> changedHtml = new HashMap<>();
+        // Ids of new messages whose HTML content was saved while the response was read
+        private final List<String> savedHtmlMessageIds = new ArrayList<>();
+        private boolean hasMessageList;
+        private boolean notModified;
+        // Set for delta sync responses
+        private List<String> removedMessageIds;
+
+        InAppSyncReader(boolean deltaSync) {
+            this.deltaSync = deltaSync;
+        }
+
+        @Override
+        public boolean canRevalidate() {
+            // Messages are gone after a reset, or on restart with in-memory storage
+            return !storage.getMessages().isEmpty();
+        }
+
+        @Override
+        public void read(@NonNull InputStream body) throws IOException {
+            hasMessageList = IterableInAppMessageParser.parse(body, storage, this);
+        }
+
+        @Override
+        public void onNotModified() {
+            notModified = true;
+        }
+
+        @Override
+        public void onMessageParsed(@NonNull IterableInAppMessage message, @Nullable String html) {
+            if (html != null) {
+                IterableInAppMessage storedMessage = storage.getMessage(message.getMessageId());
+                if (storedMessage == null) {
+                    storage.saveHTML(message.getMessageId(), html);
+                    savedHtmlMessageIds.add(message.getMessageId());
+                } else {
+                    if (deltaSync && !ObjectsCompat.equals(storedMessage.getContentHash(), message.getContentHash())) {
+                        changedHtml.put(message.getMessageId(), html);
+                    }
+                    // Otherwise the stored message already has its content and is not replaced by the sync
+                    storedMessages.add(message);
+                }
+            }
+            messages.add(message);
+        }
+
+        @Override
+        public void onMessagesRemoved(@NonNull List<String> messageIds) {
+            removedMessageIds = messageIds;
+        }
+
+        /**
+         * Removes the HTML content saved while reading a response that isn't applied, for example
+         * because the response failed to parse or the connection dropped
+         */
+        void removeSavedHtml() {
+            for (String messageId : savedHtmlMessageIds) {
+                if (storage.getMessage(messageId) == null) {
+                    storage.removeHTML(messageId);
+                }
+            }
+            savedHtmlMessageIds.clear();
+        }
+
+        @NonNull
+        List<IterableInAppMessage> getMessages() {
+            List<IterableInAppMessage> remoteMessages = new ArrayList<>(messages);
+            for (IterableInAppMessage message : storedMessages) {
+                // Removed locally while the response was read: it is added with its content on the next sync
+                if (storage.getMessage(message.getMessageId()) == null) {
+                    remoteMessages.remove(message);
+                }
+            }
+            return remoteMessages;
+        }
     }
 
     /**
@@ -206,6 +370,7 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
         for (IterableInAppMessage message : storage.getMessages()) {
             storage.removeMessage(message);
         }
+        saveLastDeltaSyncTime(0);
 
         notifyOnChange();
     }
@@ -376,6 +541,52 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
         }
     }
 
+    /**
+     * Applies a delta sync response: messages that are not mentioned are unchanged
+     */
+    private void syncWithRemoteChanges(List<IterableInAppMessage> remoteChanges, Map<String, String> changedHtml, List<String> removedMessageIds) {
+        boolean changed = false;
+
+        for (IterableInAppMessage message : remoteChanges) {
+            IterableInAppMessage localMessage = storage.getMessage(message.getMessageId());
+
+            if (localMessage == null) {
+                storage.addMessage(message);
+                onMessageAdded(message);
+
+                changed = true;
+            } else if (changedHtml.containsKey(message.getMessageId())) {
+                // The content changed: the stored message is replaced, keeping its local state
+                message.setProcessed(localMessage.isProcessed());
+                message.setRead(localMessage.isRead() || message.isRead());
+                storage.removeMessage(localMessage);
+                storage.saveHTML(message.getMessageId(), changedHtml.get(message.getMessageId()));
+                storage.addMessage(message);
+
+                changed = true;
+            } else if (!localMessage.isRead() && message.isRead()) {
+                localMessage.setRead(true);
+
+                changed = true;
+            }
+        }
+
+        for (String messageId : removedMessageIds) {
+            IterableInAppMessage localMessage = storage.getMessage(messageId);
+            if (localMessage != null) {
+                storage.removeMessage(localMessage);
+
+                changed = true;
+            }
+        }
+
+        scheduleProcessing();
+
+        if (changed) {
+            notifyOnChange();
+        }
+    }
+
     private List<IterableInAppMessage> getMessagesSortedByPriorityLevel(List<IterableInAppMessage> messages) {
         List<IterableInAppMessage> messagesByPriorityLevel = messages;
 
@@ -465,7 +676,8 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
 
             return new IterableInAppMemoryStorage();
         } else {
-            return new IterableInAppFileStorage(iterableApi.getMainActivityContext());
+            int htmlCacheSizeBytes = iterableApi.config != null ? iterableApi.config.inAppHtmlCacheSizeBytes : IterableConfig.DEFAULT_INAPP_HTML_CACHE_SIZE_BYTES;
+            return new IterableInAppFileStorage(iterableApi.getMainActivityContext(), htmlCacheSizeBytes);
         }
     }
 
@@ -473,10 +685,14 @@ public class IterableInAppManager implements IterableActivityMonitor.AppStateCal
         File sdkFilesDirectory = IterableUtil.getSDKFilesDirectory(context);
         File inAppContentFolder = IterableUtil.getDirectory(sdkFilesDirectory, "IterableInAppFileStorage");
         File inAppBlob = new File(inAppContentFolder, "itbl_inapp.json");
+        File inAppJournal = new File(inAppContentFolder, "itbl_inapp_journal");
 
         if (inAppBlob.exists()) {
             inAppBlob.delete();
         }
+        if (inAppJournal.exists()) {
+            inAppJournal.delete();
+        }
     }
 
     @Override
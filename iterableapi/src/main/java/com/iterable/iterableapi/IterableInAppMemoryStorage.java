@@ -4,10 +4,13 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 class IterableInAppMemoryStorage implements IterableInAppStorage {
     private List<IterableInAppMessage> messages = new ArrayList<>();
+    private Map<String, String> htmlContent = new HashMap<>();
 
     IterableInAppMemoryStorage() {
 
@@ -39,21 +42,22 @@ class IterableInAppMemoryStorage implements IterableInAppStorage {
     @Override
     public synchronized void removeMessage(@NonNull IterableInAppMessage message) {
         messages.remove(message);
+        htmlContent.remove(message.getMessageId());
     }
 
     @Override
-    public void saveHTML(@NonNull String messageID, @NonNull String contentHTML) {
-
+    public synchronized void saveHTML(@NonNull String messageID, @NonNull String contentHTML) {
+        htmlContent.put(messageID, contentHTML);
     }
 
     @Override
-    public String getHTML(@NonNull String messageID) {
-        return null;
+    public synchronized String getHTML(@NonNull String messageID) {
+        return htmlContent.get(messageID);
     }
 
     @Override
-    public void removeHTML(@NonNull String messageID) {
-
+    public synchronized void removeHTML(@NonNull String messageID) {
+        htmlContent.remove(messageID);
     }
     //endregion
 }
@@ -10,13 +10,15 @@ import androidx.core.util.ObjectsCompat;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 
 public class IterableInAppMessage {
     private static final String TAG = "IterableInAppMessage";
 
     private final @NonNull String messageId;
-    private final @NonNull Content content;
+    private volatile @NonNull Content content;
     private final @NonNull JSONObject customPayload;
     private final @NonNull Date createdAt;
     private final @NonNull Date expiresAt;
@@ -30,6 +32,7 @@ public class IterableInAppMessage {
     private boolean read = false;
     private boolean loadedHtmlFromJson = false;
     private boolean markedForDeletion = false;
+    private @Nullable String contentHash;
     private @Nullable IterableInAppStorage inAppStorageInterface;
 
     IterableInAppMessage(@NonNull String messageId,
@@ -246,8 +249,11 @@ public class IterableInAppMessage {
 
     @NonNull
     public Content getContent() {
-        if (content.html == null) {
-            content.html = inAppStorageInterface.getHTML(messageId);
+        Content content = this.content;
+        if (content.html == null && inAppStorageInterface != null) {
+            // The HTML content is cached by the storage, and isn't kept on the message
+            return new Content(inAppStorageInterface.getHTML(messageId), content.padding, content.backgroundAlpha,
+                    false, content.inAppDisplaySettings);
         }
         return content;
     }
@@ -314,6 +320,49 @@ public class IterableInAppMessage {
         this.loadedHtmlFromJson = loadedHtmlFromJson;
     }
 
+    /**
+     * Drops the HTML content loaded from JSON once it is saved to storage, from where it is read
+     * again when needed
+     */
+    void releaseLoadedHtml() {
+        if (inAppStorageInterface != null) {
+            Content content = this.content;
+            this.content = new Content(null, content.padding, content.backgroundAlpha, false, content.inAppDisplaySettings);
+        }
+    }
+
+    /**
+     * @return hash of the HTML content, or null if it is not known
+     */
+    @Nullable
+    String getContentHash() {
+        return contentHash;
+    }
+
+    void setContentHash(@Nullable String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return hex encoded first 8 bytes of the SHA-256 hash of the HTML content, as sent to the
+     * delta sync endpoint
+     */
+    @Nullable
+    static String getContentHash(@NonNull String html) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(html.getBytes(IterableRequestBody.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            IterableLogger.e(TAG, "Failed to hash in-app message content", e);
+            return null;
+        }
+    }
+
     public boolean isMarkedForDeletion() {
         return markedForDeletion;
     }
@@ -391,6 +440,7 @@ public class IterableInAppMessage {
         message.processed = messageJson.optBoolean(IterableConstants.ITERABLE_IN_APP_PROCESSED, false);
         message.consumed = messageJson.optBoolean(IterableConstants.ITERABLE_IN_APP_CONSUMED, false);
         message.read = messageJson.optBoolean(IterableConstants.ITERABLE_IN_APP_READ, false);
+        message.contentHash = messageJson.optString(IterableConstants.ITERABLE_IN_APP_CONTENT_HASH, null);
         return message;
     }
 
@@ -444,6 +494,7 @@ public class IterableInAppMessage {
             messageJson.putOpt(IterableConstants.ITERABLE_IN_APP_PROCESSED, processed);
             messageJson.putOpt(IterableConstants.ITERABLE_IN_APP_CONSUMED, consumed);
             messageJson.putOpt(IterableConstants.ITERABLE_IN_APP_READ, read);
+            messageJson.putOpt(IterableConstants.ITERABLE_IN_APP_CONTENT_HASH, contentHash);
         } catch (JSONException e) {
             IterableLogger.e(TAG, "Error while serializing an in-app message", e);
         }
@@ -0,0 +1,181 @@
+package com.iterable.iterableapi;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the in-app messages response as it is read from the connection.
+ * <p>
+ * Messages are handed over one at a time, with their HTML content separate from the message, so
+ * the response is never held in memory as a whole: only the message being parsed is.
+ */
+class IterableInAppMessageParser {
+    private static final String TAG = "IterableInAppParser";
+
+    interface Listener {
+        /**
+         * @param message parsed message, without HTML content
+         * @param html    HTML content of the message, or null if the message has none
+         */
+        @WorkerThread
+        void onMessageParsed(@NonNull IterableInAppMessage message, @Nullable String html) throws IOException;
+
+        /**
+         * Called when the response is a delta sync response, with the ids of the messages that
+         * were removed since the last sync
+         */
+        @WorkerThread
+        void onMessagesRemoved(@NonNull List<String> messageIds);
+    }
+
+    private IterableInAppMessageParser() {
+    }
+
+    /**
+     * Parses a response of the in-app messages or delta sync endpoint
+     *
+     * @param inputStream      response body. Not closed by this method.
+     * @param storageInterface storage the parsed messages load their HTML content from
+     * @return whether the response contained a list of messages
+     * @throws IOException if the response could not be read or is not valid JSON
+     */
+    @WorkerThread
+    static boolean parse(@NonNull InputStream inputStream, @Nullable IterableInAppStorage storageInterface, @NonNull Listener listener) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, IterableRequestBody.UTF_8));
+        boolean hasMessageList = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (IterableConstants.ITERABLE_IN_APP_MESSAGE.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                hasMessageList = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    parseMessage(reader, storageInterface, listener);
+                }
+                reader.endArray();
+            } else if (IterableConstants.ITERABLE_IN_APP_REMOVED_MESSAGE_IDS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                List<String> removedMessageIds = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == JsonToken.STRING) {
+                        removedMessageIds.add(reader.nextString());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+                listener.onMessagesRemoved(removedMessageIds);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return hasMessageList;
+    }
+
+    private static void parseMessage(@NonNull JsonReader reader, @Nullable IterableInAppStorage storageInterface, @NonNull Listener listener) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+
+        // The HTML content is kept out of the message JSON, which is small without it
+        String html = null;
+        JSONObject messageJson = new JSONObject();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (IterableConstants.ITERABLE_IN_APP_CONTENT.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    JSONObject contentJson = new JSONObject();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String contentName = reader.nextName();
+                        if (IterableConstants.ITERABLE_IN_APP_HTML.equals(contentName) && reader.peek() == JsonToken.STRING) {
+                            html = reader.nextString();
+                        } else {
+                            contentJson.put(contentName, readValue(reader));
+                        }
+                    }
+                    reader.endObject();
+                    messageJson.put(name, contentJson);
+                } else {
+                    messageJson.put(name, readValue(reader));
+                }
+            }
+            reader.endObject();
+        } catch (JSONException e) {
+            throw new IOException("Invalid in-app message: " + e.getMessage());
+        }
+
+        IterableInAppMessage message = IterableInAppMessage.fromJSONObject(messageJson, storageInterface);
+        if (message != null) {
+            if (html != null) {
+                message.setContentHash(IterableInAppMessage.getContentHash(html));
+            }
+            listener.onMessageParsed(message, html);
+        } else {
+            IterableLogger.w(TAG, "Skipping in-app message without content");
+        }
+    }
+
+    /**
+     * @return the next value as it would be read by {@link JSONObject}
+     */
+    private static Object readValue(@NonNull JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    object.put(reader.nextName(), readValue(reader));
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                return readNumber(reader.nextString());
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    @NonNull
+    private static Object readNumber(@NonNull String number) {
+        try {
+            long longValue = Long.parseLong(number);
+            if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                return (int) longValue;
+            }
+            return longValue;
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(number);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Latency observed for requests to an API endpoint on a type of network, and the timeout the SDK
+ * derives from it. Returned by {@link IterableApi#getRequestLatencyEstimates()} for diagnostics.
+ */
+public final class IterableLatencyEstimate {
+    private final String endpoint;
+    private final String networkType;
+    private final long smoothedLatencyMs;
+    private final long latencyVariationMs;
+    private final int sampleCount;
+    private final int timeoutCount;
+    private final int timeoutMs;
+
+    IterableLatencyEstimate(@NonNull String endpoint, @NonNull String networkType, long smoothedLatencyMs, long latencyVariationMs, int sampleCount, int timeoutCount, int timeoutMs) {
+        this.endpoint = endpoint;
+        this.networkType = networkType;
+        this.smoothedLatencyMs = smoothedLatencyMs;
+        this.latencyVariationMs = latencyVariationMs;
+        this.sampleCount = sampleCount;
+        this.timeoutCount = timeoutCount;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * @return API endpoint, such as {@code events/track}
+     */
+    @NonNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return network type: {@code wifi}, {@code ethernet}, {@code 2g}, {@code 3g}, {@code 4g},
+     * {@code 5g}, {@code cellular}, {@code other} or {@code none}
+     */
+    @NonNull
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    /**
+     * @return smoothed time in milliseconds until the response headers are received
+     */
+    public long getSmoothedLatencyMs() {
+        return smoothedLatencyMs;
+    }
+
+    /**
+     * @return smoothed deviation of the latency from {@link #getSmoothedLatencyMs()}, in milliseconds
+     */
+    public long getLatencyVariationMs() {
+        return latencyVariationMs;
+    }
+
+    /**
+     * @return number of responses the estimate is based on
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return number of requests that timed out
+     */
+    public int getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @return connect and read timeout, in milliseconds, of the next request
+     */
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return endpoint + " on " + networkType + ": " + smoothedLatencyMs + " ms ± " + latencyVariationMs
+                + " ms (" + sampleCount + " responses, " + timeoutCount + " timeouts), timeout " + timeoutMs + " ms";
+    }
+}
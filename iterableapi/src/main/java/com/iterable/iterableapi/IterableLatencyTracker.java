@@ -0,0 +1,250 @@
+package com.iterable.iterableapi;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a rolling estimate of the latency of API requests per endpoint and network type, and
+ * derives request timeouts from it.
+ * <p>
+ * The estimate follows the retransmission timer of RFC 6298: a smoothed latency and latency
+ * variation are updated with each response, and the timeout is the smoothed latency plus four
+ * times the variation. Each timeout doubles the next timeout until a response is received.
+ * Until the first response, the endpoint's default timeout is used.
+ */
+class IterableLatencyTracker {
+    private static final String TAG = "IterableLatencyTracker";
+
+    static final String NETWORK_TYPE_NONE = "none";
+    static final String NETWORK_TYPE_WIFI = "wifi";
+    static final String NETWORK_TYPE_ETHERNET = "ethernet";
+    static final String NETWORK_TYPE_2G = "2g";
+    static final String NETWORK_TYPE_3G = "3g";
+    static final String NETWORK_TYPE_4G = "4g";
+    static final String NETWORK_TYPE_5G = "5g";
+    static final String NETWORK_TYPE_CELLULAR = "cellular";
+    static final String NETWORK_TYPE_OTHER = "other";
+
+    private static final int MAX_BACKOFF_SHIFT = 4;
+
+    private final Map<String, Estimate> estimates = new HashMap<>();
+
+    /**
+     * @return timeout in milliseconds for the next request to the endpoint on the given network,
+     * between {@code minTimeoutMs} and {@code maxTimeoutMs}
+     */
+    synchronized int getTimeoutMs(@NonNull String endpoint, @NonNull String networkType, int defaultTimeoutMs, int minTimeoutMs, int maxTimeoutMs) {
+        Estimate estimate = getOrCreateEstimate(endpoint, networkType);
+        estimate.defaultTimeoutMs = defaultTimeoutMs;
+        return estimate.getTimeoutMs(minTimeoutMs, maxTimeoutMs);
+    }
+
+    /**
+     * Records the time it took to receive the response headers of a request
+     */
+    synchronized void onResponse(@NonNull String endpoint, @NonNull String networkType, long latencyMs) {
+        getOrCreateEstimate(endpoint, networkType).addSample(Math.max(0, latencyMs));
+    }
+
+    /**
+     * Records a request that timed out, which doubles the next timeout
+     */
+    synchronized void onTimeout(@NonNull String endpoint, @NonNull String networkType) {
+        Estimate estimate = getOrCreateEstimate(endpoint, networkType);
+        estimate.backoffShift = Math.min(estimate.backoffShift + 1, MAX_BACKOFF_SHIFT);
+        estimate.timeoutCount++;
+        IterableLogger.d(TAG, "Request to " + endpoint + " timed out on " + networkType + " network");
+    }
+
+    @NonNull
+    synchronized List<IterableLatencyEstimate> getEstimates(int minTimeoutMs, int maxTimeoutMs) {
+        List<IterableLatencyEstimate> result = new ArrayList<>();
+        for (Estimate estimate : estimates.values()) {
+            result.add(new IterableLatencyEstimate(
+                    estimate.endpoint,
+                    estimate.networkType,
+                    estimate.smoothedLatencyMs,
+                    estimate.latencyVariationMs,
+                    estimate.sampleCount,
+                    estimate.timeoutCount,
+                    estimate.getTimeoutMs(minTimeoutMs, maxTimeoutMs)));
+        }
+        return result;
+    }
+
+    synchronized void reset() {
+        estimates.clear();
+    }
+
+    /**
+     * @return type of the network requests are currently sent on, such as {@code wifi} or {@code 3g}
+     */
+    @NonNull
+    static String getNetworkType(@Nullable Context context) {
+        if (context == null) {
+            return NETWORK_TYPE_OTHER;
+        }
+        try {
+            ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (connectivityManager == null) {
+                return NETWORK_TYPE_NONE;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                return getActiveNetworkType(context, connectivityManager);
+            }
+            return getLegacyNetworkType(connectivityManager);
+        } catch (SecurityException e) {
+            IterableLogger.e(TAG, e.getLocalizedMessage());
+            return NETWORK_TYPE_OTHER;
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    @NonNull
+    private static String getActiveNetworkType(@NonNull Context context, @NonNull ConnectivityManager connectivityManager) {
+        Network network = connectivityManager.getActiveNetwork();
+        NetworkCapabilities capabilities = network != null ? connectivityManager.getNetworkCapabilities(network) : null;
+        if (capabilities == null) {
+            return NETWORK_TYPE_NONE;
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return NETWORK_TYPE_WIFI;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return NETWORK_TYPE_ETHERNET;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return getCellularNetworkType(getTelephonyNetworkType(context));
+        }
+        return NETWORK_TYPE_OTHER;
+    }
+
+    private static int getTelephonyNetworkType(@NonNull Context context) {
+        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        if (telephonyManager == null) {
+            return TelephonyManager.NETWORK_TYPE_UNKNOWN;
+        }
+        try {
+            return telephonyManager.getNetworkType();
+        } catch (SecurityException e) {
+            // Newer Android versions require the phone state permission, the generation is then unknown
+            return TelephonyManager.NETWORK_TYPE_UNKNOWN;
+        }
+    }
+
+    /**
+     * Reads the network type from {@link android.net.NetworkInfo}, which is deprecated but the
+     * only source of it before API 23
+     */
+    @SuppressWarnings("deprecation")
+    @NonNull
+    private static String getLegacyNetworkType(@NonNull ConnectivityManager connectivityManager) {
+        android.net.NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return NETWORK_TYPE_NONE;
+        }
+        switch (networkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                return NETWORK_TYPE_WIFI;
+            case ConnectivityManager.TYPE_ETHERNET:
+                return NETWORK_TYPE_ETHERNET;
+            case ConnectivityManager.TYPE_MOBILE:
+                return getCellularNetworkType(networkInfo.getSubtype());
+            default:
+                return NETWORK_TYPE_OTHER;
+        }
+    }
+
+    @NonNull
+    private static String getCellularNetworkType(int subtype) {
+        switch (subtype) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return NETWORK_TYPE_2G;
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+            case TelephonyManager.NETWORK_TYPE_HSDPA:
+            case TelephonyManager.NETWORK_TYPE_HSUPA:
+            case TelephonyManager.NETWORK_TYPE_HSPA:
+            case TelephonyManager.NETWORK_TYPE_EHRPD:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+                return NETWORK_TYPE_3G;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return NETWORK_TYPE_4G;
+            case TelephonyManager.NETWORK_TYPE_NR:
+                return NETWORK_TYPE_5G;
+            default:
+                return NETWORK_TYPE_CELLULAR;
+        }
+    }
+
+    @NonNull
+    private Estimate getOrCreateEstimate(@NonNull String endpoint, @NonNull String networkType) {
+        String key = getKey(endpoint, networkType);
+        Estimate estimate = estimates.get(key);
+        if (estimate == null) {
+            estimate = new Estimate(endpoint, networkType);
+            estimates.put(key, estimate);
+        }
+        return estimate;
+    }
+
+    @NonNull
+    private static String getKey(@NonNull String endpoint, @NonNull String networkType) {
+        return networkType + " " + endpoint;
+    }
+
+    private static int clamp(long timeoutMs, int minTimeoutMs, int maxTimeoutMs) {
+        return (int) Math.max(minTimeoutMs, Math.min(maxTimeoutMs, timeoutMs));
+    }
+
+    private static class Estimate {
+        final String endpoint;
+        final String networkType;
+        long smoothedLatencyMs;
+        long latencyVariationMs;
+        int sampleCount;
+        int timeoutCount;
+        int backoffShift;
+        // Timeout used until the first response
+        int defaultTimeoutMs;
+
+        Estimate(@NonNull String endpoint, @NonNull String networkType) {
+            this.endpoint = endpoint;
+            this.networkType = networkType;
+        }
+
+        void addSample(long latencyMs) {
+            if (sampleCount == 0) {
+                smoothedLatencyMs = latencyMs;
+                latencyVariationMs = latencyMs / 2;
+            } else {
+                latencyVariationMs = (3 * latencyVariationMs + Math.abs(smoothedLatencyMs - latencyMs)) / 4;
+                smoothedLatencyMs = (7 * smoothedLatencyMs + latencyMs) / 8;
+            }
+            sampleCount++;
+            backoffShift = 0;
+        }
+
+        int getTimeoutMs(int minTimeoutMs, int maxTimeoutMs) {
+            long timeoutMs = sampleCount > 0 ? smoothedLatencyMs + 4 * latencyVariationMs : defaultTimeoutMs;
+            return clamp(timeoutMs << backoffShift, minTimeoutMs, maxTimeoutMs);
+        }
+    }
+}
@@ -57,7 +57,7 @@ public class IterableLogger {
         }
     }
 
-    private static boolean isLoggableLevel(int messageLevel) {
+    static boolean isLoggableLevel(int messageLevel) {
         return messageLevel >= getLogLevel();
     }
 
@@ -12,8 +12,6 @@ import androidx.core.app.RemoteInput;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 
 /**
  * Created by David Truong dt@iterable.com
@@ -72,12 +70,10 @@ public class IterableNotificationBuilder extends NotificationCompat.Builder {
         NotificationCompat.Style style = null;
 
         if (this.imageUrl != null) {
+            IterableHttpTransport.Response response = null;
             try {
-                URL url = new URL(this.imageUrl);
-                URLConnection connection = url.openConnection();
-                connection.setDoInput(true);
-                connection.connect();
-                Bitmap notificationImage = BitmapFactory.decodeStream(connection.getInputStream());
+                response = IterableApi.getInstance().getHttpTransport().execute(new IterableHttpTransport.Request.Builder(IterableApiRequest.GET, this.imageUrl).build());
+                Bitmap notificationImage = response.getCode() < 400 && response.getBody() != null ? BitmapFactory.decodeStream(response.getBody()) : null;
                 if (notificationImage != null) {
                     style = new NotificationCompat.BigPictureStyle()
                             .bigPicture(notificationImage)
@@ -91,6 +87,14 @@ public class IterableNotificationBuilder extends NotificationCompat.Builder {
                 IterableLogger.e(TAG, e.toString());
             } catch (IOException e) {
                 IterableLogger.e(TAG, e.toString());
+            } finally {
+                if (response != null) {
+                    try {
+                        response.close();
+                    } catch (IOException e) {
+                        IterableLogger.e(TAG, e.toString());
+                    }
+                }
             }
         }
 
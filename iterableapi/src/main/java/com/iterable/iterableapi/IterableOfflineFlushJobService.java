@@ -0,0 +1,74 @@
+package com.iterable.iterableapi;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.PersistableBundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Drains the offline queue while the app is in the background.
+ * Scheduled by the SDK when {@link IterableConfig.Builder#setOfflineBackgroundFlushEnabled(boolean)}
+ * is set, and not meant to be used directly.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class IterableOfflineFlushJobService extends JobService {
+    private static final String TAG = "IterableOfflineFlushJob";
+
+    // Arbitrary id, chosen to be unlikely to collide with the host app's own jobs
+    static final int JOB_ID = 0x17e2ab1e;
+    static final String EXTRA_TIME_BUDGET_MS = "timeBudgetMs";
+
+    static void schedule(@NonNull Context context, @NonNull IterableConfig config) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+        jobScheduler.schedule(buildJobInfo(context, config));
+    }
+
+    @VisibleForTesting
+    static JobInfo buildJobInfo(@NonNull Context context, @NonNull IterableConfig config) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putLong(EXTRA_TIME_BUDGET_MS, config.offlineBackgroundFlushTimeBudgetMs);
+        return new JobInfo.Builder(JOB_ID, new ComponentName(context, IterableOfflineFlushJobService.class))
+                .setRequiredNetworkType(config.offlineBackgroundFlushRequiresUnmeteredNetwork ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(config.offlineBackgroundFlushRequiresCharging)
+                .setExtras(extras)
+                .build();
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        IterableTaskRunner taskRunner = IterableApi.getInstance().apiClient.getOfflineTaskRunner();
+        if (taskRunner == null) {
+            IterableLogger.d(TAG, "Offline processing is not enabled, skipping background flush");
+            return false;
+        }
+        long timeBudgetMs = params.getExtras().getLong(EXTRA_TIME_BUDGET_MS, IterableConfig.DEFAULT_OFFLINE_BACKGROUND_FLUSH_TIME_BUDGET_MS);
+        taskRunner.startBackgroundFlush(timeBudgetMs, new IterableTaskRunner.BackgroundFlushCallback() {
+            @Override
+            public void onBackgroundFlushFinished(boolean hasRemainingTasks) {
+                IterableLogger.d(TAG, "Background flush finished, tasks remaining: " + hasRemainingTasks);
+                jobFinished(params, hasRemainingTasks);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        IterableTaskRunner taskRunner = IterableApi.getInstance().apiClient.getOfflineTaskRunner();
+        if (taskRunner != null) {
+            taskRunner.stopBackgroundFlush();
+        }
+        return true;
+    }
+}
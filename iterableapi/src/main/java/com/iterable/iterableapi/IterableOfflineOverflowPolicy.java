@@ -0,0 +1,24 @@
+package com.iterable.iterableapi;
+
+/**
+ * How the SDK makes room for new requests when the offline queue is full.
+ * Without an overflow policy, requests that do not fit are sent immediately instead of being queued.
+ */
+public enum IterableOfflineOverflowPolicy {
+    /**
+     * Drops the oldest queued requests with the lowest priority, never evicting a request with a
+     * higher priority than the incoming one. Requests that already ran out of retries go first.
+     */
+    DROP_OLDEST_LOW_PRIORITY,
+
+    /**
+     * Drops queued requests older than the time set with
+     * {@link IterableConfig.Builder#setOfflineTaskTtl(long)}.
+     */
+    DROP_EXPIRED,
+
+    /**
+     * Keeps only the oldest of identical queued requests.
+     */
+    COLLAPSE_DUPLICATES
+}
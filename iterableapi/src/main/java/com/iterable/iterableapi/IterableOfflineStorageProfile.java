@@ -0,0 +1,39 @@
+package com.iterable.iterableapi;
+
+/**
+ * SQLite settings used for the offline task queue database.
+ */
+public enum IterableOfflineStorageProfile {
+    /**
+     * Write-ahead logging with a full sync on every commit. Queued events survive power loss.
+     */
+    DEFAULT(true, "FULL", 256),
+
+    /**
+     * Write-ahead logging that only syncs at checkpoints. Enqueueing is faster, but events queued
+     * just before a power loss or OS crash may be lost. App crashes do not lose events.
+     */
+    HIGH_THROUGHPUT(true, "NORMAL", 1024);
+
+    private final boolean writeAheadLoggingEnabled;
+    private final String synchronousMode;
+    private final int cacheSizeKb;
+
+    IterableOfflineStorageProfile(boolean writeAheadLoggingEnabled, String synchronousMode, int cacheSizeKb) {
+        this.writeAheadLoggingEnabled = writeAheadLoggingEnabled;
+        this.synchronousMode = synchronousMode;
+        this.cacheSizeKb = cacheSizeKb;
+    }
+
+    boolean isWriteAheadLoggingEnabled() {
+        return writeAheadLoggingEnabled;
+    }
+
+    String getSynchronousMode() {
+        return synchronousMode;
+    }
+
+    int getCacheSizeKb() {
+        return cacheSizeKb;
+    }
+}
@@ -0,0 +1,83 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Builds request bodies from JSON objects that are already serialized, without parsing them.
+ * Bodies are the UTF-8 output of {@link JSONObject#toString()}, so they start with '{' and
+ * contain no whitespace outside of string values.
+ */
+class IterableRequestBody {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * @return a copy of the body with the field added as the first field of the object
+     */
+    @NonNull
+    static byte[] withField(@NonNull byte[] body, @NonNull String name, long value) {
+        byte[] field = (JSONObject.quote(name) + ":" + value).getBytes(UTF_8);
+        // "{}" is the only body this short
+        boolean isEmpty = body.length <= 2;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(body.length + field.length + 2);
+        outputStream.write('{');
+        outputStream.write(field, 0, field.length);
+        if (isEmpty) {
+            outputStream.write('}');
+        } else {
+            outputStream.write(',');
+            outputStream.write(body, 1, body.length - 1);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * @return body of an object with a single field holding an array of the given bodies
+     */
+    @NonNull
+    static byte[] arrayField(@NonNull String name, @NonNull List<byte[]> elements) {
+        int size = name.length() + 8;
+        for (byte[] element : elements) {
+            size += element.length + 1;
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(size);
+        byte[] prefix = ("{" + JSONObject.quote(name) + ":[").getBytes(UTF_8);
+        outputStream.write(prefix, 0, prefix.length);
+        for (int i = 0; i < elements.size(); i++) {
+            if (i > 0) {
+                outputStream.write(',');
+            }
+            outputStream.write(elements.get(i), 0, elements.get(i).length);
+        }
+        outputStream.write(']');
+        outputStream.write('}');
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Builds the serialized form of a POST request (see {@link IterableApiRequest#toJSONObject()})
+     * around its body
+     */
+    @NonNull
+    static String toRequestJson(@Nullable String apiKey, @NonNull String resourcePath, @Nullable String authToken, @NonNull byte[] body) {
+        StringBuilder builder = new StringBuilder(body.length + 128);
+        builder.append('{');
+        if (apiKey != null) {
+            builder.append("\"apiKey\":").append(JSONObject.quote(apiKey)).append(',');
+        }
+        builder.append("\"resourcePath\":").append(JSONObject.quote(resourcePath)).append(',');
+        if (authToken != null) {
+            builder.append("\"authToken\":").append(JSONObject.quote(authToken)).append(',');
+        }
+        builder.append("\"requestType\":").append(JSONObject.quote(IterableApiRequest.POST)).append(',');
+        builder.append("\"data\":").append(new String(body, UTF_8));
+        builder.append('}');
+        return builder.toString();
+    }
+}
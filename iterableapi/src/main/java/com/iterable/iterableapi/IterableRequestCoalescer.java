@@ -0,0 +1,138 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Combines a queued request with a newer request to the same "last write wins" endpoint, so that
+ * only one request per user is waiting in the offline queue
+ */
+class IterableRequestCoalescer {
+    private static final String TAG = "IterableRequestCoalescer";
+
+    private static final Set<String> coalescableApiSet = new HashSet<>(Arrays.asList(
+            IterableConstants.ENDPOINT_UPDATE_CART,
+            IterableConstants.ENDPOINT_UPDATE_USER,
+            IterableConstants.ENDPOINT_UPDATE_USER_SUBS));
+
+    static boolean isCoalescable(String resourcePath) {
+        return coalescableApiSet.contains(resourcePath);
+    }
+
+    /**
+     * Combines a pending request with a newer one, in their serialized form
+     * (see {@link IterableApiRequest#toJSONObject()})
+     *
+     * @return combined request, or null if the requests are for different endpoints, API keys or
+     * users, or can't be sent as a single request
+     */
+    @Nullable
+    static JSONObject coalesce(@NonNull JSONObject pendingRequest, @NonNull JSONObject newRequest) {
+        String resourcePath = newRequest.optString("resourcePath");
+        if (!isCoalescable(resourcePath) ||
+                !resourcePath.equals(pendingRequest.optString("resourcePath")) ||
+                !newRequest.optString("apiKey").equals(pendingRequest.optString("apiKey"))) {
+            return null;
+        }
+        JSONObject pendingData = pendingRequest.optJSONObject("data");
+        JSONObject newData = newRequest.optJSONObject("data");
+        if (pendingData == null || newData == null || !getUserKey(pendingData).equals(getUserKey(newData))) {
+            return null;
+        }
+
+        try {
+            JSONObject data;
+            switch (resourcePath) {
+                case IterableConstants.ENDPOINT_UPDATE_USER:
+                    data = coalesceUpdateUser(pendingData, newData);
+                    break;
+                case IterableConstants.ENDPOINT_UPDATE_USER_SUBS:
+                    // Each subscription list in a request replaces the one sent before it
+                    data = merge(copy(pendingData), newData, false);
+                    break;
+                default:
+                    // updateCart always sends the full cart
+                    data = newData;
+                    break;
+            }
+            if (data == null) {
+                return null;
+            }
+            JSONObject request = copy(newRequest);
+            request.put("data", data);
+            return request;
+        } catch (JSONException e) {
+            IterableLogger.e(TAG, "Failed to coalesce requests", e);
+            return null;
+        }
+    }
+
+    /**
+     * Merges data fields the way the API applies two consecutive updates: nested objects are
+     * merged when mergeNestedObjects is set, and replaced otherwise. Updates with different
+     * mergeNestedObjects values are not combined.
+     */
+    @Nullable
+    private static JSONObject coalesceUpdateUser(@NonNull JSONObject pendingData, @NonNull JSONObject newData) throws JSONException {
+        boolean mergeNestedObjects = newData.optBoolean(IterableConstants.KEY_MERGE_NESTED_OBJECTS, false);
+        if (mergeNestedObjects != pendingData.optBoolean(IterableConstants.KEY_MERGE_NESTED_OBJECTS, false)) {
+            return null;
+        }
+        JSONObject pendingDataFields = pendingData.optJSONObject(IterableConstants.KEY_DATA_FIELDS);
+        JSONObject newDataFields = newData.optJSONObject(IterableConstants.KEY_DATA_FIELDS);
+        JSONObject data = copy(newData);
+        if (pendingDataFields != null && newDataFields != null) {
+            data.put(IterableConstants.KEY_DATA_FIELDS, merge(copy(pendingDataFields), newDataFields, mergeNestedObjects));
+        } else if (pendingDataFields != null) {
+            data.put(IterableConstants.KEY_DATA_FIELDS, pendingDataFields);
+        }
+        return data;
+    }
+
+    /**
+     * Copies the fields of {@code source} into {@code target}, overwriting existing fields
+     *
+     * @param deep merge nested objects field by field instead of replacing them
+     * @return {@code target}
+     */
+    @NonNull
+    static JSONObject merge(@NonNull JSONObject target, @NonNull JSONObject source, boolean deep) throws JSONException {
+        Iterator<String> keys = source.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = source.get(key);
+            Object existingValue = target.opt(key);
+            if (deep && value instanceof JSONObject && existingValue instanceof JSONObject) {
+                target.put(key, merge((JSONObject) existingValue, (JSONObject) value, true));
+            } else {
+                target.put(key, value);
+            }
+        }
+        return target;
+    }
+
+    @NonNull
+    private static JSONObject copy(@NonNull JSONObject jsonObject) throws JSONException {
+        return new JSONObject(jsonObject.toString());
+    }
+
+    /**
+     * @return email or userId of the request, which updateCart sends in a nested user object
+     */
+    @NonNull
+    private static String getUserKey(@NonNull JSONObject data) {
+        JSONObject user = data.optJSONObject(IterableConstants.KEY_USER);
+        if (user == null) {
+            user = data;
+        }
+        return user.optString(IterableConstants.KEY_EMAIL) + "/" + user.optString(IterableConstants.KEY_USER_ID);
+    }
+}
@@ -0,0 +1,194 @@
+package com.iterable.iterableapi;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends online API requests on thread pools owned by the SDK instead of the shared AsyncTask
+ * executor. GET and POST requests have separate lanes, so a slow in-app or inbox fetch doesn't
+ * hold up tracking calls. Within a lane, higher priority requests are sent first.
+ * POST requests are sent one at a time by default, so that calls such as {@code updateEmail} are
+ * done before the requests made after them are sent.
+ * Callbacks are called on the main thread.
+ */
+class IterableRequestExecutor {
+    private static final String TAG = "IterableRequestExecutor";
+
+    static final int DEFAULT_POOL_SIZE = 2;
+    static final int DEFAULT_POST_POOL_SIZE = 1;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static IterableRequestExecutor instance;
+
+    private final Executor getExecutor;
+    private final Executor postExecutor;
+    private final ScheduledExecutorService retryExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @return the shared executor, created with the pool sizes of the SDK configuration on first use
+     */
+    @NonNull
+    static synchronized IterableRequestExecutor getInstance() {
+        if (instance == null) {
+            IterableConfig config = IterableApi.getInstance().config;
+            instance = config != null
+                    ? new IterableRequestExecutor(config.requestExecutorPoolSize, config.postRequestExecutorPoolSize)
+                    : new IterableRequestExecutor(DEFAULT_POOL_SIZE, DEFAULT_POST_POOL_SIZE);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    static synchronized void setInstance(@Nullable IterableRequestExecutor executor) {
+        instance = executor;
+    }
+
+    /**
+     * @param getPoolSize maximum number of GET requests sent at the same time
+     * @param postPoolSize maximum number of POST requests sent at the same time
+     */
+    IterableRequestExecutor(int getPoolSize, int postPoolSize) {
+        this(newLaneExecutor("IterableGetRequest", getPoolSize),
+                newLaneExecutor("IterablePostRequest", postPoolSize),
+                Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("IterableRequestRetry")));
+    }
+
+    @VisibleForTesting
+    IterableRequestExecutor(@NonNull Executor getExecutor, @NonNull Executor postExecutor, @NonNull ScheduledExecutorService retryExecutor) {
+        this.getExecutor = getExecutor;
+        this.postExecutor = postExecutor;
+        this.retryExecutor = retryExecutor;
+    }
+
+    void execute(@NonNull IterableApiRequest request) {
+        execute(request, 0);
+    }
+
+    private void execute(@NonNull IterableApiRequest request, int retryCount) {
+        Executor executor = IterableApiRequest.GET.equals(request.requestType) ? getExecutor : postExecutor;
+        executor.execute(new RequestRunnable(request, retryCount, sequence.getAndIncrement()));
+    }
+
+    @MainThread
+    private void onRequestFinished(@NonNull final IterableApiRequest request, final int retryCount, @NonNull IterableApiResponse response) {
+        boolean retryRequest = !response.success && response.responseCode >= 500;
+
+        if (retryRequest && retryCount <= IterableRequestTask.MAX_RETRY_COUNT) {
+            long delay = 0;
+            if (retryCount > 2) {
+                delay = IterableRequestTask.RETRY_DELAY_MS * retryCount;
+            }
+            if (delay == 0) {
+                execute(request, retryCount + 1);
+            } else {
+                retryExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(request, retryCount + 1);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            return;
+        } else if (response.success) {
+            IterableApi.getInstance().getAuthManager().resetFailedAuth();
+            if (request.successCallback != null) {
+                request.successCallback.onSuccess(response.responseJson);
+            }
+        } else {
+            if (IterableRequestTask.matchesErrorCode(response.responseJson, IterableRequestTask.ERROR_CODE_INVALID_JWT_PAYLOAD)) {
+                IterableApi.getInstance().getAuthManager().requestNewAuthToken(true);
+            }
+            if (request.failureCallback != null) {
+                request.failureCallback.onFailure(response.errorMessage, response.responseJson);
+            }
+        }
+        if (request.legacyCallback != null) {
+            request.legacyCallback.execute(response.responseBody);
+        }
+    }
+
+    @NonNull
+    private static Executor newLaneExecutor(@NonNull String name, int poolSize) {
+        int threadCount = Math.max(1, poolSize);
+        // The pool never grows past its core size with an unbounded queue, so core threads are
+        // allowed to time out to release them when the SDK is idle
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new NamedThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private class RequestRunnable implements Runnable, Comparable<RequestRunnable> {
+        private final IterableApiRequest request;
+        private final int retryCount;
+        private final long sequenceNumber;
+
+        RequestRunnable(@NonNull IterableApiRequest request, int retryCount, long sequenceNumber) {
+            this.request = request;
+            this.retryCount = retryCount;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public void run() {
+            final IterableApiResponse response = IterableRequestTask.executeApiRequest(request);
+            if (response == null) {
+                IterableLogger.e(TAG, "No response for " + request.resourcePath);
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onRequestFinished(request, retryCount, response);
+                }
+            });
+        }
+
+        /**
+         * Higher priority first, then in the order the requests were made
+         */
+        @Override
+        public int compareTo(@NonNull RequestRunnable other) {
+            int priorityComparison = Integer.compare(other.request.getPriority().getValue(), request.getPriority().getValue());
+            if (priorityComparison != 0) {
+                return priorityComparison;
+            }
+            return Long.compare(sequenceNumber, other.sequenceNumber);
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        NamedThreadFactory(@NonNull String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
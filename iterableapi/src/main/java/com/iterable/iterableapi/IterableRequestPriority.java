@@ -0,0 +1,22 @@
+package com.iterable.iterableapi;
+
+/**
+ * Priority of a request queued for offline processing. Higher priority requests are sent first
+ * when the offline queue is drained. Queued requests gain priority as they age, so lower
+ * priority requests are still sent during a long backlog.
+ */
+public enum IterableRequestPriority {
+    LOW(-1),
+    NORMAL(0),
+    HIGH(1);
+
+    private final int value;
+
+    IterableRequestPriority(int value) {
+        this.value = value;
+    }
+
+    int getValue() {
+        return value;
+    }
+}
@@ -1,8 +1,9 @@
 package com.iterable.iterableapi;
 
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
@@ -11,21 +12,19 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.SocketTimeoutException;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
- * Async task to handle sending data to the Iterable server
+ * Sends data to the Iterable server. Requests are run by {@link IterableRequestExecutor}.
  * Created by David Truong dt@iterable.com
  */
-class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableApiResponse> {
+class IterableRequestTask {
     static final String TAG = "IterableRequest";
 
     static String overrideUrl;
@@ -37,39 +36,31 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
 
     static final String ERROR_CODE_INVALID_JWT_PAYLOAD = "InvalidJwtPayload";
 
-    int retryCount = 0;
-    IterableApiRequest iterableApiRequest;
-
     /**
      * Sends the given request to Iterable using a HttpUserConnection
      * Reference - http://developer.android.com/reference/java/net/HttpURLConnection.html
-     * @param params
-     * @return
      */
-    protected IterableApiResponse doInBackground(IterableApiRequest... params) {
-        if (params != null && params.length > 0) {
-            iterableApiRequest = params[0];
-        }
-
-        return executeApiRequest(iterableApiRequest);
-    }
-
     @WorkerThread
     static IterableApiResponse executeApiRequest(IterableApiRequest iterableApiRequest) {
         IterableApiResponse apiResponse = null;
         String requestResult = null;
 
         if (iterableApiRequest != null) {
-            URL url;
-            HttpURLConnection urlConnection = null;
+            IterableHttpTransport.Response httpResponse = null;
 
             IterableLogger.v(TAG, ">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n");
             String baseUrl = getBaseUrl();
+            IterableLatencyTracker latencyTracker = IterableApi.getInstance().getLatencyTracker();
+            String networkType = latencyTracker != null ? IterableLatencyTracker.getNetworkType(IterableApi.getInstance().getMainActivityContext()) : null;
+            long requestStartTime = 0;
+            IterableConditionalRequestStore conditionalRequestStore = null;
+            String requestFingerprint = null;
 
             try {
                 if (overrideUrl != null && !overrideUrl.isEmpty()) {
                     baseUrl = overrideUrl;
                 }
+                IterableHttpTransport.Request.Builder requestBuilder;
                 if (iterableApiRequest.requestType == IterableApiRequest.GET) {
                     Uri.Builder builder = Uri.parse(baseUrl + iterableApiRequest.resourcePath).buildUpon();
 
@@ -79,74 +70,91 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                         builder.appendQueryParameter(key, iterableApiRequest.json.getString(key));
                     }
 
-                    url = new URL(builder.build().toString());
-                    urlConnection = (HttpURLConnection) url.openConnection();
-
-                    urlConnection.setReadTimeout(GET_REQUEST_DEFAULT_TIMEOUT_MS);
-                    urlConnection.setConnectTimeout(GET_REQUEST_DEFAULT_TIMEOUT_MS);
-
-                    urlConnection.setRequestProperty(IterableConstants.HEADER_API_KEY, iterableApiRequest.apiKey);
-                    urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_PLATFORM, "Android");
-                    urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
-                    urlConnection.setRequestProperty(IterableConstants.KEY_SENT_AT, String.valueOf(new Date().getTime() / 1000));
-                    urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_PROCESSOR_TYPE, iterableApiRequest.getProcessorType().toString());
-                    if (iterableApiRequest.authToken != null) {
-                        urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_AUTHORIZATION, IterableConstants.HEADER_SDK_AUTH_FORMAT + iterableApiRequest.authToken);
+                    int timeoutMs = getTimeoutMs(latencyTracker, iterableApiRequest, networkType, GET_REQUEST_DEFAULT_TIMEOUT_MS);
+                    requestBuilder = new IterableHttpTransport.Request.Builder(IterableApiRequest.GET, builder.build().toString())
+                            .setTimeouts(timeoutMs, timeoutMs);
+                    setCommonHeaders(requestBuilder, iterableApiRequest);
+                    if (iterableApiRequest.responseBodyReader != null) {
+                        conditionalRequestStore = IterableApi.getInstance().getConditionalRequestStore();
+                    }
+                    if (conditionalRequestStore != null) {
+                        requestFingerprint = IterableConditionalRequestStore.getFingerprint(iterableApiRequest);
+                        if (iterableApiRequest.responseBodyReader.canRevalidate()) {
+                            setConditionalHeaders(requestBuilder, conditionalRequestStore.get(iterableApiRequest.resourcePath, requestFingerprint));
+                        }
                     }
+                    IterableHttpTransport.Request request = requestBuilder.build();
 
-                    IterableLogger.v(TAG, "GET Request \nURI : " + baseUrl + iterableApiRequest.resourcePath + buildHeaderString(urlConnection) + "\n body : \n" + iterableApiRequest.json.toString(2));
+                    if (IterableLogger.isLoggableLevel(Log.VERBOSE)) {
+                        IterableLogger.v(TAG, "GET Request \nURI : " + baseUrl + iterableApiRequest.resourcePath + buildHeaderString(request) + "\n body : \n" + iterableApiRequest.json.toString(2));
+                    }
+                    requestStartTime = SystemClock.elapsedRealtime();
+                    httpResponse = getHttpTransport().execute(request);
 
                 } else {
-                    url = new URL(baseUrl + iterableApiRequest.resourcePath);
-                    urlConnection = (HttpURLConnection) url.openConnection();
-                    urlConnection.setDoOutput(true);
-                    urlConnection.setRequestMethod(iterableApiRequest.requestType);
-
-                    urlConnection.setReadTimeout(POST_REQUEST_DEFAULT_TIMEOUT_MS);
-                    urlConnection.setConnectTimeout(POST_REQUEST_DEFAULT_TIMEOUT_MS);
-
-                    urlConnection.setRequestProperty("Accept", "application/json");
-                    urlConnection.setRequestProperty("Content-Type", "application/json");
-                    urlConnection.setRequestProperty(IterableConstants.HEADER_API_KEY, iterableApiRequest.apiKey);
-                    urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_PLATFORM, "Android");
-                    urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
-                    urlConnection.setRequestProperty(IterableConstants.KEY_SENT_AT, String.valueOf(new Date().getTime() / 1000));
-                    urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_PROCESSOR_TYPE, iterableApiRequest.getProcessorType().toString());
-                    if (iterableApiRequest.authToken != null) {
-                        urlConnection.setRequestProperty(IterableConstants.HEADER_SDK_AUTHORIZATION, IterableConstants.HEADER_SDK_AUTH_FORMAT + iterableApiRequest.authToken);
+                    byte[] body = iterableApiRequest.body != null ? iterableApiRequest.body : iterableApiRequest.json.toString().getBytes(IterableRequestBody.UTF_8);
+                    // Responses that are read as they are received can be as large as GET responses
+                    int defaultTimeoutMs = iterableApiRequest.responseBodyReader != null ? GET_REQUEST_DEFAULT_TIMEOUT_MS : POST_REQUEST_DEFAULT_TIMEOUT_MS;
+                    int timeoutMs = getTimeoutMs(latencyTracker, iterableApiRequest, networkType, defaultTimeoutMs);
+                    requestBuilder = new IterableHttpTransport.Request.Builder(iterableApiRequest.requestType, baseUrl + iterableApiRequest.resourcePath)
+                            .setTimeouts(timeoutMs, timeoutMs)
+                            .setHeader("Accept", "application/json")
+                            .setHeader("Content-Type", "application/json")
+                            .setBody(body)
+                            .setGzipBody(shouldCompress(body));
+                    setCommonHeaders(requestBuilder, iterableApiRequest);
+                    IterableHttpTransport.Request request = requestBuilder.build();
+
+                    if (IterableLogger.isLoggableLevel(Log.VERBOSE)) {
+                        String bodyString = iterableApiRequest.json != null ? iterableApiRequest.json.toString(2) : new String(body, IterableRequestBody.UTF_8);
+                        IterableLogger.v(TAG, "POST Request \nURI : " + baseUrl + iterableApiRequest.resourcePath + buildHeaderString(request) + "\n body : \n" + bodyString);
                     }
+                    requestStartTime = SystemClock.elapsedRealtime();
+                    httpResponse = getHttpTransport().execute(request);
+                }
 
-                    IterableLogger.v(TAG, "POST Request \nURI : " + baseUrl + iterableApiRequest.resourcePath + buildHeaderString(urlConnection) + "\n body : \n" + iterableApiRequest.json.toString(2));
-
-                    OutputStream os = urlConnection.getOutputStream();
-                    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
-                    writer.write(iterableApiRequest.json.toString());
-
-                    writer.close();
-                    os.close();
+                if (latencyTracker != null) {
+                    latencyTracker.onResponse(iterableApiRequest.resourcePath, networkType, SystemClock.elapsedRealtime() - requestStartTime);
                 }
 
                 IterableLogger.v(TAG, "======================================");
-                int responseCode = urlConnection.getResponseCode();
+                int responseCode = httpResponse.getCode();
+                String retryAfter = httpResponse.getHeader(IterableConstants.HEADER_RETRY_AFTER);
 
                 String error = null;
 
+                if (responseCode == 304 && iterableApiRequest.responseBodyReader != null) {
+                    IterableLogger.v(TAG, "Not modified: " + baseUrl + iterableApiRequest.resourcePath);
+                    iterableApiRequest.responseBodyReader.onNotModified();
+                    return IterableApiResponse.success(responseCode, null, new JSONObject());
+                }
+
+                if (responseCode == 200 && iterableApiRequest.responseBodyReader != null) {
+                    apiResponse = readResponseBody(iterableApiRequest, httpResponse, baseUrl);
+                    if (conditionalRequestStore != null) {
+                        // Validators are only kept once the body they belong to has been read
+                        if (apiResponse.success) {
+                            conditionalRequestStore.put(iterableApiRequest.resourcePath, requestFingerprint,
+                                    httpResponse.getHeader(IterableConstants.HEADER_ETAG), httpResponse.getHeader(IterableConstants.HEADER_LAST_MODIFIED));
+                        } else {
+                            conditionalRequestStore.remove(iterableApiRequest.resourcePath);
+                        }
+                    }
+                    return apiResponse;
+                }
+
                 // Read the response body
                 try {
-                    BufferedReader in;
-                    if (responseCode < 400) {
-                        in = new BufferedReader(
-                                new InputStreamReader(urlConnection.getInputStream()));
-                    } else {
-                        in = new BufferedReader(
-                                new InputStreamReader(urlConnection.getErrorStream()));
-                    }
-                    String inputLine;
                     StringBuffer response = new StringBuffer();
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine);
+                    InputStream responseBody = httpResponse.getBody();
+                    if (responseBody != null) {
+                        BufferedReader in = new BufferedReader(new InputStreamReader(responseBody));
+                        String inputLine;
+                        while ((inputLine = in.readLine()) != null) {
+                            response.append(inputLine);
+                        }
+                        in.close();
                     }
-                    in.close();
                     requestResult = response.toString();
                 } catch (IOException e) {
                     logError(iterableApiRequest, baseUrl, e);
@@ -159,9 +167,11 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
 
                 try {
                     jsonResponse = new JSONObject(requestResult);
-                    IterableLogger.v(TAG, "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n" +
-                            "Response from : " + baseUrl + iterableApiRequest.resourcePath);
-                    IterableLogger.v(TAG, jsonResponse.toString(2));
+                    if (IterableLogger.isLoggableLevel(Log.VERBOSE)) {
+                        IterableLogger.v(TAG, "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n" +
+                                "Response from : " + baseUrl + iterableApiRequest.resourcePath);
+                        IterableLogger.v(TAG, jsonResponse.toString(2));
+                    }
                 } catch (Exception e) {
                     logError(iterableApiRequest, baseUrl, e);
                     jsonError = e.getMessage();
@@ -183,7 +193,7 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                         errorMessage = "Internal Server Error";
                     }
 
-                    apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, errorMessage);
+                    apiResponse = IterableApiResponse.failure(responseCode, requestResult, jsonResponse, errorMessage, retryAfter);
                 } else if (responseCode == 200) {
                     if (error == null && requestResult.length() > 0) {
                         if (jsonError != null) {
@@ -206,7 +216,10 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                 apiResponse = IterableApiResponse.failure(0, requestResult, null, e.getMessage());
             } catch (IOException e) {
                 logError(iterableApiRequest, baseUrl, e);
-                apiResponse = IterableApiResponse.failure(0, requestResult, null, e.getMessage());
+                if (latencyTracker != null && e instanceof SocketTimeoutException) {
+                    latencyTracker.onTimeout(iterableApiRequest.resourcePath, networkType);
+                }
+                apiResponse = IterableApiResponse.transportFailure(requestResult, e);
             } catch (ArrayIndexOutOfBoundsException e) {
                 // This exception is sometimes thrown from the inside of HttpUrlConnection/OkHttp
                 logError(iterableApiRequest, baseUrl, e);
@@ -215,8 +228,12 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
                 logError(iterableApiRequest, baseUrl, e);
                 apiResponse = IterableApiResponse.failure(0, requestResult, null, e.getMessage());
             } finally {
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
+                if (httpResponse != null) {
+                    try {
+                        httpResponse.close();
+                    } catch (IOException e) {
+                        IterableLogger.d(TAG, "Could not close the response: " + e.getMessage());
+                    }
                 }
             }
             IterableLogger.v(TAG, "======================================");
@@ -224,6 +241,36 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
         return apiResponse;
     }
 
+    /**
+     * Hands the body of a successful response to the request's reader, so that large responses
+     * are parsed as they are received rather than held in memory as a string
+     */
+    private static IterableApiResponse readResponseBody(IterableApiRequest iterableApiRequest, IterableHttpTransport.Response httpResponse, String baseUrl) {
+        InputStream responseBody = httpResponse.getBody();
+        if (responseBody == null) {
+            return IterableApiResponse.failure(httpResponse.getCode(), null, null, "No data received");
+        }
+        try {
+            iterableApiRequest.responseBodyReader.read(responseBody);
+            return IterableApiResponse.success(httpResponse.getCode(), null, new JSONObject());
+        } catch (IOException | RuntimeException e) {
+            logError(iterableApiRequest, baseUrl, e);
+            return IterableApiResponse.failure(httpResponse.getCode(), null, null, "Could not parse json: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return connect and read timeout of the request: derived from the latency observed for
+     * the endpoint when adaptive timeouts are enabled, the default timeout otherwise
+     */
+    private static int getTimeoutMs(@Nullable IterableLatencyTracker latencyTracker, IterableApiRequest iterableApiRequest, String networkType, int defaultTimeoutMs) {
+        IterableConfig config = IterableApi.getInstance().config;
+        if (latencyTracker == null || config == null) {
+            return defaultTimeoutMs;
+        }
+        return latencyTracker.getTimeoutMs(iterableApiRequest.resourcePath, networkType, defaultTimeoutMs, config.minRequestTimeoutMs, config.maxRequestTimeoutMs);
+    }
+
     private static String getBaseUrl() {
         IterableConfig config = IterableApi.getInstance().config;
         IterableDataRegion dataRegion = config.dataRegion;
@@ -236,7 +283,7 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
         return baseUrl;
     }
 
-    private static boolean matchesErrorCode(JSONObject jsonResponse, String errorCode) {
+    static boolean matchesErrorCode(JSONObject jsonResponse, String errorCode) {
         try {
             return jsonResponse != null && jsonResponse.has("code") && jsonResponse.getString("code").equals(errorCode);
         } catch (JSONException e) {
@@ -250,69 +297,49 @@ class IterableRequestTask extends AsyncTask<IterableApiRequest, Void, IterableAp
         IterableLogger.e(TAG, e.getMessage(), e);
     }
 
-    private static String buildHeaderString(HttpURLConnection urlConnection) {
-        StringBuilder headerString = new StringBuilder();
-        headerString.append("\nHeaders { \n");
-        Iterator<?> headerKeys = urlConnection.getRequestProperties().keySet().iterator();
-        while (headerKeys.hasNext()) {
-            String key = (String) headerKeys.next();
-            if (isSensitive(key)) {
-                continue;
-            }
-            headerString.append(key).append(" : ").append(urlConnection.getRequestProperties().get(key)).append("\n");
+    private static void setCommonHeaders(IterableHttpTransport.Request.Builder requestBuilder, IterableApiRequest iterableApiRequest) {
+        requestBuilder.setHeader(IterableConstants.HEADER_API_KEY, iterableApiRequest.apiKey);
+        requestBuilder.setHeader(IterableConstants.HEADER_SDK_PLATFORM, "Android");
+        requestBuilder.setHeader(IterableConstants.HEADER_SDK_VERSION, IterableConstants.ITBL_KEY_SDK_VERSION_NUMBER);
+        requestBuilder.setHeader(IterableConstants.KEY_SENT_AT, String.valueOf(new Date().getTime() / 1000));
+        requestBuilder.setHeader(IterableConstants.HEADER_SDK_PROCESSOR_TYPE, iterableApiRequest.getProcessorType().toString());
+        if (iterableApiRequest.authToken != null) {
+            requestBuilder.setHeader(IterableConstants.HEADER_SDK_AUTHORIZATION, IterableConstants.HEADER_SDK_AUTH_FORMAT + iterableApiRequest.authToken);
         }
-        headerString.append("}");
-        return headerString.toString();
     }
 
-    private static boolean isSensitive(String key) {
-        return (key.equals(IterableConstants.HEADER_API_KEY)) || key.equals(IterableConstants.HEADER_SDK_AUTHORIZATION);
+    private static void setConditionalHeaders(IterableHttpTransport.Request.Builder requestBuilder, @Nullable IterableConditionalRequestStore.Validators validators) {
+        if (validators != null) {
+            requestBuilder.setHeader(IterableConstants.HEADER_IF_NONE_MATCH, validators.etag);
+            requestBuilder.setHeader(IterableConstants.HEADER_IF_MODIFIED_SINCE, validators.lastModified);
+        }
     }
 
-    @Override
-    protected void onPostExecute(IterableApiResponse response) {
-        boolean retryRequest = !response.success && response.responseCode >= 500;
-
-        if (retryRequest && retryCount <= MAX_RETRY_COUNT) {
-            final IterableRequestTask requestTask = new IterableRequestTask();
-            requestTask.setRetryCount(retryCount + 1);
+    private static boolean shouldCompress(byte[] body) {
+        IterableConfig config = IterableApi.getInstance().config;
+        return config != null && config.requestCompressionEnabled && body.length >= config.requestCompressionThresholdBytes;
+    }
 
-            long delay = 0;
-            if (retryCount > 2) {
-                delay = RETRY_DELAY_MS * retryCount;
-            }
+    private static IterableHttpTransport getHttpTransport() {
+        return IterableApi.getInstance().getHttpTransport();
+    }
 
-            Handler handler = new Handler();
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    requestTask.execute(iterableApiRequest);
-                }
-            }, delay);
-            return;
-        } else if (response.success) {
-            IterableApi.getInstance().getAuthManager().resetFailedAuth();
-            if (iterableApiRequest.successCallback != null) {
-                iterableApiRequest.successCallback.onSuccess(response.responseJson);
-            }
-        } else {
-            if (matchesErrorCode(response.responseJson, ERROR_CODE_INVALID_JWT_PAYLOAD)) {
-                IterableApi.getInstance().getAuthManager().requestNewAuthToken(true);
-            }
-            if (iterableApiRequest.failureCallback != null) {
-                iterableApiRequest.failureCallback.onFailure(response.errorMessage, response.responseJson);
+    private static String buildHeaderString(IterableHttpTransport.Request request) {
+        StringBuilder headerString = new StringBuilder();
+        headerString.append("\nHeaders { \n");
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (isSensitive(header.getKey())) {
+                continue;
             }
+            headerString.append(header.getKey()).append(" : ").append(header.getValue()).append("\n");
         }
-        if (iterableApiRequest.legacyCallback != null) {
-            iterableApiRequest.legacyCallback.execute(response.responseBody);
-        }
-        super.onPostExecute(response);
+        headerString.append("}");
+        return headerString.toString();
     }
 
-    protected void setRetryCount(int count) {
-        retryCount = count;
+    private static boolean isSensitive(String key) {
+        return (key.equals(IterableConstants.HEADER_API_KEY)) || key.equals(IterableConstants.HEADER_SDK_AUTHORIZATION);
     }
-
 }
 
 /**
@@ -330,11 +357,42 @@ class IterableApiRequest {
     final JSONObject json;
     final String requestType;
     final String authToken;
+    // Serialized POST body, sent instead of json when set
+    final byte[] body;
 
     private ProcessorType processorType = ProcessorType.ONLINE;
+    private IterableRequestPriority priority = IterableRequestPriority.NORMAL;
     IterableHelper.IterableActionHandler legacyCallback;
     IterableHelper.SuccessHandler successCallback;
     IterableHelper.FailureHandler failureCallback;
+    // Reads the body of a successful response in place of buffering it into responseBody
+    ResponseBodyReader responseBodyReader;
+
+    /**
+     * Reads the body of a successful response as it is received. The success callback is then
+     * called with an empty JSON object.
+     * <p>
+     * GET requests with a reader are sent conditionally when the validators of the previous
+     * response are known: a 304 Not Modified response calls {@link #onNotModified()} instead of
+     * {@link #read(InputStream)}.
+     */
+    interface ResponseBodyReader {
+        /**
+         * @return whether the state read from a previous response is still held, so that the
+         * request can be sent conditionally
+         */
+        @WorkerThread
+        boolean canRevalidate();
+
+        @WorkerThread
+        void read(@NonNull InputStream body) throws IOException;
+
+        /**
+         * Called when the response hasn't changed since the last one that was read
+         */
+        @WorkerThread
+        void onNotModified();
+    }
 
     enum ProcessorType {
         ONLINE {
@@ -361,6 +419,15 @@ class IterableApiRequest {
         this.processorType = processorType;
     }
 
+    @NonNull
+    IterableRequestPriority getPriority() {
+        return priority;
+    }
+
+    void setPriority(@NonNull IterableRequestPriority priority) {
+        this.priority = priority;
+    }
+
     IterableApiRequest(String apiKey, String baseUrl, String resourcePath, JSONObject json, String requestType, String authToken, IterableHelper.SuccessHandler onSuccess, IterableHelper.FailureHandler onFailure) {
         this.apiKey = apiKey;
         this.baseUrl = baseUrl;
@@ -368,6 +435,7 @@ class IterableApiRequest {
         this.json = json;
         this.requestType = requestType;
         this.authToken = authToken;
+        this.body = null;
         this.successCallback = onSuccess;
         this.failureCallback = onFailure;
     }
@@ -379,6 +447,7 @@ class IterableApiRequest {
         this.json = json;
         this.requestType = requestType;
         this.authToken = authToken;
+        this.body = null;
         this.successCallback = onSuccess;
         this.failureCallback = onFailure;
     }
@@ -390,9 +459,24 @@ class IterableApiRequest {
         this.json = json;
         this.requestType = requestType;
         this.authToken = authToken;
+        this.body = null;
         this.legacyCallback = callback;
     }
 
+    /**
+     * Creates a POST request whose body is already serialized, so it is sent without building
+     * a {@link JSONObject}
+     */
+    IterableApiRequest(String apiKey, String resourcePath, @NonNull byte[] body, String authToken) {
+        this.apiKey = apiKey;
+        this.baseUrl = null;
+        this.resourcePath = resourcePath;
+        this.json = null;
+        this.requestType = POST;
+        this.authToken = authToken;
+        this.body = body;
+    }
+
     public JSONObject toJSONObject() throws JSONException {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put("apiKey", this.apiKey);
@@ -427,13 +511,23 @@ class IterableApiResponse {
     final String responseBody;
     final JSONObject responseJson;
     final String errorMessage;
+    // Value of the Retry-After response header, if any
+    final String retryAfter;
+    // Set when the request failed with an I/O error before a response was received
+    final IOException transportError;
 
     IterableApiResponse(boolean success, int responseCode, String responseBody, JSONObject responseJson, String errorMessage) {
+        this(success, responseCode, responseBody, responseJson, errorMessage, null, null);
+    }
+
+    IterableApiResponse(boolean success, int responseCode, String responseBody, JSONObject responseJson, String errorMessage, String retryAfter, IOException transportError) {
         this.success = success;
         this.responseCode = responseCode;
         this.responseBody = responseBody;
         this.responseJson = responseJson;
         this.errorMessage = errorMessage;
+        this.retryAfter = retryAfter;
+        this.transportError = transportError;
     }
 
     static IterableApiResponse success(int responseCode, String body, @NonNull JSONObject json) {
@@ -443,4 +537,12 @@ class IterableApiResponse {
     static IterableApiResponse failure(int responseCode, String body, @Nullable JSONObject json, String errorMessage) {
         return new IterableApiResponse(false, responseCode, body, json, errorMessage);
     }
+
+    static IterableApiResponse failure(int responseCode, String body, @Nullable JSONObject json, String errorMessage, @Nullable String retryAfter) {
+        return new IterableApiResponse(false, responseCode, body, json, errorMessage, retryAfter, null);
+    }
+
+    static IterableApiResponse transportFailure(String body, @NonNull IOException error) {
+        return new IterableApiResponse(false, 0, body, null, error.getMessage(), null, error);
+    }
 }
\ No newline at end of file
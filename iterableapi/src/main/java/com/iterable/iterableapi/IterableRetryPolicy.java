@@ -0,0 +1,133 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Decides whether a failed offline request is retried and when.
+ * Retries back off exponentially per task with jitter, and a server-provided Retry-After
+ * takes precedence over the computed delay.
+ */
+class IterableRetryPolicy {
+    private static final String TAG = "IterableRetryPolicy";
+
+    static final long DEFAULT_BASE_DELAY_MS = 5 * 1000;
+    static final long DEFAULT_MAX_DELAY_MS = 60 * 60 * 1000;
+    static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    /**
+     * Tasks that failed to reach the server get this many times more attempts than tasks the
+     * server failed. Attempts aren't made while the device is offline, so this only counts
+     * connection failures and timeouts while a network is available.
+     */
+    static final int TRANSPORT_ATTEMPTS_MULTIPLIER = 3;
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final int maxAttempts;
+    private final int maxTransportAttempts;
+    private final Random random;
+
+    IterableRetryPolicy() {
+        this(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_MAX_ATTEMPTS, new Random());
+    }
+
+    IterableRetryPolicy(long baseDelayMs, long maxDelayMs, int maxAttempts, @NonNull Random random) {
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxAttempts = maxAttempts;
+        this.maxTransportAttempts = maxAttempts * TRANSPORT_ATTEMPTS_MULTIPLIER;
+        this.random = random;
+    }
+
+    /**
+     * Transport errors, request timeouts, rate limiting and server errors are retriable.
+     * Other failures will not succeed on a retry.
+     */
+    boolean isRetriable(@Nullable IterableApiResponse response) {
+        if (response == null || response.success) {
+            return false;
+        }
+        if (response.transportError != null) {
+            // A TLS handshake or certificate that fails will not pass on the next attempt either
+            return !isTlsFailure(response.transportError);
+        }
+        int responseCode = response.responseCode;
+        return responseCode == 408 || responseCode == 429 || responseCode >= 500;
+    }
+
+    private static boolean isTlsFailure(@NonNull Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SSLHandshakeException || cause instanceof SSLPeerUnverifiedException
+                    || cause instanceof CertificateException || cause instanceof CertPathValidatorException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a task that has failed {@code attempts} times may be retried again. Tasks that only
+     * failed to reach the server get more attempts, since that says less about the request itself.
+     */
+    boolean shouldRetry(int attempts, @NonNull IterableApiResponse response) {
+        return attempts < (response.transportError != null ? maxTransportAttempts : maxAttempts);
+    }
+
+    /**
+     * @param attempts number of failed attempts so far, including the one that just failed
+     * @return delay before the next attempt in milliseconds
+     */
+    long getRetryDelayMs(int attempts, @Nullable IterableApiResponse response) {
+        long retryAfterMs = response != null ? parseRetryAfterMs(response.retryAfter, IterableUtil.currentTimeMillis()) : -1;
+        if (retryAfterMs >= 0) {
+            return Math.min(retryAfterMs, maxDelayMs);
+        }
+
+        long delayMs = maxDelayMs;
+        int exponent = Math.max(0, attempts - 1);
+        if (exponent < 31 && baseDelayMs << exponent < maxDelayMs) {
+            delayMs = baseDelayMs << exponent;
+        }
+        // Keep half of the delay and randomize the rest so retries from many devices spread out
+        long halfDelayMs = delayMs / 2;
+        return halfDelayMs + (long) (random.nextDouble() * (delayMs - halfDelayMs));
+    }
+
+    /**
+     * Parses a Retry-After header given either in seconds or as an HTTP date
+     *
+     * @return delay in milliseconds, or -1 if the value is missing or invalid
+     */
+    static long parseRetryAfterMs(@Nullable String retryAfter, long currentTimeMillis) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+        String value = retryAfter.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, try the HTTP date format
+        }
+        try {
+            SimpleDateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return Math.max(0, httpDateFormat.parse(value).getTime() - currentTimeMillis);
+        } catch (ParseException e) {
+            IterableLogger.e(TAG, "Invalid Retry-After header: " + value);
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces concurrent calls of an idempotent request, such as an in-app message sync, so that only
+ * one request per key is in flight.
+ * <p>
+ * A call made while the request is in flight doesn't send another one. The request in flight may
+ * have been sent before whatever prompted the call, so the call waits for a trailing request that
+ * is started once the current one completes. All calls made during the same flight share the
+ * trailing request and its result: a burst of calls sends at most two requests.
+ */
+class IterableSingleFlight {
+    private static final String TAG = "IterableSingleFlight";
+
+    /**
+     * A request that hasn't completed after this long is assumed lost, and the next call sends a
+     * new one instead of waiting for it
+     */
+    static final long MAX_FLIGHT_DURATION_MS = 2 * 60 * 1000;
+
+    interface Call {
+        /**
+         * Sends the request. One of the handlers must be called when it completes.
+         */
+        void execute(@NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure);
+    }
+
+    private static class Flight {
+        final String key;
+        final List<IterableHelper.SuccessHandler> successHandlers = new ArrayList<>();
+        final List<IterableHelper.FailureHandler> failureHandlers = new ArrayList<>();
+        Call call;
+        long startTime;
+        boolean completed;
+        @Nullable Flight trailing;
+
+        Flight(@NonNull String key, @NonNull Call call) {
+            this.key = key;
+            this.call = call;
+        }
+
+        void addHandlers(@Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+            if (onSuccess != null) {
+                successHandlers.add(onSuccess);
+            }
+            if (onFailure != null) {
+                failureHandlers.add(onFailure);
+            }
+        }
+    }
+
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    /**
+     * Sends the request, or joins the trailing request if a request with the same key is in flight
+     *
+     * @param key       identifies the resource and parameters of the request
+     * @param call      sends the request. The call of the latest caller is used for a trailing request.
+     * @param onSuccess called with the result of the request this call is served by
+     * @param onFailure called with the failure of the request this call is served by
+     */
+    void execute(@NonNull String key, @NonNull Call call, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        Flight flightToStart = null;
+        synchronized (this) {
+            Flight flight = flights.get(key);
+            if (flight != null && IterableUtil.currentTimeMillis() - flight.startTime > MAX_FLIGHT_DURATION_MS) {
+                IterableLogger.w(TAG, "Request " + key + " did not complete, sending a new one");
+                flightToStart = flight.trailing != null ? flight.trailing : new Flight(key, call);
+                flight = null;
+            }
+            if (flight == null) {
+                if (flightToStart == null) {
+                    flightToStart = new Flight(key, call);
+                }
+                flightToStart.call = call;
+                flightToStart.addHandlers(onSuccess, onFailure);
+                flightToStart.startTime = IterableUtil.currentTimeMillis();
+                flights.put(key, flightToStart);
+            } else {
+                if (flight.trailing == null) {
+                    flight.trailing = new Flight(key, call);
+                }
+                flight.trailing.call = call;
+                flight.trailing.addHandlers(onSuccess, onFailure);
+                IterableLogger.d(TAG, "Request " + key + " is in flight, waiting for it to complete");
+            }
+        }
+        if (flightToStart != null) {
+            start(flightToStart);
+        }
+    }
+
+    private void start(@NonNull final Flight flight) {
+        flight.call.execute(new IterableHelper.SuccessHandler() {
+            @Override
+            public void onSuccess(@NonNull JSONObject data) {
+                if (!complete(flight)) {
+                    return;
+                }
+                for (IterableHelper.SuccessHandler successHandler : flight.successHandlers) {
+                    successHandler.onSuccess(data);
+                }
+                startTrailing(flight);
+            }
+        }, new IterableHelper.FailureHandler() {
+            @Override
+            public void onFailure(@NonNull String reason, @Nullable JSONObject data) {
+                if (!complete(flight)) {
+                    return;
+                }
+                for (IterableHelper.FailureHandler failureHandler : flight.failureHandlers) {
+                    failureHandler.onFailure(reason, data);
+                }
+                startTrailing(flight);
+            }
+        });
+    }
+
+    /**
+     * @return false if the flight has already completed
+     */
+    private synchronized boolean complete(@NonNull Flight flight) {
+        if (flight.completed) {
+            return false;
+        }
+        flight.completed = true;
+        if (flights.get(flight.key) != flight) {
+            // Assumed lost, and already replaced by its trailing request
+            flight.trailing = null;
+        } else if (flight.trailing != null) {
+            flight.trailing.startTime = IterableUtil.currentTimeMillis();
+            flights.put(flight.key, flight.trailing);
+        } else {
+            flights.remove(flight.key);
+        }
+        return true;
+    }
+
+    private void startTrailing(@NonNull Flight flight) {
+        Flight trailing;
+        synchronized (this) {
+            trailing = flight.trailing;
+        }
+        if (trailing != null) {
+            start(trailing);
+        }
+    }
+}
@@ -27,9 +27,15 @@ class IterableTask {
     String taskFailureData;
     IterableTaskType taskType;
     int attempts;
+    int priority;
+
+    // Set for POST requests stored ready to send, see IterableTaskStorage#createTask
+    byte[] requestBody;
+    String apiKey;
+    String authToken;
 
     //To be used when creating IterableTask from database
-    IterableTask(String id, @NonNull String name, int version, @NonNull long createdAt, long modifiedAt, long lastAttemptedAt, long scheduledAt, long requestedAt, boolean processing, boolean failed, boolean blocking, String data, String taskFailureData, IterableTaskType taskType, int attempts) {
+    IterableTask(String id, @NonNull String name, int version, @NonNull long createdAt, long modifiedAt, long lastAttemptedAt, long scheduledAt, long requestedAt, boolean processing, boolean failed, boolean blocking, String data, String taskFailureData, IterableTaskType taskType, int attempts, int priority) {
         this.id = id;
         this.name = name;
         this.version = version;
@@ -45,6 +51,7 @@ class IterableTask {
         this.taskFailureData = taskFailureData;
         this.taskType = taskType;
         this.attempts = attempts;
+        this.priority = priority;
     }
 
     //Bare minimum one to be used when creating the Task
@@ -58,6 +65,11 @@ class IterableTask {
         this.taskType = taskType;
     }
 
+    IterableTask(String name, IterableTaskType taskType, String data, int priority) {
+        this(name, taskType, data);
+        this.priority = priority;
+    }
+
 }
 
 enum IterableTaskType {
@@ -0,0 +1,93 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes offline task payloads for storage in the OfflineTask data column.
+ * Plain payloads are stored as UTF-8 bytes. Compressed payloads are prefixed with
+ * {@link #FORMAT_DEFLATE}, which can never be the first byte of a JSON document,
+ * so both formats can be read back regardless of the current setting.
+ */
+class IterableTaskDataCodec {
+    private static final String TAG = "IterableTaskDataCodec";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final byte FORMAT_DEFLATE = 0x01;
+
+    private final boolean compressionEnabled;
+
+    IterableTaskDataCodec(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    @NonNull
+    byte[] encode(@NonNull String data) {
+        byte[] bytes = data.getBytes(UTF_8);
+        if (!compressionEnabled) {
+            return bytes;
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        outputStream.write(FORMAT_DEFLATE);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(outputStream, deflater);
+            deflaterStream.write(bytes);
+            deflaterStream.close();
+        } catch (IOException e) {
+            IterableLogger.e(TAG, "Failed to compress task data, storing it uncompressed", e);
+            return bytes;
+        } finally {
+            deflater.end();
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Nullable
+    static String decode(@Nullable byte[] bytes) {
+        byte[] decodedBytes = decodeBytes(bytes);
+        return decodedBytes != null ? new String(decodedBytes, UTF_8) : null;
+    }
+
+    /**
+     * @return the UTF-8 bytes of the payload, which are the stored bytes themselves for
+     * uncompressed payloads
+     */
+    @Nullable
+    static byte[] decodeBytes(@Nullable byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length == 0 || bytes[0] != FORMAT_DEFLATE) {
+            return bytes;
+        }
+
+        InflaterInputStream inflaterStream = new InflaterInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length * 4);
+        byte[] buffer = new byte[4096];
+        try {
+            int read;
+            while ((read = inflaterStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            inflaterStream.close();
+        } catch (IOException e) {
+            IterableLogger.e(TAG, "Failed to decompress task data", e);
+            return null;
+        }
+        return outputStream.toByteArray();
+    }
+}
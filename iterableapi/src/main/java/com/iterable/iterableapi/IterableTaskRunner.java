@@ -4,26 +4,71 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-
-class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Handler.Callback, IterableNetworkConnectivityManager.IterableNetworkMonitorListener, IterableActivityMonitor.AppStateCallback {
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Handler.Callback, IterableNetworkConnectivityManager.IterableNetworkMonitorListener, IterableActivityMonitor.AppStateCallback, HealthMonitor.StateListener {
     private static final String TAG = "IterableTaskRunner";
     private IterableTaskStorage taskStorage;
     private IterableActivityMonitor activityMonitor;
     private IterableNetworkConnectivityManager networkConnectivityManager;
     private HealthMonitor healthMonitor;
+    private final int batchSize;
+    private final int bulkMaxBatchSize;
+    private final long bulkMaxLingerMs;
+    private final AtomicInteger lingeringTaskCount = new AtomicInteger();
+    private final IterableRetryPolicy retryPolicy;
+    private final int maxConcurrentRequests;
+    private ExecutorService dispatchExecutor;
+
+    // Concurrent dispatch state, only accessed on the network thread
+    private int inFlightRequestCount;
+    private final Set<String> inFlightOrderingKeys = new HashSet<>();
+    private boolean retryPending;
+
+    // Background flush state. The callback is only accessed on the network thread, the deadline
+    // is also cleared from the main thread when the system stops the flush.
+    private BackgroundFlushCallback backgroundFlushCallback;
+    private volatile long backgroundFlushDeadline;
+    private BackgroundFlushScheduler backgroundFlushScheduler;
 
     private static final int RETRY_INTERVAL_SECONDS = 60;
 
     private static final int OPERATION_PROCESS_TASKS = 100;
+    private static final int OPERATION_REQUEST_FINISHED = 101;
+    private static final int OPERATION_BACKGROUND_FLUSH = 102;
+    /**
+     * Ends the wait for more track events to send in a bulk request. Kept apart from
+     * {@link #OPERATION_PROCESS_TASKS}, which also wakes up the runner for retries, so that
+     * neither deadline replaces the other.
+     */
+    private static final int OPERATION_LINGER_EXPIRED = 103;
+    /**
+     * Probes the offline queue database once the probe delay of the open circuit has passed, so
+     * that the query runs on the network thread rather than on the thread checking the health.
+     */
+    private static final int OPERATION_PROBE_DATABASE = 104;
+
+    // Requests to these endpoints are sent one at a time per user, in the order they were queued
+    private static final Set<String> orderedApiSet = new HashSet<>(Arrays.asList(
+            IterableConstants.ENDPOINT_INAPP_CONSUME));
 
     private final HandlerThread networkThread = new HandlerThread("NetworkThread");
     Handler handler;
@@ -37,21 +82,65 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
         void onTaskCompleted(String taskId, TaskResult result, IterableApiResponse response);
     }
 
+    interface BackgroundFlushScheduler {
+        void scheduleBackgroundFlush();
+    }
+
+    interface BackgroundFlushCallback {
+        /**
+         * @param hasRemainingTasks true if tasks are still queued, because the time budget ran
+         *                          out or some tasks are waiting for a retry
+         */
+        @WorkerThread
+        void onBackgroundFlushFinished(boolean hasRemainingTasks);
+    }
+
     private ArrayList<TaskCompletedListener> taskCompletedListeners = new ArrayList<>();
 
     IterableTaskRunner(IterableTaskStorage taskStorage,
                        IterableActivityMonitor activityMonitor,
                        IterableNetworkConnectivityManager networkConnectivityManager,
                        HealthMonitor healthMonitor) {
+        this(taskStorage, activityMonitor, networkConnectivityManager, healthMonitor, new IterableConfig.Builder().build());
+    }
+
+    /**
+     * @param config SDK configuration. Offline queue tuning options such as
+     *               {@link IterableConfig#offlineDrainBatchSize} and
+     *               {@link IterableConfig#trackBulkMaxBatchSize} are read from it.
+     */
+    IterableTaskRunner(IterableTaskStorage taskStorage,
+                       IterableActivityMonitor activityMonitor,
+                       IterableNetworkConnectivityManager networkConnectivityManager,
+                       HealthMonitor healthMonitor,
+                       @NonNull IterableConfig config) {
+        this(taskStorage, activityMonitor, networkConnectivityManager, healthMonitor, config, new IterableRetryPolicy());
+    }
+
+    IterableTaskRunner(IterableTaskStorage taskStorage,
+                       IterableActivityMonitor activityMonitor,
+                       IterableNetworkConnectivityManager networkConnectivityManager,
+                       HealthMonitor healthMonitor,
+                       @NonNull IterableConfig config,
+                       @NonNull IterableRetryPolicy retryPolicy) {
         this.taskStorage = taskStorage;
         this.activityMonitor = activityMonitor;
         this.networkConnectivityManager = networkConnectivityManager;
         this.healthMonitor = healthMonitor;
+        this.batchSize = Math.max(1, config.offlineDrainBatchSize);
+        this.bulkMaxBatchSize = Math.max(1, config.trackBulkMaxBatchSize);
+        this.bulkMaxLingerMs = Math.max(0, config.trackBulkMaxLingerMs);
+        this.retryPolicy = retryPolicy;
+        this.maxConcurrentRequests = Math.max(1, config.offlineMaxConcurrentRequests);
+        if (maxConcurrentRequests > 1) {
+            dispatchExecutor = Executors.newFixedThreadPool(maxConcurrentRequests);
+        }
         networkThread.start();
         handler = new Handler(networkThread.getLooper(), this);
         taskStorage.addTaskCreatedListener(this);
         networkConnectivityManager.addNetworkListener(this);
         activityMonitor.addCallback(this);
+        healthMonitor.addStateListener(this);
     }
 
     void addTaskCompletedListener(TaskCompletedListener listener) {
@@ -62,11 +151,51 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
         taskCompletedListeners.remove(listener);
     }
 
+    /**
+     * Sets the scheduler used to request a background flush when the app goes to the background
+     * with tasks still queued
+     */
+    void setBackgroundFlushScheduler(@Nullable BackgroundFlushScheduler backgroundFlushScheduler) {
+        this.backgroundFlushScheduler = backgroundFlushScheduler;
+    }
+
+    /**
+     * Drains the queue while the app is in the background, until the queue is empty or the time
+     * budget runs out. Requests already in flight when the budget runs out are allowed to finish.
+     * @param timeBudgetMs time after which no new requests are sent
+     * @param callback called on the network thread once the flush has finished
+     */
+    void startBackgroundFlush(long timeBudgetMs, @NonNull BackgroundFlushCallback callback) {
+        handler.removeMessages(OPERATION_BACKGROUND_FLUSH);
+        handler.obtainMessage(OPERATION_BACKGROUND_FLUSH, (int) Math.min(Integer.MAX_VALUE, Math.max(0, timeBudgetMs)), 0, callback).sendToTarget();
+    }
+
+    /**
+     * Stops a background flush as soon as the current request has finished
+     */
+    void stopBackgroundFlush() {
+        handler.removeMessages(OPERATION_BACKGROUND_FLUSH);
+        backgroundFlushDeadline = 0;
+    }
+
     @Override
     public void onTaskCreated(IterableTask iterableTask) {
+        if (shouldLinger(iterableTask)) {
+            // Give more track events a chance to be queued so they can be sent in one bulk request
+            if (!handler.hasMessages(OPERATION_LINGER_EXPIRED)) {
+                handler.sendEmptyMessageDelayed(OPERATION_LINGER_EXPIRED, bulkMaxLingerMs);
+            }
+            return;
+        }
         runNow();
     }
 
+    private boolean shouldLinger(@Nullable IterableTask iterableTask) {
+        return isBulkEnabled() && bulkMaxLingerMs > 0 &&
+                iterableTask != null && isBulkCompatible(iterableTask) &&
+                lingeringTaskCount.incrementAndGet() < bulkMaxBatchSize;
+    }
+
     @Override
     public void onNetworkConnected() {
         runNow();
@@ -84,7 +213,33 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
 
     @Override
     public void onSwitchToBackground() {
+        final BackgroundFlushScheduler scheduler = backgroundFlushScheduler;
+        if (scheduler == null) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (taskStorage.getNextScheduledTime() > 0) {
+                    scheduler.scheduleBackgroundFlush();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onStateChanged(@NonNull HealthMonitor.State previousState, @NonNull HealthMonitor.State newState) {
+        if (newState == HealthMonitor.State.OPEN) {
+            scheduleProbe();
+        }
+    }
 
+    private void scheduleProbe() {
+        long timeUntilProbe = healthMonitor.getTimeUntilProbe();
+        if (timeUntilProbe > 0) {
+            handler.removeMessages(OPERATION_PROBE_DATABASE);
+            handler.sendEmptyMessageDelayed(OPERATION_PROBE_DATABASE, timeUntilProbe);
+        }
     }
 
     private void runNow() {
@@ -93,83 +248,437 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
     }
 
     private void scheduleRetry() {
-        handler.removeCallbacksAndMessages(OPERATION_PROCESS_TASKS);
-        handler.sendEmptyMessageDelayed(OPERATION_PROCESS_TASKS, RETRY_INTERVAL_SECONDS * 1000);
+        scheduleRetry(RETRY_INTERVAL_SECONDS * 1000);
+    }
+
+    private void scheduleRetry(long delayMs) {
+        handler.removeMessages(OPERATION_PROCESS_TASKS);
+        handler.sendEmptyMessageDelayed(OPERATION_PROCESS_TASKS, delayMs);
+    }
+
+    /**
+     * Wakes up the runner when the earliest task that is waiting for a retry becomes due
+     */
+    @WorkerThread
+    private void scheduleNextScheduledTask() {
+        long nextScheduledTime = taskStorage.getNextScheduledTime();
+        if (nextScheduledTime > 0) {
+            scheduleRetry(Math.max(0, nextScheduledTime - IterableUtil.currentTimeMillis()));
+        }
     }
 
     @WorkerThread
     @Override
     public boolean handleMessage(@NonNull Message msg) {
         if (msg.what == OPERATION_PROCESS_TASKS) {
+            retryPending = false;
+            processTasks();
+        } else if (msg.what == OPERATION_LINGER_EXPIRED) {
             processTasks();
-            return true;
+        } else if (msg.what == OPERATION_PROBE_DATABASE) {
+            healthMonitor.probeIfDue();
+            processTasks();
+        } else if (msg.what == OPERATION_REQUEST_FINISHED) {
+            onRequestFinished((Dispatch) msg.obj);
+        } else if (msg.what == OPERATION_BACKGROUND_FLUSH) {
+            backgroundFlushCallback = (BackgroundFlushCallback) msg.obj;
+            backgroundFlushDeadline = SystemClock.elapsedRealtime() + msg.arg1;
+            processTasks();
+        } else {
+            return false;
         }
-        return false;
+        finishBackgroundFlushIfIdle();
+        return true;
+    }
+
+    @WorkerThread
+    private void finishBackgroundFlushIfIdle() {
+        if (backgroundFlushCallback == null || inFlightRequestCount > 0) {
+            return;
+        }
+        BackgroundFlushCallback callback = backgroundFlushCallback;
+        backgroundFlushCallback = null;
+        callback.onBackgroundFlushFinished(taskStorage.getNextScheduledTime() > 0);
+    }
+
+    /**
+     * @return whether the next request can be sent: the network is available and the time budget
+     * of a background flush, if one is running, hasn't run out
+     */
+    @WorkerThread
+    private boolean canContinueProcessing() {
+        if (!networkConnectivityManager.isConnected()) {
+            return false;
+        }
+        return backgroundFlushCallback == null || SystemClock.elapsedRealtime() < backgroundFlushDeadline;
     }
 
     @WorkerThread
     private void processTasks() {
-        if (!activityMonitor.isInForeground()) {
+        if (backgroundFlushCallback == null && !activityMonitor.isInForeground()) {
             IterableLogger.d(TAG, "App not in foreground, skipping processing tasks");
             return;
         }
 
         if (!healthMonitor.canProcess()) {
+            // Come back when the database is probed, so that processing resumes once it has recovered
+            scheduleProbe();
+            return;
+        }
+
+        // The lingering track events are sent now
+        handler.removeMessages(OPERATION_LINGER_EXPIRED);
+        lingeringTaskCount.set(0);
+
+        if (maxConcurrentRequests > 1) {
+            processTasksConcurrently();
             return;
         }
 
-        while (networkConnectivityManager.isConnected()) {
+        if (batchSize > 1 || isBulkEnabled()) {
+            processTasksInBatches();
+            return;
+        }
+
+        while (canContinueProcessing()) {
             IterableTask task = taskStorage.getNextScheduledTask();
 
             if (task == null) {
+                scheduleNextScheduledTask();
                 return;
             }
 
-            boolean proceed = processTask(task);
-            if (!proceed) {
-                scheduleRetry();
+            if (!processTask(task)) {
                 return;
             }
         }
     }
 
     @WorkerThread
-    private boolean processTask(@NonNull IterableTask task) {
-        if (task.taskType == IterableTaskType.API) {
-            IterableApiResponse response = null;
-            TaskResult result = TaskResult.FAILURE;
-            try {
-                IterableApiRequest request = IterableApiRequest.fromJSON(getTaskDataWithDate(task), null, null);
-                request.setProcessorType(IterableApiRequest.ProcessorType.OFFLINE);
-                response = IterableRequestTask.executeApiRequest(request);
-            } catch (Exception e) {
-                IterableLogger.e(TAG, "Error while processing request task", e);
-                healthMonitor.onDBError();
-            }
-
-            if (response != null) {
-                if (response.success) {
-                    result = TaskResult.SUCCESS;
+    private void processTasksInBatches() {
+        while (canContinueProcessing()) {
+            ArrayList<IterableTask> tasks = taskStorage.getNextScheduledTasks(Math.max(batchSize, bulkMaxBatchSize));
+
+            if (tasks.isEmpty()) {
+                scheduleNextScheduledTask();
+                return;
+            }
+
+            ArrayList<String> finishedTaskIds = new ArrayList<>(tasks.size());
+            boolean proceed = true;
+            long retryDelayMs = RETRY_INTERVAL_SECONDS * 1000;
+            int index = 0;
+            while (index < tasks.size()) {
+                IterableTask task = tasks.get(index);
+                if (task.taskType != IterableTaskType.API) {
+                    proceed = false;
+                    break;
+                }
+
+                List<IterableTask> sentTasks;
+                IterableApiResponse response;
+                BulkTrackRequest bulkRequest = isBulkEnabled() ? buildBulkTrackRequest(tasks, index) : null;
+                if (bulkRequest != null) {
+                    sentTasks = bulkRequest.tasks;
+                    response = executeBulkTrackRequest(bulkRequest);
                 } else {
-                    if (isRetriableError(response.errorMessage)) {
-                        result = TaskResult.RETRY;
+                    sentTasks = Collections.singletonList(task);
+                    response = executeApiTask(task);
+                }
+
+                TaskResult result = getTaskResult(response);
+                if (result == TaskResult.RETRY) {
+                    retryDelayMs = retryTasksLater(sentTasks, response);
+                    proceed = false;
+                    break;
+                }
+                callTaskCompletedListeners(sentTasks, result, response);
+                for (IterableTask sentTask : sentTasks) {
+                    finishedTaskIds.add(sentTask.id);
+                }
+                index += sentTasks.size();
+
+                if (!canContinueProcessing()) {
+                    break;
+                }
+            }
+            taskStorage.deleteTasks(finishedTaskIds);
+
+            if (!proceed) {
+                scheduleRetry(retryDelayMs);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends due tasks on the dispatch executor until {@link #maxConcurrentRequests} requests are
+     * in flight. Dispatched tasks are leased with the processing flag so they are not picked up
+     * again, and tasks sharing an ordering key are never in flight at the same time.
+     */
+    @WorkerThread
+    private void processTasksConcurrently() {
+        if (!canContinueProcessing()) {
+            return;
+        }
+
+        int availableRequests = maxConcurrentRequests - inFlightRequestCount;
+        if (availableRequests <= 0) {
+            return;
+        }
+
+        ArrayList<IterableTask> tasks = taskStorage.getNextScheduledTasks(Math.max(batchSize, availableRequests * bulkMaxBatchSize));
+        if (tasks.isEmpty()) {
+            if (inFlightRequestCount == 0) {
+                scheduleNextScheduledTask();
+            }
+            return;
+        }
+
+        Set<String> usedOrderingKeys = new HashSet<>(inFlightOrderingKeys);
+        ArrayList<Dispatch> dispatches = new ArrayList<>();
+        ArrayList<String> leasedTaskIds = new ArrayList<>();
+        int index = 0;
+        while (index < tasks.size() && dispatches.size() < availableRequests) {
+            IterableTask task = tasks.get(index);
+            String orderingKey = getOrderingKey(task);
+            if (task.taskType != IterableTaskType.API || (orderingKey != null && !usedOrderingKeys.add(orderingKey))) {
+                // Wait until the earlier task with the same ordering key has finished
+                index++;
+                continue;
+            }
+
+            BulkTrackRequest bulkRequest = isBulkEnabled() ? buildBulkTrackRequest(tasks, index) : null;
+            Dispatch dispatch = new Dispatch(bulkRequest != null ? bulkRequest.tasks : Collections.singletonList(task), bulkRequest, orderingKey);
+            for (IterableTask dispatchedTask : dispatch.tasks) {
+                leasedTaskIds.add(dispatchedTask.id);
+            }
+            dispatches.add(dispatch);
+            index += dispatch.tasks.size();
+        }
+
+        taskStorage.updateIsProcessing(leasedTaskIds, true);
+        for (final Dispatch dispatch : dispatches) {
+            inFlightRequestCount++;
+            if (dispatch.orderingKey != null) {
+                inFlightOrderingKeys.add(dispatch.orderingKey);
+            }
+            dispatchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (dispatch.bulkRequest != null) {
+                        dispatch.response = executeBulkTrackRequest(dispatch.bulkRequest);
                     } else {
-                        result = TaskResult.FAILURE;
+                        dispatch.response = executeApiTask(dispatch.tasks.get(0));
                     }
+                    handler.obtainMessage(OPERATION_REQUEST_FINISHED, dispatch).sendToTarget();
                 }
-            }
-            callTaskCompletedListeners(task.id, result, response);
+            });
+        }
+    }
+
+    @WorkerThread
+    private void onRequestFinished(@NonNull Dispatch dispatch) {
+        inFlightRequestCount--;
+        if (dispatch.orderingKey != null) {
+            inFlightOrderingKeys.remove(dispatch.orderingKey);
+        }
+
+        TaskResult result = getTaskResult(dispatch.response);
+        if (result == TaskResult.RETRY) {
+            // Releases the lease along with rescheduling, and holds off new requests until the retry
+            retryPending = true;
+            scheduleRetry(retryTasksLater(dispatch.tasks, dispatch.response));
+            return;
+        }
+
+        callTaskCompletedListeners(dispatch.tasks, result, dispatch.response);
+        ArrayList<String> finishedTaskIds = new ArrayList<>(dispatch.tasks.size());
+        for (IterableTask task : dispatch.tasks) {
+            finishedTaskIds.add(task.id);
+        }
+        taskStorage.deleteTasks(finishedTaskIds);
+
+        if (!retryPending) {
+            processTasks();
+        }
+    }
+
+    /**
+     * @return key shared by tasks that must be sent in order, or null if the task can be sent
+     * concurrently with any other task
+     */
+    @Nullable
+    private String getOrderingKey(@NonNull IterableTask task) {
+        if (!orderedApiSet.contains(task.name)) {
+            return null;
+        }
+        JSONObject taskData = getTaskDataWithDate(task);
+        JSONObject requestData = taskData != null ? taskData.optJSONObject("data") : null;
+        String user = "";
+        if (requestData != null) {
+            user = requestData.optString(IterableConstants.KEY_EMAIL, requestData.optString(IterableConstants.KEY_USER_ID, ""));
+        }
+        return task.name + "/" + user;
+    }
+
+    @WorkerThread
+    private boolean processTask(@NonNull IterableTask task) {
+        if (task.taskType == IterableTaskType.API) {
+            IterableApiResponse response = executeApiTask(task);
+            TaskResult result = getTaskResult(response);
             if (result == TaskResult.RETRY) {
-                // Keep the task, stop further processing
+                // Keep the task and pause processing until it is due again
+                scheduleRetry(retryTasksLater(Collections.singletonList(task), response));
                 return false;
             } else {
+                callTaskCompletedListeners(Collections.singletonList(task), result, response);
                 taskStorage.deleteTask(task.id);
                 return true;
             }
         }
+        scheduleRetry();
         return false;
     }
 
+    /**
+     * Records a failed attempt for each task and reschedules it with backoff, or marks it as
+     * failed once it has run out of attempts.
+     *
+     * @return delay until the earliest rescheduled task is due
+     */
+    @WorkerThread
+    private long retryTasksLater(@NonNull List<IterableTask> tasks, @NonNull IterableApiResponse response) {
+        long currentTime = IterableUtil.currentTimeMillis();
+        long retryDelayMs = Long.MAX_VALUE;
+        for (IterableTask task : tasks) {
+            task.attempts++;
+            task.lastAttemptedAt = currentTime;
+            task.taskFailureData = response.errorMessage;
+            long taskRetryDelayMs = retryPolicy.getRetryDelayMs(task.attempts, response);
+            retryDelayMs = Math.min(retryDelayMs, taskRetryDelayMs);
+            if (retryPolicy.shouldRetry(task.attempts, response)) {
+                task.scheduledAt = currentTime + taskRetryDelayMs;
+            } else {
+                IterableLogger.e(TAG, "Task " + task.id + " failed after " + task.attempts + " attempts");
+                task.failed = true;
+                callTaskCompletedListeners(task.id, TaskResult.FAILURE, response);
+            }
+        }
+        taskStorage.updateTasks(tasks);
+        return retryDelayMs;
+    }
+
+    @WorkerThread
+    private IterableApiResponse executeApiTask(@NonNull IterableTask task) {
+        IterableApiResponse response = null;
+        try {
+            IterableApiRequest request;
+            if (task.requestBody != null) {
+                request = new IterableApiRequest(task.apiKey, task.name, getRequestBodyWithDate(task), task.authToken);
+            } else {
+                request = IterableApiRequest.fromJSON(getTaskDataWithDate(task), null, null);
+            }
+            request.setProcessorType(IterableApiRequest.ProcessorType.OFFLINE);
+            response = IterableRequestTask.executeApiRequest(request);
+        } catch (Exception e) {
+            IterableLogger.e(TAG, "Error while processing request task", e);
+            healthMonitor.onDBError();
+        }
+        return response;
+    }
+
+    private boolean isBulkEnabled() {
+        return bulkMaxBatchSize > 1;
+    }
+
+    private boolean isBulkCompatible(@NonNull IterableTask task) {
+        return task.taskType == IterableTaskType.API && IterableConstants.ENDPOINT_TRACK.equals(task.name);
+    }
+
+    /**
+     * Collects the consecutive track tasks starting at {@code startIndex} that share the same
+     * API key and auth token into a single trackBulk request.
+     *
+     * @return the bulk request, or null if fewer than two tasks could be combined
+     */
+    @Nullable
+    private BulkTrackRequest buildBulkTrackRequest(@NonNull ArrayList<IterableTask> tasks, int startIndex) {
+        BulkTrackRequest bulkRequest = new BulkTrackRequest();
+        for (int i = startIndex; i < tasks.size() && bulkRequest.tasks.size() < bulkMaxBatchSize; i++) {
+            IterableTask task = tasks.get(i);
+            if (!isBulkCompatible(task)) {
+                break;
+            }
+            byte[] event;
+            String apiKey;
+            String authToken;
+            if (task.requestBody != null) {
+                event = getRequestBodyWithDate(task);
+                apiKey = task.apiKey;
+                authToken = task.authToken;
+            } else {
+                JSONObject taskData = getTaskDataWithDate(task);
+                JSONObject eventJson = taskData != null ? taskData.optJSONObject("data") : null;
+                if (eventJson == null) {
+                    break;
+                }
+                event = eventJson.toString().getBytes(IterableRequestBody.UTF_8);
+                apiKey = taskData.optString("apiKey", null);
+                authToken = taskData.optString("authToken", null);
+            }
+            if (bulkRequest.tasks.isEmpty()) {
+                bulkRequest.apiKey = apiKey;
+                bulkRequest.authToken = authToken;
+            } else if (!equals(apiKey, bulkRequest.apiKey) || !equals(authToken, bulkRequest.authToken)) {
+                break;
+            }
+            bulkRequest.events.add(event);
+            bulkRequest.tasks.add(task);
+        }
+        return bulkRequest.tasks.size() > 1 ? bulkRequest : null;
+    }
+
+    @WorkerThread
+    private IterableApiResponse executeBulkTrackRequest(@NonNull BulkTrackRequest bulkRequest) {
+        IterableApiResponse response = null;
+        try {
+            byte[] body = IterableRequestBody.arrayField(IterableConstants.KEY_EVENTS, bulkRequest.events);
+            IterableApiRequest request = new IterableApiRequest(bulkRequest.apiKey, IterableConstants.ENDPOINT_TRACK_BULK, body, bulkRequest.authToken);
+            request.setProcessorType(IterableApiRequest.ProcessorType.OFFLINE);
+            response = IterableRequestTask.executeApiRequest(request);
+        } catch (Exception e) {
+            IterableLogger.e(TAG, "Error while processing bulk request task", e);
+            healthMonitor.onDBError();
+        }
+        return response;
+    }
+
+    private TaskResult getTaskResult(@Nullable IterableApiResponse response) {
+        if (response == null) {
+            return TaskResult.FAILURE;
+        }
+        if (response.success) {
+            return TaskResult.SUCCESS;
+        } else if (retryPolicy.isRetriable(response)) {
+            return TaskResult.RETRY;
+        } else {
+            return TaskResult.FAILURE;
+        }
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @return the stored request body with the task creation time added, without parsing the body
+     */
+    @NonNull
+    static byte[] getRequestBodyWithDate(@NonNull IterableTask task) {
+        return IterableRequestBody.withField(task.requestBody, IterableConstants.KEY_CREATED_AT, task.createdAt / 1000);
+    }
+
     JSONObject getTaskDataWithDate(IterableTask task) {
         try {
             JSONObject jsonData = new JSONObject(task.data);
@@ -181,8 +690,11 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
         return null;
     }
 
-    private boolean isRetriableError(String errorMessage) {
-        return errorMessage.contains("failed to connect");
+    @WorkerThread
+    private void callTaskCompletedListeners(List<IterableTask> tasks, TaskResult result, IterableApiResponse response) {
+        for (IterableTask task : tasks) {
+            callTaskCompletedListeners(task.id, result, response);
+        }
     }
 
     @WorkerThread
@@ -196,4 +708,24 @@ class IterableTaskRunner implements IterableTaskStorage.TaskCreatedListener, Han
             });
         }
     }
+
+    private static class Dispatch {
+        final List<IterableTask> tasks;
+        final BulkTrackRequest bulkRequest;
+        final String orderingKey;
+        IterableApiResponse response;
+
+        Dispatch(@NonNull List<IterableTask> tasks, @Nullable BulkTrackRequest bulkRequest, @Nullable String orderingKey) {
+            this.tasks = tasks;
+            this.bulkRequest = bulkRequest;
+            this.orderingKey = orderingKey;
+        }
+    }
+
+    private static class BulkTrackRequest {
+        final ArrayList<IterableTask> tasks = new ArrayList<>();
+        final ArrayList<byte[]> events = new ArrayList<>();
+        String apiKey;
+        String authToken;
+    }
 }
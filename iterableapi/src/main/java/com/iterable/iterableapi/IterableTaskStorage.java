@@ -1,24 +1,38 @@
 package com.iterable.iterableapi;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Handler;
 import android.os.Looper;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 class IterableTaskStorage {
 
     private static IterableTaskStorage sharedInstance;
 
+    private static final String KEY_API_KEY = "apiKey";
+    private static final String KEY_AUTH_TOKEN = "authToken";
+    private static final String KEY_RESOURCE_PATH = "resourcePath";
+    private static final String KEY_REQUEST_TYPE = "requestType";
+    private static final String KEY_REQUEST_DATA = "data";
+
     private static final String TAG = "IterableTaskStorage";
 
     static final String ITERABLE_TASK_TABLE_NAME = "OfflineTask";
@@ -39,6 +53,16 @@ class IterableTaskStorage {
     static final String MODIFIED_AT = "modified";
     static final String CREATED_AT = "created";
     static final String VERSION = "version";
+    static final String PRIORITY = "priority";
+    static final String CREDENTIALS_ID = "credentials_id";
+    static final String REQUEST_BODY = "request_body";
+    static final String SORT_KEY = "sort_key";
+
+    static final String ITERABLE_TASK_CREDENTIALS_TABLE_NAME = "OfflineTaskCredentials";
+    static final String OFFLINE_TASK_CREDENTIALS_COLUMN_DATA = " (id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "api_key TEXT NOT NULL DEFAULT ''," +
+            "auth_token TEXT NOT NULL DEFAULT ''," +
+            "UNIQUE (api_key, auth_token))";
 
     static final String OFFLINE_TASK_COLUMN_DATA = " (" + TASK_ID + " TEXT PRIMARY KEY," +
             NAME + " TEXT," +
@@ -51,15 +75,78 @@ class IterableTaskStorage {
             PROCESSING + " BOOLEAN," +
             FAILED + " BOOLEAN," +
             BLOCKING + " BOOLEAN," +
-            DATA + " TEXT," +
+            DATA + " BLOB," +
             ERROR + " TEXT," +
             TYPE + " TEXT," +
-            ATTEMPTS + " INTEGER" + ")";
+            ATTEMPTS + " INTEGER," +
+            PRIORITY + " INTEGER DEFAULT 0," +
+            CREDENTIALS_ID + " INTEGER," +
+            REQUEST_BODY + " BLOB," +
+            SORT_KEY + " BIGINT" + ")";
 
     private static final String QUERY_GET_TASK_BY_ID = "select * from OfflineTask where task_id = ?";
 
+    /**
+     * Each priority step is worth this much queue time, so a task is sent ahead of tasks one
+     * priority level higher once it has waited this much longer than them.
+     */
+    static final long PRIORITY_AGING_INTERVAL_MS = 5 * 60 * 1000;
+
+    /**
+     * Tasks that ran out of retry attempts are kept with the failed flag set for this long
+     * before they are deleted
+     */
+    static final long FAILED_TASK_RETENTION_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    // Tasks with the processing flag set are leased by an in-flight request
+    private static final String WHERE_DUE = " where " + SCHEDULED_AT + " <= ? and " + FAILED + " = 0 and " + PROCESSING + " = 0";
+    // The aged priority is stored in the sort key column, so that the order is read from an index
+    // instead of sorting every due task
+    private static final String ORDER_BY_AGED_PRIORITY = " order by " + SORT_KEY + ", " + SCHEDULED_AT;
+    static final String QUERY_NEXT_SCHEDULED_TASKS = "select * from OfflineTask" + WHERE_DUE + ORDER_BY_AGED_PRIORITY + " limit ?";
+
+    private static final String STATEMENT_INSERT_TASK = "INSERT INTO " + ITERABLE_TASK_TABLE_NAME + " (" +
+            TASK_ID + ", " + NAME + ", " + VERSION + ", " + CREATED_AT + ", " + MODIFIED_AT + ", " +
+            LAST_ATTEMPTED_AT + ", " + SCHEDULED_AT + ", " + REQUESTED_AT + ", " + PROCESSING + ", " +
+            FAILED + ", " + BLOCKING + ", " + DATA + ", " + ERROR + ", " + TYPE + ", " + ATTEMPTS + ", " +
+            CREDENTIALS_ID + ", " + PRIORITY + ", " + REQUEST_BODY + ", " + SORT_KEY + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String STATEMENT_UPDATE_TASK = "UPDATE " + ITERABLE_TASK_TABLE_NAME + " SET " +
+            MODIFIED_AT + " = ?, " + LAST_ATTEMPTED_AT + " = ?, " + SCHEDULED_AT + " = ?, " +
+            REQUESTED_AT + " = ?, " + PROCESSING + " = ?, " + FAILED + " = ?, " + BLOCKING + " = ?, " +
+            DATA + " = ?, " + CREDENTIALS_ID + " = ?, " + ERROR + " = ?, " + ATTEMPTS + " = ?, " +
+            SORT_KEY + " = ? WHERE " + TASK_ID + " = ?";
+    private static final String STATEMENT_UPDATE_SCHEDULED_AT = "UPDATE " + ITERABLE_TASK_TABLE_NAME + " SET " +
+            SCHEDULED_AT + " = ?, " + SORT_KEY + " = ? - " + PRIORITY + " * " + PRIORITY_AGING_INTERVAL_MS +
+            " WHERE " + TASK_ID + " = ?";
+    private static final String STATEMENT_UPDATE_TASK_DATA = "UPDATE " + ITERABLE_TASK_TABLE_NAME + " SET " +
+            DATA + " = ?, " + CREDENTIALS_ID + " = ?, " + REQUEST_BODY + " = NULL WHERE " + TASK_ID + " = ?";
+    private static final String STATEMENT_INCREMENT_ATTEMPTS = "UPDATE " + ITERABLE_TASK_TABLE_NAME +
+            " SET " + ATTEMPTS + " = " + ATTEMPTS + " + 1 WHERE " + TASK_ID + " = ?";
+    private static final String STATEMENT_DELETE_TASK = "DELETE FROM " + ITERABLE_TASK_TABLE_NAME + " WHERE " + TASK_ID + " = ?";
+
+    // Eviction statements never delete tasks leased by an in-flight request
+    private static final String STATEMENT_DELETE_LOWEST_PRIORITY_TASKS = "DELETE FROM " + ITERABLE_TASK_TABLE_NAME +
+            " WHERE " + TASK_ID + " IN (SELECT " + TASK_ID + " FROM " + ITERABLE_TASK_TABLE_NAME +
+            " WHERE " + PROCESSING + " = 0 AND (" + FAILED + " = 1 OR " + PRIORITY + " <= ?)" +
+            " ORDER BY " + FAILED + " DESC, " + PRIORITY + ", " + CREATED_AT + " LIMIT ?)";
+    private static final String STATEMENT_DELETE_TASKS_CREATED_BEFORE = "DELETE FROM " + ITERABLE_TASK_TABLE_NAME +
+            " WHERE " + PROCESSING + " = 0 AND " + CREATED_AT + " < ?";
+    // Only pending tasks created at the same time are duplicates: identical events made one after
+    // the other are legitimate, and a failed task never stands in for a pending one
+    private static final String STATEMENT_DELETE_DUPLICATE_TASKS = "DELETE FROM " + ITERABLE_TASK_TABLE_NAME +
+            " WHERE " + PROCESSING + " = 0 AND " + FAILED + " = 0 AND rowid NOT IN (SELECT min(rowid) FROM " + ITERABLE_TASK_TABLE_NAME +
+            " WHERE " + FAILED + " = 0 GROUP BY " + NAME + ", " + DATA + ", " + REQUEST_BODY + ", " + CREDENTIALS_ID + ", " + CREATED_AT + ")";
+
     private SQLiteDatabase database;
     private IterableDatabaseManager databaseManager;
+    private final HashMap<String, SQLiteStatement> statementCache = new HashMap<>();
+    private final HashMap<String, Long> credentialsIds = new HashMap<>();
+    private final HashMap<Long, String[]> credentialsById = new HashMap<>();
+    private volatile IterableTaskDataCodec dataCodec = new IterableTaskDataCodec(false);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Number of rows in OfflineTask, seeded when the database is opened and kept in sync on every insert and delete
+    private final AtomicLong taskCount = new AtomicLong();
 
     interface TaskCreatedListener {
         void onTaskCreated(IterableTask iterableTask);
@@ -74,9 +161,15 @@ class IterableTaskStorage {
             }
 
             if (databaseManager == null) {
-                databaseManager = new IterableDatabaseManager(context);
+                IterableConfig config = IterableApi.getInstance().config;
+                IterableOfflineStorageProfile profile = config != null ? config.offlineStorageProfile : IterableOfflineStorageProfile.DEFAULT;
+                databaseManager = new IterableDatabaseManager(context, profile);
             }
             database = databaseManager.getWritableDatabase();
+            deleteExpiredFailedTasks();
+            resetProcessingTasks();
+            taskCount.set(DatabaseUtils.queryNumEntries(database, ITERABLE_TASK_TABLE_NAME));
+            deleteUnusedCredentials();
         } catch (SQLException e) {
             IterableLogger.e(TAG, "Database cannot be opened for writing");
         }
@@ -89,6 +182,15 @@ class IterableTaskStorage {
         return sharedInstance;
     }
 
+    /**
+     * Enables deflate compression of stored task payloads. When enabled, the API key and auth
+     * token are also moved out of each payload into {@link #ITERABLE_TASK_CREDENTIALS_TABLE_NAME}.
+     * Only affects tasks written from now on; tasks in either format are read back transparently.
+     */
+    void setCompressionEnabled(boolean compressionEnabled) {
+        dataCodec = new IterableTaskDataCodec(compressionEnabled);
+    }
+
     void addTaskCreatedListener(TaskCreatedListener listener) {
         taskCreatedListeners.add(listener);
     }
@@ -105,49 +207,138 @@ class IterableTaskStorage {
      */
     @Nullable
     String createTask(String name, IterableTaskType type, String data) {
+        return createTask(name, type, data, IterableRequestPriority.NORMAL.getValue());
+    }
+
+    /**
+     * Creates a new instance of IterableTask with the given priority and stores it in the database.
+     * Serialized POST requests (see {@link IterableApiRequest#toJSONObject()}) are stored with their
+     * body ready to send and their API key and auth token in the credentials table, so that
+     * the runner can send them without parsing the body.
+     *
+     * @param name     Type of the offline task. See {@link IterableTaskType}
+     * @param priority priority value, see {@link IterableRequestPriority}
+     * @return unique id of the task created
+     */
+    @Nullable
+    String createTask(String name, IterableTaskType type, String data, int priority) {
         if (!isDatabaseReady()) {
             return null;
         }
-        ContentValues contentValues = new ContentValues();
-        final IterableTask iterableTask = new IterableTask(name, IterableTaskType.API, data);
-        contentValues.put(TASK_ID, iterableTask.id);
-        contentValues.put(NAME, iterableTask.name);
-        contentValues.put(VERSION, iterableTask.version);
-        contentValues.put(CREATED_AT, iterableTask.createdAt);
-        if (iterableTask.modifiedAt != 0) {
-            contentValues.put(MODIFIED_AT, iterableTask.modifiedAt);
+        IterableTask iterableTask = new IterableTask(name, IterableTaskType.API, data, priority);
+        EncodedTaskData encodedData = encodeNewTaskData(iterableTask.name, iterableTask.data);
+        SQLiteStatement statement = getStatement(STATEMENT_INSERT_TASK);
+        long rowId;
+        synchronized (statement) {
+            rowId = insertTask(statement, iterableTask, encodedData);
         }
-        if (iterableTask.lastAttemptedAt != 0) {
-            contentValues.put(LAST_ATTEMPTED_AT, iterableTask.lastAttemptedAt);
-        }
-        if (iterableTask.scheduledAt != 0) {
-            contentValues.put(SCHEDULED_AT, iterableTask.scheduledAt);
+        if (rowId == -1) {
+            notifyDBError();
+            return null;
         }
-        if (iterableTask.requestedAt != 0) {
-            contentValues.put(REQUESTED_AT, iterableTask.requestedAt);
+        taskCount.incrementAndGet();
+        notifyTaskCreated(iterableTask);
+        return iterableTask.id;
+    }
+
+    /**
+     * Returns the most recently created task that hasn't failed, if it has the given name and is
+     * still waiting to be sent. Only this task can be replaced by a newer request without sending
+     * the newer data ahead of tasks that were queued before it.
+     *
+     * @param name name of the task, which is the API endpoint for API tasks
+     * @return the pending {@link IterableTask}, or null if the newest task is another one or is
+     * being processed
+     */
+    @Nullable
+    IterableTask getNewestTaskIfPending(String name) {
+        if (!isDatabaseReady()) {
+            return null;
         }
-        contentValues.put(PROCESSING, iterableTask.processing);
-        contentValues.put(FAILED, iterableTask.failed);
-        contentValues.put(BLOCKING, iterableTask.blocking);
-        if (iterableTask.data != null) {
-            contentValues.put(DATA, iterableTask.data);
+        Cursor cursor = database.rawQuery("select * from OfflineTask where " + FAILED + " = 0 order by rowid desc limit 1", null);
+        IterableTask task = null;
+        if (cursor.moveToFirst()) {
+            task = createTaskFromCursor(cursor);
         }
-        if (iterableTask.taskFailureData != null) {
-            contentValues.put(ERROR, iterableTask.taskFailureData);
+        cursor.close();
+        if (task == null || task.processing || !name.equals(task.name)) {
+            return null;
         }
+        return task;
+    }
 
-        contentValues.put(TYPE, iterableTask.taskType.toString());
-        contentValues.put(ATTEMPTS, iterableTask.attempts);
-
-        long rowId = database.insert(ITERABLE_TASK_TABLE_NAME, null, contentValues);
-        if (rowId == -1) {
-            notifyDBError();
+    /**
+     * Replaces a pending task with a new task carrying the given data. The new task is created
+     * now, and keeps the retry state of the replaced task: its attempts, last attempt time and
+     * a scheduled time that is still in the future.
+     *
+     * @param task     task to replace
+     * @param data     data of the new task
+     * @param priority priority value of the new task, see {@link IterableRequestPriority}
+     * @return unique id of the new task, or null if the task was no longer pending
+     */
+    @Nullable
+    String replacePendingTask(@NonNull IterableTask task, String data, int priority) {
+        if (!isDatabaseReady()) {
             return null;
         }
-        contentValues.clear();
+        IterableTask newTask = new IterableTask(task.name, IterableTaskType.API, data, priority);
+        newTask.scheduledAt = Math.max(newTask.scheduledAt, task.scheduledAt);
+        newTask.attempts = task.attempts;
+        newTask.lastAttemptedAt = task.lastAttemptedAt;
+        EncodedTaskData encodedData = encodeNewTaskData(newTask.name, newTask.data);
+        SQLiteStatement statement = getStatement(STATEMENT_INSERT_TASK);
+        synchronized (statement) {
+            database.beginTransaction();
+            try {
+                int numberOfEntriesDeleted = database.delete(ITERABLE_TASK_TABLE_NAME,
+                        TASK_ID + " = ? and " + FAILED + " = 0 and " + PROCESSING + " = 0", new String[]{task.id});
+                if (numberOfEntriesDeleted == 0) {
+                    return null;
+                }
+                if (insertTask(statement, newTask, encodedData) == -1) {
+                    notifyDBError();
+                    return null;
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+        notifyTaskCreated(newTask);
+        return newTask.id;
+    }
+
+    private long insertTask(SQLiteStatement statement, IterableTask iterableTask, EncodedTaskData encodedData) {
+        statement.clearBindings();
+        statement.bindString(1, iterableTask.id);
+        bindStringOrNull(statement, 2, iterableTask.name);
+        statement.bindLong(3, iterableTask.version);
+        statement.bindLong(4, iterableTask.createdAt);
+        bindDateOrNull(statement, 5, iterableTask.modifiedAt);
+        bindDateOrNull(statement, 6, iterableTask.lastAttemptedAt);
+        bindDateOrNull(statement, 7, iterableTask.scheduledAt);
+        bindDateOrNull(statement, 8, iterableTask.requestedAt);
+        bindBoolean(statement, 9, iterableTask.processing);
+        bindBoolean(statement, 10, iterableTask.failed);
+        bindBoolean(statement, 11, iterableTask.blocking);
+        bindTaskData(statement, 12, 16, encodedData);
+        bindStringOrNull(statement, 13, iterableTask.taskFailureData);
+        statement.bindString(14, iterableTask.taskType.toString());
+        statement.bindLong(15, iterableTask.attempts);
+        statement.bindLong(17, iterableTask.priority);
+        if (encodedData != null && encodedData.requestBody != null) {
+            statement.bindBlob(18, encodedData.requestBody);
+        } else {
+            statement.bindNull(18);
+        }
+        bindSortKey(statement, 19, iterableTask);
+        return statement.executeInsert();
+    }
 
+    private void notifyTaskCreated(final IterableTask iterableTask) {
         // Call through Handler to make sure we don't call the listeners immediately, as the caller may need additional processing
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        mainHandler.post(new Runnable() {
             @Override
             public void run() {
                 for (TaskCreatedListener listener : taskCreatedListeners) {
@@ -155,8 +346,6 @@ class IterableTaskStorage {
                 }
             }
         });
-
-        return iterableTask.id;
     }
 
     /**
@@ -189,6 +378,7 @@ class IterableTaskStorage {
         IterableTaskType type = null;
         int version = 1;
         int attempts = 0;
+        int priority = 0;
         long dateCreated = 0, dateModified = 0, dateLastAttempted = 0, dateScheduled = 0, dateRequested = 0;
         boolean processing = false, failed = false, blocking = false;
         String data = null, error = null;
@@ -218,8 +408,23 @@ class IterableTaskStorage {
         if (!cursor.isNull(cursor.getColumnIndex(BLOCKING))) {
             blocking = cursor.getInt(cursor.getColumnIndex(BLOCKING)) > 0;
         }
-        if (!cursor.isNull(cursor.getColumnIndex(DATA))) {
-            data = cursor.getString(cursor.getColumnIndex(DATA));
+        long credentialsId = 0;
+        if (!cursor.isNull(cursor.getColumnIndex(CREDENTIALS_ID))) {
+            credentialsId = cursor.getLong(cursor.getColumnIndex(CREDENTIALS_ID));
+        }
+        byte[] requestBody = null;
+        String[] credentials = null;
+        if (!cursor.isNull(cursor.getColumnIndex(REQUEST_BODY))) {
+            requestBody = IterableTaskDataCodec.decodeBytes(cursor.getBlob(cursor.getColumnIndex(REQUEST_BODY)));
+            credentials = getCredentials(credentialsId);
+            if (requestBody != null && credentials != null) {
+                data = IterableRequestBody.toRequestJson(emptyToNull(credentials[0]), name, emptyToNull(credentials[1]), requestBody);
+            } else {
+                IterableLogger.e(TAG, "Failed to read request body of task " + id);
+                requestBody = null;
+            }
+        } else if (!cursor.isNull(cursor.getColumnIndex(DATA))) {
+            data = decodeTaskData(cursor.getBlob(cursor.getColumnIndex(DATA)), credentialsId);
         }
         if (!cursor.isNull(cursor.getColumnIndex(ERROR))) {
             error = cursor.getString(cursor.getColumnIndex(ERROR));
@@ -230,8 +435,22 @@ class IterableTaskStorage {
         if (!cursor.isNull(cursor.getColumnIndex(ATTEMPTS))) {
             attempts = cursor.getInt(cursor.getColumnIndex(ATTEMPTS));
         }
+        if (!cursor.isNull(cursor.getColumnIndex(PRIORITY))) {
+            priority = cursor.getInt(cursor.getColumnIndex(PRIORITY));
+        }
 
-        return new IterableTask(id, name, version, dateCreated, dateModified, dateLastAttempted, dateScheduled, dateRequested, processing, failed, blocking, data, error, type, attempts);
+        IterableTask task = new IterableTask(id, name, version, dateCreated, dateModified, dateLastAttempted, dateScheduled, dateRequested, processing, failed, blocking, data, error, type, attempts, priority);
+        if (requestBody != null) {
+            task.requestBody = requestBody;
+            task.apiKey = emptyToNull(credentials[0]);
+            task.authToken = emptyToNull(credentials[1]);
+        }
+        return task;
+    }
+
+    @Nullable
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
     }
 
     /**
@@ -259,15 +478,23 @@ class IterableTaskStorage {
         return taskIds;
     }
 
+    /**
+     * Returns the number of tasks in OfflineTask table without querying the database
+     *
+     * @return number of queued tasks
+     * @throws IllegalStateException if the database is not ready
+     */
     long getNumberOfTasks() throws IllegalStateException {
         if (!isDatabaseReady()) {
             throw new IllegalStateException("Database is not ready");
         }
-        return DatabaseUtils.queryNumEntries(database, ITERABLE_TASK_TABLE_NAME);
+        return taskCount.get();
     }
 
     /**
-     * Returns the next scheduled task for processing
+     * Returns the next task that is due for processing. Higher priority tasks come first, with
+     * priority aged by {@link #PRIORITY_AGING_INTERVAL_MS}. Tasks scheduled for a later retry
+     * and tasks that are failed or being processed are skipped
      *
      * @return next scheduled {@link IterableTask}
      */
@@ -276,7 +503,7 @@ class IterableTaskStorage {
         if (!isDatabaseReady()) {
             return null;
         }
-        Cursor cursor = database.rawQuery("select * from OfflineTask order by scheduled limit 1", null);
+        Cursor cursor = database.rawQuery("select * from OfflineTask" + WHERE_DUE + ORDER_BY_AGED_PRIORITY + " limit 1", new String[]{String.valueOf(IterableUtil.currentTimeMillis())});
         IterableTask task = null;
         if (cursor.moveToFirst()) {
             task = createTaskFromCursor(cursor);
@@ -285,6 +512,112 @@ class IterableTaskStorage {
         return task;
     }
 
+    /**
+     * Returns up to {@code limit} next scheduled tasks for processing, in the same order as
+     * {@link #getNextScheduledTask()}
+     *
+     * @param limit maximum number of tasks to return
+     * @return {@link ArrayList} of the next scheduled {@link IterableTask}s. Empty if there are none
+     */
+    @NonNull
+    ArrayList<IterableTask> getNextScheduledTasks(int limit) {
+        ArrayList<IterableTask> tasks = new ArrayList<>();
+        if (!isDatabaseReady()) {
+            return tasks;
+        }
+        Cursor cursor = database.rawQuery(QUERY_NEXT_SCHEDULED_TASKS, new String[]{String.valueOf(IterableUtil.currentTimeMillis()), String.valueOf(limit)});
+        if (cursor.moveToFirst()) {
+            do {
+                tasks.add(createTaskFromCursor(cursor));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return tasks;
+    }
+
+    /**
+     * Returns the earliest scheduled time of the tasks that are neither failed nor being processed
+     *
+     * @return time in milliseconds, or 0 if there are no such tasks
+     */
+    long getNextScheduledTime() {
+        if (!isDatabaseReady()) {
+            return 0;
+        }
+        Cursor cursor = database.rawQuery("select min(" + SCHEDULED_AT + ") from OfflineTask where " + FAILED + " = 0 and " + PROCESSING + " = 0", null);
+        long scheduledTime = 0;
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            scheduledTime = cursor.getLong(0);
+        }
+        cursor.close();
+        return scheduledTime;
+    }
+
+    /**
+     * Runs a query on the task table to check whether the database can be used again after an error
+     *
+     * @return whether the query succeeded
+     */
+    boolean probeDatabase() {
+        if (!isDatabaseReady()) {
+            return false;
+        }
+        try {
+            DatabaseUtils.queryNumEntries(database, ITERABLE_TASK_TABLE_NAME);
+            return true;
+        } catch (SQLException | IllegalStateException e) {
+            IterableLogger.e(TAG, "Database probe failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes up to {@code limit} of the tasks with the lowest priority that does not exceed
+     * {@code maxPriority}, oldest first. Tasks marked as failed are deleted before any other.
+     *
+     * @return number of tasks deleted
+     */
+    int deleteLowestPriorityTasks(int maxPriority, int limit) {
+        if (!isDatabaseReady()) return 0;
+        return executeEviction(STATEMENT_DELETE_LOWEST_PRIORITY_TASKS, maxPriority, limit);
+    }
+
+    /**
+     * Deletes tasks created before the given time
+     *
+     * @param time time in milliseconds
+     * @return number of tasks deleted
+     */
+    int deleteTasksCreatedBefore(long time) {
+        if (!isDatabaseReady()) return 0;
+        return executeEviction(STATEMENT_DELETE_TASKS_CREATED_BEFORE, time);
+    }
+
+    /**
+     * Deletes pending tasks that have the same name, data and creation time as an older pending
+     * task, i.e. the same request queued more than once
+     *
+     * @return number of tasks deleted
+     */
+    int deleteDuplicateTasks() {
+        if (!isDatabaseReady()) return 0;
+        return executeEviction(STATEMENT_DELETE_DUPLICATE_TASKS);
+    }
+
+    private int executeEviction(String sql, long... args) {
+        SQLiteStatement statement = getStatement(sql);
+        int numberOfEntriesDeleted;
+        synchronized (statement) {
+            statement.clearBindings();
+            for (int i = 0; i < args.length; i++) {
+                statement.bindLong(i + 1, args[i]);
+            }
+            numberOfEntriesDeleted = statement.executeUpdateDelete();
+        }
+        taskCount.addAndGet(-numberOfEntriesDeleted);
+        return numberOfEntriesDeleted;
+    }
+
     /**
      * Deletes all the entries from the OfflineTask table.
      */
@@ -293,6 +626,7 @@ class IterableTaskStorage {
             return;
         }
         int numberOfRowsDeleted = database.delete(ITERABLE_TASK_TABLE_NAME, null, null);
+        taskCount.addAndGet(-numberOfRowsDeleted);
         IterableLogger.v(TAG, "Deleted " + numberOfRowsDeleted + " offline tasks");
     }
 
@@ -304,11 +638,40 @@ class IterableTaskStorage {
      */
     boolean deleteTask(String id) {
         if (!isDatabaseReady()) return false;
-        int numberOfEntriesDeleted = database.delete(ITERABLE_TASK_TABLE_NAME, TASK_ID + " =?", new String[]{id});
+        int numberOfEntriesDeleted = executeUpdateDelete(getStatement(STATEMENT_DELETE_TASK), id);
+        taskCount.addAndGet(-numberOfEntriesDeleted);
         IterableLogger.v(TAG, "Deleted entry - " + numberOfEntriesDeleted);
         return true;
     }
 
+    /**
+     * Deletes multiple tasks from OfflineTask table in a single transaction
+     *
+     * @param ids ids of the tasks to delete
+     * @return Whether or not the tasks were deleted
+     */
+    boolean deleteTasks(@NonNull List<String> ids) {
+        if (!isDatabaseReady()) return false;
+        if (ids.isEmpty()) return true;
+        int numberOfEntriesDeleted = 0;
+        SQLiteStatement statement = getStatement(STATEMENT_DELETE_TASK);
+        // Lock the statement before opening the transaction, so that we never wait on it while holding the connection
+        synchronized (statement) {
+            database.beginTransaction();
+            try {
+                for (String id : ids) {
+                    numberOfEntriesDeleted += executeUpdateDelete(statement, id);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+        taskCount.addAndGet(-numberOfEntriesDeleted);
+        IterableLogger.v(TAG, "Deleted entries - " + numberOfEntriesDeleted);
+        return true;
+    }
+
     /**
      * Updates Modified at date for a task in OfflineTask table
      *
@@ -318,9 +681,7 @@ class IterableTaskStorage {
      */
     boolean updateModifiedAt(String id, Date date) {
         if (!isDatabaseReady()) return false;
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(MODIFIED_AT, date.toString());
-        return updateTaskWithContentValues(id, contentValues);
+        return updateTaskColumn(id, MODIFIED_AT, date.getTime());
     }
 
     /**
@@ -332,9 +693,7 @@ class IterableTaskStorage {
      */
     boolean updateLastAttemptedAt(String id, Date date) {
         if (!isDatabaseReady()) return false;
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(LAST_ATTEMPTED_AT, date.toString());
-        return updateTaskWithContentValues(id, contentValues);
+        return updateTaskColumn(id, LAST_ATTEMPTED_AT, date.getTime());
     }
 
     /**
@@ -346,9 +705,7 @@ class IterableTaskStorage {
      */
     boolean updateRequestedAt(String id, Date date) {
         if (!isDatabaseReady()) return false;
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(REQUESTED_AT, date.toString());
-        return updateTaskWithContentValues(id, contentValues);
+        return updateTaskColumn(id, REQUESTED_AT, date.getTime());
     }
 
     /**
@@ -359,10 +716,15 @@ class IterableTaskStorage {
      * @return Whether or not the task was updated
      */
     boolean updateScheduledAt(String id, Date date) {
-        if (isDatabaseReady()) return false;
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(SCHEDULED_AT, date.toString());
-        return updateTaskWithContentValues(id, contentValues);
+        if (!isDatabaseReady()) return false;
+        SQLiteStatement statement = getStatement(STATEMENT_UPDATE_SCHEDULED_AT);
+        synchronized (statement) {
+            statement.clearBindings();
+            statement.bindLong(1, date.getTime());
+            statement.bindLong(2, date.getTime());
+            statement.bindString(3, id);
+            return statement.executeUpdateDelete() > 0;
+        }
     }
 
     /**
@@ -374,10 +736,44 @@ class IterableTaskStorage {
      */
     boolean updateIsProcessing(String id, Boolean state) {
         if (!isDatabaseReady()) return false;
-        ContentValues contentValues = new ContentValues();
+        return updateTaskColumn(id, PROCESSING, state ? 1 : 0);
+    }
 
-        contentValues.put(PROCESSING, state);
-        return updateTaskWithContentValues(id, contentValues);
+    /**
+     * Updates the processing state of the given tasks in a single transaction
+     *
+     * @param ids   Unique ids of the tasks
+     * @param state whether the tasks are processing or completed
+     * @return Whether or not the tasks were updated
+     */
+    boolean updateIsProcessing(@NonNull List<String> ids, boolean state) {
+        if (!isDatabaseReady()) return false;
+        if (ids.isEmpty()) return true;
+        SQLiteStatement statement = getStatement(getUpdateColumnStatement(PROCESSING));
+        synchronized (statement) {
+            database.beginTransaction();
+            try {
+                for (String id : ids) {
+                    statement.clearBindings();
+                    statement.bindLong(1, state ? 1 : 0);
+                    statement.bindString(2, id);
+                    statement.executeUpdateDelete();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clears the processing flag of all tasks. Leases taken by requests that were in flight when
+     * the app was killed are released this way on startup.
+     */
+    void resetProcessingTasks() {
+        if (!isDatabaseReady()) return;
+        database.execSQL("UPDATE " + ITERABLE_TASK_TABLE_NAME + " SET " + PROCESSING + " = 0 WHERE " + PROCESSING + " = 1");
     }
 
     /**
@@ -389,9 +785,7 @@ class IterableTaskStorage {
      */
     boolean updateHasFailed(String id, boolean state) {
         if (!isDatabaseReady()) return false;
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(FAILED, state);
-        return updateTaskWithContentValues(id, contentValues);
+        return updateTaskColumn(id, FAILED, state ? 1 : 0);
     }
 
     /**
@@ -403,9 +797,7 @@ class IterableTaskStorage {
      */
     boolean incrementAttempts(String id, int attempt) {
         if (!isDatabaseReady()) return false;
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(ATTEMPTS, attempt);
-        return updateTaskWithContentValues(id, contentValues);
+        return updateTaskColumn(id, ATTEMPTS, attempt);
     }
 
     /**
@@ -416,14 +808,11 @@ class IterableTaskStorage {
      */
     boolean incrementAttempts(String id) {
         if (!isDatabaseReady()) return false;
-        IterableTask task = getTask(id);
-        if (task == null) {
+        if (executeUpdateDelete(getStatement(STATEMENT_INCREMENT_ATTEMPTS), id) == 0) {
             IterableLogger.e(TAG, "No task found for id " + id);
             return false;
         }
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(ATTEMPTS, task.attempts + 1);
-        return updateTaskWithContentValues(id, contentValues);
+        return true;
     }
 
     /**
@@ -435,9 +824,7 @@ class IterableTaskStorage {
      */
     boolean updateError(String id, String errorData) {
         if (!isDatabaseReady()) return false;
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(ERROR, errorData);
-        return updateTaskWithContentValues(id, contentValues);
+        return updateTaskColumn(id, ERROR, errorData);
     }
 
     /**
@@ -449,13 +836,331 @@ class IterableTaskStorage {
      */
     boolean updateData(String id, String data) {
         if (!isDatabaseReady()) return false;
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DATA, data);
-        return updateTaskWithContentValues(id, contentValues);
+        EncodedTaskData encodedData = encodeTaskData(data);
+        SQLiteStatement statement = getStatement(STATEMENT_UPDATE_TASK_DATA);
+        synchronized (statement) {
+            statement.clearBindings();
+            bindTaskData(statement, 1, 2, encodedData);
+            statement.bindString(3, id);
+            return statement.executeUpdateDelete() > 0;
+        }
+    }
+
+    /**
+     * Writes all mutable fields of a task to OfflineTask table
+     *
+     * @param task task to update, matched by its id
+     * @return Whether or not the task was updated
+     */
+    boolean updateTask(@NonNull IterableTask task) {
+        return updateTasks(Collections.singletonList(task));
+    }
+
+    /**
+     * Writes all mutable fields of multiple tasks to OfflineTask table in a single transaction
+     *
+     * @param tasks tasks to update, matched by their ids
+     * @return Whether or not all the tasks were updated
+     */
+    boolean updateTasks(@NonNull List<IterableTask> tasks) {
+        if (!isDatabaseReady()) return false;
+        int numberOfEntriesUpdated = 0;
+        // Encode payloads up front, as encoding may need to write to the credentials table
+        ArrayList<EncodedTaskData> encodedData = new ArrayList<>(tasks.size());
+        for (IterableTask task : tasks) {
+            if (task.requestBody != null) {
+                // The request body never changes, only the credentials reference is written back
+                encodedData.add(new EncodedTaskData(null, getCredentialsId(nullToEmpty(task.apiKey), nullToEmpty(task.authToken))));
+            } else {
+                encodedData.add(encodeTaskData(task.data));
+            }
+        }
+        SQLiteStatement statement = getStatement(STATEMENT_UPDATE_TASK);
+        synchronized (statement) {
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < tasks.size(); i++) {
+                    IterableTask task = tasks.get(i);
+                    statement.clearBindings();
+                    bindDateOrNull(statement, 1, task.modifiedAt);
+                    bindDateOrNull(statement, 2, task.lastAttemptedAt);
+                    bindDateOrNull(statement, 3, task.scheduledAt);
+                    bindDateOrNull(statement, 4, task.requestedAt);
+                    bindBoolean(statement, 5, task.processing);
+                    bindBoolean(statement, 6, task.failed);
+                    bindBoolean(statement, 7, task.blocking);
+                    bindTaskData(statement, 8, 9, encodedData.get(i));
+                    bindStringOrNull(statement, 10, task.taskFailureData);
+                    statement.bindLong(11, task.attempts);
+                    bindSortKey(statement, 12, task);
+                    statement.bindString(13, task.id);
+                    numberOfEntriesUpdated += statement.executeUpdateDelete();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+        return numberOfEntriesUpdated == tasks.size();
+    }
+
+    private boolean updateTaskColumn(String id, String column, long value) {
+        SQLiteStatement statement = getStatement(getUpdateColumnStatement(column));
+        synchronized (statement) {
+            statement.clearBindings();
+            statement.bindLong(1, value);
+            statement.bindString(2, id);
+            return statement.executeUpdateDelete() > 0;
+        }
+    }
+
+    private boolean updateTaskColumn(String id, String column, @Nullable String value) {
+        SQLiteStatement statement = getStatement(getUpdateColumnStatement(column));
+        synchronized (statement) {
+            statement.clearBindings();
+            bindStringOrNull(statement, 1, value);
+            statement.bindString(2, id);
+            return statement.executeUpdateDelete() > 0;
+        }
+    }
+
+    private static String getUpdateColumnStatement(String column) {
+        return "UPDATE " + ITERABLE_TASK_TABLE_NAME + " SET " + column + " = ? WHERE " + TASK_ID + " = ?";
+    }
+
+    private int executeUpdateDelete(SQLiteStatement statement, String id) {
+        synchronized (statement) {
+            statement.clearBindings();
+            statement.bindString(1, id);
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Returns a compiled statement for the given SQL, compiling it on first use.
+     * Callers must synchronize on the returned statement while binding and executing it.
+     */
+    private SQLiteStatement getStatement(String sql) {
+        synchronized (statementCache) {
+            SQLiteStatement statement = statementCache.get(sql);
+            if (statement == null) {
+                statement = database.compileStatement(sql);
+                statementCache.put(sql, statement);
+            }
+            return statement;
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, @Nullable String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    private static void bindTaskData(SQLiteStatement statement, int dataIndex, int credentialsIdIndex, @Nullable EncodedTaskData encodedData) {
+        if (encodedData != null && encodedData.bytes != null) {
+            statement.bindBlob(dataIndex, encodedData.bytes);
+        } else {
+            statement.bindNull(dataIndex);
+        }
+        if (encodedData != null && encodedData.credentialsId != 0) {
+            statement.bindLong(credentialsIdIndex, encodedData.credentialsId);
+        } else {
+            statement.bindNull(credentialsIdIndex);
+        }
+    }
+
+    /**
+     * Encodes the data of a task being inserted. Serialized POST requests are split into their
+     * body and credentials; anything else is stored as is by {@link #encodeTaskData(String)}.
+     */
+    @Nullable
+    private EncodedTaskData encodeNewTaskData(String name, @Nullable String data) {
+        if (data == null || !data.startsWith("{")) {
+            return encodeTaskData(data);
+        }
+        try {
+            JSONObject json = new JSONObject(data);
+            JSONObject body = json.optJSONObject(KEY_REQUEST_DATA);
+            if (body != null && isSerializedPostRequest(json, name)) {
+                long credentialsId = getCredentialsId(json.optString(KEY_API_KEY), json.optString(KEY_AUTH_TOKEN));
+                if (credentialsId != 0) {
+                    byte[] requestBody = dataCodec.encode(body.toString());
+                    return new EncodedTaskData(null, credentialsId, requestBody);
+                }
+            }
+        } catch (JSONException e) {
+            IterableLogger.v(TAG, "Task data is not a JSON object, storing it as is");
+        }
+        return encodeTaskData(data);
+    }
+
+    /**
+     * @return whether the JSON has only the fields of a POST request to the given endpoint, see
+     * {@link IterableApiRequest#toJSONObject()}
+     */
+    private static boolean isSerializedPostRequest(@NonNull JSONObject json, String name) {
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!KEY_API_KEY.equals(key) && !KEY_AUTH_TOKEN.equals(key) && !KEY_RESOURCE_PATH.equals(key) &&
+                    !KEY_REQUEST_TYPE.equals(key) && !KEY_REQUEST_DATA.equals(key)) {
+                return false;
+            }
+        }
+        return IterableApiRequest.POST.equals(json.optString(KEY_REQUEST_TYPE)) &&
+                json.optString(KEY_RESOURCE_PATH).equals(name) &&
+                !json.optString(KEY_API_KEY).isEmpty();
+    }
+
+    private static String nullToEmpty(@Nullable String value) {
+        return value == null ? "" : value;
+    }
+
+    @Nullable
+    private EncodedTaskData encodeTaskData(@Nullable String data) {
+        if (data == null) {
+            return null;
+        }
+        IterableTaskDataCodec codec = dataCodec;
+        long credentialsId = 0;
+        if (codec.isCompressionEnabled()) {
+            try {
+                JSONObject json = new JSONObject(data);
+                credentialsId = getCredentialsId(json.optString(KEY_API_KEY), json.optString(KEY_AUTH_TOKEN));
+                if (credentialsId != 0) {
+                    json.remove(KEY_API_KEY);
+                    json.remove(KEY_AUTH_TOKEN);
+                    data = json.toString();
+                }
+            } catch (JSONException e) {
+                IterableLogger.e(TAG, "Task data is not a JSON object, storing credentials inline");
+            }
+        }
+        return new EncodedTaskData(codec.encode(data), credentialsId);
+    }
+
+    @Nullable
+    private String decodeTaskData(@Nullable byte[] bytes, long credentialsId) {
+        String data = IterableTaskDataCodec.decode(bytes);
+        if (data == null || credentialsId == 0) {
+            return data;
+        }
+        String[] credentials = getCredentials(credentialsId);
+        if (credentials == null) {
+            IterableLogger.e(TAG, "No credentials found for id " + credentialsId);
+            return data;
+        }
+        try {
+            JSONObject json = new JSONObject(data);
+            if (!credentials[0].isEmpty()) {
+                json.put(KEY_API_KEY, credentials[0]);
+            }
+            if (!credentials[1].isEmpty()) {
+                json.put(KEY_AUTH_TOKEN, credentials[1]);
+            }
+            return json.toString();
+        } catch (JSONException e) {
+            IterableLogger.e(TAG, "Failed to restore credentials in task data", e);
+            return data;
+        }
+    }
+
+    /**
+     * Returns the id of the row holding this API key and auth token pair, inserting it if needed
+     *
+     * @return row id, or 0 if it could not be stored
+     */
+    private long getCredentialsId(@NonNull String apiKey, @NonNull String authToken) {
+        String cacheKey = apiKey + '\n' + authToken;
+        synchronized (credentialsIds) {
+            Long cachedId = credentialsIds.get(cacheKey);
+            if (cachedId != null) {
+                return cachedId;
+            }
+            database.execSQL("INSERT OR IGNORE INTO " + ITERABLE_TASK_CREDENTIALS_TABLE_NAME +
+                    " (api_key, auth_token) VALUES (?, ?)", new Object[]{apiKey, authToken});
+            Cursor cursor = database.rawQuery("SELECT id FROM " + ITERABLE_TASK_CREDENTIALS_TABLE_NAME +
+                    " WHERE api_key = ? AND auth_token = ?", new String[]{apiKey, authToken});
+            long id = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            cursor.close();
+            if (id != 0) {
+                credentialsIds.put(cacheKey, id);
+                credentialsById.put(id, new String[]{apiKey, authToken});
+            }
+            return id;
+        }
+    }
+
+    @Nullable
+    private String[] getCredentials(long credentialsId) {
+        synchronized (credentialsIds) {
+            String[] credentials = credentialsById.get(credentialsId);
+            if (credentials != null) {
+                return credentials;
+            }
+            Cursor cursor = database.rawQuery("SELECT api_key, auth_token FROM " + ITERABLE_TASK_CREDENTIALS_TABLE_NAME +
+                    " WHERE id = ?", new String[]{String.valueOf(credentialsId)});
+            if (cursor.moveToFirst()) {
+                credentials = new String[]{cursor.getString(0), cursor.getString(1)};
+                credentialsById.put(credentialsId, credentials);
+                credentialsIds.put(credentials[0] + '\n' + credentials[1], credentialsId);
+            }
+            cursor.close();
+            return credentials;
+        }
+    }
+
+    private void deleteExpiredFailedTasks() {
+        database.delete(ITERABLE_TASK_TABLE_NAME, FAILED + " = 1 AND " + LAST_ATTEMPTED_AT + " < ?",
+                new String[]{String.valueOf(IterableUtil.currentTimeMillis() - FAILED_TASK_RETENTION_MS)});
+    }
+
+    private void deleteUnusedCredentials() {
+        database.execSQL("DELETE FROM " + ITERABLE_TASK_CREDENTIALS_TABLE_NAME + " WHERE id NOT IN (SELECT " +
+                CREDENTIALS_ID + " FROM " + ITERABLE_TASK_TABLE_NAME + " WHERE " + CREDENTIALS_ID + " IS NOT NULL)");
+    }
+
+    private static class EncodedTaskData {
+        final byte[] bytes;
+        final long credentialsId;
+        final byte[] requestBody;
+
+        EncodedTaskData(byte[] bytes, long credentialsId) {
+            this(bytes, credentialsId, null);
+        }
+
+        EncodedTaskData(byte[] bytes, long credentialsId, byte[] requestBody) {
+            this.bytes = bytes;
+            this.credentialsId = credentialsId;
+            this.requestBody = requestBody;
+        }
+    }
+
+    private static void bindDateOrNull(SQLiteStatement statement, int index, long value) {
+        if (value != 0) {
+            statement.bindLong(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * Binds the aged priority the queue is ordered by: the scheduled time, moved earlier by
+     * {@link #PRIORITY_AGING_INTERVAL_MS} for each priority level
+     */
+    private static void bindSortKey(SQLiteStatement statement, int index, IterableTask task) {
+        if (task.scheduledAt != 0) {
+            statement.bindLong(index, task.scheduledAt - task.priority * PRIORITY_AGING_INTERVAL_MS);
+        } else {
+            statement.bindNull(index);
+        }
     }
 
-    private boolean updateTaskWithContentValues(String id, ContentValues contentValues) {
-        return (0 > database.update(ITERABLE_TASK_TABLE_NAME, contentValues, TASK_ID + "=?", new String[]{id}));
+    private static void bindBoolean(SQLiteStatement statement, int index, boolean value) {
+        statement.bindLong(index, value ? 1 : 0);
     }
 
     private boolean isDatabaseReady() {
@@ -488,7 +1193,7 @@ class IterableTaskStorage {
     }
 
     private void notifyDBError() {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        mainHandler.post(new Runnable() {
             @Override
             public void run() {
                 for (IterableDatabaseStatusListeners listener : databaseStatusListeners) {
@@ -1,25 +1,45 @@
 package com.iterable.iterableapi;
 
 import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.annotation.VisibleForTesting;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
-class OfflineRequestProcessor implements RequestProcessor {
+class OfflineRequestProcessor implements InternalRequestProcessor, HealthMonitor.StateListener {
+    private static final String TAG = "OfflineRequestProcessor";
+
+    // Number of tasks dropped at once by an overflow policy, so that eviction doesn't run on every request
+    static final int OVERFLOW_EVICTION_BATCH_SIZE = 50;
+
+    // Number of requests kept in memory while the offline queue database is unhealthy. Requests
+    // that don't fit are sent right away.
+    static final int SPILLOVER_QUEUE_CAPACITY = 100;
+
     private TaskScheduler taskScheduler;
     private IterableTaskRunner taskRunner;
     private IterableTaskStorage taskStorage;
     private HealthMonitor healthMonitor;
+    private IterableOfflineOverflowPolicy[] overflowPolicies = new IterableOfflineOverflowPolicy[0];
+    private long taskTtlMs;
+    private final ArrayDeque<IterableApiRequest> spilloverQueue = new ArrayDeque<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     private static final Set<String> offlineApiSet = new HashSet<>(Arrays.asList(
             IterableConstants.ENDPOINT_TRACK,
@@ -30,17 +50,45 @@ class OfflineRequestProcessor implements RequestProcessor {
             IterableConstants.ENDPOINT_TRACK_INAPP_CLOSE,
             IterableConstants.ENDPOINT_TRACK_INBOX_SESSION,
             IterableConstants.ENDPOINT_TRACK_INAPP_DELIVERY,
-            IterableConstants.ENDPOINT_INAPP_CONSUME));
+            IterableConstants.ENDPOINT_INAPP_CONSUME,
+            IterableConstants.ENDPOINT_UPDATE_CART,
+            IterableConstants.ENDPOINT_UPDATE_USER,
+            IterableConstants.ENDPOINT_UPDATE_USER_SUBS));
+
+    // Endpoints not listed here are queued with NORMAL priority
+    private static final Map<String, IterableRequestPriority> defaultPriorityMap = new HashMap<>();
+    static {
+        defaultPriorityMap.put(IterableConstants.ENDPOINT_TRACK_PURCHASE, IterableRequestPriority.HIGH);
+        defaultPriorityMap.put(IterableConstants.ENDPOINT_TRACK_PUSH_OPEN, IterableRequestPriority.HIGH);
+        defaultPriorityMap.put(IterableConstants.ENDPOINT_TRACK_INBOX_SESSION, IterableRequestPriority.LOW);
+        defaultPriorityMap.put(IterableConstants.ENDPOINT_TRACK_INAPP_DELIVERY, IterableRequestPriority.LOW);
+    }
 
     OfflineRequestProcessor(Context context) {
         IterableNetworkConnectivityManager networkConnectivityManager = IterableNetworkConnectivityManager.sharedInstance(context);
         taskStorage = IterableTaskStorage.sharedInstance(context);
         healthMonitor = new HealthMonitor(taskStorage);
+        IterableConfig config = IterableApi.getInstance().config;
+        if (config == null) {
+            config = new IterableConfig.Builder().build();
+        }
+        taskStorage.setCompressionEnabled(config.offlineTaskCompressionEnabled);
+        overflowPolicies = config.offlineOverflowPolicies;
+        taskTtlMs = config.offlineTaskTtlMs;
         taskRunner = new IterableTaskRunner(taskStorage,
                 IterableActivityMonitor.getInstance(),
                 networkConnectivityManager,
-                healthMonitor);
+                healthMonitor,
+                config);
         taskScheduler = new TaskScheduler(taskStorage, taskRunner);
+        healthMonitor.addStateListener(this);
+        if (config.offlineBackgroundFlushEnabled) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                taskRunner.setBackgroundFlushScheduler(new JobBackgroundFlushScheduler(context.getApplicationContext(), config));
+            } else {
+                IterableLogger.d(TAG, "Background flush requires API level 21, ignoring");
+            }
+        }
     }
 
     @VisibleForTesting
@@ -49,33 +97,183 @@ class OfflineRequestProcessor implements RequestProcessor {
         taskScheduler = scheduler;
         taskStorage = storage;
         healthMonitor = mockHealthMonitor;
+        healthMonitor.addStateListener(this);
+    }
+
+    @VisibleForTesting
+    OfflineRequestProcessor(TaskScheduler scheduler, IterableTaskRunner iterableTaskRunner, IterableTaskStorage storage, HealthMonitor mockHealthMonitor, IterableConfig config) {
+        this(scheduler, iterableTaskRunner, storage, mockHealthMonitor);
+        overflowPolicies = config.offlineOverflowPolicies;
+        taskTtlMs = config.offlineTaskTtlMs;
+    }
+
+    IterableTaskRunner getTaskRunner() {
+        return taskRunner;
     }
 
     @Override
     public void processGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableHelper.IterableActionHandler onCallback) {
         IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, json, IterableApiRequest.GET, authToken, onCallback);
-        new IterableRequestTask().execute(request);
+        IterableRequestExecutor.getInstance().execute(request);
+    }
+
+    @Override
+    public void processGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, json, IterableApiRequest.GET, authToken, onSuccess, onFailure);
+        request.responseBodyReader = responseBodyReader;
+        IterableRequestExecutor.getInstance().execute(request);
     }
 
     @Override
     public void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        processPostRequest(apiKey, resourcePath, json, authToken, null, onSuccess, onFailure);
+    }
+
+    @Override
+    public void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableRequestPriority priority, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
         IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, json, IterableApiRequest.POST, authToken, onSuccess, onFailure);
-        if (isRequestOfflineCompatible(request.resourcePath) && healthMonitor.canSchedule()) {
-            request.setProcessorType(IterableApiRequest.ProcessorType.OFFLINE);
-            taskScheduler.scheduleTask(request, onSuccess, onFailure);
+        request.setPriority(priority != null ? priority : getDefaultPriority(request.resourcePath));
+        if (isRequestOfflineCompatible(request.resourcePath)) {
+            processOfflineRequest(request);
         } else {
-            new IterableRequestTask().execute(request);
+            IterableRequestExecutor.getInstance().execute(request);
+        }
+    }
+
+    @Override
+    public void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        // The response is read as it is received, so the request can't wait in the offline queue
+        IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, json, IterableApiRequest.POST, authToken, onSuccess, onFailure);
+        request.responseBodyReader = responseBodyReader;
+        IterableRequestExecutor.getInstance().execute(request);
+    }
+
+    private void processOfflineRequest(@NonNull IterableApiRequest request) {
+        if (healthMonitor.canSchedule() || makeRoom(request.getPriority())) {
+            request.setProcessorType(IterableApiRequest.ProcessorType.OFFLINE);
+            taskScheduler.scheduleTask(request, request.successCallback, request.failureCallback);
+        } else if (!healthMonitor.isCircuitOpen() || !spillOver(request)) {
+            IterableRequestExecutor.getInstance().execute(request);
+        }
+    }
+
+    /**
+     * Keeps a request in memory until the database has recovered
+     *
+     * @return whether the request was kept
+     */
+    private boolean spillOver(@NonNull IterableApiRequest request) {
+        synchronized (spilloverQueue) {
+            if (spilloverQueue.size() >= SPILLOVER_QUEUE_CAPACITY) {
+                return false;
+            }
+            spilloverQueue.add(request);
+            return true;
+        }
+    }
+
+    @Override
+    public void onStateChanged(@NonNull HealthMonitor.State previousState, @NonNull HealthMonitor.State newState) {
+        if (newState == HealthMonitor.State.CLOSED) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    drainSpilloverQueue();
+                }
+            });
+        }
+    }
+
+    /**
+     * Moves the requests kept in memory to the offline queue, in the order they were made
+     */
+    private void drainSpilloverQueue() {
+        ArrayList<IterableApiRequest> requests;
+        synchronized (spilloverQueue) {
+            requests = new ArrayList<>(spilloverQueue);
+            spilloverQueue.clear();
+        }
+        if (!requests.isEmpty()) {
+            IterableLogger.d(TAG, "Queueing " + requests.size() + " requests kept in memory while the database was unavailable");
+        }
+        for (IterableApiRequest request : requests) {
+            processOfflineRequest(request);
+        }
+    }
+
+    /**
+     * @return number of requests waiting in the offline queue, including the requests kept in
+     * memory while the database is unavailable. Reads the in-memory task counter, so it doesn't
+     * query the database.
+     */
+    long getQueueDepth() {
+        long queueDepth = getSpilloverQueueSize();
+        try {
+            queueDepth += taskStorage.getNumberOfTasks();
+        } catch (IllegalStateException e) {
+            IterableLogger.e(TAG, e.getLocalizedMessage());
+        }
+        return queueDepth;
+    }
+
+    @VisibleForTesting
+    int getSpilloverQueueSize() {
+        synchronized (spilloverQueue) {
+            return spilloverQueue.size();
         }
     }
 
     @Override
     public void onLogout(Context context) {
+        synchronized (spilloverQueue) {
+            spilloverQueue.clear();
+        }
         taskStorage.deleteAllTasks();
     }
 
     boolean isRequestOfflineCompatible(String baseUrl) {
         return offlineApiSet.contains(baseUrl);
     }
+
+    /**
+     * Applies the overflow policies in order until the queue has room for a request with the given priority
+     *
+     * @return whether the request can be queued now
+     */
+    private boolean makeRoom(@NonNull IterableRequestPriority priority) {
+        if (overflowPolicies.length == 0 || !healthMonitor.canProcess()) {
+            return false;
+        }
+        for (IterableOfflineOverflowPolicy policy : overflowPolicies) {
+            int droppedTaskCount = 0;
+            switch (policy) {
+                case DROP_OLDEST_LOW_PRIORITY:
+                    droppedTaskCount = taskStorage.deleteLowestPriorityTasks(priority.getValue(), OVERFLOW_EVICTION_BATCH_SIZE);
+                    break;
+                case DROP_EXPIRED:
+                    if (taskTtlMs > 0) {
+                        droppedTaskCount = taskStorage.deleteTasksCreatedBefore(IterableUtil.currentTimeMillis() - taskTtlMs);
+                    }
+                    break;
+                case COLLAPSE_DUPLICATES:
+                    droppedTaskCount = taskStorage.deleteDuplicateTasks();
+                    break;
+            }
+            if (droppedTaskCount > 0) {
+                IterableLogger.w(TAG, "Offline queue is full, dropped " + droppedTaskCount + " tasks using " + policy);
+                if (healthMonitor.canSchedule()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    static IterableRequestPriority getDefaultPriority(String resourcePath) {
+        IterableRequestPriority priority = defaultPriorityMap.get(resourcePath);
+        return priority != null ? priority : IterableRequestPriority.NORMAL;
+    }
 }
 
 class TaskScheduler implements IterableTaskRunner.TaskCompletedListener {
@@ -96,19 +294,80 @@ class TaskScheduler implements IterableTaskRunner.TaskCompletedListener {
             serializedRequest = request.toJSONObject();
         } catch (JSONException e) {
             IterableLogger.e("RequestProcessor", "Failed serializing the request for offline execution. Attempting to request the request now...");
-            new IterableRequestTask().execute(request);
+            IterableRequestExecutor.getInstance().execute(request);
             return;
         }
 
-        String taskId = taskStorage.createTask(request.resourcePath, IterableTaskType.API, serializedRequest.toString());
+        if (IterableRequestCoalescer.isCoalescable(request.resourcePath) && coalesceWithPendingTask(request, serializedRequest, onSuccess, onFailure)) {
+            return;
+        }
+
+        String taskId = taskStorage.createTask(request.resourcePath, IterableTaskType.API, serializedRequest.toString(), request.getPriority().getValue());
         if (taskId == null) {
-            new IterableRequestTask().execute(request);
+            IterableRequestExecutor.getInstance().execute(request);
             return;
         }
         successCallbackMap.put(taskId, onSuccess);
         failureCallbackMap.put(taskId, onFailure);
     }
 
+    /**
+     * Replaces the pending task for the same endpoint with one that combines it with the new
+     * request, if it is the newest task in the queue. Callbacks of the replaced task are called when the combined request completes.
+     *
+     * @return whether the request was combined with a pending task
+     */
+    private boolean coalesceWithPendingTask(IterableApiRequest request, JSONObject serializedRequest, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        IterableTask pendingTask = taskStorage.getNewestTaskIfPending(request.resourcePath);
+        if (pendingTask == null || pendingTask.data == null) {
+            return false;
+        }
+        JSONObject coalescedRequest;
+        try {
+            coalescedRequest = IterableRequestCoalescer.coalesce(new JSONObject(pendingTask.data), serializedRequest);
+        } catch (JSONException e) {
+            return false;
+        }
+        if (coalescedRequest == null) {
+            return false;
+        }
+        String taskId = taskStorage.replacePendingTask(pendingTask, coalescedRequest.toString(), Math.max(pendingTask.priority, request.getPriority().getValue()));
+        if (taskId == null) {
+            return false;
+        }
+        successCallbackMap.put(taskId, chainSuccessHandlers(successCallbackMap.remove(pendingTask.id), onSuccess));
+        failureCallbackMap.put(taskId, chainFailureHandlers(failureCallbackMap.remove(pendingTask.id), onFailure));
+        return true;
+    }
+
+    @Nullable
+    private static IterableHelper.SuccessHandler chainSuccessHandlers(@Nullable final IterableHelper.SuccessHandler first, @Nullable final IterableHelper.SuccessHandler second) {
+        if (first == null || second == null) {
+            return first != null ? first : second;
+        }
+        return new IterableHelper.SuccessHandler() {
+            @Override
+            public void onSuccess(@NonNull JSONObject data) {
+                first.onSuccess(data);
+                second.onSuccess(data);
+            }
+        };
+    }
+
+    @Nullable
+    private static IterableHelper.FailureHandler chainFailureHandlers(@Nullable final IterableHelper.FailureHandler first, @Nullable final IterableHelper.FailureHandler second) {
+        if (first == null || second == null) {
+            return first != null ? first : second;
+        }
+        return new IterableHelper.FailureHandler() {
+            @Override
+            public void onFailure(@NonNull String reason, @Nullable JSONObject data) {
+                first.onFailure(reason, data);
+                second.onFailure(reason, data);
+            }
+        };
+    }
+
     @MainThread
     @Override
     public void onTaskCompleted(String taskId, IterableTaskRunner.TaskResult result, IterableApiResponse response) {
@@ -126,4 +385,20 @@ class TaskScheduler implements IterableTaskRunner.TaskCompletedListener {
             }
         }
     }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static class JobBackgroundFlushScheduler implements IterableTaskRunner.BackgroundFlushScheduler {
+        private final Context context;
+        private final IterableConfig config;
+
+        JobBackgroundFlushScheduler(@NonNull Context context, @NonNull IterableConfig config) {
+            this.context = context;
+            this.config = config;
+        }
+
+        @Override
+        public void scheduleBackgroundFlush() {
+            IterableOfflineFlushJobService.schedule(context, config);
+        }
+    }
 }
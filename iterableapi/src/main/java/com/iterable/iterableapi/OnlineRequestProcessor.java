@@ -10,20 +10,40 @@ import org.json.JSONObject;
 
 import java.util.Date;
 
-class OnlineRequestProcessor implements RequestProcessor {
+class OnlineRequestProcessor implements InternalRequestProcessor {
 
     private static final String TAG = "OnlineRequestProcessor";
 
     @Override
     public void processGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableHelper.IterableActionHandler onCallback) {
         IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, addCreatedAtToJson(json), IterableApiRequest.GET, authToken, onCallback);
-        new IterableRequestTask().execute(request);
+        IterableRequestExecutor.getInstance().execute(request);
+    }
+
+    @Override
+    public void processGetRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, addCreatedAtToJson(json), IterableApiRequest.GET, authToken, onSuccess, onFailure);
+        request.responseBodyReader = responseBodyReader;
+        IterableRequestExecutor.getInstance().execute(request);
     }
 
     @Override
     public void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
         IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, addCreatedAtToJson(json), IterableApiRequest.POST, authToken, onSuccess, onFailure);
-        new IterableRequestTask().execute(request);
+        IterableRequestExecutor.getInstance().execute(request);
+    }
+
+    @Override
+    public void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @Nullable IterableRequestPriority priority, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        // Online requests are sent immediately, so priority has no effect
+        processPostRequest(apiKey, resourcePath, json, authToken, onSuccess, onFailure);
+    }
+
+    @Override
+    public void processPostRequest(@Nullable String apiKey, @NonNull String resourcePath, @NonNull JSONObject json, String authToken, @NonNull IterableApiRequest.ResponseBodyReader responseBodyReader, @Nullable IterableHelper.SuccessHandler onSuccess, @Nullable IterableHelper.FailureHandler onFailure) {
+        IterableApiRequest request = new IterableApiRequest(apiKey, resourcePath, addCreatedAtToJson(json), IterableApiRequest.POST, authToken, onSuccess, onFailure);
+        request.responseBodyReader = responseBodyReader;
+        IterableRequestExecutor.getInstance().execute(request);
     }
 
     @Override
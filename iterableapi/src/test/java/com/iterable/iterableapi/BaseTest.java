@@ -13,6 +13,8 @@ import org.junit.runner.RunWith;
 import org.robolectric.android.util.concurrent.InlineExecutorService;
 import org.robolectric.shadows.ShadowPausedAsyncTask;
 
+import java.util.concurrent.Executors;
+
 @RunWith(TestRunner.class)
 public abstract class BaseTest {
 
@@ -34,6 +36,12 @@ public abstract class BaseTest {
         @Override
         protected void starting(Description description) {
             ShadowPausedAsyncTask.overrideExecutor(new InlineExecutorService());
+            IterableRequestExecutor.setInstance(new IterableRequestExecutor(new InlineExecutorService(), new InlineExecutorService(), Executors.newSingleThreadScheduledExecutor()));
+        }
+
+        @Override
+        protected void finished(Description description) {
+            IterableRequestExecutor.setInstance(null);
         }
     }
 
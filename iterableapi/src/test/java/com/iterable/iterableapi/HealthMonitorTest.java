@@ -3,16 +3,29 @@ package com.iterable.iterableapi;
 import com.iterable.iterableapi.unit.TestRunner;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(TestRunner.class)
 public class HealthMonitorTest extends BaseTest {
+    @Rule
+    public IterableUtilRule utilsRule = new IterableUtilRule();
+
     private IterableTaskStorage mockTaskStorage;
     private IterableTaskRunner mockTaskRunner;
     private TaskScheduler mockTaskScheduler;
@@ -51,4 +64,133 @@ public class HealthMonitorTest extends BaseTest {
         healthMonitor.onDBError();
         assertFalse(healthMonitor.canProcess());
     }
+
+    @Test
+    public void circuitClosesAfterSuccessfulProbe() throws Exception {
+        long currentTime = System.currentTimeMillis();
+        doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        when(mockTaskStorage.getNumberOfTasks()).thenReturn(0L);
+        when(mockTaskStorage.probeDatabase()).thenReturn(true);
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+
+        healthMonitor.onDBError();
+        assertEquals(HealthMonitor.State.OPEN, healthMonitor.getState());
+        assertFalse(healthMonitor.canProcess());
+        assertFalse(healthMonitor.canSchedule());
+        assertEquals(HealthMonitor.INITIAL_PROBE_DELAY_MS, healthMonitor.getTimeUntilProbe());
+
+        doReturn(currentTime + HealthMonitor.INITIAL_PROBE_DELAY_MS).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        healthMonitor.probeIfDue();
+        assertTrue(healthMonitor.canProcess());
+        assertTrue(healthMonitor.canSchedule());
+        assertEquals(HealthMonitor.State.CLOSED, healthMonitor.getState());
+        assertEquals(1, healthMonitor.getTransitionCount(HealthMonitor.State.CLOSED, HealthMonitor.State.OPEN));
+        assertEquals(1, healthMonitor.getTransitionCount(HealthMonitor.State.OPEN, HealthMonitor.State.HALF_OPEN));
+        assertEquals(1, healthMonitor.getTransitionCount(HealthMonitor.State.HALF_OPEN, HealthMonitor.State.CLOSED));
+        assertEquals(1, healthMonitor.getOpenCount());
+    }
+
+    @Test
+    public void failedProbeReopensCircuitWithLongerDelay() throws Exception {
+        long currentTime = System.currentTimeMillis();
+        doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        when(mockTaskStorage.probeDatabase()).thenReturn(false);
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+
+        healthMonitor.onDBError();
+        doReturn(currentTime + HealthMonitor.INITIAL_PROBE_DELAY_MS).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        healthMonitor.probeIfDue();
+        assertFalse(healthMonitor.canProcess());
+        assertEquals(HealthMonitor.State.OPEN, healthMonitor.getState());
+        assertEquals(2 * HealthMonitor.INITIAL_PROBE_DELAY_MS, healthMonitor.getTimeUntilProbe());
+        assertEquals(1, healthMonitor.getTransitionCount(HealthMonitor.State.HALF_OPEN, HealthMonitor.State.OPEN));
+        assertEquals(2, healthMonitor.getOpenCount());
+
+        // Errors reported while the circuit is already open don't extend the delay
+        healthMonitor.onDBError();
+        assertEquals(2, healthMonitor.getOpenCount());
+    }
+
+    @Test
+    public void healthChecksDoNotProbeDatabase() throws Exception {
+        long currentTime = System.currentTimeMillis();
+        doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        when(mockTaskStorage.probeDatabase()).thenReturn(true);
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+
+        healthMonitor.onDBError();
+        doReturn(currentTime + HealthMonitor.INITIAL_PROBE_DELAY_MS).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        assertFalse(healthMonitor.canSchedule());
+        assertFalse(healthMonitor.canProcess());
+        assertTrue(healthMonitor.isCircuitOpen());
+        verify(mockTaskStorage, never()).probeDatabase();
+        assertEquals(HealthMonitor.State.OPEN, healthMonitor.getState());
+    }
+
+    @Test
+    public void healthChecksDoNotWaitForProbe() throws Exception {
+        long currentTime = System.currentTimeMillis();
+        doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        final CountDownLatch probeStarted = new CountDownLatch(1);
+        final CountDownLatch probeReleased = new CountDownLatch(1);
+        when(mockTaskStorage.probeDatabase()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                probeStarted.countDown();
+                probeReleased.await(5, TimeUnit.SECONDS);
+                return true;
+            }
+        });
+        final HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+
+        healthMonitor.onDBError();
+        doReturn(currentTime + HealthMonitor.INITIAL_PROBE_DELAY_MS).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        Thread probeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                healthMonitor.probeIfDue();
+            }
+        });
+        probeThread.start();
+        assertTrue(probeStarted.await(5, TimeUnit.SECONDS));
+
+        // The probe is blocked in the database, the health checks still return
+        assertFalse(healthMonitor.canProcess());
+        assertTrue(healthMonitor.isCircuitOpen());
+        assertEquals(HealthMonitor.State.HALF_OPEN, healthMonitor.getState());
+
+        probeReleased.countDown();
+        probeThread.join(5000);
+        assertTrue(healthMonitor.canProcess());
+        assertEquals(HealthMonitor.State.CLOSED, healthMonitor.getState());
+    }
+
+    @Test
+    public void probeDelayIsCapped() throws Exception {
+        long currentTime = System.currentTimeMillis();
+        doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        when(mockTaskStorage.probeDatabase()).thenReturn(false);
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+
+        healthMonitor.onDBError();
+        for (int i = 0; i < 20; i++) {
+            currentTime += healthMonitor.getTimeUntilProbe();
+            doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+            healthMonitor.probeIfDue();
+        }
+        assertEquals(HealthMonitor.MAX_PROBE_DELAY_MS, healthMonitor.getTimeUntilProbe());
+    }
+
+    @Test
+    public void stateListenerIsNotifiedOfTransitions() throws Exception {
+        HealthMonitor healthMonitor = new HealthMonitor(mockTaskStorage);
+        HealthMonitor.StateListener listener = mock(HealthMonitor.StateListener.class);
+        healthMonitor.addStateListener(listener);
+
+        healthMonitor.onDBError();
+        healthMonitor.isReady();
+
+        verify(listener).onStateChanged(HealthMonitor.State.CLOSED, HealthMonitor.State.OPEN);
+        verify(listener).onStateChanged(HealthMonitor.State.OPEN, HealthMonitor.State.CLOSED);
+    }
 }
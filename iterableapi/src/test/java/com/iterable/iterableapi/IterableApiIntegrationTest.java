@@ -41,6 +41,7 @@ public class IterableApiIntegrationTest extends BaseTest {
         pushRegistrationUtilMock = mock(IterablePushRegistrationTask.Util.UtilImpl.class);
         IterablePushRegistrationTask.Util.instance = pushRegistrationUtilMock;
         ShadowPausedAsyncTask.reset(); // Enable real threading in AsyncTask so we keep the execution sequence similar to the real one.
+        IterableRequestExecutor.setInstance(null);
     }
 
     @After
@@ -399,6 +399,20 @@ public class IterableApiTest extends BaseTest {
         assertTrue(taskStorage.getAllTaskIds().isEmpty());
     }
 
+    @Test
+    public void testOfflineQueueDepth() throws Exception {
+        IterableApi.initialize(getContext(), "apiKey", new IterableConfig.Builder().setAutoPushRegistration(false).build());
+        IterableApi.sharedInstance.apiClient.setOfflineProcessingEnabled(false);
+        assertEquals(-1, IterableApi.getInstance().getOfflineQueueDepth());
+
+        IterableTaskStorage taskStorage = IterableTaskStorage.sharedInstance(getContext());
+        taskStorage.deleteAllTasks();
+        IterableApi.sharedInstance.apiClient.setOfflineProcessingEnabled(true);
+        taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, "{}");
+        taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, "{}");
+        assertEquals(2, IterableApi.getInstance().getOfflineQueueDepth());
+    }
+
     @Test
     public void testUpdateUserWithUserId() throws Exception {
         server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
@@ -0,0 +1,134 @@
+package com.iterable.iterableapi;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.iterable.iterableapi.unit.TestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(TestRunner.class)
+public class IterableDatabaseManagerTest extends BaseTest {
+    private File databaseFile;
+
+    @Before
+    public void setUp() {
+        databaseFile = getContext().getDatabasePath(IterableDatabaseManager.DATABASE_NAME);
+        getContext().deleteDatabase(IterableDatabaseManager.DATABASE_NAME);
+        databaseFile.getParentFile().mkdirs();
+    }
+
+    @Test
+    public void testCreateAddsScheduledIndex() throws Exception {
+        SQLiteDatabase database = new IterableDatabaseManager(getContext()).getWritableDatabase();
+        assertEquals(IterableDatabaseManager.DATABASE_VERSION, database.getVersion());
+        assertTrue(hasIndex(database, IterableDatabaseManager.INDEX_OFFLINE_TASK_SCHEDULED));
+        assertTrue(hasIndex(database, IterableDatabaseManager.INDEX_OFFLINE_TASK_SORT_KEY));
+        database.close();
+    }
+
+    @Test
+    public void testUpgradeFromVersion1KeepsQueuedTasks() throws Exception {
+        SQLiteDatabase v1Database = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+        v1Database.execSQL("CREATE TABLE OfflineTask (task_id TEXT PRIMARY KEY,name TEXT,version INTEGER," +
+                "created BIGINT,modified BIGINT,last_attempt BIGINT,scheduled BIGINT,requested BIGINT," +
+                "processing BOOLEAN,failed BOOLEAN,blocking BOOLEAN,data TEXT,error TEXT,type TEXT,attempts INTEGER)");
+        v1Database.execSQL("INSERT INTO OfflineTask (task_id, name, version, created, scheduled, requested, processing, failed, blocking, data, type, attempts) " +
+                "VALUES ('task1', 'events/track', 1, 1000, 1000, 1000, 0, 0, 0, '{\"apiKey\":\"key1\"}', 'API', 0)");
+        v1Database.execSQL("INSERT INTO OfflineTask (task_id, name, version, created, scheduled, requested, processing, failed, blocking, data, type, attempts) " +
+                "VALUES ('task2', 'commerce/trackPurchase', 1, 2000, 2000, 2000, 0, 0, 0, '{\"apiKey\":\"key2\"}', 'API', 2)");
+        v1Database.setVersion(1);
+        v1Database.close();
+
+        SQLiteDatabase database = new IterableDatabaseManager(getContext()).getWritableDatabase();
+        assertEquals(IterableDatabaseManager.DATABASE_VERSION, database.getVersion());
+        assertTrue(hasIndex(database, IterableDatabaseManager.INDEX_OFFLINE_TASK_SCHEDULED));
+        assertTrue(hasIndex(database, IterableDatabaseManager.INDEX_OFFLINE_TASK_SORT_KEY));
+
+        assertTrue(hasTable(database, IterableTaskStorage.ITERABLE_TASK_CREDENTIALS_TABLE_NAME));
+
+        Cursor cursor = database.rawQuery("select task_id, data, typeof(data), attempts, priority, credentials_id, request_body, sort_key from OfflineTask order by scheduled", null);
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("task1", cursor.getString(0));
+        assertEquals("{\"apiKey\":\"key1\"}", new String(cursor.getBlob(1), "UTF-8"));
+        assertEquals("blob", cursor.getString(2));
+        assertEquals(0, cursor.getInt(4));
+        assertTrue(cursor.isNull(5));
+        assertTrue(cursor.isNull(6));
+        assertEquals(1000, cursor.getLong(7));
+        cursor.moveToNext();
+        assertEquals("task2", cursor.getString(0));
+        assertEquals(2, cursor.getInt(3));
+        assertEquals(2000, cursor.getLong(7));
+        cursor.close();
+        database.close();
+    }
+
+    @Test
+    public void testStorageProfileIsAppliedOnOpen() throws Exception {
+        SQLiteDatabase database = new IterableDatabaseManager(getContext(), IterableOfflineStorageProfile.HIGH_THROUGHPUT).getWritableDatabase();
+        // PRAGMA synchronous reports NORMAL as 1 and FULL as 2
+        assertEquals(1, queryPragma(database, "synchronous"));
+        assertEquals(-IterableOfflineStorageProfile.HIGH_THROUGHPUT.getCacheSizeKb(), queryPragma(database, "cache_size"));
+        database.close();
+
+        database = new IterableDatabaseManager(getContext(), IterableOfflineStorageProfile.DEFAULT).getWritableDatabase();
+        assertEquals(2, queryPragma(database, "synchronous"));
+        assertEquals(-IterableOfflineStorageProfile.DEFAULT.getCacheSizeKb(), queryPragma(database, "cache_size"));
+        database.close();
+    }
+
+    @Test
+    public void testEnqueueWithEveryProfile() throws Exception {
+        final int taskCount = 2000;
+        for (IterableOfflineStorageProfile profile : IterableOfflineStorageProfile.values()) {
+            getContext().deleteDatabase(IterableDatabaseManager.DATABASE_NAME);
+            SQLiteDatabase database = new IterableDatabaseManager(getContext(), profile).getWritableDatabase();
+            SQLiteStatement statement = database.compileStatement("INSERT INTO OfflineTask (task_id, name, scheduled, data) VALUES (?, ?, ?, ?)");
+
+            for (int i = 0; i < taskCount; i++) {
+                statement.bindString(1, "task" + i);
+                statement.bindString(2, IterableConstants.ENDPOINT_TRACK);
+                statement.bindLong(3, i);
+                statement.bindBlob(4, "{\"apiKey\":\"key\"}".getBytes("UTF-8"));
+                statement.executeInsert();
+            }
+            statement.close();
+
+            assertEquals(taskCount, DatabaseUtils.queryNumEntries(database, IterableTaskStorage.ITERABLE_TASK_TABLE_NAME));
+            database.close();
+        }
+    }
+
+    private long queryPragma(SQLiteDatabase database, String pragma) {
+        Cursor cursor = database.rawQuery("PRAGMA " + pragma, null);
+        cursor.moveToFirst();
+        long value = cursor.getLong(0);
+        cursor.close();
+        return value;
+    }
+
+    private boolean hasTable(SQLiteDatabase database, String tableName) {
+        Cursor cursor = database.rawQuery("select name from sqlite_master where type = 'table' and name = ?", new String[]{tableName});
+        boolean hasTable = cursor.getCount() > 0;
+        cursor.close();
+        return hasTable;
+    }
+
+    private boolean hasIndex(SQLiteDatabase database, String indexName) {
+        Cursor cursor = database.rawQuery("select name from sqlite_master where type = 'index' and name = ?", new String[]{indexName});
+        boolean hasIndex = cursor.getCount() > 0;
+        cursor.close();
+        return hasIndex;
+    }
+}
@@ -0,0 +1,188 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class IterableHttpTransportTest extends BaseTest {
+    private MockWebServer server;
+
+    @Before
+    public void setUp() {
+        server = new MockWebServer();
+        IterableApi.overrideURLEndpointPath(server.url("").toString());
+        IterableApi.sharedInstance = new IterableApi(mock(IterableInAppManager.class));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        server = null;
+    }
+
+    @Test
+    public void testDefaultTransportReusesConnections() throws Exception {
+        final int requestCount = 100;
+        for (int i = 0; i < requestCount; i++) {
+            server.enqueue(new MockResponse().setResponseCode(i % 10 == 0 ? 400 : 200).setBody("{\"msg\":\"response\"}"));
+        }
+
+        for (int i = 0; i < requestCount; i++) {
+            IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject().put("index", i), IterableApiRequest.POST, null, null, null);
+            IterableRequestTask.executeApiRequest(request);
+        }
+
+        int connectionCount = 0;
+        for (int i = 0; i < requestCount; i++) {
+            if (server.takeRequest().getSequenceNumber() == 0) {
+                connectionCount++;
+            }
+        }
+        assertEquals(requestCount, server.getRequestCount());
+        assertTrue("Connections should be reused, opened " + connectionCount, connectionCount <= 2);
+    }
+
+    @Test
+    public void testLargeUnreadBodyDropsConnection() throws Exception {
+        byte[] largeBody = new byte[1024 * 1024];
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(new Buffer().write(largeBody)));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        IterableHttpTransport.Response response = IterableHttpUrlConnectionTransport.INSTANCE.execute(
+                new IterableHttpTransport.Request.Builder(IterableApiRequest.GET, server.url("/large").toString()).build());
+        InputStream body = response.getBody();
+        body.read();
+        response.close();
+        IterableHttpUrlConnectionTransport.INSTANCE.execute(
+                new IterableHttpTransport.Request.Builder(IterableApiRequest.GET, server.url("/next").toString()).build()).close();
+
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        // The rest of the large body isn't downloaded to reuse the connection
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void testCustomTransportIsUsed() throws Exception {
+        final List<IterableHttpTransport.Request> requests = new ArrayList<>();
+        final IterableHttpTransport transport = new IterableHttpTransport() {
+            @NonNull
+            @Override
+            public Response execute(@NonNull Request request) {
+                requests.add(request);
+                return new Response(200, Collections.singletonMap("Content-Type", Collections.singletonList("application/json")),
+                        new ByteArrayInputStream("{\"key\":\"value\"}".getBytes()));
+            }
+        };
+        IterableApi.sharedInstance.config = new IterableConfig.Builder().setHttpTransport(transport).build();
+
+        IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject().put("eventName", "event"), IterableApiRequest.POST, "authToken", null, null);
+        IterableApiResponse response = IterableRequestTask.executeApiRequest(request);
+
+        assertTrue(response.success);
+        assertEquals("value", response.responseJson.getString("key"));
+        assertEquals(1, requests.size());
+        IterableHttpTransport.Request sentRequest = requests.get(0);
+        assertEquals(IterableApiRequest.POST, sentRequest.getMethod());
+        assertEquals(server.url("").toString() + IterableConstants.ENDPOINT_TRACK, sentRequest.getUrl());
+        assertEquals("apiKey", sentRequest.getHeaders().get(IterableConstants.HEADER_API_KEY));
+        assertEquals(IterableConstants.HEADER_SDK_AUTH_FORMAT + "authToken", sentRequest.getHeaders().get(IterableConstants.HEADER_SDK_AUTHORIZATION));
+        assertEquals("event", new JSONObject(new String(sentRequest.getBody(), "UTF-8")).getString("eventName"));
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void testResponseHeadersIgnoreCase() {
+        IterableHttpTransport.Response response = new IterableHttpTransport.Response(302,
+                Collections.singletonMap("location", Collections.singletonList("https://example.com")), null);
+        assertEquals("https://example.com", response.getHeader(IterableConstants.LOCATION_HEADER_FIELD));
+        assertTrue(response.getHeaders("Set-Cookie").isEmpty());
+    }
+
+    @Test
+    public void testLargeBodyIsSentCompressed() throws Exception {
+        IterableApi.sharedInstance.config = new IterableConfig.Builder()
+                .setRequestCompressionEnabled(true)
+                .setRequestCompressionThreshold(1024)
+                .build();
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        JSONObject largeBody = createUpdateUserBody(100);
+        IterableRequestTask.executeApiRequest(new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_UPDATE_USER, largeBody, IterableApiRequest.POST, null, null, null));
+        JSONObject smallBody = createUpdateUserBody(1);
+        IterableRequestTask.executeApiRequest(new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_UPDATE_USER, smallBody, IterableApiRequest.POST, null, null, null));
+
+        RecordedRequest compressedRequest = server.takeRequest();
+        assertEquals("gzip", compressedRequest.getHeader("Content-Encoding"));
+        assertTrue(compressedRequest.getBodySize() < largeBody.toString().length());
+        Buffer decompressedBody = new Buffer();
+        decompressedBody.writeAll(new GzipSource(compressedRequest.getBody()));
+        assertEquals(largeBody.toString(), decompressedBody.readUtf8());
+
+        RecordedRequest uncompressedRequest = server.takeRequest();
+        assertNull(uncompressedRequest.getHeader("Content-Encoding"));
+        assertEquals(smallBody.toString(), uncompressedRequest.getBody().readUtf8());
+    }
+
+    @Test
+    public void testCompressionRatio() throws Exception {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < 30; i++) {
+            JSONObject itemDataFields = new JSONObject().put("color", i % 2 == 0 ? "red" : "blue").put("size", "M");
+            items.put(new CommerceItem("sku-" + i, "Product name " + i, 9.99 + i, 1 + i % 3, "SKU" + i,
+                    "Description of product " + i, "https://example.com/products/" + i, "https://example.com/images/" + i + ".png",
+                    new String[]{"category", "subcategory"}, itemDataFields).toJSONObject());
+        }
+        JSONObject user = new JSONObject().put(IterableConstants.KEY_EMAIL, "test@example.com");
+        JSONObject purchaseBody = new JSONObject().put(IterableConstants.KEY_USER, user).put(IterableConstants.KEY_ITEMS, items).put(IterableConstants.KEY_TOTAL, 599.7);
+        JSONObject updateCartBody = new JSONObject().put(IterableConstants.KEY_USER, user).put(IterableConstants.KEY_ITEMS, items);
+
+        assertBodyIsCompressed("trackPurchase, 30 items", purchaseBody);
+        assertBodyIsCompressed("updateCart, 30 items", updateCartBody);
+        assertBodyIsCompressed("updateUser, 100 data fields", createUpdateUserBody(100));
+    }
+
+    private static void assertBodyIsCompressed(String payloadName, JSONObject payload) throws IOException {
+        byte[] body = payload.toString().getBytes("UTF-8");
+        IterableHttpTransport.Request request = new IterableHttpTransport.Request.Builder(IterableApiRequest.POST, "https://example.com")
+                .setBody(body)
+                .setGzipBody(true)
+                .build();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        request.writeBody(outputStream);
+        assertTrue(payloadName + " should be compressed", outputStream.size() < body.length);
+    }
+
+    private static JSONObject createUpdateUserBody(int dataFieldCount) throws Exception {
+        JSONObject dataFields = new JSONObject();
+        for (int i = 0; i < dataFieldCount; i++) {
+            dataFields.put("field" + i, "value of field " + i);
+        }
+        return new JSONObject()
+                .put(IterableConstants.KEY_EMAIL, "test@example.com")
+                .put(IterableConstants.KEY_DATA_FIELDS, dataFields);
+    }
+}
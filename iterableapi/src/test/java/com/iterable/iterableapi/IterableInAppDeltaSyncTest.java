@@ -0,0 +1,276 @@
+package com.iterable.iterableapi;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.robolectric.Shadows.shadowOf;
+
+public class IterableInAppDeltaSyncTest extends BaseTest {
+    private static final int INBOX_SIZE = 50;
+
+    private MockWebServer server;
+    private InAppSyncServer syncServer;
+    private long now;
+
+    @Before
+    public void setUp() throws IOException {
+        now = System.currentTimeMillis();
+        doReturn(now).when(getIterableUtilSpy()).currentTimeMillis();
+        server = new MockWebServer();
+        syncServer = new InAppSyncServer();
+        server.setDispatcher(syncServer);
+
+        IterableApi.overrideURLEndpointPath(server.url("").toString());
+        IterableApi.sharedInstance = new IterableApi();
+        IterableTestUtils.createIterableApiNew(new IterableTestUtils.ConfigBuilderExtender() {
+            @Override
+            public IterableConfig.Builder run(IterableConfig.Builder builder) {
+                return builder
+                        .setInAppHandler(new IterableSkipInAppHandler())
+                        .setInAppDeltaSyncEnabled(true);
+            }
+        });
+        shadowOf(getMainLooper()).idle();
+        syncServer.reset();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        server = null;
+        IterableActivityMonitor.getInstance().unregisterLifecycleCallbacks(getContext());
+        IterableActivityMonitor.instance = new IterableActivityMonitor();
+    }
+
+    @Test
+    public void testSyncDownloadsOnlyChanges() throws Exception {
+        for (int i = 0; i < INBOX_SIZE; i++) {
+            syncServer.putMessage(createMessage("message" + i, createHtml(i, "v1")), now);
+        }
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+
+        sync(inAppManager);
+        assertEquals(INBOX_SIZE, inAppManager.getMessages().size());
+        assertEquals(0, syncServer.requests.get(0).getJSONArray(IterableConstants.ITERABLE_IN_APP_KNOWN_MESSAGES).length());
+        int fullSyncSize = syncServer.responseSizes.get(0);
+
+        // Nothing changed: no messages are downloaded
+        advanceTime();
+        sync(inAppManager);
+        JSONObject unchangedRequest = syncServer.requests.get(1);
+        assertEquals(INBOX_SIZE, unchangedRequest.getJSONArray(IterableConstants.ITERABLE_IN_APP_KNOWN_MESSAGES).length());
+        assertEquals(now - 1000, unchangedRequest.getLong(IterableConstants.ITERABLE_IN_APP_LAST_SYNC_TIME));
+        assertEquals(0, syncServer.sentMessages.get(1).size());
+        assertTrue(syncServer.responseSizes.get(1) < 100);
+
+        // One message added, one changed, one removed and one read elsewhere
+        IterableInAppMessage unchangedMessage = inAppManager.getMessageById("message10");
+        IterableInAppMessage readMessage = inAppManager.getMessageById("message30");
+        advanceTime();
+        syncServer.putMessage(createMessage("message" + INBOX_SIZE, createHtml(INBOX_SIZE, "v1")), now);
+        syncServer.putMessage(createMessage("message20", createHtml(20, "v2")), now);
+        syncServer.removeMessage("message40");
+        syncServer.putMessage(createMessage("message30", createHtml(30, "v1")).put(IterableConstants.ITERABLE_IN_APP_READ, true), now);
+        advanceTime();
+        sync(inAppManager);
+
+        assertEquals(3, syncServer.sentMessages.get(2).size());
+        assertTrue(syncServer.responseSizes.get(2) < fullSyncSize / 10);
+        assertEquals(syncServer.messages.keySet(), getMessageIds(inAppManager.getMessages()));
+        assertEquals(createHtml(20, "v2"), inAppManager.getMessageById("message20").getContent().html);
+        assertEquals(createHtml(INBOX_SIZE, "v1"), inAppManager.getMessageById("message" + INBOX_SIZE).getContent().html);
+        assertSame(unchangedMessage, inAppManager.getMessageById("message10"));
+        assertSame(readMessage, inAppManager.getMessageById("message30"));
+        assertTrue(readMessage.isRead());
+    }
+
+    @Test
+    public void testChangedMessageKeepsLocalState() throws Exception {
+        syncServer.putMessage(createMessage("message", createHtml(0, "v1")), now);
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+        sync(inAppManager);
+        IterableInAppMessage message = inAppManager.getMessageById("message");
+        inAppManager.setRead(message, true);
+
+        advanceTime();
+        syncServer.putMessage(createMessage("message", createHtml(0, "v2")), now);
+        advanceTime();
+        sync(inAppManager);
+
+        IterableInAppMessage changedMessage = inAppManager.getMessageById("message");
+        assertNotSame(message, changedMessage);
+        assertTrue(changedMessage.isRead());
+        assertEquals(createHtml(0, "v2"), changedMessage.getContent().html);
+        assertEquals(IterableInAppMessage.getContentHash(createHtml(0, "v2")), changedMessage.getContentHash());
+    }
+
+    @Test
+    public void testResetSendsNoKnownMessages() throws Exception {
+        syncServer.putMessage(createMessage("message", createHtml(0, "v1")), now);
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+        sync(inAppManager);
+
+        inAppManager.reset();
+        advanceTime();
+        sync(inAppManager);
+
+        JSONObject request = syncServer.requests.get(1);
+        assertEquals(0, request.getJSONArray(IterableConstants.ITERABLE_IN_APP_KNOWN_MESSAGES).length());
+        assertEquals(0, request.getLong(IterableConstants.ITERABLE_IN_APP_LAST_SYNC_TIME));
+        assertEquals(1, inAppManager.getMessages().size());
+    }
+
+    @Test
+    public void testFullResponseReplacesQueue() throws Exception {
+        syncServer.putMessage(createMessage("message1", createHtml(1, "v1")), now);
+        syncServer.putMessage(createMessage("message2", createHtml(2, "v1")), now);
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+        sync(inAppManager);
+
+        // A server that can't compute a delta sends the whole queue, without removed message ids
+        syncServer.removeMessage("message1");
+        syncServer.fullResponses = true;
+        advanceTime();
+        sync(inAppManager);
+
+        assertEquals(1, inAppManager.getMessages().size());
+        assertEquals("message2", inAppManager.getMessages().get(0).getMessageId());
+        assertEquals(2, syncServer.requests.get(1).getJSONArray(IterableConstants.ITERABLE_IN_APP_KNOWN_MESSAGES).length());
+    }
+
+    private void sync(IterableInAppManager inAppManager) {
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+    }
+
+    private void advanceTime() {
+        now += 1000;
+        doReturn(now).when(getIterableUtilSpy()).currentTimeMillis();
+    }
+
+    private static Set<String> getMessageIds(List<IterableInAppMessage> messages) {
+        Set<String> messageIds = new HashSet<>();
+        for (IterableInAppMessage message : messages) {
+            messageIds.add(message.getMessageId());
+        }
+        return messageIds;
+    }
+
+    private static String createHtml(int index, String version) {
+        StringBuilder html = new StringBuilder("<html><body><h1>Message " + index + " " + version + "</h1>");
+        for (int i = 0; i < 50; i++) {
+            html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static JSONObject createMessage(String messageId, String html) throws Exception {
+        JSONObject message = new JSONObject(IterableTestUtils.getResourceString("inapp_payload_single.json"))
+                .getJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE).getJSONObject(0);
+        message.put(IterableConstants.KEY_MESSAGE_ID, messageId);
+        message.put(IterableConstants.ITERABLE_IN_APP_SAVE_TO_INBOX, true);
+        message.getJSONObject(IterableConstants.ITERABLE_IN_APP_CONTENT).put(IterableConstants.ITERABLE_IN_APP_HTML, html);
+        return message;
+    }
+
+    /**
+     * Stand-in for the delta sync endpoint: returns the messages that the client doesn't know, whose
+     * content hash differs or that were updated since the last sync, and the ids of known messages
+     * that are gone
+     */
+    private static class InAppSyncServer extends Dispatcher {
+        final Map<String, JSONObject> messages = new LinkedHashMap<>();
+        final Map<String, Long> updateTimes = new HashMap<>();
+        final List<JSONObject> requests = new ArrayList<>();
+        final List<List<String>> sentMessages = new ArrayList<>();
+        final List<Integer> responseSizes = new ArrayList<>();
+        boolean fullResponses;
+
+        synchronized void putMessage(JSONObject message, long updateTime) throws JSONException {
+            String messageId = message.getString(IterableConstants.KEY_MESSAGE_ID);
+            messages.put(messageId, message);
+            updateTimes.put(messageId, updateTime);
+        }
+
+        synchronized void removeMessage(String messageId) {
+            messages.remove(messageId);
+            updateTimes.remove(messageId);
+        }
+
+        synchronized void reset() {
+            requests.clear();
+            sentMessages.clear();
+            responseSizes.clear();
+        }
+
+        @Override
+        public synchronized MockResponse dispatch(RecordedRequest request) {
+            if (!request.getPath().startsWith("/" + IterableConstants.ENDPOINT_SYNC_INAPP_MESSAGES)) {
+                return new MockResponse().setBody("{}");
+            }
+            try {
+                JSONObject requestJson = new JSONObject(request.getBody().readUtf8());
+                requests.add(requestJson);
+                long lastSyncTime = requestJson.getLong(IterableConstants.ITERABLE_IN_APP_LAST_SYNC_TIME);
+                Map<String, String> knownHashes = new HashMap<>();
+                JSONArray knownMessages = requestJson.getJSONArray(IterableConstants.ITERABLE_IN_APP_KNOWN_MESSAGES);
+                for (int i = 0; i < knownMessages.length(); i++) {
+                    JSONObject knownMessage = knownMessages.getJSONObject(i);
+                    knownHashes.put(knownMessage.getString(IterableConstants.KEY_MESSAGE_ID), knownMessage.optString(IterableConstants.ITERABLE_IN_APP_CONTENT_HASH, null));
+                }
+
+                JSONArray changedMessages = new JSONArray();
+                List<String> changedMessageIds = new ArrayList<>();
+                for (Map.Entry<String, JSONObject> entry : messages.entrySet()) {
+                    String html = entry.getValue().getJSONObject(IterableConstants.ITERABLE_IN_APP_CONTENT).getString(IterableConstants.ITERABLE_IN_APP_HTML);
+                    String knownHash = knownHashes.get(entry.getKey());
+                    if (fullResponses || knownHash == null || !knownHash.equals(IterableInAppMessage.getContentHash(html)) || updateTimes.get(entry.getKey()) > lastSyncTime) {
+                        changedMessages.put(entry.getValue());
+                        changedMessageIds.add(entry.getKey());
+                    }
+                }
+                JSONObject response = new JSONObject().put(IterableConstants.ITERABLE_IN_APP_MESSAGE, changedMessages);
+                if (!fullResponses) {
+                    JSONArray removedMessageIds = new JSONArray();
+                    for (String messageId : knownHashes.keySet()) {
+                        if (!messages.containsKey(messageId)) {
+                            removedMessageIds.put(messageId);
+                        }
+                    }
+                    response.put(IterableConstants.ITERABLE_IN_APP_REMOVED_MESSAGE_IDS, removedMessageIds);
+                }
+
+                String body = response.toString();
+                sentMessages.add(changedMessageIds);
+                responseSizes.add(body.getBytes(IterableRequestBody.UTF_8).length);
+                return new MockResponse().setBody(body);
+            } catch (JSONException e) {
+                return new MockResponse().setResponseCode(400).setBody("{}");
+            }
+        }
+    }
+}
@@ -6,16 +6,23 @@ import androidx.test.core.app.ApplicationProvider;
 
 import com.iterable.iterableapi.unit.TestRunner;
 
+import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.robolectric.Shadows.shadowOf;
 
@@ -139,6 +146,212 @@ public class IterableInAppFileStorageTest {
         assertEquals(1, storage.getMessages().size());
     }
 
+    @Test
+    public void testHtmlCacheStaysWithinBudget() throws Exception {
+        int messageCount = 500;
+        int htmlLength = 10 * 1024;
+        int cachedMessageCount = 10;
+        int cacheSizeBytes = cachedMessageCount * htmlLength * 2;
+        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext(), cacheSizeBytes);
+
+        JSONObject messageJson = new JSONObject(IterableTestUtils.getResourceString("inapp_payload_single.json"))
+                .getJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE).getJSONObject(0);
+        messageJson.getJSONObject(IterableConstants.ITERABLE_IN_APP_CONTENT).remove(IterableConstants.ITERABLE_IN_APP_HTML);
+        messageJson.put(IterableConstants.ITERABLE_IN_APP_SAVE_TO_INBOX, true);
+        for (int i = 0; i < messageCount; i++) {
+            String messageId = "message" + i;
+            StringBuilder html = new StringBuilder(messageId);
+            while (html.length() < htmlLength) {
+                html.append('x');
+            }
+            messageJson.put(IterableConstants.KEY_MESSAGE_ID, messageId);
+            storage.saveHTML(messageId, html.toString());
+            storage.addMessage(IterableInAppMessage.fromJSONObject(messageJson, storage));
+        }
+
+        // Visit every inbox message, as when scrolling through the inbox
+        List<WeakReference<String>> htmlReferences = new ArrayList<>();
+        for (IterableInAppMessage message : storage.getMessages()) {
+            String html = message.getContent().html;
+            assertEquals(htmlLength, html.length());
+            assertTrue(html.startsWith(message.getMessageId()));
+            htmlReferences.add(new WeakReference<>(html));
+            assertTrue(storage.getHtmlCacheStats().getSizeBytes() <= cacheSizeBytes);
+        }
+        assertSame(htmlReferences.get(messageCount - 1).get(), storage.getMessage("message" + (messageCount - 1)).getContent().html);
+
+        IterableInAppHtmlCacheStats stats = storage.getHtmlCacheStats();
+        assertEquals(cacheSizeBytes, stats.getSizeBytes());
+        assertEquals(cacheSizeBytes, stats.getMaxSizeBytes());
+        assertEquals(messageCount, stats.getMissCount());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(messageCount - cachedMessageCount, stats.getEvictionCount());
+
+        // The messages don't hold on to their content: only the cached content is still reachable
+        int reachableCount = messageCount;
+        for (int attempt = 0; attempt < 5 && reachableCount > cachedMessageCount; attempt++) {
+            System.gc();
+            Thread.sleep(10);
+            reachableCount = 0;
+            for (WeakReference<String> htmlReference : htmlReferences) {
+                if (htmlReference.get() != null) {
+                    reachableCount++;
+                }
+            }
+        }
+        assertTrue("Reachable HTML content: " + reachableCount, reachableCount <= cachedMessageCount);
+
+        // Evicted content is read from storage again
+        assertTrue(storage.getMessage("message0").getContent().html.startsWith("message0"));
+        assertEquals(messageCount + 1, storage.getHtmlCacheStats().getMissCount());
+    }
+
+    @Test
+    public void testHtmlCacheInvalidatedWhenContentChanges() throws Exception {
+        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        storage.saveHTML("message", "<html>1</html>");
+        assertEquals("<html>1</html>", storage.getHTML("message"));
+
+        storage.removeHTML("message");
+        storage.saveHTML("message", "<html>2</html>");
+        assertEquals("<html>2</html>", storage.getHTML("message"));
+
+        storage.removeHTML("message");
+        assertNull(storage.getHTML("message"));
+    }
+
+    @Test
+    public void testMessageChangeIsAppendedToJournal() throws Exception {
+        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        for (int i = 0; i < 200; i++) {
+            storage.addMessage(getTestMessageWithId("message" + i));
+        }
+        runHandlerTasks(storage);
+        String snapshot = IterableUtil.readFile(getStorageFile());
+        assertFalse(getJournalFile().exists());
+
+        storage.getMessage("message100").setRead(true);
+        runHandlerTasks(storage);
+
+        // Only the changed message is written
+        assertEquals(snapshot, IterableUtil.readFile(getStorageFile()));
+        assertTrue(getJournalFile().length() < snapshot.length() / 100);
+
+        storage = new IterableInAppFileStorage(getContext());
+        assertEquals(200, storage.getMessages().size());
+        assertTrue(storage.getMessage("message100").isRead());
+        assertFalse(storage.getMessage("message99").isRead());
+    }
+
+    @Test
+    public void testJournalReplaysAddsAndRemovals() throws Exception {
+        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        storage.addMessage(getTestMessageWithId("message1"));
+        storage.addMessage(getTestMessageWithId("message2"));
+        runHandlerTasks(storage);
+
+        storage.removeMessage(storage.getMessage("message1"));
+        storage.addMessage(getTestMessageWithId("message3"));
+        runHandlerTasks(storage);
+        storage.getMessage("message3").setProcessed(true);
+        storage.removeMessage(storage.getMessage("message2"));
+        storage.addMessage(getTestMessageWithId("message2"));
+        runHandlerTasks(storage);
+        assertTrue(getJournalFile().exists());
+
+        storage = new IterableInAppFileStorage(getContext());
+        List<IterableInAppMessage> messages = storage.getMessages();
+        assertEquals(2, messages.size());
+        assertEquals("message3", messages.get(0).getMessageId());
+        assertTrue(messages.get(0).isProcessed());
+        assertEquals("message2", messages.get(1).getMessageId());
+    }
+
+    @Test
+    public void testJournalIsCompacted() throws Exception {
+        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        storage.addMessage(getTestMessageWithId("message"));
+        runHandlerTasks(storage);
+
+        for (int i = 0; i <= IterableInAppFileStorage.MIN_JOURNAL_ENTRIES_BEFORE_COMPACTION; i++) {
+            storage.getMessage("message").setRead(i % 2 == 0);
+            runHandlerTasks(storage);
+        }
+        assertFalse(getJournalFile().exists());
+
+        storage = new IterableInAppFileStorage(getContext());
+        assertTrue(storage.getMessage("message").isRead());
+    }
+
+    @Test
+    public void testIncompleteJournalEntryIsIgnored() throws Exception {
+        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        storage.addMessage(getTestMessageWithId("message1"));
+        storage.addMessage(getTestMessageWithId("message2"));
+        runHandlerTasks(storage);
+        storage.getMessage("message1").setRead(true);
+        runHandlerTasks(storage);
+
+        // Simulate a crash while appending the next change
+        FileOutputStream journal = new FileOutputStream(getJournalFile(), true);
+        journal.write("{\"op\":\"update\",\"message\":{\"messageId\":\"mess".getBytes("UTF-8"));
+        journal.close();
+
+        storage = new IterableInAppFileStorage(getContext());
+        assertTrue(storage.getMessage("message1").isRead());
+        assertFalse(storage.getMessage("message2").isRead());
+
+        // The next change compacts the journal instead of appending after the incomplete entry
+        storage.getMessage("message2").setRead(true);
+        runHandlerTasks(storage);
+        assertFalse(getJournalFile().exists());
+        storage = new IterableInAppFileStorage(getContext());
+        assertTrue(storage.getMessage("message1").isRead());
+        assertTrue(storage.getMessage("message2").isRead());
+    }
+
+    @Test
+    public void testJournalOfPreviousSnapshotIsIgnored() throws Exception {
+        IterableInAppFileStorage storage = new IterableInAppFileStorage(getContext());
+        storage.addMessage(getTestMessageWithId("message"));
+        runHandlerTasks(storage);
+        storage.getMessage("message").setRead(true);
+        runHandlerTasks(storage);
+        File previousJournal = new File(getInAppDirectory(), "previous_journal");
+        assertTrue(getJournalFile().renameTo(previousJournal));
+
+        for (int i = 0; i < IterableInAppFileStorage.MIN_JOURNAL_ENTRIES_BEFORE_COMPACTION; i++) {
+            storage.getMessage("message").setRead(false);
+            runHandlerTasks(storage);
+        }
+        assertFalse(getJournalFile().exists());
+
+        // Simulate a crash after the snapshot was replaced, before the journal was deleted
+        assertTrue(previousJournal.renameTo(getJournalFile()));
+        storage = new IterableInAppFileStorage(getContext());
+        assertFalse(storage.getMessage("message").isRead());
+    }
+
+    private IterableInAppMessage getTestMessageWithId(String messageId) throws Exception {
+        JSONObject messageJson = new JSONObject(IterableTestUtils.getResourceString("inapp_payload_single.json"))
+                .getJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE).getJSONObject(0);
+        messageJson.getJSONObject(IterableConstants.ITERABLE_IN_APP_CONTENT).remove(IterableConstants.ITERABLE_IN_APP_HTML);
+        messageJson.put(IterableConstants.KEY_MESSAGE_ID, messageId);
+        return IterableInAppMessage.fromJSONObject(messageJson, null);
+    }
+
+    private File getStorageFile() {
+        return new File(getInAppDirectory(), "itbl_inapp.json");
+    }
+
+    private File getJournalFile() {
+        return new File(getInAppDirectory(), "itbl_inapp_journal");
+    }
+
+    private File getInAppDirectory() {
+        return IterableUtil.getDirectory(IterableUtil.getSDKFilesDirectory(getContext()), "IterableInAppFileStorage");
+    }
+
     private void runHandlerTasks(IterableInAppFileStorage storage) throws InterruptedException {
         shadowOf(storage.fileOperationHandler.getLooper()).runToEndOfTasks();
     }
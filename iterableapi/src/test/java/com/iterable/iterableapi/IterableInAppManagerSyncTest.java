@@ -1,5 +1,6 @@
 package com.iterable.iterableapi;
 
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,6 +10,8 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayInputStream;
+
 import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
@@ -38,15 +41,26 @@ public class IterableInAppManagerSyncTest extends BaseTest {
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        // The SDK is not initialized with a user yet when the manager is created
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                IterableHelper.FailureHandler failureHandler = invocation.getArgument(3);
+                failureHandler.onFailure("Not initialized", null);
+                return null;
+            }
+        }).when(iterableApiMock).getInAppMessages(any(Integer.class), any(IterableApiRequest.ResponseBodyReader.class), any(IterableHelper.SuccessHandler.class), any(IterableHelper.FailureHandler.class));
         inAppManager = spy(new IterableInAppManager(iterableApiMock, handlerMock, 30.0, storageMock, activityMonitorMock, inAppDisplayerMock));
         doAnswer(new Answer() {
             @Override
             public Object answer(InvocationOnMock invocation) throws Throwable {
-                IterableHelper.IterableActionHandler handler = invocation.getArgument(1);
-                handler.execute(IterableTestUtils.getResourceString("inapp_payload_single.json"));
+                IterableApiRequest.ResponseBodyReader reader = invocation.getArgument(1);
+                reader.read(new ByteArrayInputStream(IterableTestUtils.getResourceString("inapp_payload_single.json").getBytes()));
+                IterableHelper.SuccessHandler successHandler = invocation.getArgument(2);
+                successHandler.onSuccess(new JSONObject());
                 return null;
             }
-        }).when(iterableApiMock).getInAppMessages(any(Integer.class), any(IterableHelper.IterableActionHandler.class));
+        }).when(iterableApiMock).getInAppMessages(any(Integer.class), any(IterableApiRequest.ResponseBodyReader.class), any(IterableHelper.SuccessHandler.class), any(IterableHelper.FailureHandler.class));
     }
 
     @After
@@ -26,14 +26,23 @@ import org.robolectric.android.controller.ActivityController;
 import org.robolectric.android.util.concurrent.PausedExecutorService;
 import org.robolectric.shadows.ShadowDialog;
 
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 
 import static android.os.Looper.getMainLooper;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -151,6 +160,140 @@ public class IterableInAppManagerTest extends BaseTest {
         assertEquals("Q19mD2NlQUnxnmSGuQu9ujzkKR6c12TogeaGA29", inAppManager.getMessages().get(0).getMessageId());
     }
 
+    @Test
+    public void testSyncInAppSavesHtmlToStorage() throws Exception {
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(IterableTestUtils.getResourceString("inapp_payload_single.json")));
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+        assertEquals(1, inAppManager.getMessages().size());
+        IterableInAppMessage message = inAppManager.getMessages().get(0);
+        assertFalse(message.hasLoadedHtmlFromJson());
+        assertEquals("<html><head></head><body>Test</body></html>", message.getContent().html);
+    }
+
+    @Test
+    public void testFailedSyncRemovesSavedHtml() throws Exception {
+        String payload = IterableTestUtils.getResourceString("inapp_payload_single.json");
+        // The response is cut off after the message, once its HTML content has been saved
+        String truncatedPayload = payload.substring(0, payload.lastIndexOf(']'));
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(truncatedPayload));
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+        assertEquals(0, inAppManager.getMessages().size());
+        File inAppContentFolder = new File(IterableUtil.getSDKFilesDirectory(getContext()), "IterableInAppFileStorage");
+        assertFalse(new File(inAppContentFolder, "7kx2MmoGdCpuZao9fDueuQoXVAZuDaVV").exists());
+
+        // The next sync stores the message with its content
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(payload));
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+        assertEquals(1, inAppManager.getMessages().size());
+        assertEquals("<html><head></head><body>Test</body></html>", inAppManager.getMessages().get(0).getContent().html);
+    }
+
+    @Test
+    public void testSyncInAppRevalidatesUnchangedMessages() throws Exception {
+        final List<String> ifNoneMatchHeaders = new ArrayList<>();
+        final int[] bodyBytes = new int[1];
+        IterableTestUtils.createIterableApiNew(new IterableTestUtils.ConfigBuilderExtender() {
+            @Override
+            public IterableConfig.Builder run(IterableConfig.Builder builder) {
+                return builder
+                        .setInAppHandler(inAppHandler)
+                        .setCustomActionHandler(customActionHandler)
+                        .setUrlHandler(urlHandler)
+                        .setHttpTransport(new IterableHttpTransport() {
+                            @NonNull
+                            @Override
+                            public Response execute(@NonNull Request request) throws IOException {
+                                Response response = IterableHttpUrlConnectionTransport.INSTANCE.execute(request);
+                                if (!request.getUrl().contains(IterableConstants.ENDPOINT_GET_INAPP_MESSAGES)) {
+                                    return response;
+                                }
+                                ifNoneMatchHeaders.add(request.getHeaders().get(IterableConstants.HEADER_IF_NONE_MATCH));
+                                Map<String, List<String>> headers = new HashMap<>();
+                                headers.put(IterableConstants.HEADER_ETAG, response.getHeaders(IterableConstants.HEADER_ETAG));
+                                InputStream body = response.getBody() == null ? null : new FilterInputStream(response.getBody()) {
+                                    @Override
+                                    public int read() throws IOException {
+                                        int b = super.read();
+                                        if (b != -1) {
+                                            bodyBytes[0]++;
+                                        }
+                                        return b;
+                                    }
+
+                                    @Override
+                                    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+                                        int count = super.read(buffer, offset, length);
+                                        bodyBytes[0] += Math.max(count, 0);
+                                        return count;
+                                    }
+                                };
+                                return new Response(response.getCode(), headers, body);
+                            }
+                        });
+            }
+        });
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse()
+                .setHeader(IterableConstants.HEADER_ETAG, "\"v1\"")
+                .setBody(IterableTestUtils.getResourceString("inapp_payload_single.json")));
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setResponseCode(304));
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+        assertEquals(1, inAppManager.getMessages().size());
+        IterableInAppMessage message = inAppManager.getMessages().get(0);
+        assertTrue(bodyBytes[0] > 0);
+
+        IterableInAppManager.Listener listener = mock(IterableInAppManager.Listener.class);
+        inAppManager.addListener(listener);
+        bodyBytes[0] = 0;
+        inAppManager.syncInApp();
+        shadowOf(getMainLooper()).idle();
+
+        assertEquals(2, ifNoneMatchHeaders.size());
+        assertNull(ifNoneMatchHeaders.get(0));
+        assertEquals("\"v1\"", ifNoneMatchHeaders.get(1));
+        assertEquals(0, bodyBytes[0]);
+        assertEquals(1, inAppManager.getMessages().size());
+        assertSame(message, inAppManager.getMessages().get(0));
+        verify(listener, never()).onInboxUpdated();
+    }
+
+    @Test
+    public void testConcurrentSyncsAreCoalesced() throws Exception {
+        IterableInAppManager inAppManager = IterableApi.getInstance().getInAppManager();
+        shadowOf(getMainLooper()).idle();
+        while (server.takeRequest(100, TimeUnit.MILLISECONDS) != null) { }
+        IterableInAppManager.Listener listener = mock(IterableInAppManager.Listener.class);
+        inAppManager.addListener(listener);
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(IterableTestUtils.getResourceString("inapp_payload_single.json")));
+        dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(IterableTestUtils.getResourceString("inapp_payload_single.json")));
+
+        for (int i = 0; i < 5; i++) {
+            inAppManager.syncInApp();
+        }
+        shadowOf(getMainLooper()).idle();
+
+        // One request in flight, and one trailing request for the calls made while it was
+        int getMessagesRequests = 0;
+        RecordedRequest request;
+        while ((request = server.takeRequest(100, TimeUnit.MILLISECONDS)) != null) {
+            if (request.getPath().startsWith("/inApp/getMessages")) {
+                getMessagesRequests++;
+            }
+        }
+        assertEquals(2, getMessagesRequests);
+        assertEquals(1, inAppManager.getMessages().size());
+        verify(listener, times(1)).onInboxUpdated();
+    }
+
     @Test
     public void testReset() throws Exception {
         dispatcher.enqueueResponse("/inApp/getMessages", new MockResponse().setBody(IterableTestUtils.getResourceString("inapp_payload_single.json")));
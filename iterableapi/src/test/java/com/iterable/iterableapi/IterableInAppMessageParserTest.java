@@ -0,0 +1,142 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.iterable.iterableapi.unit.TestRunner;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(TestRunner.class)
+public class IterableInAppMessageParserTest {
+
+    @Test
+    public void testParsedMessagesMatchJsonParsing() throws Exception {
+        String payload = IterableTestUtils.getResourceString("inapp_payload_multiple.json");
+        JSONArray jsonArray = new JSONObject(payload).getJSONArray(IterableConstants.ITERABLE_IN_APP_MESSAGE);
+        RecordingListener listener = new RecordingListener();
+
+        assertTrue(IterableInAppMessageParser.parse(toStream(payload), null, listener));
+
+        assertEquals(jsonArray.length(), listener.messages.size());
+        for (int i = 0; i < jsonArray.length(); i++) {
+            JSONObject messageJson = jsonArray.getJSONObject(i);
+            IterableInAppMessage expectedMessage = IterableInAppMessage.fromJSONObject(messageJson, null);
+            expectedMessage.setContentHash(IterableInAppMessage.getContentHash(messageJson.getJSONObject("content").getString("html")));
+            IterableInAppMessage message = listener.messages.get(i);
+            JSONAssert.assertEquals(expectedMessage.toJSONObject(), message.toJSONObject(), JSONCompareMode.STRICT_ORDER);
+            assertEquals(messageJson.getJSONObject("content").getString("html"), listener.html.get(i));
+            assertFalse(message.hasLoadedHtmlFromJson());
+        }
+    }
+
+    @Test
+    public void testParsedMessageLoadsHtmlFromStorage() throws Exception {
+        IterableInAppStorage storage = mock(IterableInAppStorage.class);
+        RecordingListener listener = new RecordingListener();
+        IterableInAppMessageParser.parse(toStream(IterableTestUtils.getResourceString("inapp_payload_single.json")), storage, listener);
+
+        IterableInAppMessage message = listener.messages.get(0);
+        when(storage.getHTML(message.getMessageId())).thenReturn("<html>Stored</html>");
+        assertEquals("<html>Stored</html>", message.getContent().html);
+    }
+
+    @Test
+    public void testLegacyPayload() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        IterableInAppMessageParser.parse(toStream(IterableTestUtils.getResourceString("inapp_payload_legacy.json")), null, listener);
+
+        IterableInAppMessage message = listener.messages.get(0);
+        assertEquals(123, message.getCustomPayload().getInt("intValue"));
+        assertEquals("test", message.getCustomPayload().getString("stringValue"));
+    }
+
+    @Test
+    public void testResponseWithoutMessageList() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        assertFalse(IterableInAppMessageParser.parse(toStream("{\"msg\":\"\",\"code\":\"Success\"}"), null, listener));
+        assertTrue(listener.messages.isEmpty());
+    }
+
+    @Test
+    public void testMessageWithoutHtml() throws Exception {
+        String payload = "{\"inAppMessages\":[{\"messageId\":\"1\",\"content\":{\"inAppDisplaySettings\":{}}}]}";
+        RecordingListener listener = new RecordingListener();
+        IterableInAppMessageParser.parse(toStream(payload), null, listener);
+
+        assertEquals(1, listener.messages.size());
+        assertNull(listener.html.get(0));
+    }
+
+    @Test
+    public void testDeltaResponse() throws Exception {
+        String payload = "{\"inAppMessages\":[{\"messageId\":\"1\",\"content\":{\"html\":\"<html>1</html>\",\"inAppDisplaySettings\":{}}}],"
+                + "\"removedMessageIds\":[\"2\",\"3\"]}";
+        RecordingListener listener = new RecordingListener();
+        IterableInAppMessageParser.parse(toStream(payload), null, listener);
+
+        assertEquals(1, listener.messages.size());
+        assertEquals(IterableInAppMessage.getContentHash("<html>1</html>"), listener.messages.get(0).getContentHash());
+        assertEquals(16, listener.messages.get(0).getContentHash().length());
+        assertEquals(2, listener.removedMessageIds.size());
+        assertEquals("2", listener.removedMessageIds.get(0));
+        assertEquals("3", listener.removedMessageIds.get(1));
+    }
+
+    @Test
+    public void testFullResponseHasNoRemovedMessages() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        IterableInAppMessageParser.parse(toStream(IterableTestUtils.getResourceString("inapp_payload_single.json")), null, listener);
+        assertNull(listener.removedMessageIds);
+    }
+
+    @Test
+    public void testInvalidJson() throws Exception {
+        try {
+            IterableInAppMessageParser.parse(toStream("{\"inAppMessages\":[{\"messageId\":"), null, new RecordingListener());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static InputStream toStream(String payload) {
+        return new ByteArrayInputStream(payload.getBytes(IterableRequestBody.UTF_8));
+    }
+
+    private static class RecordingListener implements IterableInAppMessageParser.Listener {
+        final List<IterableInAppMessage> messages = new ArrayList<>();
+        final List<String> html = new ArrayList<>();
+        List<String> removedMessageIds;
+
+        @Override
+        public void onMessageParsed(@NonNull IterableInAppMessage message, @Nullable String html) {
+            messages.add(message);
+            this.html.add(html);
+        }
+
+        @Override
+        public void onMessagesRemoved(@NonNull List<String> messageIds) {
+            removedMessageIds = messageIds;
+        }
+    }
+}
@@ -129,7 +129,8 @@ public class IterableInAppMessageTest {
                 when(storageInterface.getHTML(message.getMessageId())).thenReturn(storageInterfaceHTML);
                 assertNotNull(message.getContent().html);
                 assertEquals(storageInterfaceHTML, message.getContent().html);
-                verify(storageInterface, times(1)).getHTML(message.getMessageId());
+                // The content isn't kept on the message, it is read through the storage each time
+                verify(storageInterface, times(2)).getHTML(message.getMessageId());
             }
         }
     }
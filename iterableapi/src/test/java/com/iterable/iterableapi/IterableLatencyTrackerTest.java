@@ -0,0 +1,173 @@
+package com.iterable.iterableapi;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowNetworkCapabilities;
+import org.robolectric.shadows.ShadowNetworkInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.robolectric.Shadows.shadowOf;
+
+public class IterableLatencyTrackerTest extends BaseTest {
+    private static final int MIN_TIMEOUT_MS = 100;
+    private static final int MAX_TIMEOUT_MS = 30000;
+
+    private IterableLatencyTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new IterableLatencyTracker();
+    }
+
+    @Test
+    public void testDefaultTimeoutUntilFirstResponse() {
+        assertEquals(3000, getTimeout(IterableLatencyTracker.NETWORK_TYPE_WIFI));
+        assertEquals(5000, tracker.getTimeoutMs(IterableConstants.ENDPOINT_TRACK, IterableLatencyTracker.NETWORK_TYPE_WIFI, 3000, 5000, MAX_TIMEOUT_MS));
+    }
+
+    @Test
+    public void testTimeoutFollowsObservedLatency() {
+        for (int i = 0; i < 20; i++) {
+            tracker.onResponse(IterableConstants.ENDPOINT_TRACK, IterableLatencyTracker.NETWORK_TYPE_WIFI, 80);
+            tracker.onResponse(IterableConstants.ENDPOINT_TRACK, IterableLatencyTracker.NETWORK_TYPE_2G, 4000 + (i % 2) * 1000);
+        }
+
+        int wifiTimeout = getTimeout(IterableLatencyTracker.NETWORK_TYPE_WIFI);
+        int slowTimeout = getTimeout(IterableLatencyTracker.NETWORK_TYPE_2G);
+        assertTrue("Wi-Fi timeout should shrink, was " + wifiTimeout, wifiTimeout < 500);
+        assertTrue("2G timeout should grow, was " + slowTimeout, slowTimeout > 5000);
+        assertEquals(5000, tracker.getTimeoutMs(IterableConstants.ENDPOINT_TRACK, IterableLatencyTracker.NETWORK_TYPE_2G, 3000, MIN_TIMEOUT_MS, 5000));
+    }
+
+    @Test
+    public void testTimeoutBacksOffUntilResponse() {
+        tracker.onResponse(IterableConstants.ENDPOINT_TRACK, IterableLatencyTracker.NETWORK_TYPE_3G, 1000);
+        int timeout = getTimeout(IterableLatencyTracker.NETWORK_TYPE_3G);
+
+        tracker.onTimeout(IterableConstants.ENDPOINT_TRACK, IterableLatencyTracker.NETWORK_TYPE_3G);
+        assertEquals(timeout * 2, getTimeout(IterableLatencyTracker.NETWORK_TYPE_3G));
+        tracker.onTimeout(IterableConstants.ENDPOINT_TRACK, IterableLatencyTracker.NETWORK_TYPE_3G);
+        assertEquals(timeout * 4, getTimeout(IterableLatencyTracker.NETWORK_TYPE_3G));
+
+        tracker.onResponse(IterableConstants.ENDPOINT_TRACK, IterableLatencyTracker.NETWORK_TYPE_3G, 1000);
+        assertTrue(getTimeout(IterableLatencyTracker.NETWORK_TYPE_3G) <= timeout);
+    }
+
+    @Test
+    public void testNetworkType() {
+        Context context = getContext();
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        Network network = connectivityManager.getActiveNetwork();
+
+        NetworkCapabilities cellularCapabilities = ShadowNetworkCapabilities.newInstance();
+        shadowOf(cellularCapabilities).addTransportType(NetworkCapabilities.TRANSPORT_CELLULAR);
+        shadowOf(connectivityManager).setNetworkCapabilities(network, cellularCapabilities);
+        shadowOf(telephonyManager).setNetworkType(TelephonyManager.NETWORK_TYPE_LTE);
+        assertEquals(IterableLatencyTracker.NETWORK_TYPE_4G, IterableLatencyTracker.getNetworkType(context));
+
+        NetworkCapabilities wifiCapabilities = ShadowNetworkCapabilities.newInstance();
+        shadowOf(wifiCapabilities).addTransportType(NetworkCapabilities.TRANSPORT_WIFI);
+        shadowOf(connectivityManager).setNetworkCapabilities(network, wifiCapabilities);
+        assertEquals(IterableLatencyTracker.NETWORK_TYPE_WIFI, IterableLatencyTracker.getNetworkType(context));
+
+        shadowOf(connectivityManager).setDefaultNetworkActive(false);
+        assertEquals(IterableLatencyTracker.NETWORK_TYPE_NONE, IterableLatencyTracker.getNetworkType(context));
+    }
+
+    @Test
+    @Config(sdk = Build.VERSION_CODES.LOLLIPOP_MR1)
+    public void testLegacyNetworkType() {
+        Context context = getContext();
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        shadowOf(connectivityManager).setActiveNetworkInfo(ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTED,
+                ConnectivityManager.TYPE_MOBILE, TelephonyManager.NETWORK_TYPE_EDGE, true, NetworkInfo.State.CONNECTED));
+        assertEquals(IterableLatencyTracker.NETWORK_TYPE_2G, IterableLatencyTracker.getNetworkType(context));
+
+        shadowOf(connectivityManager).setActiveNetworkInfo(ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTED,
+                ConnectivityManager.TYPE_MOBILE, TelephonyManager.NETWORK_TYPE_LTE, true, NetworkInfo.State.CONNECTED));
+        assertEquals(IterableLatencyTracker.NETWORK_TYPE_4G, IterableLatencyTracker.getNetworkType(context));
+
+        shadowOf(connectivityManager).setActiveNetworkInfo(ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTED,
+                ConnectivityManager.TYPE_WIFI, 0, true, NetworkInfo.State.CONNECTED));
+        assertEquals(IterableLatencyTracker.NETWORK_TYPE_WIFI, IterableLatencyTracker.getNetworkType(context));
+
+        shadowOf(connectivityManager).setActiveNetworkInfo(null);
+        assertEquals(IterableLatencyTracker.NETWORK_TYPE_NONE, IterableLatencyTracker.getNetworkType(context));
+    }
+
+    @Test
+    public void testRequestsUseAdaptiveTimeouts() throws Exception {
+        final List<IterableHttpTransport.Request> requests = new ArrayList<>();
+        IterableApi.sharedInstance = new IterableApi(mock(IterableInAppManager.class));
+        IterableApi.sharedInstance.config = new IterableConfig.Builder()
+                .setAdaptiveTimeoutsEnabled(true)
+                .setAdaptiveTimeoutBounds(MIN_TIMEOUT_MS, MAX_TIMEOUT_MS)
+                .setHttpTransport(new IterableHttpTransport() {
+                    @NonNull
+                    @Override
+                    public Response execute(@NonNull Request request) throws IOException {
+                        requests.add(request);
+                        if (requests.size() == 3) {
+                            throw new SocketTimeoutException("timeout");
+                        }
+                        SystemClock.setCurrentTimeMillis(SystemClock.uptimeMillis() + 500);
+                        return new Response(200, Collections.<String, List<String>>emptyMap(), new ByteArrayInputStream("{}".getBytes()));
+                    }
+                })
+                .build();
+
+        for (int i = 0; i < 4; i++) {
+            IterableRequestTask.executeApiRequest(new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject(), IterableApiRequest.POST, null, null, null));
+        }
+
+        assertEquals(IterableRequestTask.POST_REQUEST_DEFAULT_TIMEOUT_MS, requests.get(0).getReadTimeoutMs());
+        // 500 ms latency, with half of it as variation after the first response
+        assertEquals(1500, requests.get(1).getReadTimeoutMs());
+        assertEquals(1500, requests.get(1).getConnectTimeoutMs());
+        assertTrue(requests.get(2).getReadTimeoutMs() < 1500);
+        assertEquals(requests.get(2).getReadTimeoutMs() * 2, requests.get(3).getReadTimeoutMs());
+
+        List<IterableLatencyEstimate> estimates = IterableApi.getInstance().getRequestLatencyEstimates();
+        assertEquals(1, estimates.size());
+        assertEquals(IterableConstants.ENDPOINT_TRACK, estimates.get(0).getEndpoint());
+        assertEquals(500, estimates.get(0).getSmoothedLatencyMs());
+        assertEquals(3, estimates.get(0).getSampleCount());
+        assertEquals(1, estimates.get(0).getTimeoutCount());
+    }
+
+    @Test
+    public void testFixedTimeoutsByDefault() {
+        IterableApi.sharedInstance = new IterableApi(mock(IterableInAppManager.class));
+        assertNull(IterableApi.getInstance().getLatencyTracker());
+        assertTrue(IterableApi.getInstance().getRequestLatencyEstimates().isEmpty());
+    }
+
+    private int getTimeout(String networkType) {
+        return tracker.getTimeoutMs(IterableConstants.ENDPOINT_TRACK, networkType, 3000, MIN_TIMEOUT_MS, MAX_TIMEOUT_MS);
+    }
+}
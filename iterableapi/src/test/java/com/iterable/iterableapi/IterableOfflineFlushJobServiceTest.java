@@ -0,0 +1,41 @@
+package com.iterable.iterableapi;
+
+import android.app.job.JobInfo;
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IterableOfflineFlushJobServiceTest extends BaseTest {
+
+    @Test
+    public void testJobRequiresNetworkByDefault() {
+        Context context = ApplicationProvider.getApplicationContext();
+        JobInfo jobInfo = IterableOfflineFlushJobService.buildJobInfo(context, new IterableConfig.Builder().build());
+
+        assertEquals(IterableOfflineFlushJobService.JOB_ID, jobInfo.getId());
+        assertEquals(JobInfo.NETWORK_TYPE_ANY, jobInfo.getNetworkType());
+        assertFalse(jobInfo.isRequireCharging());
+        assertEquals(IterableConfig.DEFAULT_OFFLINE_BACKGROUND_FLUSH_TIME_BUDGET_MS, jobInfo.getExtras().getLong(IterableOfflineFlushJobService.EXTRA_TIME_BUDGET_MS));
+    }
+
+    @Test
+    public void testJobAppliesConfiguredConstraints() {
+        Context context = ApplicationProvider.getApplicationContext();
+        IterableConfig config = new IterableConfig.Builder()
+                .setOfflineBackgroundFlushEnabled(true)
+                .setOfflineBackgroundFlushConstraints(true, true)
+                .setOfflineBackgroundFlushTimeBudget(10000)
+                .build();
+        JobInfo jobInfo = IterableOfflineFlushJobService.buildJobInfo(context, config);
+
+        assertEquals(JobInfo.NETWORK_TYPE_UNMETERED, jobInfo.getNetworkType());
+        assertTrue(jobInfo.isRequireCharging());
+        assertEquals(10000, jobInfo.getExtras().getLong(IterableOfflineFlushJobService.EXTRA_TIME_BUDGET_MS));
+    }
+}
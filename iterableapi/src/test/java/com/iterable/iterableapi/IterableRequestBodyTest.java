@@ -0,0 +1,66 @@
+package com.iterable.iterableapi;
+
+import com.iterable.iterableapi.unit.TestRunner;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+@RunWith(TestRunner.class)
+public class IterableRequestBodyTest {
+
+    @Test
+    public void testWithFieldAddsFieldToObject() throws Exception {
+        JSONObject body = new JSONObject(new String(IterableRequestBody.withField("{\"eventName\":\"event\"}".getBytes("UTF-8"), IterableConstants.KEY_CREATED_AT, 1234), "UTF-8"));
+        JSONAssert.assertEquals("{\"eventName\":\"event\",\"createdAt\":1234}", body, JSONCompareMode.STRICT);
+
+        JSONObject emptyBody = new JSONObject(new String(IterableRequestBody.withField("{}".getBytes("UTF-8"), IterableConstants.KEY_CREATED_AT, 1234), "UTF-8"));
+        JSONAssert.assertEquals("{\"createdAt\":1234}", emptyBody, JSONCompareMode.STRICT);
+    }
+
+    @Test
+    public void testArrayField() throws Exception {
+        byte[] body = IterableRequestBody.arrayField(IterableConstants.KEY_EVENTS, Arrays.asList("{\"a\":1}".getBytes("UTF-8"), "{\"b\":\"\\u00e9\"}".getBytes("UTF-8")));
+        JSONArray events = new JSONObject(new String(body, "UTF-8")).getJSONArray(IterableConstants.KEY_EVENTS);
+        assertEquals(2, events.length());
+        assertEquals("\u00e9", events.getJSONObject(1).getString("b"));
+    }
+
+    @Test
+    public void testToRequestJsonMatchesSerializedRequest() throws Exception {
+        JSONObject data = new JSONObject().put(IterableConstants.KEY_EVENT_NAME, "ev\"ent");
+        IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, data, IterableApiRequest.POST, "authToken", null, null);
+        String requestJson = IterableRequestBody.toRequestJson("apiKey", IterableConstants.ENDPOINT_TRACK, "authToken", data.toString().getBytes("UTF-8"));
+        JSONAssert.assertEquals(request.toJSONObject(), new JSONObject(requestJson), JSONCompareMode.STRICT);
+
+        IterableApiRequest anonymousRequest = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, data, IterableApiRequest.POST, null, null, null);
+        String anonymousRequestJson = IterableRequestBody.toRequestJson("apiKey", IterableConstants.ENDPOINT_TRACK, null, data.toString().getBytes("UTF-8"));
+        JSONAssert.assertEquals(anonymousRequest.toJSONObject(), new JSONObject(anonymousRequestJson), JSONCompareMode.STRICT);
+    }
+
+    @Test
+    public void testStoredBodyMatchesParsedRequest() throws Exception {
+        JSONObject dataFields = new JSONObject();
+        for (int i = 0; i < 20; i++) {
+            dataFields.put("field" + i, "value" + i);
+        }
+        JSONObject body = new JSONObject().put(IterableConstants.KEY_EVENT_NAME, "event").put(IterableConstants.KEY_DATA_FIELDS, dataFields);
+        IterableTask task = new IterableTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API,
+                new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, body, IterableApiRequest.POST, "authToken", null, null).toJSONObject().toString());
+        task.requestBody = body.toString().getBytes("UTF-8");
+        IterableTaskRunner taskRunner = new IterableTaskRunner(mock(IterableTaskStorage.class), mock(IterableActivityMonitor.class), mock(IterableNetworkConnectivityManager.class), mock(HealthMonitor.class));
+
+        // The stored body is sent as is, and must match the body of the previously parsed request
+        IterableApiRequest parsedRequest = IterableApiRequest.fromJSON(taskRunner.getTaskDataWithDate(task), null, null);
+        JSONObject storedBody = new JSONObject(new String(IterableTaskRunner.getRequestBodyWithDate(task), "UTF-8"));
+        JSONAssert.assertEquals(parsedRequest.json, storedBody, JSONCompareMode.STRICT);
+    }
+}
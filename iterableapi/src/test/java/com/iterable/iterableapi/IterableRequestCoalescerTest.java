@@ -0,0 +1,95 @@
+package com.iterable.iterableapi;
+
+import com.iterable.iterableapi.unit.TestRunner;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(TestRunner.class)
+public class IterableRequestCoalescerTest {
+
+    @Test
+    public void testCoalescableEndpoints() {
+        assertTrue(IterableRequestCoalescer.isCoalescable(IterableConstants.ENDPOINT_UPDATE_CART));
+        assertTrue(IterableRequestCoalescer.isCoalescable(IterableConstants.ENDPOINT_UPDATE_USER));
+        assertTrue(IterableRequestCoalescer.isCoalescable(IterableConstants.ENDPOINT_UPDATE_USER_SUBS));
+        assertFalse(IterableRequestCoalescer.isCoalescable(IterableConstants.ENDPOINT_TRACK));
+    }
+
+    @Test
+    public void testUpdateCartIsReplaced() throws Exception {
+        JSONObject pending = request(IterableConstants.ENDPOINT_UPDATE_CART, "apiKey", new JSONObject("{\"user\":{\"email\":\"user@example.com\"},\"items\":[{\"id\":\"1\"}]}"));
+        JSONObject newer = request(IterableConstants.ENDPOINT_UPDATE_CART, "apiKey", new JSONObject("{\"user\":{\"email\":\"user@example.com\"},\"items\":[{\"id\":\"2\"}]}"));
+
+        JSONObject result = IterableRequestCoalescer.coalesce(pending, newer);
+
+        assertNotNull(result);
+        JSONAssert.assertEquals(newer, result, JSONCompareMode.STRICT);
+    }
+
+    @Test
+    public void testUpdateUserDataFieldsAreMergedShallowly() throws Exception {
+        JSONObject pending = request(IterableConstants.ENDPOINT_UPDATE_USER, "apiKey", new JSONObject("{\"email\":\"user@example.com\",\"mergeNestedObjects\":false,\"dataFields\":{\"a\":1,\"nested\":{\"x\":1}}}"));
+        JSONObject newer = request(IterableConstants.ENDPOINT_UPDATE_USER, "apiKey", new JSONObject("{\"email\":\"user@example.com\",\"mergeNestedObjects\":false,\"dataFields\":{\"b\":2,\"nested\":{\"y\":2}}}"));
+
+        JSONObject result = IterableRequestCoalescer.coalesce(pending, newer);
+
+        assertNotNull(result);
+        JSONAssert.assertEquals("{\"a\":1,\"b\":2,\"nested\":{\"y\":2}}", result.getJSONObject("data").getJSONObject("dataFields"), JSONCompareMode.STRICT);
+    }
+
+    @Test
+    public void testUpdateUserDataFieldsAreMergedDeeplyWithMergeNestedObjects() throws Exception {
+        JSONObject pending = request(IterableConstants.ENDPOINT_UPDATE_USER, "apiKey", new JSONObject("{\"email\":\"user@example.com\",\"mergeNestedObjects\":true,\"dataFields\":{\"a\":1,\"nested\":{\"x\":1,\"y\":1}}}"));
+        JSONObject newer = request(IterableConstants.ENDPOINT_UPDATE_USER, "apiKey", new JSONObject("{\"email\":\"user@example.com\",\"mergeNestedObjects\":true,\"dataFields\":{\"nested\":{\"y\":2}}}"));
+
+        JSONObject result = IterableRequestCoalescer.coalesce(pending, newer);
+
+        assertNotNull(result);
+        JSONAssert.assertEquals("{\"a\":1,\"nested\":{\"x\":1,\"y\":2}}", result.getJSONObject("data").getJSONObject("dataFields"), JSONCompareMode.STRICT);
+        assertTrue(result.getJSONObject("data").getBoolean("mergeNestedObjects"));
+    }
+
+    @Test
+    public void testUpdateUserWithDifferentMergeModesIsNotCoalesced() throws Exception {
+        JSONObject pending = request(IterableConstants.ENDPOINT_UPDATE_USER, "apiKey", new JSONObject("{\"email\":\"user@example.com\",\"mergeNestedObjects\":false,\"dataFields\":{\"a\":1}}"));
+        JSONObject newer = request(IterableConstants.ENDPOINT_UPDATE_USER, "apiKey", new JSONObject("{\"email\":\"user@example.com\",\"mergeNestedObjects\":true,\"dataFields\":{\"b\":2}}"));
+
+        assertNull(IterableRequestCoalescer.coalesce(pending, newer));
+    }
+
+    @Test
+    public void testRequestsForDifferentUsersOrKeysAreNotCoalesced() throws Exception {
+        JSONObject pending = request(IterableConstants.ENDPOINT_UPDATE_CART, "apiKey", new JSONObject("{\"user\":{\"email\":\"user@example.com\"},\"items\":[]}"));
+        JSONObject otherUser = request(IterableConstants.ENDPOINT_UPDATE_CART, "apiKey", new JSONObject("{\"user\":{\"email\":\"other@example.com\"},\"items\":[]}"));
+        JSONObject otherKey = request(IterableConstants.ENDPOINT_UPDATE_CART, "otherApiKey", new JSONObject("{\"user\":{\"email\":\"user@example.com\"},\"items\":[]}"));
+
+        assertNull(IterableRequestCoalescer.coalesce(pending, otherUser));
+        assertNull(IterableRequestCoalescer.coalesce(pending, otherKey));
+    }
+
+    @Test
+    public void testUpdateSubscriptionsKeepsListsNotInNewerRequest() throws Exception {
+        JSONObject pending = request(IterableConstants.ENDPOINT_UPDATE_USER_SUBS, "apiKey", new JSONObject("{\"userId\":\"user\",\"emailListIds\":[1],\"unsubscribedChannelIds\":[2]}"));
+        JSONObject newer = request(IterableConstants.ENDPOINT_UPDATE_USER_SUBS, "apiKey", new JSONObject("{\"userId\":\"user\",\"emailListIds\":[3]}"));
+
+        JSONObject result = IterableRequestCoalescer.coalesce(pending, newer);
+
+        assertNotNull(result);
+        JSONAssert.assertEquals("{\"userId\":\"user\",\"emailListIds\":[3],\"unsubscribedChannelIds\":[2]}", result.getJSONObject("data"), JSONCompareMode.STRICT);
+        assertEquals(IterableConstants.ENDPOINT_UPDATE_USER_SUBS, result.getString("resourcePath"));
+    }
+
+    private static JSONObject request(String resourcePath, String apiKey, JSONObject data) throws Exception {
+        return new IterableApiRequest(apiKey, resourcePath, data, IterableApiRequest.POST, null, null, null).toJSONObject();
+    }
+}
@@ -0,0 +1,115 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.android.util.concurrent.InlineExecutorService;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static android.os.Looper.getMainLooper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+public class IterableRequestExecutorTest extends BaseTest {
+    private MockWebServer server;
+
+    @Before
+    public void setUp() {
+        server = new MockWebServer();
+        IterableApi.overrideURLEndpointPath(server.url("").toString());
+        IterableApi.sharedInstance = new IterableApi(mock(IterableInAppManager.class));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        server = null;
+    }
+
+    @Test
+    public void testHigherPriorityRequestsAreSentFirst() throws Exception {
+        IterableRequestExecutor executor = new IterableRequestExecutor(1, 1);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        }
+
+        executor.execute(createPostRequest("first", IterableRequestPriority.NORMAL));
+        assertNotNull(server.takeRequest(1, TimeUnit.SECONDS));
+        executor.execute(createPostRequest("low", IterableRequestPriority.LOW));
+        executor.execute(createPostRequest("normal", IterableRequestPriority.NORMAL));
+        executor.execute(createPostRequest("high", IterableRequestPriority.HIGH));
+
+        assertEquals("/high", server.takeRequest(1, TimeUnit.SECONDS).getPath());
+        assertEquals("/normal", server.takeRequest(1, TimeUnit.SECONDS).getPath());
+        assertEquals("/low", server.takeRequest(1, TimeUnit.SECONDS).getPath());
+    }
+
+    @Test
+    public void testPostRequestsAreSentInOrderByDefault() throws Exception {
+        IterableRequestExecutor executor = new IterableRequestExecutor(IterableRequestExecutor.DEFAULT_POOL_SIZE, IterableRequestExecutor.DEFAULT_POST_POOL_SIZE);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        executor.execute(createPostRequest("updateEmail", IterableRequestPriority.NORMAL));
+        executor.execute(createPostRequest("track", IterableRequestPriority.NORMAL));
+
+        assertEquals("/updateEmail", server.takeRequest(1, TimeUnit.SECONDS).getPath());
+        assertNull(server.takeRequest(100, TimeUnit.MILLISECONDS));
+        assertEquals("/track", server.takeRequest(1, TimeUnit.SECONDS).getPath());
+    }
+
+    @Test
+    public void testSlowGetRequestDoesNotBlockPostRequests() throws Exception {
+        IterableRequestExecutor executor = new IterableRequestExecutor(1, 1);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}").setHeadersDelay(2, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        executor.execute(new IterableApiRequest("apiKey", "slowGet", new JSONObject(), IterableApiRequest.GET, null, null));
+        assertNotNull(server.takeRequest(1, TimeUnit.SECONDS));
+        executor.execute(createPostRequest("post", IterableRequestPriority.NORMAL));
+
+        RecordedRequest postRequest = server.takeRequest(1, TimeUnit.SECONDS);
+        assertNotNull(postRequest);
+        assertEquals("/post", postRequest.getPath());
+    }
+
+    @Test
+    public void testServerErrorIsRetried() throws Exception {
+        IterableRequestExecutor executor = new IterableRequestExecutor(new InlineExecutorService(), new InlineExecutorService(), Executors.newSingleThreadScheduledExecutor());
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("{}"));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        IterableHelper.SuccessHandler successHandler = mock(IterableHelper.SuccessHandler.class);
+        IterableHelper.FailureHandler failureHandler = mock(IterableHelper.FailureHandler.class);
+
+        executor.execute(new IterableApiRequest("apiKey", "retry", new JSONObject(), IterableApiRequest.POST, null, successHandler, failureHandler));
+        shadowOf(getMainLooper()).idle();
+
+        assertEquals(2, server.getRequestCount());
+        verify(successHandler).onSuccess(any(JSONObject.class));
+        verify(failureHandler, never()).onFailure(any(String.class), any(JSONObject.class));
+    }
+
+    @NonNull
+    private static IterableApiRequest createPostRequest(@NonNull String resourcePath, @NonNull IterableRequestPriority priority) {
+        IterableApiRequest request = new IterableApiRequest("apiKey", resourcePath, new JSONObject(), IterableApiRequest.POST, null, null, null);
+        request.setPriority(priority);
+        return request;
+    }
+}
@@ -0,0 +1,83 @@
+package com.iterable.iterableapi;
+
+import com.iterable.iterableapi.unit.TestRunner;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.security.cert.CertPathValidatorException;
+import java.util.Random;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(TestRunner.class)
+public class IterableRetryPolicyTest {
+    private final IterableRetryPolicy retryPolicy = new IterableRetryPolicy(1000, 60000, 5, new Random(0));
+
+    @Test
+    public void testRetriableResponses() {
+        assertTrue(retryPolicy.isRetriable(IterableApiResponse.failure(500, "", null, "Internal Server Error")));
+        assertTrue(retryPolicy.isRetriable(IterableApiResponse.failure(503, "", null, "Internal Server Error")));
+        assertTrue(retryPolicy.isRetriable(IterableApiResponse.failure(429, "", null, "Invalid Request")));
+        assertTrue(retryPolicy.isRetriable(IterableApiResponse.failure(408, "", null, "Invalid Request")));
+        assertTrue(retryPolicy.isRetriable(IterableApiResponse.transportFailure(null, new ConnectException("failed to connect"))));
+        assertTrue(retryPolicy.isRetriable(IterableApiResponse.transportFailure(null, new SocketTimeoutException("timeout"))));
+    }
+
+    @Test
+    public void testNonRetriableResponses() {
+        assertFalse(retryPolicy.isRetriable(null));
+        assertFalse(retryPolicy.isRetriable(IterableApiResponse.success(200, "{}", new JSONObject())));
+        assertFalse(retryPolicy.isRetriable(IterableApiResponse.failure(400, "", null, "Invalid Request")));
+        assertFalse(retryPolicy.isRetriable(IterableApiResponse.failure(401, "", null, "Invalid API Key")));
+        assertFalse(retryPolicy.isRetriable(IterableApiResponse.failure(200, "", null, "No data received")));
+        assertFalse(retryPolicy.isRetriable(IterableApiResponse.failure(0, "", null, "JSON error")));
+        assertFalse(retryPolicy.isRetriable(IterableApiResponse.transportFailure(null, new SSLPeerUnverifiedException("unverified"))));
+        assertFalse(retryPolicy.isRetriable(IterableApiResponse.transportFailure(null, new SSLHandshakeException("handshake failed"))));
+        IOException certificateFailure = new IOException("certificate");
+        certificateFailure.initCause(new CertPathValidatorException("expired"));
+        assertFalse(retryPolicy.isRetriable(IterableApiResponse.transportFailure(null, certificateFailure)));
+    }
+
+    @Test
+    public void testExponentialBackoffWithJitter() {
+        IterableApiResponse response = IterableApiResponse.failure(500, "", null, "Internal Server Error");
+        for (int attempts = 1; attempts <= 10; attempts++) {
+            long expectedDelayMs = Math.min(60000, 1000L << (attempts - 1));
+            long delayMs = retryPolicy.getRetryDelayMs(attempts, response);
+            assertTrue(delayMs >= expectedDelayMs / 2);
+            assertTrue(delayMs <= expectedDelayMs);
+        }
+        assertTrue(retryPolicy.getRetryDelayMs(100, response) <= 60000);
+    }
+
+    @Test
+    public void testRetryAfterHeader() {
+        assertEquals(30000, retryPolicy.getRetryDelayMs(1, IterableApiResponse.failure(429, "", null, "", "30")));
+        assertEquals(60000, retryPolicy.getRetryDelayMs(1, IterableApiResponse.failure(429, "", null, "", "3600")));
+        assertEquals(5000, IterableRetryPolicy.parseRetryAfterMs("Wed, 21 Oct 2015 07:28:05 GMT", 1445412480000L));
+        assertEquals(-1, IterableRetryPolicy.parseRetryAfterMs("soon", 0));
+        assertEquals(-1, IterableRetryPolicy.parseRetryAfterMs(null, 0));
+    }
+
+    @Test
+    public void testAttemptCap() {
+        IterableApiResponse serverError = IterableApiResponse.failure(500, "", null, "Internal Server Error");
+        assertTrue(retryPolicy.shouldRetry(4, serverError));
+        assertFalse(retryPolicy.shouldRetry(5, serverError));
+
+        // Connection failures and timeouts get more attempts, but are capped as well
+        IterableApiResponse timeout = IterableApiResponse.transportFailure(null, new SocketTimeoutException("timeout"));
+        assertTrue(retryPolicy.shouldRetry(14, timeout));
+        assertFalse(retryPolicy.shouldRetry(15, timeout));
+    }
+}
@@ -0,0 +1,123 @@
+package com.iterable.iterableapi;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class IterableSingleFlightTest extends BaseTest {
+    private IterableSingleFlight singleFlight;
+    private List<PendingCall> calls;
+
+    private static class PendingCall {
+        IterableHelper.SuccessHandler onSuccess;
+        IterableHelper.FailureHandler onFailure;
+    }
+
+    private class TestCall implements IterableSingleFlight.Call {
+        @Override
+        public void execute(@NonNull IterableHelper.SuccessHandler onSuccess, @NonNull IterableHelper.FailureHandler onFailure) {
+            PendingCall call = new PendingCall();
+            call.onSuccess = onSuccess;
+            call.onFailure = onFailure;
+            calls.add(call);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        singleFlight = new IterableSingleFlight();
+        calls = new ArrayList<>();
+    }
+
+    @Test
+    public void testConcurrentCallsShareTrailingRequest() throws Exception {
+        IterableHelper.SuccessHandler firstHandler = mock(IterableHelper.SuccessHandler.class);
+        IterableHelper.SuccessHandler secondHandler = mock(IterableHelper.SuccessHandler.class);
+        IterableHelper.SuccessHandler thirdHandler = mock(IterableHelper.SuccessHandler.class);
+
+        singleFlight.execute("key", new TestCall(), firstHandler, null);
+        singleFlight.execute("key", new TestCall(), secondHandler, null);
+        singleFlight.execute("key", new TestCall(), thirdHandler, null);
+        assertEquals(1, calls.size());
+
+        JSONObject firstResult = new JSONObject("{\"result\":1}");
+        calls.get(0).onSuccess.onSuccess(firstResult);
+        verify(firstHandler).onSuccess(firstResult);
+        verify(secondHandler, never()).onSuccess(any(JSONObject.class));
+        assertEquals(2, calls.size());
+
+        JSONObject trailingResult = new JSONObject("{\"result\":2}");
+        calls.get(1).onSuccess.onSuccess(trailingResult);
+        verify(firstHandler, times(1)).onSuccess(any(JSONObject.class));
+        verify(secondHandler).onSuccess(trailingResult);
+        verify(thirdHandler).onSuccess(trailingResult);
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testNoTrailingRequestWithoutNewCalls() throws Exception {
+        singleFlight.execute("key", new TestCall(), null, null);
+        calls.get(0).onSuccess.onSuccess(new JSONObject());
+        assertEquals(1, calls.size());
+
+        singleFlight.execute("key", new TestCall(), null, null);
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testDifferentKeysAreNotCoalesced() throws Exception {
+        singleFlight.execute("key1", new TestCall(), null, null);
+        singleFlight.execute("key2", new TestCall(), null, null);
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testFailureIsSharedAndStartsTrailingRequest() throws Exception {
+        IterableHelper.FailureHandler firstHandler = mock(IterableHelper.FailureHandler.class);
+        IterableHelper.FailureHandler secondHandler = mock(IterableHelper.FailureHandler.class);
+        singleFlight.execute("key", new TestCall(), null, firstHandler);
+        singleFlight.execute("key", new TestCall(), null, secondHandler);
+
+        calls.get(0).onFailure.onFailure("error", null);
+        verify(firstHandler).onFailure(eq("error"), nullable(JSONObject.class));
+        verify(secondHandler, never()).onFailure(any(String.class), nullable(JSONObject.class));
+        assertEquals(2, calls.size());
+
+        // Completing the same request again has no effect
+        calls.get(0).onSuccess.onSuccess(new JSONObject());
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testLostRequestIsReplaced() throws Exception {
+        singleFlight.execute("key", new TestCall(), null, null);
+        singleFlight.execute("key", new TestCall(), null, null);
+        assertEquals(1, calls.size());
+
+        doReturn(System.currentTimeMillis() + IterableSingleFlight.MAX_FLIGHT_DURATION_MS + 1000).when(getIterableUtilSpy()).currentTimeMillis();
+        IterableHelper.SuccessHandler handler = mock(IterableHelper.SuccessHandler.class);
+        singleFlight.execute("key", new TestCall(), handler, null);
+        assertEquals(2, calls.size());
+
+        // The lost request completing late doesn't start another one
+        calls.get(0).onSuccess.onSuccess(new JSONObject());
+        assertEquals(2, calls.size());
+        calls.get(1).onSuccess.onSuccess(new JSONObject());
+        verify(handler).onSuccess(any(JSONObject.class));
+    }
+}
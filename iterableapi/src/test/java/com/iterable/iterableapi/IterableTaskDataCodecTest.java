@@ -0,0 +1,53 @@
+package com.iterable.iterableapi;
+
+import com.iterable.iterableapi.unit.TestRunner;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(TestRunner.class)
+public class IterableTaskDataCodecTest {
+
+    @Test
+    public void testPlainRoundTrip() throws Exception {
+        IterableTaskDataCodec codec = new IterableTaskDataCodec(false);
+        String data = "{\"eventName\":\"test\"}";
+        byte[] encoded = codec.encode(data);
+        assertEquals('{', encoded[0]);
+        assertEquals(data, IterableTaskDataCodec.decode(encoded));
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws Exception {
+        IterableTaskDataCodec codec = new IterableTaskDataCodec(true);
+        String data = createTrackPurchasePayload(20);
+        byte[] encoded = codec.encode(data);
+        assertEquals(IterableTaskDataCodec.FORMAT_DEFLATE, encoded[0]);
+        assertEquals(data, IterableTaskDataCodec.decode(encoded));
+    }
+
+    @Test
+    public void testCompressionRatio() throws Exception {
+        IterableTaskDataCodec codec = new IterableTaskDataCodec(true);
+        String data = createTrackPurchasePayload(20);
+        int plainSize = data.getBytes("UTF-8").length;
+        int compressedSize = codec.encode(data).length;
+        assertTrue(compressedSize < plainSize / 2);
+    }
+
+    private String createTrackPurchasePayload(int itemCount) throws Exception {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < itemCount; i++) {
+            items.put(new CommerceItem("sku" + i, "Product name " + i, 9.99, 1).toJSONObject());
+        }
+        JSONObject data = new JSONObject();
+        data.put(IterableConstants.KEY_ITEMS, items);
+        data.put(IterableConstants.KEY_TOTAL, 9.99 * itemCount);
+        return new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK_PURCHASE, data, "POST", null, null, null).toJSONObject().toString();
+    }
+}
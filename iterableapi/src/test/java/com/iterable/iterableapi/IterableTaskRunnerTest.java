@@ -1,27 +1,43 @@
 package com.iterable.iterableapi;
 
+import androidx.test.core.app.ApplicationProvider;
+
 import com.iterable.iterableapi.unit.TestRunner;
 
 import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 
 import static android.os.Looper.getMainLooper;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -30,6 +46,9 @@ import static org.robolectric.Shadows.shadowOf;
 
 @RunWith(TestRunner.class)
 public class IterableTaskRunnerTest {
+    @Rule
+    public IterableUtilRule utilsRule = new IterableUtilRule();
+
     private IterableTaskRunner taskRunner;
     private IterableTaskStorage mockTaskStorage;
     private IterableActivityMonitor mockActivityMonitor;
@@ -145,6 +164,99 @@ public class IterableTaskRunnerTest {
         verifyNoInteractions(mockTaskStorage);
     }
 
+    @Test
+    public void testBackgroundFlushDrainsQueueInBackground() throws Exception {
+        IterableApiRequest request = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null);
+        IterableTask task = new IterableTask("testTask", IterableTaskType.API, request.toJSONObject().toString());
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(task).thenReturn(null);
+        when(mockTaskStorage.getNextScheduledTime()).thenReturn(0L);
+        when(mockActivityMonitor.isInForeground()).thenReturn(false);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        IterableTaskRunner.BackgroundFlushCallback callback = mock(IterableTaskRunner.BackgroundFlushCallback.class);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        taskRunner.startBackgroundFlush(30000, callback);
+        runHandlerTasks(taskRunner);
+
+        assertNotNull(server.takeRequest(1, TimeUnit.SECONDS));
+        verify(mockTaskStorage).deleteTask(task.id);
+        verify(callback).onBackgroundFlushFinished(false);
+    }
+
+    @Test
+    public void testBackgroundFlushStopsWhenTimeBudgetRunsOut() throws Exception {
+        IterableApiRequest request = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null);
+        IterableTask task = new IterableTask("testTask", IterableTaskType.API, request.toJSONObject().toString());
+        when(mockTaskStorage.getNextScheduledTask()).thenReturn(task);
+        when(mockTaskStorage.getNextScheduledTime()).thenReturn(task.scheduledAt);
+        when(mockActivityMonitor.isInForeground()).thenReturn(false);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        IterableTaskRunner.BackgroundFlushCallback callback = mock(IterableTaskRunner.BackgroundFlushCallback.class);
+
+        taskRunner.startBackgroundFlush(0, callback);
+        runHandlerTasks(taskRunner);
+
+        assertNull(server.takeRequest(100, TimeUnit.MILLISECONDS));
+        verify(callback).onBackgroundFlushFinished(true);
+
+        // Regular processing still waits for the app to come to the foreground
+        taskRunner.onTaskCreated(null);
+        runHandlerTasks(taskRunner);
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void testSwitchToBackgroundSchedulesBackgroundFlushForQueuedTasks() throws Exception {
+        IterableTaskRunner.BackgroundFlushScheduler scheduler = mock(IterableTaskRunner.BackgroundFlushScheduler.class);
+        taskRunner.setBackgroundFlushScheduler(scheduler);
+
+        when(mockTaskStorage.getNextScheduledTime()).thenReturn(0L);
+        taskRunner.onSwitchToBackground();
+        runHandlerTasks(taskRunner);
+        verify(scheduler, never()).scheduleBackgroundFlush();
+
+        when(mockTaskStorage.getNextScheduledTime()).thenReturn(1000L);
+        taskRunner.onSwitchToBackground();
+        runHandlerTasks(taskRunner);
+        verify(scheduler).scheduleBackgroundFlush();
+    }
+
+    @Test
+    public void testProcessingResumesWhenDatabaseIsProbed() throws Exception {
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(false);
+        when(mockHealthMonitor.getTimeUntilProbe()).thenReturn(5000L);
+
+        taskRunner.onNetworkConnected();
+        runHandlerTasks(taskRunner);
+        verify(mockTaskStorage, never()).getNextScheduledTask();
+        verify(mockHealthMonitor, never()).probeIfDue();
+
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        shadowOf(taskRunner.handler.getLooper()).idleFor(5000, TimeUnit.MILLISECONDS);
+        verify(mockHealthMonitor).probeIfDue();
+        verify(mockTaskStorage).getNextScheduledTask();
+    }
+
+    @Test
+    public void testDatabaseIsProbedOnNetworkThreadWhenCircuitOpens() throws Exception {
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        when(mockHealthMonitor.getTimeUntilProbe()).thenReturn(5000L);
+
+        taskRunner.onStateChanged(HealthMonitor.State.CLOSED, HealthMonitor.State.OPEN);
+        runHandlerTasks(taskRunner);
+        verify(mockHealthMonitor, never()).probeIfDue();
+
+        shadowOf(taskRunner.handler.getLooper()).idleFor(5000, TimeUnit.MILLISECONDS);
+        verify(mockHealthMonitor).probeIfDue();
+        verify(mockTaskStorage).getNextScheduledTask();
+    }
+
     @Test
     public void testIfNetworkCheckedBeforeProcessingTask() throws Exception {
         IterableApiRequest request = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null);
@@ -161,6 +273,308 @@ public class IterableTaskRunnerTest {
         verify(mockNetworkConnectivityManager, times(2)).isConnected();
     }
 
+    @Test
+    public void testBatchedDrainDeletesFinishedTasksTogether() throws Exception {
+        IterableTaskRunner batchedTaskRunner = new IterableTaskRunner(mockTaskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, new IterableConfig.Builder().setOfflineDrainBatchSize(10).build());
+        IterableApiRequest request = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null);
+        IterableTask task1 = new IterableTask("testTask", IterableTaskType.API, request.toJSONObject().toString());
+        IterableTask task2 = new IterableTask("testTask", IterableTaskType.API, request.toJSONObject().toString());
+        when(mockTaskStorage.getNextScheduledTasks(anyInt())).thenReturn(new ArrayList<>(Arrays.asList(task1, task2))).thenReturn(new ArrayList<IterableTask>());
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        batchedTaskRunner.onTaskCreated(null);
+        runHandlerTasks(batchedTaskRunner);
+
+        assertNotNull(server.takeRequest(1, TimeUnit.SECONDS));
+        assertNotNull(server.takeRequest(1, TimeUnit.SECONDS));
+        verify(mockTaskStorage).getNextScheduledTasks(10);
+        verify(mockTaskStorage).deleteTasks(Arrays.asList(task1.id, task2.id));
+        verify(mockTaskStorage, never()).deleteTask(any(String.class));
+        verify(mockTaskStorage, never()).getNextScheduledTask();
+    }
+
+    @Test
+    public void testQueuedTrackEventsAreSentAsBulkRequest() throws Exception {
+        IterableConfig config = new IterableConfig.Builder().setTrackBulkMaxBatchSize(10).build();
+        IterableTaskRunner bulkTaskRunner = new IterableTaskRunner(mockTaskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, config);
+        ArrayList<IterableTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            JSONObject event = new JSONObject().put(IterableConstants.KEY_EVENT_NAME, "event" + i);
+            IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, event, "POST", null, null, null);
+            tasks.add(new IterableTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, request.toJSONObject().toString()));
+        }
+        IterableApiRequest purchaseRequest = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK_PURCHASE, new JSONObject(), "POST", null, null, null);
+        tasks.add(new IterableTask(IterableConstants.ENDPOINT_TRACK_PURCHASE, IterableTaskType.API, purchaseRequest.toJSONObject().toString()));
+        when(mockTaskStorage.getNextScheduledTasks(anyInt())).thenReturn(tasks).thenReturn(new ArrayList<IterableTask>());
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        IterableTaskRunner.TaskCompletedListener taskCompletedListener = mock(IterableTaskRunner.TaskCompletedListener.class);
+        bulkTaskRunner.addTaskCompletedListener(taskCompletedListener);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        bulkTaskRunner.onTaskCreated(null);
+        runHandlerTasks(bulkTaskRunner);
+
+        RecordedRequest bulkRequest = server.takeRequest(1, TimeUnit.SECONDS);
+        assertEquals("/" + IterableConstants.ENDPOINT_TRACK_BULK, bulkRequest.getPath());
+        JSONObject bulkBody = new JSONObject(bulkRequest.getBody().readUtf8());
+        assertEquals(3, bulkBody.getJSONArray(IterableConstants.KEY_EVENTS).length());
+        assertEquals("event2", bulkBody.getJSONArray(IterableConstants.KEY_EVENTS).getJSONObject(2).getString(IterableConstants.KEY_EVENT_NAME));
+        RecordedRequest purchaseRecordedRequest = server.takeRequest(1, TimeUnit.SECONDS);
+        assertEquals("/" + IterableConstants.ENDPOINT_TRACK_PURCHASE, purchaseRecordedRequest.getPath());
+        assertEquals(2, server.getRequestCount());
+
+        shadowOf(getMainLooper()).idle();
+        verify(taskCompletedListener, times(4)).onTaskCompleted(any(String.class), eq(IterableTaskRunner.TaskResult.SUCCESS), any(IterableApiResponse.class));
+        verify(mockTaskStorage).deleteTasks(Arrays.asList(tasks.get(0).id, tasks.get(1).id, tasks.get(2).id, tasks.get(3).id));
+    }
+
+    @Test
+    public void testLingerIsNotDelayedByPendingRetry() throws Exception {
+        IterableConfig config = new IterableConfig.Builder().setTrackBulkMaxBatchSize(10).setTrackBulkMaxLingerTime(500).build();
+        IterableTaskRunner bulkTaskRunner = new IterableTaskRunner(mockTaskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, config);
+        when(mockTaskStorage.getNextScheduledTasks(anyInt())).thenReturn(new ArrayList<IterableTask>());
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(false);
+        when(mockHealthMonitor.getTimeUntilProbe()).thenReturn(3600000L);
+
+        // Wakes up the runner in an hour
+        bulkTaskRunner.onNetworkConnected();
+        runHandlerTasks(bulkTaskRunner);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+
+        IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject(), "POST", null, null, null);
+        bulkTaskRunner.onTaskCreated(new IterableTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, request.toJSONObject().toString()));
+        shadowOf(bulkTaskRunner.handler.getLooper()).idleFor(500, TimeUnit.MILLISECONDS);
+        verify(mockTaskStorage).getNextScheduledTasks(anyInt());
+
+        // The earlier wakeup is still due as well
+        shadowOf(bulkTaskRunner.handler.getLooper()).idleFor(3600000, TimeUnit.MILLISECONDS);
+        verify(mockTaskStorage, times(2)).getNextScheduledTasks(anyInt());
+    }
+
+    @Test
+    public void testBatchedDrainSendsAllQueuedTasks() throws Exception {
+        final int taskCount = 10000;
+        IterableTaskStorage taskStorage = IterableTaskStorage.sharedInstance(ApplicationProvider.getApplicationContext());
+        taskStorage.deleteAllTasks();
+        IterableTaskRunner batchedTaskRunner = new IterableTaskRunner(taskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, new IterableConfig.Builder().setOfflineDrainBatchSize(100).build());
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(200).setBody("{}");
+            }
+        });
+
+        String data = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null).toJSONObject().toString();
+        for (int i = 0; i < taskCount; i++) {
+            taskStorage.createTask("api/test", IterableTaskType.API, data);
+        }
+        assertEquals(taskCount, taskStorage.getNumberOfTasks());
+
+        batchedTaskRunner.onNetworkConnected();
+        runHandlerTasks(batchedTaskRunner);
+
+        assertEquals(taskCount, server.getRequestCount());
+        assertEquals(0, taskStorage.getNumberOfTasks());
+    }
+
+    @Test
+    public void testRetriableFailuresBackOffUntilTaskIsMarkedFailed() throws Exception {
+        IterableTaskStorage taskStorage = IterableTaskStorage.sharedInstance(ApplicationProvider.getApplicationContext());
+        taskStorage.deleteAllTasks();
+        IterableRetryPolicy retryPolicy = new IterableRetryPolicy(1000, 60000, 3, new Random(0));
+        IterableTaskRunner retryTaskRunner = new IterableTaskRunner(taskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, new IterableConfig.Builder().build(), retryPolicy);
+        IterableTaskRunner.TaskCompletedListener taskCompletedListener = mock(IterableTaskRunner.TaskCompletedListener.class);
+        retryTaskRunner.addTaskCompletedListener(taskCompletedListener);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+
+        long currentTime = System.currentTimeMillis() + 1000;
+        doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        String data = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null).toJSONObject().toString();
+        String taskId = taskStorage.createTask("api/test", IterableTaskType.API, data);
+
+        // Retry-After takes precedence over the computed backoff
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader(IterableConstants.HEADER_RETRY_AFTER, "120").setBody("{}"));
+        retryTaskRunner.onNetworkConnected();
+        runHandlerTasks(retryTaskRunner);
+        IterableTask task = taskStorage.getTask(taskId);
+        assertEquals(1, task.attempts);
+        assertEquals(currentTime, task.lastAttemptedAt);
+        assertEquals(currentTime + 120000, task.scheduledAt);
+        assertFalse(task.failed);
+
+        // Not due yet, so nothing is sent
+        retryTaskRunner.onNetworkConnected();
+        runHandlerTasks(retryTaskRunner);
+        assertEquals(1, server.getRequestCount());
+
+        currentTime = task.scheduledAt;
+        doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("{}"));
+        retryTaskRunner.onNetworkConnected();
+        runHandlerTasks(retryTaskRunner);
+        task = taskStorage.getTask(taskId);
+        assertEquals(2, task.attempts);
+        assertTrue(task.scheduledAt >= currentTime + 1000 && task.scheduledAt <= currentTime + 2000);
+
+        currentTime = task.scheduledAt;
+        doReturn(currentTime).when(utilsRule.iterableUtilSpy).currentTimeMillis();
+        server.enqueue(new MockResponse().setResponseCode(429).setBody("{}"));
+        retryTaskRunner.onNetworkConnected();
+        runHandlerTasks(retryTaskRunner);
+        task = taskStorage.getTask(taskId);
+        assertEquals(3, task.attempts);
+        assertTrue(task.failed);
+        assertEquals(3, server.getRequestCount());
+        assertNull(taskStorage.getNextScheduledTask());
+        assertEquals(0, taskStorage.getNextScheduledTime());
+
+        shadowOf(getMainLooper()).idle();
+        verify(taskCompletedListener).onTaskCompleted(eq(taskId), eq(IterableTaskRunner.TaskResult.FAILURE), any(IterableApiResponse.class));
+        taskStorage.deleteAllTasks();
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() throws Exception {
+        IterableTaskStorage taskStorage = IterableTaskStorage.sharedInstance(ApplicationProvider.getApplicationContext());
+        taskStorage.deleteAllTasks();
+        IterableTaskRunner retryTaskRunner = new IterableTaskRunner(taskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        String data = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null).toJSONObject().toString();
+        taskStorage.createTask("api/test", IterableTaskType.API, data);
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("{\"msg\":\"Invalid request\"}"));
+
+        retryTaskRunner.onNetworkConnected();
+        runHandlerTasks(retryTaskRunner);
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, taskStorage.getNumberOfTasks());
+    }
+
+    @Test
+    public void testStoredRequestBodyIsSentWithCreatedAt() throws Exception {
+        IterableTaskStorage taskStorage = IterableTaskStorage.sharedInstance(ApplicationProvider.getApplicationContext());
+        taskStorage.deleteAllTasks();
+        IterableTaskRunner storageTaskRunner = new IterableTaskRunner(taskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        JSONObject event = new JSONObject().put(IterableConstants.KEY_EVENT_NAME, "event");
+        String data = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, event, "POST", "authToken", null, null).toJSONObject().toString();
+        String taskId = taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, data);
+        IterableTask task = taskStorage.getTask(taskId);
+        assertNotNull(task.requestBody);
+        storageTaskRunner.onNetworkConnected();
+        drainQueue(storageTaskRunner, taskStorage);
+
+        RecordedRequest recordedRequest = server.takeRequest(1, TimeUnit.SECONDS);
+        assertNotNull(recordedRequest);
+        assertEquals("/" + IterableConstants.ENDPOINT_TRACK, recordedRequest.getPath());
+        assertEquals("apiKey", recordedRequest.getHeader(IterableConstants.HEADER_API_KEY));
+        assertEquals(IterableConstants.HEADER_SDK_AUTH_FORMAT + "authToken", recordedRequest.getHeader(IterableConstants.HEADER_SDK_AUTHORIZATION));
+        JSONObject body = new JSONObject(recordedRequest.getBody().readUtf8());
+        assertEquals("event", body.getString(IterableConstants.KEY_EVENT_NAME));
+        assertEquals(task.createdAt / 1000, body.getLong(IterableConstants.KEY_CREATED_AT));
+        assertEquals(0, taskStorage.getNumberOfTasks());
+    }
+
+    @Test
+    public void testConcurrentDispatchKeepsRequestsInFlight() throws Exception {
+        final int taskCount = 9;
+        IterableTaskStorage taskStorage = IterableTaskStorage.sharedInstance(ApplicationProvider.getApplicationContext());
+        taskStorage.deleteAllTasks();
+        IterableConfig config = new IterableConfig.Builder().setOfflineMaxConcurrentRequests(3).build();
+        IterableTaskRunner concurrentTaskRunner = new IterableTaskRunner(taskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, config);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        final AtomicInteger concurrentRequests = new AtomicInteger();
+        final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int inFlight = concurrentRequests.incrementAndGet();
+                maxConcurrentRequests.set(Math.max(maxConcurrentRequests.get(), inFlight));
+                Thread.sleep(100);
+                concurrentRequests.decrementAndGet();
+                return new MockResponse().setResponseCode(200).setBody("{}");
+            }
+        });
+
+        String data = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject(), "POST", null, null, null).toJSONObject().toString();
+        for (int i = 0; i < taskCount; i++) {
+            taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, data);
+        }
+        concurrentTaskRunner.onNetworkConnected();
+        drainQueue(concurrentTaskRunner, taskStorage);
+
+        assertEquals(taskCount, server.getRequestCount());
+        assertEquals(0, taskStorage.getNumberOfTasks());
+        assertEquals(3, maxConcurrentRequests.get());
+    }
+
+    @Test
+    public void testConcurrentDispatchKeepsOrderedRequestsInOrder() throws Exception {
+        IterableTaskStorage taskStorage = IterableTaskStorage.sharedInstance(ApplicationProvider.getApplicationContext());
+        taskStorage.deleteAllTasks();
+        IterableConfig config = new IterableConfig.Builder().setOfflineMaxConcurrentRequests(3).build();
+        IterableTaskRunner concurrentTaskRunner = new IterableTaskRunner(taskStorage, mockActivityMonitor, mockNetworkConnectivityManager, mockHealthMonitor, config);
+        when(mockActivityMonitor.isInForeground()).thenReturn(true);
+        when(mockNetworkConnectivityManager.isConnected()).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        final List<String> messageIds = Collections.synchronizedList(new ArrayList<String>());
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                try {
+                    messageIds.add(new JSONObject(request.getBody().readUtf8()).getString(IterableConstants.KEY_MESSAGE_ID));
+                } catch (Exception e) {
+                    messageIds.add("");
+                }
+                // Later requests would overtake this one if they were in flight at the same time
+                Thread.sleep(50);
+                return new MockResponse().setResponseCode(200).setBody("{}");
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            JSONObject consumeData = new JSONObject().put(IterableConstants.KEY_EMAIL, "user@example.com").put(IterableConstants.KEY_MESSAGE_ID, "message" + i);
+            String data = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_INAPP_CONSUME, consumeData, "POST", null, null, null).toJSONObject().toString();
+            String taskId = taskStorage.createTask(IterableConstants.ENDPOINT_INAPP_CONSUME, IterableTaskType.API, data);
+            taskStorage.updateScheduledAt(taskId, new Date(1000L + i));
+        }
+        concurrentTaskRunner.onNetworkConnected();
+        drainQueue(concurrentTaskRunner, taskStorage);
+
+        assertEquals(Arrays.asList("message0", "message1", "message2", "message3", "message4"), messageIds);
+    }
+
+    private void drainQueue(IterableTaskRunner taskRunner, IterableTaskStorage taskStorage) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (taskStorage.getNumberOfTasks() > 0 && System.currentTimeMillis() < deadline) {
+            runHandlerTasks(taskRunner);
+            Thread.sleep(10);
+        }
+        runHandlerTasks(taskRunner);
+    }
+
     private void runHandlerTasks(IterableTaskRunner taskRunner) throws InterruptedException {
         shadowOf(taskRunner.handler.getLooper()).idle();
     }
@@ -0,0 +1,382 @@
+package com.iterable.iterableapi;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.iterable.iterableapi.unit.TestRunner;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(TestRunner.class)
+public class IterableTaskStorageTest extends BaseTest {
+    private IterableTaskStorage taskStorage;
+
+    @Before
+    public void setUp() {
+        taskStorage = IterableTaskStorage.sharedInstance(getContext());
+        taskStorage.deleteAllTasks();
+    }
+
+    @Test
+    public void testCreateTaskStoresAllFields() throws Exception {
+        String taskId = taskStorage.createTask("api/test", IterableTaskType.API, "{\"key\":\"value\"}");
+        assertNotNull(taskId);
+
+        IterableTask task = taskStorage.getTask(taskId);
+        assertNotNull(task);
+        assertEquals("api/test", task.name);
+        assertEquals("{\"key\":\"value\"}", task.data);
+        assertEquals(IterableTaskType.API, task.taskType);
+        assertEquals(0, task.attempts);
+        assertFalse(task.processing);
+        assertNull(task.taskFailureData);
+        assertEquals(1, taskStorage.getNumberOfTasks());
+    }
+
+    @Test
+    public void testUpdateTaskWritesAllFields() throws Exception {
+        String taskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        IterableTask task = taskStorage.getTask(taskId);
+        task.attempts = 3;
+        task.processing = true;
+        task.failed = true;
+        task.scheduledAt = 1234L;
+        task.lastAttemptedAt = 5678L;
+        task.taskFailureData = "error";
+
+        assertTrue(taskStorage.updateTask(task));
+
+        IterableTask updatedTask = taskStorage.getTask(taskId);
+        assertEquals(3, updatedTask.attempts);
+        assertTrue(updatedTask.processing);
+        assertTrue(updatedTask.failed);
+        assertEquals(1234L, updatedTask.scheduledAt);
+        assertEquals(5678L, updatedTask.lastAttemptedAt);
+        assertEquals("error", updatedTask.taskFailureData);
+    }
+
+    @Test
+    public void testSingleFieldUpdates() throws Exception {
+        String taskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+
+        assertTrue(taskStorage.incrementAttempts(taskId));
+        assertTrue(taskStorage.incrementAttempts(taskId));
+        assertTrue(taskStorage.updateScheduledAt(taskId, new Date(1000L)));
+        assertTrue(taskStorage.updateIsProcessing(taskId, true));
+
+        IterableTask task = taskStorage.getTask(taskId);
+        assertEquals(2, task.attempts);
+        assertEquals(1000L, task.scheduledAt);
+        assertTrue(task.processing);
+        assertFalse(taskStorage.incrementAttempts("missingTaskId"));
+    }
+
+    @Test
+    public void testDeleteTasks() throws Exception {
+        String taskId1 = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        String taskId2 = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        String taskId3 = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+
+        assertTrue(taskStorage.deleteTasks(Arrays.asList(taskId1, taskId3)));
+
+        assertEquals(1, taskStorage.getNumberOfTasks());
+        assertNotNull(taskStorage.getTask(taskId2));
+    }
+
+    @Test
+    public void testCompressedTaskDataIsReadBackUnchanged() throws Exception {
+        JSONObject dataFields = new JSONObject();
+        for (int i = 0; i < 50; i++) {
+            dataFields.put("field" + i, "value" + i);
+        }
+        IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject().put("dataFields", dataFields), "POST", "authToken", null, null);
+        String data = request.toJSONObject().toString();
+        String plainTaskId = taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, data);
+
+        taskStorage.setCompressionEnabled(true);
+        try {
+            String compressedTaskId = taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, data);
+
+            JSONAssert.assertEquals(data, taskStorage.getTask(compressedTaskId).data, JSONCompareMode.STRICT);
+            JSONAssert.assertEquals(data, taskStorage.getTask(plainTaskId).data, JSONCompareMode.STRICT);
+
+            IterableTask compressedTask = taskStorage.getTask(compressedTaskId);
+            compressedTask.attempts = 1;
+            assertTrue(taskStorage.updateTask(compressedTask));
+            JSONAssert.assertEquals(data, taskStorage.getTask(compressedTaskId).data, JSONCompareMode.STRICT);
+
+            IterableApiRequest restoredRequest = IterableApiRequest.fromJSON(new JSONObject(taskStorage.getTask(compressedTaskId).data), null, null);
+            assertEquals("apiKey", restoredRequest.apiKey);
+            assertEquals("authToken", restoredRequest.authToken);
+        } finally {
+            taskStorage.setCompressionEnabled(false);
+        }
+    }
+
+    @Test
+    public void testPostRequestIsStoredReadyToSend() throws Exception {
+        JSONObject body = new JSONObject().put(IterableConstants.KEY_EVENT_NAME, "event").put(IterableConstants.KEY_DATA_FIELDS, new JSONObject().put("key", "value"));
+        String data = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_TRACK, body, "POST", "authToken", null, null).toJSONObject().toString();
+        String taskId = taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, data);
+
+        IterableTask task = taskStorage.getTask(taskId);
+        assertEquals(body.toString(), new String(task.requestBody, "UTF-8"));
+        assertEquals("apiKey", task.apiKey);
+        assertEquals("authToken", task.authToken);
+        JSONAssert.assertEquals(data, task.data, JSONCompareMode.STRICT);
+
+        task.attempts = 2;
+        assertTrue(taskStorage.updateTask(task));
+        IterableTask updatedTask = taskStorage.getTask(taskId);
+        assertEquals(2, updatedTask.attempts);
+        assertEquals(body.toString(), new String(updatedTask.requestBody, "UTF-8"));
+        assertEquals("authToken", updatedTask.authToken);
+
+        assertTrue(taskStorage.updateData(taskId, "{}"));
+        assertNull(taskStorage.getTask(taskId).requestBody);
+        assertEquals("{}", taskStorage.getTask(taskId).data);
+    }
+
+    @Test
+    public void testOtherPayloadsAreStoredAsIs() throws Exception {
+        String getData = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "GET", null, null, null).toJSONObject().toString();
+        String otherEndpointData = new IterableApiRequest("apiKey", "api/other", new JSONObject(), "POST", null, null, null).toJSONObject().toString();
+
+        assertNull(taskStorage.getTask(taskStorage.createTask("api/test", IterableTaskType.API, getData)).requestBody);
+        assertNull(taskStorage.getTask(taskStorage.createTask("api/test", IterableTaskType.API, otherEndpointData)).requestBody);
+        assertNull(taskStorage.getTask(taskStorage.createTask("api/test", IterableTaskType.API, "not json")).requestBody);
+    }
+
+    @Test
+    public void testTaskCountTracksInsertsAndDeletes() throws Exception {
+        String taskId1 = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        String taskId2 = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        String taskId3 = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        assertEquals(4, taskStorage.getNumberOfTasks());
+
+        taskStorage.deleteTask(taskId1);
+        taskStorage.deleteTask(taskId1);
+        assertEquals(3, taskStorage.getNumberOfTasks());
+
+        taskStorage.deleteTasks(Arrays.asList(taskId2, taskId3, "missingTaskId"));
+        assertEquals(1, taskStorage.getNumberOfTasks());
+        assertEquals(1, taskStorage.getAllTaskIds().size());
+
+        taskStorage.deleteAllTasks();
+        assertEquals(0, taskStorage.getNumberOfTasks());
+    }
+
+    @Test
+    public void testNextScheduledTasksOrderedByPriority() throws Exception {
+        String lowTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}", IterableRequestPriority.LOW.getValue());
+        String normalTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        String highTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}", IterableRequestPriority.HIGH.getValue());
+        long now = System.currentTimeMillis();
+        taskStorage.updateScheduledAt(lowTaskId, new Date(now - 2000));
+        taskStorage.updateScheduledAt(normalTaskId, new Date(now - 1000));
+        taskStorage.updateScheduledAt(highTaskId, new Date(now));
+
+        assertEquals(IterableRequestPriority.LOW.getValue(), taskStorage.getTask(lowTaskId).priority);
+        assertEquals(highTaskId, taskStorage.getNextScheduledTask().id);
+        ArrayList<IterableTask> tasks = taskStorage.getNextScheduledTasks(3);
+        assertEquals(highTaskId, tasks.get(0).id);
+        assertEquals(normalTaskId, tasks.get(1).id);
+        assertEquals(lowTaskId, tasks.get(2).id);
+    }
+
+    @Test
+    public void testLowPriorityTaskIsAgedAheadOfNewerTasks() throws Exception {
+        String lowTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}", IterableRequestPriority.LOW.getValue());
+        String highTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}", IterableRequestPriority.HIGH.getValue());
+        long now = System.currentTimeMillis();
+        // Two priority steps separate LOW and HIGH, so the low priority task wins once it is older by more than that
+        taskStorage.updateScheduledAt(lowTaskId, new Date(now - 2 * IterableTaskStorage.PRIORITY_AGING_INTERVAL_MS - 1000));
+        taskStorage.updateScheduledAt(highTaskId, new Date(now));
+
+        assertEquals(lowTaskId, taskStorage.getNextScheduledTask().id);
+    }
+
+    @Test
+    public void testNextScheduledTasksAreReadInIndexOrder() throws Exception {
+        SQLiteDatabase database = new IterableDatabaseManager(getContext()).getWritableDatabase();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + IterableTaskStorage.QUERY_NEXT_SCHEDULED_TASKS,
+                new String[]{String.valueOf(System.currentTimeMillis()), "10"});
+        StringBuilder queryPlan = new StringBuilder();
+        while (cursor.moveToNext()) {
+            queryPlan.append(cursor.getString(cursor.getColumnIndex("detail"))).append('\n');
+        }
+        cursor.close();
+
+        assertTrue(queryPlan.toString(), queryPlan.toString().contains(IterableDatabaseManager.INDEX_OFFLINE_TASK_SORT_KEY));
+        assertFalse(queryPlan.toString(), queryPlan.toString().contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void testLeasedTasksAreSkippedUntilReset() throws Exception {
+        String leasedTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        String taskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        taskStorage.updateScheduledAt(leasedTaskId, new Date(1000L));
+        assertTrue(taskStorage.updateIsProcessing(Arrays.asList(leasedTaskId), true));
+
+        assertEquals(taskId, taskStorage.getNextScheduledTask().id);
+        assertEquals(1, taskStorage.getNextScheduledTasks(10).size());
+
+        taskStorage.resetProcessingTasks();
+        assertEquals(leasedTaskId, taskStorage.getNextScheduledTask().id);
+        assertFalse(taskStorage.getTask(leasedTaskId).processing);
+    }
+
+    @Test
+    public void testDeleteLowestPriorityTasks() throws Exception {
+        String lowTaskId1 = taskStorage.createTask("api/test", IterableTaskType.API, "{}", IterableRequestPriority.LOW.getValue());
+        String lowTaskId2 = taskStorage.createTask("api/test", IterableTaskType.API, "{}", IterableRequestPriority.LOW.getValue());
+        String normalTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        String failedTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}", IterableRequestPriority.HIGH.getValue());
+        String highTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}", IterableRequestPriority.HIGH.getValue());
+        taskStorage.updateHasFailed(failedTaskId, true);
+
+        assertEquals(1, taskStorage.deleteLowestPriorityTasks(IterableRequestPriority.LOW.getValue(), 1));
+        assertNull(taskStorage.getTask(failedTaskId));
+
+        assertEquals(2, taskStorage.deleteLowestPriorityTasks(IterableRequestPriority.NORMAL.getValue(), 10));
+        assertNull(taskStorage.getTask(lowTaskId1));
+        assertNull(taskStorage.getTask(lowTaskId2));
+        assertEquals(2, taskStorage.getNumberOfTasks());
+
+        assertEquals(0, taskStorage.deleteLowestPriorityTasks(IterableRequestPriority.LOW.getValue(), 10));
+        assertNotNull(taskStorage.getTask(normalTaskId));
+        assertNotNull(taskStorage.getTask(highTaskId));
+    }
+
+    @Test
+    public void testDeleteTasksCreatedBefore() throws Exception {
+        taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+
+        assertEquals(0, taskStorage.deleteTasksCreatedBefore(System.currentTimeMillis() - 60000));
+        assertEquals(2, taskStorage.deleteTasksCreatedBefore(System.currentTimeMillis() + 1000));
+        assertEquals(0, taskStorage.getNumberOfTasks());
+    }
+
+    @Test
+    public void testDeleteDuplicateTasks() throws Exception {
+        String taskId = taskStorage.createTask("api/test", IterableTaskType.API, "{\"eventName\":\"event\"}");
+        taskStorage.createTask("api/test", IterableTaskType.API, "{\"eventName\":\"event\"}");
+        taskStorage.createTask("api/test", IterableTaskType.API, "{\"eventName\":\"event\"}");
+        String otherTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{\"eventName\":\"otherEvent\"}");
+        setCreatedAt(1000L);
+
+        assertEquals(2, taskStorage.deleteDuplicateTasks());
+        assertEquals(2, taskStorage.getNumberOfTasks());
+        assertNotNull(taskStorage.getTask(taskId));
+        assertNotNull(taskStorage.getTask(otherTaskId));
+    }
+
+    @Test
+    public void testIdenticalEventsAreNotDuplicates() throws Exception {
+        taskStorage.createTask("api/test", IterableTaskType.API, "{\"eventName\":\"addToCart\"}");
+        Thread.sleep(2);
+        taskStorage.createTask("api/test", IterableTaskType.API, "{\"eventName\":\"addToCart\"}");
+
+        assertEquals(0, taskStorage.deleteDuplicateTasks());
+        assertEquals(2, taskStorage.getNumberOfTasks());
+    }
+
+    @Test
+    public void testFailedTaskDoesNotReplacePendingDuplicate() throws Exception {
+        String failedTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{\"eventName\":\"event\"}");
+        String taskId = taskStorage.createTask("api/test", IterableTaskType.API, "{\"eventName\":\"event\"}");
+        taskStorage.updateHasFailed(failedTaskId, true);
+        setCreatedAt(1000L);
+
+        assertEquals(0, taskStorage.deleteDuplicateTasks());
+        assertNotNull(taskStorage.getTask(taskId));
+        assertNotNull(taskStorage.getTask(failedTaskId));
+    }
+
+    @Test
+    public void testReplacePendingTaskKeepsRetryState() throws Exception {
+        String otherTaskId = taskStorage.createTask("api/test", IterableTaskType.API, "{}");
+        String taskId = taskStorage.createTask(IterableConstants.ENDPOINT_UPDATE_CART, IterableTaskType.API, "{\"items\":[1]}");
+        IterableTask task = taskStorage.getTask(taskId);
+        long retryTime = System.currentTimeMillis() + 60000;
+        task.attempts = 2;
+        task.lastAttemptedAt = 1000L;
+        task.scheduledAt = retryTime;
+        taskStorage.updateTask(task);
+        IterableTask pendingTask = taskStorage.getNewestTaskIfPending(IterableConstants.ENDPOINT_UPDATE_CART);
+        assertEquals(taskId, pendingTask.id);
+
+        String newTaskId = taskStorage.replacePendingTask(pendingTask, "{\"items\":[2]}", IterableRequestPriority.HIGH.getValue());
+        assertNotNull(newTaskId);
+        assertNull(taskStorage.getTask(taskId));
+        assertEquals(2, taskStorage.getNumberOfTasks());
+
+        IterableTask newTask = taskStorage.getTask(newTaskId);
+        assertEquals("{\"items\":[2]}", newTask.data);
+        assertTrue(newTask.createdAt >= pendingTask.createdAt);
+        assertEquals(retryTime, newTask.scheduledAt);
+        assertEquals(2, newTask.attempts);
+        assertEquals(1000L, newTask.lastAttemptedAt);
+        assertEquals(IterableRequestPriority.HIGH.getValue(), newTask.priority);
+        assertNotNull(taskStorage.getTask(otherTaskId));
+    }
+
+    @Test
+    public void testTaskQueuedBeforeOtherTasksIsNotReplaced() throws Exception {
+        taskStorage.createTask(IterableConstants.ENDPOINT_UPDATE_CART, IterableTaskType.API, "{\"items\":[1]}");
+        taskStorage.createTask(IterableConstants.ENDPOINT_TRACK, IterableTaskType.API, "{}");
+        assertNull(taskStorage.getNewestTaskIfPending(IterableConstants.ENDPOINT_UPDATE_CART));
+
+        String taskId = taskStorage.createTask(IterableConstants.ENDPOINT_UPDATE_CART, IterableTaskType.API, "{\"items\":[2]}");
+        assertEquals(taskId, taskStorage.getNewestTaskIfPending(IterableConstants.ENDPOINT_UPDATE_CART).id);
+    }
+
+    @Test
+    public void testLeasedTaskIsNotReplaced() throws Exception {
+        String taskId = taskStorage.createTask(IterableConstants.ENDPOINT_UPDATE_CART, IterableTaskType.API, "{}");
+        IterableTask pendingTask = taskStorage.getNewestTaskIfPending(IterableConstants.ENDPOINT_UPDATE_CART);
+        assertTrue(taskStorage.updateIsProcessing(Arrays.asList(taskId), true));
+
+        assertNull(taskStorage.getNewestTaskIfPending(IterableConstants.ENDPOINT_UPDATE_CART));
+        assertNull(taskStorage.replacePendingTask(pendingTask, "{}", IterableRequestPriority.NORMAL.getValue()));
+        assertNotNull(taskStorage.getTask(taskId));
+        assertEquals(1, taskStorage.getNumberOfTasks());
+    }
+
+    private void setCreatedAt(long createdAt) {
+        SQLiteDatabase database = new IterableDatabaseManager(getContext()).getWritableDatabase();
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(IterableTaskStorage.CREATED_AT, createdAt);
+        database.update(IterableTaskStorage.ITERABLE_TASK_TABLE_NAME, contentValues, null, null);
+    }
+
+    @Test
+    public void testCreateManyTasksWithCachedStatement() throws Exception {
+        final int taskCount = 2000;
+        String data = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null).toJSONObject().toString();
+
+        for (int i = 0; i < taskCount; i++) {
+            taskStorage.createTask("api/test", IterableTaskType.API, data);
+        }
+
+        assertEquals(taskCount, taskStorage.getNumberOfTasks());
+    }
+}
@@ -1,19 +1,25 @@
 package com.iterable.iterableapi;
 
+import android.os.Looper;
+
 import com.iterable.iterableapi.unit.TestRunner;
 
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
 
 @RunWith(TestRunner.class)
 public class OfflineRequestProcessorTest extends BaseTest {
@@ -55,6 +61,94 @@ public class OfflineRequestProcessorTest extends BaseTest {
         verifyNoInteractions(mockTaskScheduler);
     }
 
+    @Test
+    public void testRequestIsKeptInMemoryWhileCircuitIsOpen() {
+        when(mockHealthMonitor.canSchedule()).thenReturn(false);
+        when(mockHealthMonitor.isCircuitOpen()).thenReturn(true);
+        offlineRequestProcessor.processPostRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject(), null, null, null);
+        verifyNoInteractions(mockTaskScheduler);
+        assertEquals(1, offlineRequestProcessor.getSpilloverQueueSize());
+
+        when(mockHealthMonitor.canSchedule()).thenReturn(true);
+        when(mockHealthMonitor.isCircuitOpen()).thenReturn(false);
+        offlineRequestProcessor.onStateChanged(HealthMonitor.State.HALF_OPEN, HealthMonitor.State.CLOSED);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        verify(mockTaskScheduler).scheduleTask(any(IterableApiRequest.class), isNull(IterableHelper.SuccessHandler.class), isNull(IterableHelper.FailureHandler.class));
+        assertEquals(0, offlineRequestProcessor.getSpilloverQueueSize());
+    }
+
+    @Test
+    public void testQueueDepthIncludesRequestsKeptInMemory() {
+        when(mockTaskStorage.getNumberOfTasks()).thenReturn(5L);
+        assertEquals(5, offlineRequestProcessor.getQueueDepth());
+
+        when(mockHealthMonitor.canSchedule()).thenReturn(false);
+        when(mockHealthMonitor.isCircuitOpen()).thenReturn(true);
+        offlineRequestProcessor.processPostRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject(), null, null, null);
+        assertEquals(6, offlineRequestProcessor.getQueueDepth());
+    }
+
+    @Test
+    public void testSpilloverQueueIsBounded() {
+        when(mockHealthMonitor.canSchedule()).thenReturn(false);
+        when(mockHealthMonitor.isCircuitOpen()).thenReturn(true);
+        for (int i = 0; i < OfflineRequestProcessor.SPILLOVER_QUEUE_CAPACITY + 10; i++) {
+            offlineRequestProcessor.processPostRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject(), null, null, null);
+        }
+        assertEquals(OfflineRequestProcessor.SPILLOVER_QUEUE_CAPACITY, offlineRequestProcessor.getSpilloverQueueSize());
+    }
+
+    @Test
+    public void testDefaultPriorityByEndpoint() {
+        assertEquals(IterableRequestPriority.HIGH, OfflineRequestProcessor.getDefaultPriority(IterableConstants.ENDPOINT_TRACK_PURCHASE));
+        assertEquals(IterableRequestPriority.HIGH, OfflineRequestProcessor.getDefaultPriority(IterableConstants.ENDPOINT_TRACK_PUSH_OPEN));
+        assertEquals(IterableRequestPriority.NORMAL, OfflineRequestProcessor.getDefaultPriority(IterableConstants.ENDPOINT_TRACK));
+        assertEquals(IterableRequestPriority.LOW, OfflineRequestProcessor.getDefaultPriority(IterableConstants.ENDPOINT_TRACK_INBOX_SESSION));
+        assertEquals(IterableRequestPriority.LOW, OfflineRequestProcessor.getDefaultPriority(IterableConstants.ENDPOINT_TRACK_INAPP_DELIVERY));
+    }
+
+    @Test
+    public void testScheduledRequestPriority() {
+        when(mockHealthMonitor.canSchedule()).thenReturn(true);
+        offlineRequestProcessor.processPostRequest("apiKey", IterableConstants.ENDPOINT_TRACK_PURCHASE, new JSONObject(), null, null, null);
+        offlineRequestProcessor.processPostRequest("apiKey", IterableConstants.ENDPOINT_TRACK, new JSONObject(), null, IterableRequestPriority.LOW, null, null);
+
+        ArgumentCaptor<IterableApiRequest> requestCaptor = ArgumentCaptor.forClass(IterableApiRequest.class);
+        verify(mockTaskScheduler, times(2)).scheduleTask(requestCaptor.capture(), isNull(IterableHelper.SuccessHandler.class), isNull(IterableHelper.FailureHandler.class));
+        assertEquals(IterableRequestPriority.HIGH, requestCaptor.getAllValues().get(0).getPriority());
+        assertEquals(IterableRequestPriority.LOW, requestCaptor.getAllValues().get(1).getPriority());
+    }
+
+    @Test
+    public void testFullQueueEvictsLowPriorityTasks() {
+        IterableConfig config = new IterableConfig.Builder().setOfflineOverflowPolicies(new IterableOfflineOverflowPolicy[]{
+                IterableOfflineOverflowPolicy.COLLAPSE_DUPLICATES,
+                IterableOfflineOverflowPolicy.DROP_OLDEST_LOW_PRIORITY}).build();
+        OfflineRequestProcessor processor = new OfflineRequestProcessor(mockTaskScheduler, mockTaskRunner, mockTaskStorage, mockHealthMonitor, config);
+        when(mockHealthMonitor.canSchedule()).thenReturn(false).thenReturn(true);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+        when(mockTaskStorage.deleteDuplicateTasks()).thenReturn(0);
+        when(mockTaskStorage.deleteLowestPriorityTasks(IterableRequestPriority.HIGH.getValue(), OfflineRequestProcessor.OVERFLOW_EVICTION_BATCH_SIZE)).thenReturn(OfflineRequestProcessor.OVERFLOW_EVICTION_BATCH_SIZE);
+
+        processor.processPostRequest("apiKey", IterableConstants.ENDPOINT_TRACK_PURCHASE, new JSONObject(), null, null, null);
+
+        verify(mockTaskStorage).deleteDuplicateTasks();
+        verify(mockTaskStorage).deleteLowestPriorityTasks(IterableRequestPriority.HIGH.getValue(), OfflineRequestProcessor.OVERFLOW_EVICTION_BATCH_SIZE);
+        verify(mockTaskScheduler).scheduleTask(any(IterableApiRequest.class), isNull(IterableHelper.SuccessHandler.class), isNull(IterableHelper.FailureHandler.class));
+    }
+
+    @Test
+    public void testFullQueueWithoutOverflowPolicyDoesNotEvict() {
+        when(mockHealthMonitor.canSchedule()).thenReturn(false);
+        when(mockHealthMonitor.canProcess()).thenReturn(true);
+
+        offlineRequestProcessor.processPostRequest("apiKey", IterableConstants.ENDPOINT_TRACK_PURCHASE, new JSONObject(), null, null, null);
+
+        verifyNoInteractions(mockTaskStorage);
+        verifyNoInteractions(mockTaskScheduler);
+    }
+
     @Test
     public void testAllOfflineApisUseTaskScheduler() {
         String[] offlineApis = new String[]{
@@ -66,7 +160,10 @@ public class OfflineRequestProcessorTest extends BaseTest {
                 IterableConstants.ENDPOINT_TRACK_INAPP_CLOSE,
                 IterableConstants.ENDPOINT_TRACK_INBOX_SESSION,
                 IterableConstants.ENDPOINT_TRACK_INAPP_DELIVERY,
-                IterableConstants.ENDPOINT_INAPP_CONSUME};
+                IterableConstants.ENDPOINT_INAPP_CONSUME,
+                IterableConstants.ENDPOINT_UPDATE_CART,
+                IterableConstants.ENDPOINT_UPDATE_USER,
+                IterableConstants.ENDPOINT_UPDATE_USER_SUBS};
         for (String uri : offlineApis) {
             assertTrue(offlineRequestProcessor.isRequestOfflineCompatible(uri));
         }
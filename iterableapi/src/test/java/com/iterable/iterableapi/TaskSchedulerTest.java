@@ -6,10 +6,15 @@ import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -30,14 +35,14 @@ public class TaskSchedulerTest {
     public void testScheduleTaskCreatesTaskInStorage() throws Exception {
         IterableApiRequest request = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null);
         taskScheduler.scheduleTask(request, null, null);
-        verify(mockTaskStorage).createTask(eq("api/test"), eq(IterableTaskType.API), eq(request.toJSONObject().toString()));
+        verify(mockTaskStorage).createTask(eq("api/test"), eq(IterableTaskType.API), eq(request.toJSONObject().toString()), eq(IterableRequestPriority.NORMAL.getValue()));
     }
 
     @Test
     public void testSuccessCallbackIsCalledOnCompletion() throws Exception {
         IterableHelper.SuccessHandler successHandler = mock(IterableHelper.SuccessHandler.class);
         IterableApiRequest request = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null);
-        when(mockTaskStorage.createTask(any(String.class), any(IterableTaskType.class), any(String.class))).thenReturn("testTaskId");
+        when(mockTaskStorage.createTask(any(String.class), any(IterableTaskType.class), any(String.class), anyInt())).thenReturn("testTaskId");
         taskScheduler.scheduleTask(request, successHandler, null);
         taskScheduler.onTaskCompleted("testTaskId", IterableTaskRunner.TaskResult.SUCCESS, IterableApiResponse.success(200, "", new JSONObject()));
         verify(successHandler).onSuccess(any(JSONObject.class));
@@ -47,9 +52,55 @@ public class TaskSchedulerTest {
     public void testFailureCallbackIsCalledOnCompletion() throws Exception {
         IterableHelper.FailureHandler failureHandler = mock(IterableHelper.FailureHandler.class);
         IterableApiRequest request = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null);
-        when(mockTaskStorage.createTask(any(String.class), any(IterableTaskType.class), any(String.class))).thenReturn("testTaskId");
+        when(mockTaskStorage.createTask(any(String.class), any(IterableTaskType.class), any(String.class), anyInt())).thenReturn("testTaskId");
         taskScheduler.scheduleTask(request, null, failureHandler);
         taskScheduler.onTaskCompleted("testTaskId", IterableTaskRunner.TaskResult.FAILURE, IterableApiResponse.failure(400, "", new JSONObject(), "TestError"));
         verify(failureHandler).onFailure(eq("TestError"), any(JSONObject.class));
     }
+
+    @Test
+    public void testScheduleTaskStoresRequestPriority() throws Exception {
+        IterableApiRequest request = new IterableApiRequest("apiKey", "api/test", new JSONObject(), "POST", null, null, null);
+        request.setPriority(IterableRequestPriority.HIGH);
+        taskScheduler.scheduleTask(request, null, null);
+        verify(mockTaskStorage).createTask(eq("api/test"), eq(IterableTaskType.API), eq(request.toJSONObject().toString()), eq(IterableRequestPriority.HIGH.getValue()));
+    }
+
+    @Test
+    public void testUpdateCartReplacesPendingTask() throws Exception {
+        IterableHelper.SuccessHandler pendingSuccessHandler = mock(IterableHelper.SuccessHandler.class);
+        IterableHelper.SuccessHandler successHandler = mock(IterableHelper.SuccessHandler.class);
+        JSONObject user = new JSONObject().put(IterableConstants.KEY_EMAIL, "user@example.com");
+        IterableApiRequest pendingRequest = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_UPDATE_CART, new JSONObject().put(IterableConstants.KEY_USER, user).put(IterableConstants.KEY_ITEMS, "cart1"), "POST", null, null, null);
+        IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_UPDATE_CART, new JSONObject().put(IterableConstants.KEY_USER, user).put(IterableConstants.KEY_ITEMS, "cart2"), "POST", null, null, null);
+        when(mockTaskStorage.createTask(any(String.class), any(IterableTaskType.class), any(String.class), anyInt())).thenReturn("pendingTaskId");
+        taskScheduler.scheduleTask(pendingRequest, pendingSuccessHandler, null);
+
+        IterableTask pendingTask = new IterableTask(IterableConstants.ENDPOINT_UPDATE_CART, IterableTaskType.API, pendingRequest.toJSONObject().toString());
+        pendingTask.id = "pendingTaskId";
+        when(mockTaskStorage.getNewestTaskIfPending(IterableConstants.ENDPOINT_UPDATE_CART)).thenReturn(pendingTask);
+        when(mockTaskStorage.replacePendingTask(eq(pendingTask), anyString(), anyInt())).thenReturn("newTaskId");
+        taskScheduler.scheduleTask(request, successHandler, null);
+
+        ArgumentCaptor<String> dataCaptor = ArgumentCaptor.forClass(String.class);
+        verify(mockTaskStorage).replacePendingTask(eq(pendingTask), dataCaptor.capture(), eq(IterableRequestPriority.NORMAL.getValue()));
+        assertEquals(request.toJSONObject().toString(), dataCaptor.getValue());
+        verify(mockTaskStorage, never()).createTask(eq(IterableConstants.ENDPOINT_UPDATE_CART), any(IterableTaskType.class), eq(request.toJSONObject().toString()), anyInt());
+
+        taskScheduler.onTaskCompleted("newTaskId", IterableTaskRunner.TaskResult.SUCCESS, IterableApiResponse.success(200, "", new JSONObject()));
+        verify(pendingSuccessHandler).onSuccess(any(JSONObject.class));
+        verify(successHandler).onSuccess(any(JSONObject.class));
+    }
+
+    @Test
+    public void testRequestIsQueuedWhenPendingTaskCannotBeReplaced() throws Exception {
+        IterableApiRequest request = new IterableApiRequest("apiKey", IterableConstants.ENDPOINT_UPDATE_CART, new JSONObject(), "POST", null, null, null);
+        IterableTask pendingTask = new IterableTask(IterableConstants.ENDPOINT_UPDATE_CART, IterableTaskType.API, request.toJSONObject().toString());
+        when(mockTaskStorage.getNewestTaskIfPending(IterableConstants.ENDPOINT_UPDATE_CART)).thenReturn(pendingTask);
+        when(mockTaskStorage.replacePendingTask(any(IterableTask.class), anyString(), anyInt())).thenReturn(null);
+
+        taskScheduler.scheduleTask(request, null, null);
+
+        verify(mockTaskStorage).createTask(eq(IterableConstants.ENDPOINT_UPDATE_CART), eq(IterableTaskType.API), eq(request.toJSONObject().toString()), eq(IterableRequestPriority.NORMAL.getValue()));
+    }
 }